@@ -80,7 +80,7 @@ public class MainActivity extends AppCompatActivity {
     };
 
 
-    class MyEncoder extends VideoDecoder {
+    class MyEncoder extends VideoEncoder {
 
         byte[] mBuffer = new byte[0];
 
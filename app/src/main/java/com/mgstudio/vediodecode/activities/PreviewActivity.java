@@ -91,7 +91,7 @@ public class PreviewActivity extends AppCompatActivity {
         public void surfaceCreated(SurfaceHolder surfaceHolder) {
             // surface is fully initialized on the activity
             //surface已在活动上完全初始化
-            mPlayer = new Player(5006, surfaceHolder.getSurface(), 640, 480);
+            mPlayer = new Player(5006, surfaceHolder.getSurface());
             isSurfaceCreated.set(true);
         }
 
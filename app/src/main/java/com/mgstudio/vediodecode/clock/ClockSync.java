@@ -0,0 +1,204 @@
+package com.mgstudio.vediodecode.clock;
+//时钟同步
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.nio.ByteBuffer;
+
+// Estimates the sender's clock from the receiver's, NTP style: the receiver sends a PING at t1, the
+// sender gets it at t2 and answers at t3 with a CLOCK packet, which arrives at t4. Per exchange
+//   rtt    = (t4 - t1) - (t3 - t2)
+//   offset = ((t2 - t1) + (t3 - t4)) / 2     sender minus receiver
+// and the offset is off by at most rtt / 2 minus the fastest possible round trip: a sample that sat in
+// a queue either way has a longer rtt. So only the samples of the window within a tolerance of its
+// shortest round trip are kept, and a line through their offsets over receiver time gives the drift
+// between the two clocks as well as the offset now.
+//
+// A delay that is always longer one way than the other can't be seen from the ends: it shifts the
+// offset by half the difference. Called on one thread.
+public class ClockSync {
+
+    public static final int DEFAULT_WINDOW = 32;
+
+    // payload of a CLOCK packet: t1 echoed, t2; its timeStamp is t3
+    public static final int PONG_SIZE = 16;
+
+    // round trips this much over the window's shortest count as delayed, at least
+    private static final long MIN_TOLERANCE_US = 1000;
+
+    // oscillators drift tens of ppm; anything steeper is noise in a short window
+    private static final double MAX_DRIFT = 500e-6;
+
+    // the line needs this much time between its samples to be trusted for drift
+    private static final long MIN_DRIFT_SPAN_US = 5000000;
+
+    private final int window;
+
+    // per sample: receiver time halfway through the exchange, offset, round trip
+    private final long[] mTimes;
+    private final long[] mOffsets;
+    private final long[] mRtts;
+
+    private int mCount;
+    private int mNext;
+
+    private long mSamples;
+    private long mRejected;
+
+    // the estimate: offset at mBaseTimeUs, changing by mDrift per microsecond of receiver time
+    private long mBaseTimeUs;
+    private long mBaseOffsetUs;
+    private double mDrift;
+    private long mMinRttUs = -1;
+
+    public ClockSync() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public ClockSync(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window " + window);
+        }
+        this.window = window;
+        this.mTimes = new long[window];
+        this.mOffsets = new long[window];
+        this.mRtts = new long[window];
+    }
+
+    // the sender's answer to a PING; pingTimeUs: t1, receiver clock; receiveTimeUs and sendTimeUs:
+    // t2 and t3, sender clock
+    public static VideoPacket pong(long pingTimeUs, long receiveTimeUs, long sendTimeUs) {
+        ByteBuffer data = ByteBuffer.allocate(PONG_SIZE);
+        data.putLong(pingTimeUs);
+        data.putLong(receiveTimeUs);
+        return new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.CLOCK, sendTimeUs, data.array());
+    }
+
+    // a CLOCK packet received at arrivalUs, receiver clock; false if it was malformed or rejected
+    public boolean addPong(VideoPacket videoPacket, long arrivalUs) {
+        if (videoPacket.getSize() < PONG_SIZE) {
+            return false;
+        }
+        long pingTimeUs;
+        long receiveTimeUs;
+        if (videoPacket.buffer != null) {
+            pingTimeUs = videoPacket.buffer.getLong(videoPacket.offset);
+            receiveTimeUs = videoPacket.buffer.getLong(videoPacket.offset + 8);
+        } else {
+            ByteBuffer data = ByteBuffer.wrap(videoPacket.data);
+            pingTimeUs = data.getLong(0);
+            receiveTimeUs = data.getLong(8);
+        }
+        return addSample(pingTimeUs, receiveTimeUs, videoPacket.presentationTimeStamp, arrivalUs);
+    }
+
+    // one exchange, t1 and t4 receiver clock, t2 and t3 sender clock; false if it can't be right
+    public boolean addSample(long t1, long t2, long t3, long t4) {
+        long rtt = (t4 - t1) - (t3 - t2);
+        if (t4 < t1 || t3 < t2 || rtt < 0) {
+            mRejected++;
+            return false;
+        }
+        mTimes[mNext] = t1 + (t4 - t1) / 2;
+        mOffsets[mNext] = ((t2 - t1) + (t3 - t4)) / 2;
+        mRtts[mNext] = rtt;
+        mNext = (mNext + 1) % window;
+        if (mCount < window) {
+            mCount++;
+        }
+        mSamples++;
+        estimate();
+        return true;
+    }
+
+    public boolean isSynchronized() {
+        return mCount > 0;
+    }
+
+    // sender clock minus receiver clock at receiverTimeUs, 0 before the first sample
+    public long getOffsetUs(long receiverTimeUs) {
+        return mBaseOffsetUs + Math.round(mDrift * (receiverTimeUs - mBaseTimeUs));
+    }
+
+    public long toSenderTimeUs(long receiverTimeUs) {
+        return receiverTimeUs + getOffsetUs(receiverTimeUs);
+    }
+
+    public long toReceiverTimeUs(long senderTimeUs) {
+        // the offset hardly moves over the difference, one step is exact to well under a microsecond
+        return senderTimeUs - getOffsetUs(senderTimeUs - mBaseOffsetUs);
+    }
+
+    // shortest round trip in the window, -1 before the first sample
+    public long getRttUs() {
+        return mMinRttUs;
+    }
+
+    // how much faster the sender's clock runs, parts per million
+    public double getDriftPpm() {
+        return mDrift * 1e6;
+    }
+
+    // exchanges taken, rejected ones not included
+    public long getSamples() {
+        return mSamples;
+    }
+
+    // exchanges with a negative round trip or time going backwards
+    public long getRejected() {
+        return mRejected;
+    }
+
+    // a new connection, maybe to another sender
+    public void reset() {
+        mCount = 0;
+        mNext = 0;
+        mBaseTimeUs = 0;
+        mBaseOffsetUs = 0;
+        mDrift = 0;
+        mMinRttUs = -1;
+    }
+
+    private void estimate() {
+        long minRtt = Long.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            minRtt = Math.min(minRtt, mRtts[i]);
+        }
+        long limit = minRtt + Math.max(minRtt / 2, MIN_TOLERANCE_US);
+
+        // least squares over the samples kept, times relative to the newest
+        long base = mTimes[(mNext + window - 1) % window];
+        int n = 0;
+        double sumX = 0;
+        double sumY = 0;
+        long first = base;
+        for (int i = 0; i < mCount; i++) {
+            if (mRtts[i] <= limit) {
+                n++;
+                sumX += mTimes[i] - base;
+                sumY += mOffsets[i];
+                first = Math.min(first, mTimes[i]);
+            }
+        }
+        double meanX = sumX / n;
+        double meanY = sumY / n;
+        double drift = 0;
+        if (n >= 3 && base - first >= MIN_DRIFT_SPAN_US) {
+            double sxx = 0;
+            double sxy = 0;
+            for (int i = 0; i < mCount; i++) {
+                if (mRtts[i] <= limit) {
+                    double x = mTimes[i] - base - meanX;
+                    sxx += x * x;
+                    sxy += x * (mOffsets[i] - meanY);
+                }
+            }
+            drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, sxy / sxx));
+        }
+        mMinRttUs = minRtt;
+        mDrift = drift;
+        mBaseTimeUs = base;
+        mBaseOffsetUs = Math.round(meanY - drift * meanX);
+    }
+}
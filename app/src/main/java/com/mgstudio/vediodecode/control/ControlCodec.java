@@ -0,0 +1,125 @@
+package com.mgstudio.vediodecode.control;
+//控制消息编解码
+
+import com.mgstudio.vediodecode.model.ByteUtils;
+
+// wire format of ControlMessage, receiver to sender on the media connection:
+//   [length 2][type 1][body]    length counts type and body
+// Bodies: BITRATE_HINT a 4-byte bitrate; RECEIVER_STATS four varints - frames received, frames
+// dropped, bytes received, delay in us; PING two varints, the receiver's clock in us and its round
+// trip estimate in us plus one, 0 for none; the others none.
+// Readers skip types they don't know and bytes after the fields they know, so either side can add to
+// the protocol first.
+public final class ControlCodec {
+
+    public static final int LENGTH_SIZE = 2;
+
+    // longest message this build writes: four 10-byte varints
+    public static final int MAX_ENCODED_SIZE = LENGTH_SIZE + 1 + 4 * 10;
+
+    // longest message accepted, length field included; anything longer is a corrupted stream
+    public static final int MAX_SIZE = 256;
+
+    private ControlCodec() {
+    }
+
+    // returns the number of bytes written, MAX_ENCODED_SIZE at most
+    public static int encode(ControlMessage message, byte[] dst, int offset) {
+        int position = offset + LENGTH_SIZE;
+        dst[position++] = (byte) message.type.getCode();
+        switch (message.type) {
+            case BITRATE_HINT:
+                ByteUtils.putInt(dst, position, message.bitrate);
+                position += 4;
+                break;
+            case RECEIVER_STATS:
+                position += ByteUtils.putVarLong(dst, position, message.framesReceived);
+                position += ByteUtils.putVarLong(dst, position, message.framesDropped);
+                position += ByteUtils.putVarLong(dst, position, message.bytesReceived);
+                position += ByteUtils.putVarLong(dst, position, message.delayUs);
+                break;
+            case PING:
+                position += ByteUtils.putVarLong(dst, position, message.timeUs);
+                position += ByteUtils.putVarLong(dst, position, Math.max(message.rttUs, -1) + 1);
+                break;
+            default:
+                break;
+        }
+        ByteUtils.putShort(dst, offset, position - offset - LENGTH_SIZE);
+        return position - offset;
+    }
+
+    // size of the message at src[offset] from its length field, which has to be there
+    public static int size(byte[] src, int offset) {
+        int size = LENGTH_SIZE + ByteUtils.getUnsignedShort(src, offset);
+        if (size == LENGTH_SIZE || size > MAX_SIZE) {
+            throw new IllegalStateException("Corrupted control message length: " + (size - LENGTH_SIZE));
+        }
+        return size;
+    }
+
+    // size of the message at src[offset, offset + length), 0 if not all of it is there yet
+    public static int peekSize(byte[] src, int offset, int length) {
+        if (length < LENGTH_SIZE) {
+            return 0;
+        }
+        int size = size(src, offset);
+        return size <= length ? size : 0;
+    }
+
+    // the whole message of peekSize bytes at src[offset] into into; into.type is null for an unknown type
+    public static void decode(byte[] src, int offset, int size, ControlMessage into) {
+        int end = offset + size;
+        int position = offset + LENGTH_SIZE;
+        into.type = ControlMessage.Type.of(src[position++] & 0xFF);
+        if (into.type == null) {
+            return;
+        }
+        int next;
+        switch (into.type) {
+            case BITRATE_HINT:
+                if (end - position < 4) {
+                    throw new IllegalArgumentException("Truncated " + into.type);
+                }
+                into.bitrate = ByteUtils.getInt(src, position);
+                break;
+            case RECEIVER_STATS:
+                // bounds first: the varints must end inside the message
+                next = varLongEnd(src, position, end);
+                into.framesReceived = ByteUtils.getVarLong(src, position);
+                position = next;
+                next = varLongEnd(src, position, end);
+                into.framesDropped = ByteUtils.getVarLong(src, position);
+                position = next;
+                next = varLongEnd(src, position, end);
+                into.bytesReceived = ByteUtils.getVarLong(src, position);
+                position = next;
+                varLongEnd(src, position, end);
+                into.delayUs = ByteUtils.getVarLong(src, position);
+                break;
+            case PING:
+                next = varLongEnd(src, position, end);
+                into.timeUs = ByteUtils.getVarLong(src, position);
+                position = next;
+                // a receiver that predates the estimate sends none
+                into.rttUs = -1;
+                if (position < end) {
+                    varLongEnd(src, position, end);
+                    into.rttUs = ByteUtils.getVarLong(src, position) - 1;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // position after the varint at src[position], which has to end before end
+    private static int varLongEnd(byte[] src, int position, int end) {
+        while (position < end) {
+            if (src[position++] >= 0) {
+                return position;
+            }
+        }
+        throw new IllegalArgumentException("Truncated control message");
+    }
+}
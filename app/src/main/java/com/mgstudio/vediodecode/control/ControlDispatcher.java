@@ -0,0 +1,31 @@
+package com.mgstudio.vediodecode.control;
+//控制消息分发
+
+// routes each type of control message to the handler set for it; types without one are ignored.
+// Handlers run on the transport thread that read the message, so they must not block: hand anything
+// slow to another thread.
+public class ControlDispatcher implements ControlReader.Listener {
+
+    public interface Handler {
+        // the message is only valid during the call
+        void onControlMessage(ControlMessage message);
+    }
+
+    // copy-on-write: read for every message without locking
+    private volatile Handler[] mHandlers = new Handler[ControlMessage.Type.values().length];
+
+    // null removes the handler
+    public synchronized void setHandler(ControlMessage.Type type, Handler handler) {
+        Handler[] handlers = mHandlers.clone();
+        handlers[type.ordinal()] = handler;
+        mHandlers = handlers;
+    }
+
+    @Override
+    public void onControlMessage(ControlMessage message) {
+        Handler handler = mHandlers[message.type.ordinal()];
+        if (handler != null) {
+            handler.onControlMessage(message);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.mgstudio.vediodecode.control;
+//控制消息
+
+// a message from the receiver back to the sender. One class for every type: each uses the fields of
+// its type only. The reader hands out one instance again and again, copy what has to outlive the call.
+public class ControlMessage {
+
+    public enum Type {
+
+        // the receiver can't decode until the next IDR
+        KEY_FRAME_REQUEST(1),
+        // the most the receiver wants to be sent, bits per second
+        BITRATE_HINT(2),
+        // what the receiver got since it connected
+        RECEIVER_STATS(3),
+        // stop sending video until RESUME
+        PAUSE(4),
+        RESUME(5),
+        // the sender answers with a CLOCK packet on the media stream, for ClockSync
+        PING(6);
+
+        // values() clones the array on every call, keep one copy for per-message lookups
+        private static final Type[] VALUES = values();
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        // null for a type this build doesn't know
+        public static Type of(int code) {
+            for (Type type : VALUES) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    // null after reading a message of an unknown type
+    public Type type;
+
+    // BITRATE_HINT
+    public int bitrate;
+
+    // RECEIVER_STATS
+    public long framesReceived;
+    public long framesDropped;
+    public long bytesReceived;
+    // how long frames wait between arrival and decoding, microseconds
+    public long delayUs;
+
+    // PING: the receiver's clock when it was sent, microseconds
+    public long timeUs;
+    // PING: the receiver's round trip estimate from the previous PINGs, microseconds; -1 if it has none
+    public long rttUs = -1;
+
+    public ControlMessage() {
+    }
+
+    public ControlMessage(Type type) {
+        this.type = type;
+    }
+
+    public static ControlMessage keyFrameRequest() {
+        return new ControlMessage(Type.KEY_FRAME_REQUEST);
+    }
+
+    public static ControlMessage bitrateHint(int bitrate) {
+        ControlMessage message = new ControlMessage(Type.BITRATE_HINT);
+        message.bitrate = bitrate;
+        return message;
+    }
+
+    public static ControlMessage receiverStats(long framesReceived, long framesDropped, long bytesReceived,
+                                               long delayUs) {
+        ControlMessage message = new ControlMessage(Type.RECEIVER_STATS);
+        message.framesReceived = framesReceived;
+        message.framesDropped = framesDropped;
+        message.bytesReceived = bytesReceived;
+        message.delayUs = delayUs;
+        return message;
+    }
+
+    public static ControlMessage pause() {
+        return new ControlMessage(Type.PAUSE);
+    }
+
+    public static ControlMessage resume() {
+        return new ControlMessage(Type.RESUME);
+    }
+
+    public static ControlMessage ping(long timeUs) {
+        return ping(timeUs, -1);
+    }
+
+    public static ControlMessage ping(long timeUs, long rttUs) {
+        ControlMessage message = new ControlMessage(Type.PING);
+        message.timeUs = timeUs;
+        message.rttUs = rttUs;
+        return message;
+    }
+
+    public void copyFrom(ControlMessage other) {
+        type = other.type;
+        bitrate = other.bitrate;
+        framesReceived = other.framesReceived;
+        framesDropped = other.framesDropped;
+        bytesReceived = other.bytesReceived;
+        delayUs = other.delayUs;
+        timeUs = other.timeUs;
+        rttUs = other.rttUs;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.BITRATE_HINT) {
+            return type + " " + bitrate;
+        }
+        if (type == Type.RECEIVER_STATS) {
+            return type + " frames " + framesReceived + ", dropped " + framesDropped + ", bytes "
+                    + bytesReceived + ", delay " + delayUs + " us";
+        }
+        if (type == Type.PING) {
+            return type + " " + timeUs + " us, rtt " + rttUs + " us";
+        }
+        return String.valueOf(type);
+    }
+}
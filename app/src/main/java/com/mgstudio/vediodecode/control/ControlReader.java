@@ -0,0 +1,76 @@
+package com.mgstudio.vediodecode.control;
+//控制消息读取
+
+// parses control messages out of a byte stream as it arrives, in pieces of any size: a message split
+// across reads waits in a small buffer for the rest. Nothing is allocated per message.
+public class ControlReader {
+
+    public interface Listener {
+        // the message is only valid during the call
+        void onControlMessage(ControlMessage message);
+    }
+
+    private final Listener listener;
+
+    // a partial message; at most MAX_SIZE - 1 bytes wait here
+    private final byte[] mPending = new byte[ControlCodec.MAX_SIZE];
+    private int mPendingLength;
+
+    private final ControlMessage mMessage = new ControlMessage();
+
+    private long mMessages;
+    private long mUnknown;
+
+    public ControlReader(Listener listener) {
+        this.listener = listener;
+    }
+
+    // throws IllegalStateException or IllegalArgumentException on a corrupted stream, which can't be
+    // resynchronized: drop the connection
+    public void feed(byte[] data, int offset, int length) {
+        int end = offset + length;
+        // complete a partial message first: its length field, then the rest
+        while (mPendingLength > 0 && offset < end) {
+            int wanted = mPendingLength < ControlCodec.LENGTH_SIZE
+                    ? ControlCodec.LENGTH_SIZE : ControlCodec.size(mPending, 0);
+            int copy = Math.min(wanted - mPendingLength, end - offset);
+            System.arraycopy(data, offset, mPending, mPendingLength, copy);
+            mPendingLength += copy;
+            offset += copy;
+            if (mPendingLength >= ControlCodec.LENGTH_SIZE && mPendingLength == ControlCodec.size(mPending, 0)) {
+                dispatch(mPending, 0, mPendingLength);
+                mPendingLength = 0;
+            }
+        }
+        while (offset < end) {
+            int size = ControlCodec.peekSize(data, offset, end - offset);
+            if (size == 0) {
+                System.arraycopy(data, offset, mPending, 0, end - offset);
+                mPendingLength = end - offset;
+                return;
+            }
+            dispatch(data, offset, size);
+            offset += size;
+        }
+    }
+
+    // messages parsed, unknown types included
+    public long getMessages() {
+        return mMessages;
+    }
+
+    // messages of types this build doesn't know, skipped
+    public long getUnknown() {
+        return mUnknown;
+    }
+
+    private void dispatch(byte[] data, int offset, int size) {
+        ControlCodec.decode(data, offset, size, mMessage);
+        mMessages++;
+        if (mMessage.type == null) {
+            mUnknown++;
+            return;
+        }
+        listener.onControlMessage(mMessage);
+    }
+}
@@ -0,0 +1,23 @@
+package com.mgstudio.vediodecode.control;
+//控制消息发送
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// writes control messages to the sender, from any thread; each goes out in one write
+public class ControlWriter {
+
+    private final OutputStream outputStream;
+
+    private final byte[] mBuffer = new byte[ControlCodec.MAX_ENCODED_SIZE];
+
+    public ControlWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    public synchronized void send(ControlMessage message) throws IOException {
+        int size = ControlCodec.encode(message, mBuffer, 0);
+        outputStream.write(mBuffer, 0, size);
+        outputStream.flush();
+    }
+}
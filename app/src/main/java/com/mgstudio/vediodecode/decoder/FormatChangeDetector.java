@@ -0,0 +1,160 @@
+package com.mgstudio.vediodecode.decoder;
+//格式变化检测
+
+import java.nio.ByteBuffer;
+
+// Decides what the decoder does with each set of parameter sets it is given. The sender repeats them
+// in front of every key frame, so most are the ones already configured and need nothing. New ones at
+// the same size, or at a size within what an adaptive playback codec was configured for, are queued
+// in-band as codec config buffers. Anything else needs the codec stopped and configured again - the
+// codec instance is kept either way.
+//
+// Also times each switch from the new parameter sets to the first decoded frame after them.
+// onConfig is called from one thread, outputAvailable from the codec's output thread.
+public class FormatChangeDetector {
+
+    public enum Action {
+        // first parameter sets: create and configure the codec
+        CONFIGURE,
+        // the parameter sets already in use
+        NONE,
+        // queue the new parameter sets as codec config input
+        SUBMIT,
+        // stop, configure with the new format and start again
+        RECONFIGURE
+    }
+
+    // reserved for adaptive playback at least, so going up to 1080p needs no reconfiguration
+    public static final int DEFAULT_MAX_WIDTH = 1920;
+
+    public static final int DEFAULT_MAX_HEIGHT = 1088;
+
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private byte[] mSps;
+
+    private byte[] mPps;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    // what the running codec was configured with
+    private boolean mAdaptive;
+
+    private int mMaxWidth;
+
+    private int mMaxHeight;
+
+    private volatile long mSwitchStartUs = -1;
+
+    // first frame fed after the new parameter sets
+    private volatile long mSwitchPtsUs = UNKNOWN;
+
+    private volatile long mLastSwitchLatencyUs = -1;
+
+    private volatile int mSwitches;
+
+    public Action onConfig(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        if (mSps == null) {
+            store(width, height, sps, pps);
+            return Action.CONFIGURE;
+        }
+        if (sameBytes(mSps, sps) && sameBytes(mPps, pps)) {
+            return Action.NONE;
+        }
+        boolean resized = width != mWidth || height != mHeight;
+        store(width, height, sps, pps);
+        if (!resized || (mAdaptive && width <= mMaxWidth && height <= mMaxHeight)) {
+            return Action.SUBMIT;
+        }
+        return Action.RECONFIGURE;
+    }
+
+    // the codec was (re)configured for the current size; maxWidth and maxHeight apply if adaptive
+    public void configured(boolean adaptive, int maxWidth, int maxHeight) {
+        mAdaptive = adaptive;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    // KEY_MAX_WIDTH / KEY_MAX_HEIGHT to configure an adaptive codec with for the current size
+    public int maxWidth() {
+        return Math.max(mWidth, DEFAULT_MAX_WIDTH);
+    }
+
+    public int maxHeight() {
+        return Math.max(mHeight, DEFAULT_MAX_HEIGHT);
+    }
+
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    // new parameter sets were handed to the codec
+    public void switchStarted(long nowUs) {
+        mSwitchPtsUs = UNKNOWN;
+        mSwitchStartUs = nowUs;
+    }
+
+    // a sample was fed to the codec; the first one after a switch is the frame that completes it
+    public void sampleQueued(long presentationTimeUs) {
+        if (mSwitchStartUs >= 0 && mSwitchPtsUs == UNKNOWN) {
+            mSwitchPtsUs = presentationTimeUs;
+        }
+    }
+
+    // a frame was decoded: the switch latency if it is the first of the new stream, else -1.
+    // Frames of the old stream still in the codec come out before it and don't count
+    public long outputAvailable(long nowUs, long presentationTimeUs) {
+        long start = mSwitchStartUs;
+        long switchPtsUs = mSwitchPtsUs;
+        if (start < 0 || switchPtsUs == UNKNOWN || presentationTimeUs < switchPtsUs) {
+            return -1;
+        }
+        mSwitchStartUs = -1;
+        long latencyUs = nowUs - start;
+        mLastSwitchLatencyUs = latencyUs;
+        mSwitches++;
+        return latencyUs;
+    }
+
+    // parameter sets to first decoded frame for the last switch, -1 before the first one
+    public long getLastSwitchLatencyUs() {
+        return mLastSwitchLatencyUs;
+    }
+
+    public int getSwitches() {
+        return mSwitches;
+    }
+
+    private void store(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        mWidth = width;
+        mHeight = height;
+        mSps = copy(sps);
+        mPps = copy(pps);
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] values = new byte[buffer.remaining()];
+        buffer.duplicate().get(values);
+        return values;
+    }
+
+    private static boolean sameBytes(byte[] values, ByteBuffer buffer) {
+        int position = buffer.position();
+        if (values.length != buffer.remaining()) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != buffer.get(position + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
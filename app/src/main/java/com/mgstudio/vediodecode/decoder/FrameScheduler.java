@@ -0,0 +1,9 @@
+package com.mgstudio.vediodecode.decoder;
+//帧调度器
+
+// tells the decoder when a decoded frame should reach the screen
+public interface FrameScheduler {
+
+    // System.nanoTime based render time for the frame with the given presentation timestamp
+    long renderTimeNs(long presentationTimeUs);
+}
@@ -0,0 +1,207 @@
+package com.mgstudio.vediodecode.decoder;
+//样本队列
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// matches compressed samples with free codec input buffers for the callback-driven decoder.
+// One thread puts samples, one thread reports free input indices; whichever call completes a
+// pair hands it to the sink, serialized by a work-in-progress counter so nothing spins or polls.
+// A full queue blocks the producer until an input buffer frees a slot - samples are never dropped.
+public class SampleQueue {
+
+    public interface Sink {
+        // data holds the sample in [0, limit), only valid during the call; must not throw
+        void queueInput(int index, ByteBuffer data, long presentationTimeUs, int flags);
+    }
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    // more than any codec hands out input buffers
+    private static final int MAX_INPUTS = 64;
+
+    private static final class Sample {
+        ByteBuffer data = ByteBuffer.allocate(0);
+        long presentationTimeUs;
+        int flags;
+    }
+
+    private final Sink sink;
+
+    private final Sample[] samples;
+    private final int mask;
+
+    private final int[] inputs = new int[MAX_INPUTS];
+
+    // samples: put advances tail, drain advances head
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    // free input indices: inputAvailable advances tail, drain advances head
+    private final AtomicLong mInputHead = new AtomicLong();
+    private final AtomicLong mInputTail = new AtomicLong();
+
+    private final AtomicInteger mWip = new AtomicInteger();
+
+    private volatile Thread mWaiter;
+
+    private volatile boolean mIsClosed;
+
+    public SampleQueue(Sink sink) {
+        this(DEFAULT_CAPACITY, sink);
+    }
+
+    // capacity is rounded up to a power of two
+    public SampleQueue(int capacity, Sink sink) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.sink = sink;
+        this.samples = new Sample[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            samples[i] = new Sample();
+        }
+    }
+
+    // copies data[offset, offset + size), blocking while the queue is full; false once closed
+    public boolean put(byte[] data, int offset, int size, long presentationTimeUs, int flags)
+            throws InterruptedException {
+        Sample sample = claim(size);
+        if (sample == null) {
+            return false;
+        }
+        sample.data.put(data, offset, size);
+        publish(sample, presentationTimeUs, flags);
+        return true;
+    }
+
+    // copies data[offset, offset + size), its position and limit are changed
+    public boolean put(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+            throws InterruptedException {
+        Sample sample = claim(size);
+        if (sample == null) {
+            return false;
+        }
+        data.clear();
+        data.position(offset);
+        data.limit(offset + size);
+        sample.data.put(data);
+        publish(sample, presentationTimeUs, flags);
+        return true;
+    }
+
+    // the codec has a free input buffer
+    public void inputAvailable(int index) {
+        long tail = mInputTail.get();
+        if (tail - mInputHead.get() == MAX_INPUTS) {
+            throw new IllegalStateException("more than " + MAX_INPUTS + " free input buffers");
+        }
+        inputs[(int) (tail % MAX_INPUTS)] = index;
+        mInputTail.lazySet(tail + 1);
+        drain();
+    }
+
+    // wakes a blocked producer, later puts return false
+    public void close() {
+        mIsClosed = true;
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    // drops waiting samples and forgets free input buffers, for a codec that was stopped to be configured
+    // again. Only call while neither side is active: the producer waits for the reset, the codec is stopped
+    public void reset() {
+        mHead.set(mTail.get());
+        mInputHead.set(mInputTail.get());
+    }
+
+    // samples waiting for an input buffer
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    // input buffers waiting for a sample
+    public int freeInputs() {
+        return (int) (mInputTail.get() - mInputHead.get());
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    private Sample claim(int size) throws InterruptedException {
+        long tail = mTail.get();
+        while (tail - mHead.get() == samples.length) {
+            if (mIsClosed) {
+                return null;
+            }
+            mWaiter = Thread.currentThread();
+            // re-check after publishing the waiter so a concurrent drain can't miss it
+            if (tail - mHead.get() == samples.length && !mIsClosed) {
+                LockSupport.park(this);
+            }
+            mWaiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        if (mIsClosed) {
+            return null;
+        }
+        Sample sample = samples[(int) (tail & mask)];
+        if (sample.data.capacity() < size) {
+            // grows to the largest frame seen, after that the queue doesn't allocate
+            sample.data = ByteBuffer.allocate(Math.max(size, sample.data.capacity() * 2));
+        }
+        sample.data.clear();
+        return sample;
+    }
+
+    private void publish(Sample sample, long presentationTimeUs, int flags) {
+        sample.data.flip();
+        sample.presentationTimeUs = presentationTimeUs;
+        sample.flags = flags;
+        mTail.lazySet(mTail.get() + 1);
+        drain();
+    }
+
+    private void drain() {
+        if (mWip.getAndIncrement() != 0) {
+            // the thread already draining will see our work
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            for (; ; ) {
+                long head = mHead.get();
+                long inputHead = mInputHead.get();
+                if (head == mTail.get() || inputHead == mInputTail.get()) {
+                    break;
+                }
+                Sample sample = samples[(int) (head & mask)];
+                int index = inputs[(int) (inputHead % MAX_INPUTS)];
+                mInputHead.lazySet(inputHead + 1);
+                sink.queueInput(index, sample.data, sample.presentationTimeUs, sample.flags);
+                // a full store: it must not pass the read of mWaiter below, or a wakeup is lost
+                mHead.set(head + 1);
+                Thread waiter = mWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+            missed = mWip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+}
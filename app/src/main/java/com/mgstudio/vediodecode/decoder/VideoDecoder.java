@@ -1,36 +1,93 @@
 package com.mgstudio.vediodecode.decoder;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.util.Log;
 import android.view.Surface;
 
 import com.mgstudio.vediodecode.VideoCodecConstants;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 //视屏解码器
 public class VideoDecoder {
 
-    private Worker mWorker;
+    private static final String TAG = VideoDecoder.class.getSimpleName();
+
+    // polling Worker before API 21, MediaCodec callbacks after
+    private interface DecoderWorker {
+        void configure(Surface surface, int width, int height, ByteBuffer csd0, ByteBuffer csd1);
+
+        void decodeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags);
+
+        void decodeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags);
+
+        void start();
+
+        void setRunning(boolean isRunning);
+    }
+
+    private DecoderWorker mWorker;
+
+    private volatile FrameScheduler mFrameScheduler;
+
+    // parameter set changes of the current session, a new one per start()
+    private volatile FormatChangeDetector mFormatChanges = new FormatChangeDetector();
+
+    // render each frame at the scheduled time (API 21+) instead of as soon as it is decoded
+    public void setFrameScheduler(FrameScheduler frameScheduler) {
+        mFrameScheduler = frameScheduler;
+    }
 
     public void decodeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags) {
         if (mWorker != null) {
+            mFormatChanges.sampleQueued(presentationTimeUs);
+            mWorker.decodeSample(data, offset, size, presentationTimeUs, flags);
+        }
+    }
+
+    // data[offset, offset + size) is copied into the codec before returning, its position and limit are changed
+    public void decodeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+        if (mWorker != null) {
+            mFormatChanges.sampleQueued(presentationTimeUs);
             mWorker.decodeSample(data, offset, size, presentationTimeUs, flags);
         }
     }
 
+    // call with every config sample, on the thread feeding samples and before the key frame it belongs
+    // to: repeated parameter sets are ignored, changed ones switch the codec over without recreating it
     public void configure(Surface surface, int width, int height, ByteBuffer csd0, ByteBuffer csd1) {
         if (mWorker != null) {
             mWorker.configure(surface, width, height, csd0, csd1);
         }
     }
 
+    // new parameter sets to first decoded frame for the last change, -1 before the first one
+    public long getLastSwitchLatencyUs() {
+        return mFormatChanges.getLastSwitchLatencyUs();
+    }
+
     public void start() {
         if (mWorker == null) {
-            mWorker = new Worker();
+            mFormatChanges = new FormatChangeDetector();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                mWorker = new CallbackWorker();
+            } else {
+                mWorker = new Worker();
+            }
             mWorker.setRunning(true);
             mWorker.start();
         }
@@ -43,78 +100,173 @@ public class VideoDecoder {
         }
     }
 
-    private class Worker extends Thread {
+    // format for the current parameter sets, with room for larger frames where the codec can take
+    // them without being configured again
+    private MediaFormat createFormat(MediaCodec codec, int width, int height, ByteBuffer csd0, ByteBuffer csd1) {
+        FormatChangeDetector formatChanges = mFormatChanges;
+        MediaFormat format = MediaFormat.createVideoFormat(VideoCodecConstants.VIDEO_CODEC, width, height);
+        format.setByteBuffer("csd-0", csd0);
+        format.setByteBuffer("csd-1", csd1);
+        boolean adaptive = supportsAdaptivePlayback(codec);
+        if (adaptive) {
+            format.setInteger(MediaFormat.KEY_MAX_WIDTH, formatChanges.maxWidth());
+            format.setInteger(MediaFormat.KEY_MAX_HEIGHT, formatChanges.maxHeight());
+        }
+        formatChanges.configured(adaptive, formatChanges.maxWidth(), formatChanges.maxHeight());
+        return format;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean supportsAdaptivePlayback(MediaCodec codec) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        try {
+            return codec.getCodecInfo().getCapabilitiesForType(VideoCodecConstants.VIDEO_CODEC)
+                    .isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_AdaptivePlayback);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void render(MediaCodec codec, int index, long presentationTimeUs) {
+        long nowUs = System.nanoTime() / 1000;
+        PipelineLatency.RECEIVER.mark(PipelineLatency.Stage.DECODE, presentationTimeUs, nowUs, true);
+        FrameTracer.TRACER.end(FrameTracer.Span.DECODER_OUTPUT, presentationTimeUs);
+        long switchLatencyUs = mFormatChanges.outputAvailable(nowUs, presentationTimeUs);
+        if (switchLatencyUs >= 0) {
+            Log.d(TAG, "format switch took " + switchLatencyUs / 1000 + " ms");
+        }
+        FrameScheduler frameScheduler = mFrameScheduler;
+        if (frameScheduler != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // the system shows the frame at this System.nanoTime
+            codec.releaseOutputBuffer(index, frameScheduler.renderTimeNs(presentationTimeUs));
+        } else {
+            // setting true is telling system to render frame onto Surface
+            //设置为true表示系统将帧渲染到Surface上
+            codec.releaseOutputBuffer(index, true);
+        }
+    }
+
+    private class Worker extends Thread implements DecoderWorker {
 
         private AtomicBoolean mIsRunning = new AtomicBoolean(false);
         private MediaCodec mCodec;
         private AtomicBoolean mIsConfigured = new AtomicBoolean(false);
         private final long mTimeoutUs;
 
+        // held around output dequeues so the codec can be stopped and configured again in between
+        private final Object mCodecLock = new Object();
+
         Worker() {
             this.mTimeoutUs = 10000L;
         }
 
-        private void setRunning(boolean isRunning) {
+        @Override
+        public void setRunning(boolean isRunning) {
             mIsRunning.set(isRunning);
         }
 
-        private void configure(Surface surface, int width, int height, ByteBuffer csd0, ByteBuffer csd1) {
-            if (mIsConfigured.get()) {
-                // try change pps and sps format  //尝试更改pps和sps格式
-                //mCodec.ge  //mCodec.ge
-
-
-                return;
-            }
-            MediaFormat format = MediaFormat.createVideoFormat(VideoCodecConstants.VIDEO_CODEC, width, height);
-
-            format.setByteBuffer("csd-0", csd0);
-            format.setByteBuffer("csd-1", csd1);
-            try {
-                mCodec = MediaCodec.createDecoderByType(VideoCodecConstants.VIDEO_CODEC);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to create codec", e);
+        @Override
+        public void configure(Surface surface, int width, int height, ByteBuffer csd0, ByteBuffer csd1) {
+            FormatChangeDetector formatChanges = mFormatChanges;
+            switch (formatChanges.onConfig(width, height, csd0, csd1)) {
+                case CONFIGURE:
+                    try {
+                        mCodec = MediaCodec.createDecoderByType(VideoCodecConstants.VIDEO_CODEC);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to create codec", e);
+                    }
+                    mCodec.configure(createFormat(mCodec, width, height, csd0, csd1), surface, null, 0);
+                    mCodec.start();
+                    mIsConfigured.set(true);
+                    break;
+                case SUBMIT:
+                    // try change pps and sps format  //尝试更改pps和sps格式
+                    formatChanges.switchStarted(System.nanoTime() / 1000);
+                    decodeSample(csd0, csd0.position(), csd0.remaining(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+                    decodeSample(csd1, csd1.position(), csd1.remaining(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+                    break;
+                case RECONFIGURE:
+                    formatChanges.switchStarted(System.nanoTime() / 1000);
+                    synchronized (mCodecLock) {
+                        mCodec.stop();
+                        mCodec.configure(createFormat(mCodec, width, height, csd0, csd1), surface, null, 0);
+                        mCodec.start();
+                    }
+                    break;
+                default:
+                    // same parameter sets again
+                    break;
             }
-            mCodec.configure(format, surface, null, 0);
-            mCodec.start();
-            mIsConfigured.set(true);
         }
 
-        @SuppressWarnings("deprecation")    //弃用
+        @Override
         public void decodeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags) {
             if (mIsConfigured.get() && mIsRunning.get()) {
                 int index = mCodec.dequeueInputBuffer(mTimeoutUs);
                 if (index >= 0) {
-                    ByteBuffer buffer;
-                    // since API 21 we have new API to use
-                    //从API 21开始，我们有了新的API
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                        buffer = mCodec.getInputBuffers()[index];
-                        buffer.clear();
-                    } else {
-                        buffer = mCodec.getInputBuffer(index);
-                    }
+                    ByteBuffer buffer = getInputBuffer(index);
                     if (buffer != null) {
                         buffer.put(data, offset, size);
                         mCodec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
                     }
+                } else {
+                    inputTimedOut();
                 }
             }
         }
 
+        @Override
+        public void decodeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            if (mIsConfigured.get() && mIsRunning.get()) {
+                int index = mCodec.dequeueInputBuffer(mTimeoutUs);
+                if (index >= 0) {
+                    ByteBuffer buffer = getInputBuffer(index);
+                    if (buffer != null) {
+                        data.clear();
+                        data.position(offset);
+                        data.limit(offset + size);
+                        buffer.put(data);
+                        mCodec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+                    }
+                } else {
+                    inputTimedOut();
+                }
+            }
+        }
+
+        // no input buffer freed up within the timeout, the sample is lost
+        private void inputTimedOut() {
+            StreamCounters.RECEIVER.increment(StreamCounters.Counter.DECODER_INPUT_STALLS);
+            StreamCounters.RECEIVER.increment(StreamCounters.Counter.DROPPED_FRAMES);
+        }
+
+        @SuppressWarnings("deprecation")    //弃用
+        private ByteBuffer getInputBuffer(int index) {
+            // since API 21 we have new API to use
+            //从API 21开始，我们有了新的API
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                ByteBuffer buffer = mCodec.getInputBuffers()[index];
+                buffer.clear();
+                return buffer;
+            }
+            return mCodec.getInputBuffer(index);
+        }
+
         @Override
         public void run() {
             try {
                 MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
                 while (mIsRunning.get()) {
                     if (mIsConfigured.get()) {
-                        int index = mCodec.dequeueOutputBuffer(info, mTimeoutUs);
-                        if (index >= 0) {
-                            // setting true is telling system to render frame onto Surface
-                            //设置为true表示系统将帧渲染到Surface上
-                            mCodec.releaseOutputBuffer(index, true);
-                            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) == MediaCodec.BUFFER_FLAG_END_OF_STREAM) {
-                                break;
+                        synchronized (mCodecLock) {
+                            int index = mCodec.dequeueOutputBuffer(info, mTimeoutUs);
+                            if (index >= 0) {
+                                render(mCodec, index, info.presentationTimeUs);
+                                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) == MediaCodec.BUFFER_FLAG_END_OF_STREAM) {
+                                    break;
+                                }
                             }
                         }
                     } else {
@@ -134,4 +286,208 @@ public class VideoDecoder {
             }
         }
     }
+
+    // API 21+: the codec reports free input and ready output buffers on its own thread. Samples wait in
+    // a SampleQueue until an input buffer is free instead of being dropped after a dequeue timeout,
+    // and no thread polls the codec.
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private class CallbackWorker extends MediaCodec.Callback implements DecoderWorker, SampleQueue.Sink {
+
+        private final AtomicBoolean mIsRunning = new AtomicBoolean(false);
+        private final AtomicBoolean mIsConfigured = new AtomicBoolean(false);
+
+        // longest the feeding thread waits for a reconfiguration on the codec thread
+        private static final long RECONFIGURE_TIMEOUT_MS = 1000;
+
+        private final HandlerThread mThread = new HandlerThread(TAG);
+        private Handler mHandler;
+
+        // set on the codec thread once started
+        private volatile MediaCodec mCodec;
+
+        private final SampleQueue mSamples = new SampleQueue(this);
+
+        @Override
+        public void start() {
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+
+        @Override
+        public void setRunning(boolean isRunning) {
+            mIsRunning.set(isRunning);
+            if (!isRunning) {
+                // wake a producer blocked on a full queue, then release the codec on its own thread
+                mSamples.close();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        MediaCodec codec = mCodec;
+                        mCodec = null;
+                        if (codec != null) {
+                            try {
+                                codec.stop();
+                            } catch (IllegalStateException e) {
+                                Log.e(TAG, e.getMessage());
+                            }
+                            codec.release();
+                        }
+                    }
+                });
+                mThread.quitSafely();
+            }
+        }
+
+        @Override
+        public void configure(Surface surface, int width, int height, ByteBuffer csd0, ByteBuffer csd1) {
+            FormatChangeDetector formatChanges = mFormatChanges;
+            switch (formatChanges.onConfig(width, height, csd0, csd1)) {
+                case CONFIGURE:
+                    mIsConfigured.set(true);
+                    create(surface, width, height, csd0, csd1);
+                    break;
+                case SUBMIT:
+                    // in order with the samples around them, the codec switches at the next key frame
+                    formatChanges.switchStarted(System.nanoTime() / 1000);
+                    decodeSample(csd0, csd0.position(), csd0.remaining(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+                    decodeSample(csd1, csd1.position(), csd1.remaining(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+                    break;
+                case RECONFIGURE:
+                    formatChanges.switchStarted(System.nanoTime() / 1000);
+                    reconfigure(surface, width, height, csd0, csd1);
+                    break;
+                default:
+                    // same parameter sets again
+                    break;
+            }
+        }
+
+        private void create(final Surface surface, final int width, final int height,
+                            final ByteBuffer csd0, final ByteBuffer csd1) {
+            // created on the handler thread: before API 23 callbacks go to the creating thread's looper
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mIsRunning.get()) {
+                        return;
+                    }
+                    MediaCodec codec;
+                    try {
+                        codec = MediaCodec.createDecoderByType(VideoCodecConstants.VIDEO_CODEC);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to create codec", e);
+                    }
+                    codec.setCallback(CallbackWorker.this);
+                    codec.configure(createFormat(codec, width, height, csd0, csd1), surface, null, 0);
+                    mCodec = codec;
+                    codec.start();
+                }
+            });
+        }
+
+        // same codec, new format. The samples still queued are frames of the old stream and are dropped;
+        // this thread waits so the key frame it feeds next goes to the reconfigured codec
+        private void reconfigure(final Surface surface, final int width, final int height,
+                                 final ByteBuffer csd0, final ByteBuffer csd1) {
+            final CountDownLatch done = new CountDownLatch(1);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    MediaCodec codec = mCodec;
+                    try {
+                        if (codec != null && mIsRunning.get()) {
+                            // also discards the callbacks still pending for the old buffers
+                            codec.stop();
+                            mSamples.reset();
+                            codec.configure(createFormat(codec, width, height, csd0, csd1), surface, null, 0);
+                            codec.start();
+                        }
+                    } catch (IllegalStateException e) {
+                        Log.e(TAG, e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            try {
+                if (!done.await(RECONFIGURE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.e(TAG, "reconfiguration timed out");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void decodeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags) {
+            if (mIsConfigured.get() && mIsRunning.get()) {
+                countStall();
+                try {
+                    mSamples.put(data, offset, size, presentationTimeUs, flags);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void decodeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            if (mIsConfigured.get() && mIsRunning.get()) {
+                countStall();
+                try {
+                    mSamples.put(data, offset, size, presentationTimeUs, flags);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // the sample waits for an input buffer instead of being dropped
+        private void countStall() {
+            if (mSamples.freeInputs() == 0) {
+                StreamCounters.RECEIVER.increment(StreamCounters.Counter.DECODER_INPUT_STALLS);
+            }
+        }
+
+        // runs on whichever thread completed the sample / input buffer pair
+        @Override
+        public void queueInput(int index, ByteBuffer data, long presentationTimeUs, int flags) {
+            MediaCodec codec = mCodec;
+            if (codec == null) {
+                return;
+            }
+            try {
+                ByteBuffer buffer = codec.getInputBuffer(index);
+                if (buffer != null) {
+                    int size = data.remaining();
+                    buffer.put(data);
+                    codec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+                }
+            } catch (IllegalStateException e) {
+                // codec released while the sample was in flight
+                Log.e(TAG, e.getMessage());
+            }
+        }
+
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            mSamples.inputAvailable(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if (mIsRunning.get()) {
+                render(codec, index, info.presentationTimeUs);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, e.getMessage());
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package com.mgstudio.vediodecode.encoder;
+//编码样本
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import com.mgstudio.vediodecode.model.Releasable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// an encoder output buffer lent to the consumer: data[position, limit) is the sample and stays valid
+// until release, which gives the buffer back to the codec. Holding samples stalls the encoder once it
+// runs out of output buffers, so consumers release as soon as they have written or copied the data.
+public class EncodedSample implements Releasable {
+
+    private static final String TAG = EncodedSample.class.getSimpleName();
+
+    public final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    public final ByteBuffer data;
+
+    private final MediaCodec codec;
+
+    private final int index;
+
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    EncodedSample(MediaCodec codec, int index, ByteBuffer data, MediaCodec.BufferInfo info) {
+        this.codec = codec;
+        this.index = index;
+        this.data = data;
+        this.info.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        data.limit(info.offset + info.size);
+        data.position(info.offset);
+    }
+
+    public boolean isKeyFrame() {
+        return (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isConfig() {
+        return (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+    }
+
+    @Override
+    public void retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("sample retained after release");
+        }
+    }
+
+    // may be called from any thread, the last release gives the buffer back
+    @Override
+    public void release() {
+        int refCount = mRefCount.decrementAndGet();
+        if (refCount < 0) {
+            throw new IllegalStateException("sample released twice");
+        }
+        if (refCount == 0) {
+            try {
+                codec.releaseOutputBuffer(index, false);
+            } catch (IllegalStateException e) {
+                // codec already stopped, its buffers went with it
+                Log.e(TAG, "Can not release output buffer: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.mgstudio.vediodecode.encoder;
+//链路统计
+
+// snapshot of the link handed to a RateController
+public class LinkStats {
+
+    // time of the snapshot, milliseconds on any monotonic clock
+    public long timeMs;
+
+    // packets waiting in the send queue
+    public int queueDepth;
+
+    // bytes the transport wrote since the previous snapshot, per second
+    public long sendBytesPerSecond;
+
+    // round trip time in milliseconds, -1 when unknown
+    public long rttMs = -1;
+
+    public LinkStats() {
+    }
+
+    public LinkStats(long timeMs, int queueDepth, long sendBytesPerSecond, long rttMs) {
+        this.timeMs = timeMs;
+        this.queueDepth = queueDepth;
+        this.sendBytesPerSecond = sendBytesPerSecond;
+        this.rttMs = rttMs;
+    }
+}
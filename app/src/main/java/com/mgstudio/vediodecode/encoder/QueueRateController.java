@@ -0,0 +1,91 @@
+package com.mgstudio.vediodecode.encoder;
+//基于队列深度的码率控制器
+
+import com.mgstudio.vediodecode.VideoCodecConstants;
+
+// AIMD controller driven by send queue depth: a backlog (or a long RTT) means the link is slower
+// than the encoder, so the bitrate drops multiplicatively towards what was actually sent, then
+// probes back up additively once the queue has drained and a hold period passed.
+public class QueueRateController implements RateController {
+
+    public static class Config {
+
+        public int minBitrate = 300 * 1000;
+
+        public int maxBitrate = VideoCodecConstants.VIDEO_BITRATE;
+
+        public int initialBitrate = VideoCodecConstants.VIDEO_BITRATE;
+
+        // queued packets above which the link counts as congested - half a second of video
+        public int queueHighWater = VideoCodecConstants.VIDEO_FPS / 2;
+
+        // queued packets below which the bitrate may grow again
+        public int queueLowWater = 2;
+
+        // round trip above which the link counts as congested, when RTT is known
+        public long rttLimitMs = 400;
+
+        // multiplier applied on congestion
+        public double decrease = 0.7;
+
+        // share of the sent throughput aimed for on congestion, leaves room to drain the backlog
+        public double drainHeadroom = 0.85;
+
+        // added per update while the link is clear, bits per second
+        public int increase = 150 * 1000;
+
+        // no increase for this long after a decrease
+        public long holdMs = 2000;
+    }
+
+    private final Config config;
+
+    private int bitrate;
+
+    private long holdUntilMs = Long.MIN_VALUE;
+
+    public QueueRateController() {
+        this(new Config());
+    }
+
+    public QueueRateController(Config config) {
+        if (config.minBitrate <= 0 || config.minBitrate > config.maxBitrate) {
+            throw new IllegalArgumentException("Invalid bitrate bounds");
+        }
+        this.config = config;
+        this.bitrate = clamp(config.initialBitrate);
+    }
+
+    @Override
+    public int getInitialBitrate() {
+        return clamp(config.initialBitrate);
+    }
+
+    @Override
+    public int update(LinkStats stats) {
+        boolean congested = stats.queueDepth > config.queueHighWater
+                || (stats.rttMs >= 0 && stats.rttMs > config.rttLimitMs);
+
+        if (congested) {
+            long target = (long) (bitrate * config.decrease);
+            long sent = (long) (stats.sendBytesPerSecond * 8 * config.drainHeadroom);
+            if (sent > 0 && sent < target) {
+                // what got through is the best estimate of the link capacity
+                target = sent;
+            }
+            bitrate = clamp(target);
+            holdUntilMs = stats.timeMs + config.holdMs;
+        } else if (stats.queueDepth <= config.queueLowWater && stats.timeMs >= holdUntilMs) {
+            bitrate = clamp((long) bitrate + config.increase);
+        }
+        return bitrate;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    private int clamp(long value) {
+        return (int) Math.max(config.minBitrate, Math.min(config.maxBitrate, value));
+    }
+}
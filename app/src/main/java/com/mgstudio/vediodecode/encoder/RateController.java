@@ -0,0 +1,12 @@
+package com.mgstudio.vediodecode.encoder;
+//码率控制器
+
+// decides the encoder bitrate from the state of the link, called periodically by the sender
+public interface RateController {
+
+    // bitrate to start the encoder with, bits per second
+    int getInitialBitrate();
+
+    // bitrate the encoder should use from now on, bits per second
+    int update(LinkStats stats);
+}
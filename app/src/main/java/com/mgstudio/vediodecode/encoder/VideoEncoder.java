@@ -5,13 +5,18 @@ import android.hardware.Camera;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.annotation.TargetApi;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.Surface;
 
 import com.mgstudio.vediodecode.VideoCodecConstants;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
 import com.mgstudio.vediodecode.surface.SurfaceView;
 
 import java.io.IOException;
@@ -24,7 +29,18 @@ public class VideoEncoder {
 
     private static final String TAG = "VIDEO_ENCODER_TAG";
 
-    private Worker mWorker;
+    // polling Worker before API 21, MediaCodec callbacks after
+    private interface EncoderWorker {
+        void start();
+
+        void setIsRunning(boolean running);
+
+        void updateBitrate(int bitrate);
+
+        void requestKeyFrame();
+    }
+
+    private EncoderWorker mWorker;
 
 //    Video width
     private int mWidth;
@@ -34,6 +50,9 @@ public class VideoEncoder {
 
     private SurfaceView mSurfaceView;
 
+    // target bitrate, bits per second - changed at runtime by the rate controller
+    private volatile int mBitrate = VideoCodecConstants.VIDEO_BITRATE;
+
     protected Camera camera;
     protected Thread cameraThread;
     protected Looper cameraLooper;
@@ -67,17 +86,54 @@ public class VideoEncoder {
     protected void onEncodedSample(MediaCodec.BufferInfo info, ByteBuffer data) {
     }
 
+    // every encoded sample, on the codec output thread. The output buffer is lent without copying and
+    // must be released once done, from any thread; by default it goes through
+    // onEncodedSample(info, data) and is released on return
+    protected void onEncodedSample(EncodedSample sample) {
+        try {
+            onEncodedSample(sample.info, sample.data);
+        } finally {
+            sample.release();
+        }
+    }
+
+    // retarget the running encoder, takes effect on the next frames (API 19+)
+    public void setBitrate(int bitrate) {
+        mBitrate = bitrate;
+        StreamCounters.SENDER.set(StreamCounters.Gauge.ENCODER_BITRATE, bitrate);
+        EncoderWorker worker = mWorker;
+        if (worker != null) {
+            worker.updateBitrate(bitrate);
+        }
+    }
+
+    public int getBitrate() {
+        return mBitrate;
+    }
+
+    // ask the running encoder for an IDR as soon as possible (API 19+)
+    public void requestKeyFrame() {
+        EncoderWorker worker = mWorker;
+        if (worker != null) {
+            worker.requestKeyFrame();
+        }
+    }
+
     public void start() {
         if (mWorker == null) {
-            mWorker = new Worker();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                mWorker = new CallbackWorker();
+            } else {
+                mWorker = new Worker();
+            }
             mWorker.setIsRunning(true);
             mWorker.start();
         }
     }
 
     public void stop() {
-        if (mWorker == null) {
-            mWorker.setIsRunning(true);
+        if (mWorker != null) {
+            mWorker.setIsRunning(false);
             mWorker = null;
         }
     }
@@ -258,16 +314,68 @@ public class VideoEncoder {
         }
     }
 
+    // encoder configured for surface input, not started yet
+    private MediaCodec createCodec(MediaCodec.Callback callback) {
+        // configure video output//配置视频输出
+        MediaFormat format = MediaFormat.createVideoFormat(VideoCodecConstants.VIDEO_CODEC, mWidth, mHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitrate);
+        StreamCounters.SENDER.set(StreamCounters.Gauge.ENCODER_BITRATE, mBitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, VideoCodecConstants.VIDEO_FPS);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, VideoCodecConstants.VIDEO_FI);
+
+        MediaCodec codec;
+        try {
+            codec = MediaCodec.createEncoderByType(VideoCodecConstants.VIDEO_CODEC);
+        } catch (IOException e) {
+            // can not create avc codec - throw exception//无法创建avc编解码器 - 抛出异常
+            throw new RuntimeException(e);
+        }
+        if (callback != null) {
+            // must be set before configure
+            codec.setCallback(callback);
+        }
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        return codec;
+    }
+
+    private static void setParameters(MediaCodec codec, Bundle parameters) {
+        if (codec == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // not running, or not adjustable on this platform
+            return;
+        }
+        try {
+            codec.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            // codec is not started or is being released
+            Log.e(TAG, "Can not set codec parameters: " + e.getMessage());
+        }
+    }
+
+    private static Bundle bitrateParameters(int bitrate) {
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        return parameters;
+    }
+
+    private static Bundle keyFrameParameters() {
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        return parameters;
+    }
+
     // background thread which prepare MediaCodec and start encoding using surface-to-buffer method
     //后台线程，它准备MediaCodec并使用表面到缓冲区方法开始编码
-    protected class Worker extends Thread {
+    // polls the codec for output, used before API 21
+    protected class Worker extends Thread implements EncoderWorker {
 
         //
         private MediaCodec.BufferInfo mBufferInfo;
 
         // video codec which get access to hardware codec
         //可以访问硬件编解码器的视频编解码器
-        private MediaCodec mCodec;
+        private volatile MediaCodec mCodec;
 
         // indicator for inner loop//内循环指标
         @NonNull
@@ -282,6 +390,7 @@ public class VideoEncoder {
             this.mTimeoutUsec = 10000L;
         }
 
+        @Override
         public void setIsRunning(boolean running) {
             mIsRunning.set(running);
         }
@@ -315,72 +424,51 @@ public class VideoEncoder {
                 mCodec.signalEndOfInputStream();
             }
 
-            // pre-lollipop api
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-
-                // get output buffers
-                ByteBuffer[] outputBuffers = mCodec.getOutputBuffers();
-                for (; ; ) {
-                    //get status
-                    int status = mCodec.dequeueOutputBuffer(mBufferInfo, mTimeoutUsec);
-                    if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        // something wrong with codec - need try again
-                        if (!mIsRunning.get()) {
-                            break;
-                        }
-                    } else if (status == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                        // need get new output buffers
-                        outputBuffers = mCodec.getOutputBuffers();
-                    } else if (status >= 0) {
-
-                        // encoded sample//编码样本
-                        ByteBuffer data = outputBuffers[status];
-                        data.position(mBufferInfo.offset);
-                        data.limit(mBufferInfo.offset + mBufferInfo.size);
-
-                        final int endOfStream = mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM;
-                        if (endOfStream == 0) {
-                            onEncodedSample(mBufferInfo, data);
-                        }
+            // get output buffers, only used before lollipop
+            ByteBuffer[] outputBuffers = getOutputBuffers();
+            for (; ; ) {
+                //get status
+                int status = mCodec.dequeueOutputBuffer(mBufferInfo, mTimeoutUsec);
+                if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    // something wrong with codec - need try again
+                    if (!mIsRunning.get()) {
+                        break;
+                    }
+                } else if (status == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    // need get new output buffers
+                    outputBuffers = getOutputBuffers();
+                } else if (status >= 0) {
+                    // encoded sample//编码样本
+                    ByteBuffer data = getOutputBuffer(outputBuffers, status);
+                    if (data == null) {
+                        continue;
+                    }
+                    final int endOfStream = mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+                    if (endOfStream == 0) {
+                        onEncodedSample(new EncodedSample(mCodec, status, data, mBufferInfo));
+                    } else {
                         // releasing buffer is important//释放缓冲区很重要
                         mCodec.releaseOutputBuffer(status, false);
-
                         // don't have any buffers - need finish
-                        if (endOfStream == MediaCodec.BUFFER_FLAG_END_OF_STREAM) {
-                            break;
-                        }
-                    }
-                }
-            } else {
-                for (; ; ) {
-                    //get status
-                    int status = mCodec.dequeueOutputBuffer(mBufferInfo, mTimeoutUsec);
-                    if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        // something wrong with codec - need try again
-                        if (!mIsRunning.get()) {
-                            break;
-                        }
-                    } else if (status >= 0) {
-                        // encoded sample
-                        ByteBuffer data = mCodec.getOutputBuffer(status);
-                        if (data != null) {
-
-                            final int endOfStream = mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM;
-                            if (endOfStream == 0) {
-                                onEncodedSample(mBufferInfo, data);
-                            }
-                            // release buffer
-                            mCodec.releaseOutputBuffer(status, false);
-
-                            // don't have any buffers - need finish
-                            if (endOfStream == MediaCodec.BUFFER_FLAG_END_OF_STREAM) {
-                                break;
-                            }
-                        }
+                        break;
                     }
                 }
             }
         }
+
+        @SuppressWarnings("deprecation")
+        private ByteBuffer[] getOutputBuffers() {
+            // pre-lollipop api
+            return Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP ? mCodec.getOutputBuffers() : null;
+        }
+
+        private ByteBuffer getOutputBuffer(ByteBuffer[] outputBuffers, int index) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                return outputBuffers[index];
+            }
+            return mCodec.getOutputBuffer(index);
+        }
+
         // release all resources
         private void release() {
             onSurfaceDestroyed(mSurface);
@@ -390,34 +478,146 @@ public class VideoEncoder {
             mSurface.release();
         }
 
+        @Override
+        public void updateBitrate(int bitrate) {
+            // picked up by prepare if the codec doesn't run yet
+            setParameters(mCodec, bitrateParameters(bitrate));
+        }
+
+        @Override
+        public void requestKeyFrame() {
+            setParameters(mCodec, keyFrameParameters());
+        }
+
         private MediaFormat getOutputFormat() {
             return mCodec.getOutputFormat();
         }
 
         private void prepare() {
-            // configure video output//配置视频输出
-            MediaFormat format = MediaFormat.createVideoFormat(VideoCodecConstants.VIDEO_CODEC, mWidth, mHeight);
-            format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
-                    MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-            format.setInteger(MediaFormat.KEY_BIT_RATE, VideoCodecConstants.VIDEO_BITRATE);
-            format.setInteger(MediaFormat.KEY_FRAME_RATE, VideoCodecConstants.VIDEO_FPS);
-            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, VideoCodecConstants.VIDEO_FI);
-
-            try {
-                mCodec = MediaCodec.createEncoderByType(VideoCodecConstants.VIDEO_CODEC);
-            } catch (IOException e) {
-                // can not create avc codec - throw exception//无法创建avc编解码器 - 抛出异常
-                throw new RuntimeException(e);
-            }
-            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            MediaCodec codec = createCodec(null);
             // create surface associated with code//创建与代码关联的表面
-            mSurface = mCodec.createInputSurface();
+            mSurface = codec.createInputSurface();
             mSurfaceView.addMediaCodecSurface(mSurface);
             // notify codec to start watch surface and encode samples
             //通知编解码器开始观察表面并对样本进行编码
-            mCodec.start();
+            codec.start();
+            mCodec = codec;
 
             onSurfaceCreated(mSurface);
         }
     }
+
+    // API 21+: output buffers arrive through MediaCodec.Callback on a dedicated handler thread and are
+    // lent straight to onEncodedSample, nothing polls or copies
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private class CallbackWorker extends MediaCodec.Callback implements EncoderWorker {
+
+        private final AtomicBoolean mIsRunning = new AtomicBoolean(false);
+
+        private final HandlerThread mThread = new HandlerThread(TAG);
+        private Handler mHandler;
+
+        // set on the handler thread once started
+        private volatile MediaCodec mCodec;
+
+        private Surface mSurface;
+
+        @Override
+        public void start() {
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mIsRunning.get()) {
+                        return;
+                    }
+                    // created here: before API 23 callbacks go to the creating thread's looper
+                    MediaCodec codec = createCodec(CallbackWorker.this);
+                    mSurface = codec.createInputSurface();
+                    mSurfaceView.addMediaCodecSurface(mSurface);
+                    codec.start();
+                    mCodec = codec;
+
+                    onSurfaceCreated(mSurface);
+                }
+            });
+        }
+
+        @Override
+        public void setIsRunning(boolean running) {
+            mIsRunning.set(running);
+            if (!running && mHandler != null) {
+                // complete the stream, the codec is released once the end of stream comes out
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        MediaCodec codec = mCodec;
+                        if (codec == null) {
+                            mThread.quitSafely();
+                            return;
+                        }
+                        try {
+                            codec.signalEndOfInputStream();
+                        } catch (IllegalStateException e) {
+                            Log.e(TAG, e.getMessage());
+                            release();
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void updateBitrate(int bitrate) {
+            setParameters(mCodec, bitrateParameters(bitrate));
+        }
+
+        @Override
+        public void requestKeyFrame() {
+            setParameters(mCodec, keyFrameParameters());
+        }
+
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            // input comes from the surface
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                codec.releaseOutputBuffer(index, false);
+                release();
+                return;
+            }
+            ByteBuffer data = codec.getOutputBuffer(index);
+            if (data == null) {
+                codec.releaseOutputBuffer(index, false);
+                return;
+            }
+            onEncodedSample(new EncodedSample(codec, index, data, info));
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, e.getMessage());
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        }
+
+        // on the handler thread, samples still held by consumers are invalid afterwards
+        private void release() {
+            MediaCodec codec = mCodec;
+            mCodec = null;
+            if (codec != null) {
+                onSurfaceDestroyed(mSurface);
+                codec.stop();
+                codec.release();
+                mSurface.release();
+            }
+            mThread.quitSafely();
+        }
+    }
 }
@@ -0,0 +1,283 @@
+package com.mgstudio.vediodecode.fec;
+//FEC解码器
+
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+
+// Rebuilds lost media packets from the parity packets of FecEncoder. Media packets received are kept
+// for a window of sequence numbers, parity packets until their group is whole or too old. Whenever a
+// parity packet arrives, or a packet is rebuilt, every pending group is checked again: a group missing
+// no more packets than it has parity for is solved, which for XOR_2D lets rows and columns repair each
+// other in turns.
+//
+// Solving inverts the coefficient matrix of the missing packets in GF(256) and applies it to the
+// parity, less the packets received. All buffers are allocated up front. Called on one thread.
+public class FecDecoder {
+
+    public interface Listener {
+        // a lost packet rebuilt; packet[offset, offset + length) is only valid during the call
+        void onRecovered(byte[] packet, int offset, int length);
+    }
+
+    public static final int DEFAULT_WINDOW = 512;
+
+    // parity packets waiting for their group at most
+    private static final int MAX_PENDING = 64;
+
+    private final Listener listener;
+
+    private final int mask;
+
+    private final int maxPacketSize;
+
+    // media packets as protected: length field, then the packet
+    private final byte[][] mMedia;
+    private final int[] mMediaSequenceNumbers;
+    private final boolean[] mMediaPresent;
+
+    // highest media sequence number seen, for expiring old groups
+    private int mHighest;
+    private boolean mStarted;
+
+    // parity packets: FEC header and parity
+    private final byte[][] mParity;
+    private final int[] mParityLengths;
+    private int mPendingCount;
+
+    // solver scratch
+    private final int[] mMissing = new int[Protection.MAX_PARITY];
+    private final int[] mRows = new int[Protection.MAX_PARITY];
+    private final int[][] mMatrix = new int[Protection.MAX_PARITY][Protection.MAX_PARITY];
+    private final int[][] mWork = new int[Protection.MAX_PARITY][Protection.MAX_PARITY];
+    private final byte[][] mSyndromes;
+    private final byte[] mRecovered;
+
+    private long mRecoveredCount;
+    private long mUnrecoverable;
+
+    public FecDecoder(int maxPacketSize, Listener listener) {
+        this(maxPacketSize, DEFAULT_WINDOW, listener);
+    }
+
+    // window: media packets kept, a power of two
+    public FecDecoder(int maxPacketSize, int window, Listener listener) {
+        if (Integer.bitCount(window) != 1 || window > 1 << 14) {
+            throw new IllegalArgumentException("window " + window);
+        }
+        this.listener = listener;
+        this.mask = window - 1;
+        this.maxPacketSize = maxPacketSize;
+        this.mMedia = new byte[window][2 + maxPacketSize];
+        this.mMediaSequenceNumbers = new int[window];
+        this.mMediaPresent = new boolean[window];
+        this.mParity = new byte[MAX_PENDING][FecHeader.SIZE + 2 + maxPacketSize];
+        this.mParityLengths = new int[MAX_PENDING];
+        this.mSyndromes = new byte[Protection.MAX_PARITY][2 + maxPacketSize];
+        this.mRecovered = new byte[2 + maxPacketSize];
+    }
+
+    // a media packet as received
+    public void receiveMedia(byte[] packet, int offset, int length) {
+        if (length > maxPacketSize || length < RtpHeader.SIZE) {
+            return;
+        }
+        store(packet, offset, length);
+        if (mPendingCount > 0) {
+            // it may have been what a group was short of
+            solvePending();
+        }
+    }
+
+    // a parity packet as received, RTP header included
+    public void receiveParity(byte[] packet, int offset, int length) {
+        int header = offset + RtpHeader.SIZE;
+        if (length < RtpHeader.SIZE + FecHeader.SIZE
+                || length - RtpHeader.SIZE > FecHeader.SIZE + 2 + maxPacketSize
+                || FecHeader.parityLength(packet, header) != length - RtpHeader.SIZE - FecHeader.SIZE
+                || FecHeader.count(packet, header) == 0 || FecHeader.stride(packet, header) == 0
+                || FecHeader.index(packet, header) >= Protection.MAX_PARITY) {
+            return;
+        }
+        int slot = freeParitySlot();
+        System.arraycopy(packet, header, mParity[slot], 0, length - RtpHeader.SIZE);
+        mParityLengths[slot] = length - RtpHeader.SIZE;
+        mPendingCount++;
+        solvePending();
+    }
+
+    // packets rebuilt
+    public long getRecovered() {
+        return mRecoveredCount;
+    }
+
+    // groups given up on with packets still missing
+    public long getUnrecoverable() {
+        return mUnrecoverable;
+    }
+
+    private void store(byte[] packet, int offset, int length) {
+        int sequenceNumber = RtpHeader.sequenceNumber(packet, offset);
+        if (!mStarted || RtpHeader.distance(mHighest, sequenceNumber) > 0) {
+            mStarted = true;
+            mHighest = sequenceNumber;
+        }
+        int slot = sequenceNumber & mask;
+        byte[] media = mMedia[slot];
+        media[0] = (byte) (length >> 8);
+        media[1] = (byte) length;
+        System.arraycopy(packet, offset, media, 2, length);
+        mMediaSequenceNumbers[slot] = sequenceNumber;
+        mMediaPresent[slot] = true;
+    }
+
+    private boolean isPresent(int sequenceNumber) {
+        int slot = sequenceNumber & mask;
+        return mMediaPresent[slot] && mMediaSequenceNumbers[slot] == sequenceNumber;
+    }
+
+    private int mediaLength(int sequenceNumber) {
+        byte[] media = mMedia[sequenceNumber & mask];
+        return 2 + (((media[0] & 0xFF) << 8) | (media[1] & 0xFF));
+    }
+
+    // an empty slot, or the oldest pending group's
+    private int freeParitySlot() {
+        for (int i = 0; i < MAX_PENDING; i++) {
+            if (mParityLengths[i] == 0) {
+                return i;
+            }
+        }
+        int oldest = 0;
+        for (int i = 1; i < MAX_PENDING; i++) {
+            if (RtpHeader.distance(FecHeader.base(mParity[i], 0), FecHeader.base(mParity[oldest], 0)) > 0) {
+                oldest = i;
+            }
+        }
+        drop(oldest, true);
+        return oldest;
+    }
+
+    private void drop(int slot, boolean unrecoverable) {
+        if (unrecoverable) {
+            mUnrecoverable++;
+        }
+        mParityLengths[slot] = 0;
+        mPendingCount--;
+    }
+
+    private void solvePending() {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int slot = 0; slot < MAX_PENDING; slot++) {
+                if (mParityLengths[slot] > 0 && solve(slot)) {
+                    progress = true;
+                }
+            }
+        }
+    }
+
+    // true if packets were rebuilt
+    private boolean solve(int slot) {
+        byte[] parity = mParity[slot];
+        int base = FecHeader.base(parity, 0);
+        int stride = FecHeader.stride(parity, 0);
+        int count = FecHeader.count(parity, 0);
+        int coding = FecHeader.coding(parity, 0);
+        int last = (base + (count - 1) * stride) & 0xFFFF;
+
+        if (RtpHeader.distance(last, mHighest) > mask) {
+            // its packets have left the window
+            dropGroup(base, stride, count, coding, true);
+            return false;
+        }
+
+        int missing = 0;
+        for (int i = 0; i < count; i++) {
+            if (!isPresent((base + i * stride) & 0xFFFF)) {
+                if (missing == Protection.MAX_PARITY) {
+                    return false;
+                }
+                mMissing[missing++] = i;
+            }
+        }
+        if (missing == 0) {
+            dropGroup(base, stride, count, coding, false);
+            return false;
+        }
+
+        // the group's parity packets, as many as there are packets missing
+        int rows = 0;
+        for (int other = 0; other < MAX_PENDING && rows < missing; other++) {
+            byte[] candidate = mParity[other];
+            if (mParityLengths[other] > 0 && FecHeader.base(candidate, 0) == base
+                    && FecHeader.stride(candidate, 0) == stride && FecHeader.count(candidate, 0) == count
+                    && FecHeader.coding(candidate, 0) == coding) {
+                mRows[rows++] = other;
+            }
+        }
+        if (rows < missing) {
+            return false;
+        }
+
+        int length = FecHeader.parityLength(parity, 0);
+        for (int r = 0; r < missing; r++) {
+            byte[] row = mParity[mRows[r]];
+            int index = FecHeader.index(row, 0);
+            // parity less what the packets received contribute
+            byte[] syndrome = mSyndromes[r];
+            System.arraycopy(row, FecHeader.SIZE, syndrome, 0, length);
+            for (int i = 0, m = 0; i < count; i++) {
+                if (m < missing && mMissing[m] == i) {
+                    mMatrix[r][m++] = FecHeader.coefficient(coding, index, i);
+                    continue;
+                }
+                int sequenceNumber = (base + i * stride) & 0xFFFF;
+                Gf256.multiplyAdd(syndrome, 0, mMedia[sequenceNumber & mask], 0,
+                        Math.min(length, mediaLength(sequenceNumber)), FecHeader.coefficient(coding, index, i));
+            }
+        }
+        if (!Gf256.invert(mMatrix, mWork, missing)) {
+            dropGroup(base, stride, count, coding, true);
+            return false;
+        }
+
+        dropGroup(base, stride, count, coding, false);
+        boolean rebuilt = false;
+        for (int m = 0; m < missing; m++) {
+            for (int i = 0; i < length; i++) {
+                mRecovered[i] = 0;
+            }
+            for (int r = 0; r < missing; r++) {
+                Gf256.multiplyAdd(mRecovered, 0, mSyndromes[r], 0, length, mMatrix[m][r]);
+            }
+            int packetLength = ((mRecovered[0] & 0xFF) << 8) | (mRecovered[1] & 0xFF);
+            int sequenceNumber = (base + mMissing[m] * stride) & 0xFFFF;
+            if (packetLength < RtpHeader.SIZE || 2 + packetLength > length
+                    || RtpHeader.sequenceNumber(mRecovered, 2) != sequenceNumber) {
+                // corrupted parity
+                mUnrecoverable++;
+                continue;
+            }
+            store(mRecovered, 2, packetLength);
+            mRecoveredCount++;
+            rebuilt = true;
+            listener.onRecovered(mRecovered, 2, packetLength);
+        }
+        return rebuilt;
+    }
+
+    // drops every pending parity packet of the group
+    private void dropGroup(int base, int stride, int count, int coding, boolean unrecoverable) {
+        for (int other = 0; other < MAX_PENDING; other++) {
+            byte[] candidate = mParity[other];
+            if (mParityLengths[other] > 0 && FecHeader.base(candidate, 0) == base
+                    && FecHeader.stride(candidate, 0) == stride && FecHeader.count(candidate, 0) == count
+                    && FecHeader.coding(candidate, 0) == coding) {
+                drop(other, false);
+            }
+        }
+        if (unrecoverable) {
+            mUnrecoverable++;
+        }
+    }
+}
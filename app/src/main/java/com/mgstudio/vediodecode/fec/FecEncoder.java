@@ -0,0 +1,177 @@
+package com.mgstudio.vediodecode.fec;
+//FEC编码器
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+import com.mgstudio.vediodecode.rtp.RtpPacketizer;
+
+import java.io.IOException;
+
+// Adds parity packets to the RTP packets of each frame, protecting each kind of frame as set: by default
+// parameter sets and key frames - which every later frame needs - get Reed-Solomon parity, ordinary
+// frames one XOR parity per ten packets. Parity goes out as soon as its group is complete, and the
+// last groups of a frame are closed with it, so a frame never waits for the next one.
+//
+// Parity buffers come from a pool, packets are built in one array: steady state allocates nothing.
+// Called on the transport thread.
+public class FecEncoder {
+
+    private final int maxPacketSize;
+
+    private final int ssrc;
+
+    private final Protection[] protections = new Protection[VideoPacket.Flag.values().length];
+
+    private final ParityGroup mRow;
+
+    // XOR_2D: one group per column of the block
+    private final ParityGroup[] mColumns = new ParityGroup[Protection.MAX_GROUP_SIZE];
+
+    private final byte[] mPacket;
+
+    private final byte[] mLengthField = new byte[2];
+
+    private Protection mProtection = Protection.NONE;
+
+    // XOR_2D: packets in the current block
+    private int mBlockPosition;
+
+    private int mSequenceNumber;
+
+    private int mTimestamp;
+
+    private long mParityPackets;
+    private long mParityBytes;
+
+    // maxPacketSize: longest media packet; parity packets are FecHeader.OVERHEAD longer
+    public FecEncoder(int maxPacketSize, int ssrc) {
+        this.maxPacketSize = maxPacketSize;
+        this.ssrc = ssrc;
+        this.mPacket = new byte[maxPacketSize + FecHeader.OVERHEAD];
+        // parity of every group that can be open at once: a row and its columns, or RS parity
+        BufferPool pool = new BufferPool(maxPacketSize + 2, 2 * Protection.MAX_GROUP_SIZE, false);
+        this.mRow = new ParityGroup(pool);
+        for (int i = 0; i < mColumns.length; i++) {
+            mColumns[i] = new ParityGroup(pool);
+        }
+        for (VideoPacket.Flag flag : VideoPacket.Flag.values()) {
+            setProtection(flag, defaultProtection(flag));
+        }
+    }
+
+    public static Protection defaultProtection(VideoPacket.Flag flag) {
+        switch (flag) {
+            case CONFIG:
+                return Protection.reedSolomon(4, 2);
+            case KEY_FRAME:
+                return Protection.reedSolomon(10, 3);
+            case FRAME:
+                return Protection.xor(10);
+            default:
+                return Protection.NONE;
+        }
+    }
+
+    public void setProtection(VideoPacket.Flag flag, Protection protection) {
+        protections[flag.ordinal()] = protection;
+    }
+
+    public Protection getProtection(VideoPacket.Flag flag) {
+        return protections[flag.ordinal()];
+    }
+
+    public void setSequenceNumber(int sequenceNumber) {
+        mSequenceNumber = sequenceNumber & 0xFFFF;
+    }
+
+    // the packets up to endFrame belong to a frame of this kind
+    public void beginFrame(VideoPacket.Flag flag) {
+        mProtection = protections[flag.ordinal()];
+        mBlockPosition = 0;
+    }
+
+    // a media packet just sent
+    public void add(byte[] packet, int length, RtpPacketizer.Output output) throws IOException {
+        if (mProtection.scheme == Protection.Scheme.NONE) {
+            return;
+        }
+        if (length > maxPacketSize) {
+            throw new IllegalArgumentException("packet of " + length + " bytes");
+        }
+        int sequenceNumber = RtpHeader.sequenceNumber(packet, 0);
+        mTimestamp = RtpHeader.timestamp(packet, 0);
+        boolean reedSolomon = mProtection.scheme == Protection.Scheme.REED_SOLOMON;
+
+        if (!mRow.isStarted()) {
+            mRow.start(sequenceNumber, 1, reedSolomon ? FecHeader.CODING_REED_SOLOMON : FecHeader.CODING_XOR,
+                    mProtection.parity, maxPacketSize + 2);
+        }
+        mRow.add(packet, length, mLengthField);
+        if (mRow.count() == mProtection.groupSize) {
+            emit(mRow, output);
+        }
+
+        if (mProtection.scheme == Protection.Scheme.XOR_2D) {
+            int columns = mProtection.groupSize;
+            ParityGroup column = mColumns[mBlockPosition % columns];
+            if (!column.isStarted()) {
+                column.start(sequenceNumber, columns, FecHeader.CODING_XOR, 1, maxPacketSize + 2);
+            }
+            column.add(packet, length, mLengthField);
+            mBlockPosition++;
+            if (mBlockPosition == columns * mProtection.rows) {
+                emitColumns(output);
+            }
+        }
+    }
+
+    // closes the frame's open groups
+    public void endFrame(RtpPacketizer.Output output) throws IOException {
+        if (mRow.isStarted()) {
+            emit(mRow, output);
+        }
+        if (mProtection.scheme == Protection.Scheme.XOR_2D) {
+            if (mBlockPosition > mProtection.groupSize) {
+                emitColumns(output);
+            } else {
+                // a single row: its row parity covers it already
+                for (int i = 0; i < mProtection.groupSize; i++) {
+                    mColumns[i].reset();
+                }
+                mBlockPosition = 0;
+            }
+        }
+    }
+
+    public long getParityPackets() {
+        return mParityPackets;
+    }
+
+    public long getParityBytes() {
+        return mParityBytes;
+    }
+
+    private void emitColumns(RtpPacketizer.Output output) throws IOException {
+        for (int i = 0; i < mProtection.groupSize; i++) {
+            if (mColumns[i].isStarted()) {
+                emit(mColumns[i], output);
+            }
+        }
+        mBlockPosition = 0;
+    }
+
+    private void emit(ParityGroup group, RtpPacketizer.Output output) throws IOException {
+        try {
+            for (int j = 0; j < group.parityCount(); j++) {
+                int length = group.write(j, mPacket, mSequenceNumber, mTimestamp, ssrc);
+                mSequenceNumber = (mSequenceNumber + 1) & 0xFFFF;
+                mParityPackets++;
+                mParityBytes += length;
+                output.onPacket(mPacket, length);
+            }
+        } finally {
+            group.reset();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.mgstudio.vediodecode.fec;
+//FEC头
+
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+
+// the header of a parity packet, after its RTP header. Parity packets carry their own payload type
+// and sequence numbers, so the media sequence stays gap free without them.
+//
+//  0                   1                   2                   3
+// |        base sequence number   |    stride     |     count     |
+// |    coding     |     index     |    parity length              |
+//
+// The group is count media packets: base, base + stride, ... Each is protected as its length (two
+// bytes) followed by the whole RTP packet, zero padded to the longest in the group; the parity is
+// that many bytes. With XOR coding every coefficient is 1, with Reed-Solomon packet i gets
+// 1 / (x_index + y_i) of a Cauchy matrix, so any count of the group's packets and parity rebuild it.
+public final class FecHeader {
+
+    public static final int SIZE = 8;
+
+    // payload type of parity packets, next to the video's
+    public static final int PAYLOAD_TYPE_FEC = 97;
+
+    // a parity packet is this much longer than the longest packet it protects: its own RTP header, this
+    // header and the length field. Media packets leave this much of the MTU unused
+    public static final int OVERHEAD = RtpHeader.SIZE + SIZE + 2;
+
+    public static final int CODING_XOR = 0;
+
+    public static final int CODING_REED_SOLOMON = 1;
+
+    private FecHeader() {
+    }
+
+    public static void write(byte[] packet, int offset, int base, int stride, int count, int coding, int index,
+                             int parityLength) {
+        packet[offset] = (byte) (base >> 8);
+        packet[offset + 1] = (byte) base;
+        packet[offset + 2] = (byte) stride;
+        packet[offset + 3] = (byte) count;
+        packet[offset + 4] = (byte) coding;
+        packet[offset + 5] = (byte) index;
+        packet[offset + 6] = (byte) (parityLength >> 8);
+        packet[offset + 7] = (byte) parityLength;
+    }
+
+    public static int base(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
+    }
+
+    public static int stride(byte[] packet, int offset) {
+        return packet[offset + 2] & 0xFF;
+    }
+
+    public static int count(byte[] packet, int offset) {
+        return packet[offset + 3] & 0xFF;
+    }
+
+    public static int coding(byte[] packet, int offset) {
+        return packet[offset + 4] & 0xFF;
+    }
+
+    public static int index(byte[] packet, int offset) {
+        return packet[offset + 5] & 0xFF;
+    }
+
+    public static int parityLength(byte[] packet, int offset) {
+        return ((packet[offset + 6] & 0xFF) << 8) | (packet[offset + 7] & 0xFF);
+    }
+
+    // coefficient of group packet i in parity index
+    public static int coefficient(int coding, int index, int i) {
+        return coding == CODING_XOR ? 1 : Gf256.inverse((128 + index) ^ i);
+    }
+
+    // whether an RTP packet is a parity packet
+    public static boolean isFec(byte[] packet, int offset) {
+        return RtpHeader.payloadType(packet, offset) == PAYLOAD_TYPE_FEC;
+    }
+}
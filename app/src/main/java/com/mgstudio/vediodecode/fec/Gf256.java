@@ -0,0 +1,120 @@
+package com.mgstudio.vediodecode.fec;
+//GF(256)运算
+
+// arithmetic in GF(2^8) over the polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11D), as Reed-Solomon
+// erasure codes use it. Addition is XOR; multiplication is one lookup in a 64 KiB table built once,
+// so the bulk loops touch no log/exp arithmetic.
+public final class Gf256 {
+
+    private static final int POLYNOMIAL = 0x11D;
+
+    // twice the period, so exp[log a + log b] needs no modulo
+    private static final int[] EXP = new int[510];
+
+    private static final int[] LOG = new int[256];
+
+    // MUL[a][b] = a * b
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            EXP[i + 255] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private Gf256() {
+    }
+
+    public static int multiply(int a, int b) {
+        return MUL[a][b] & 0xFF;
+    }
+
+    public static int inverse(int a) {
+        if (a == 0) {
+            throw new ArithmeticException("inverse of 0");
+        }
+        return EXP[255 - LOG[a]];
+    }
+
+    public static int divide(int a, int b) {
+        return multiply(a, inverse(b));
+    }
+
+    // dst[dstOffset, +length) += coefficient * src[srcOffset, +length)
+    public static void multiplyAdd(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length,
+                                   int coefficient) {
+        if (coefficient == 0) {
+            return;
+        }
+        if (coefficient == 1) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] ^= src[srcOffset + i];
+            }
+            return;
+        }
+        byte[] row = MUL[coefficient];
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] ^= row[src[srcOffset + i] & 0xFF];
+        }
+    }
+
+    // inverts the n x n matrix in place by Gauss-Jordan elimination, using work as scratch of the same
+    // size; false if it is singular
+    public static boolean invert(int[][] matrix, int[][] work, int n) {
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                work[r][c] = r == c ? 1 : 0;
+            }
+        }
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            while (pivot < n && matrix[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                return false;
+            }
+            swap(matrix, pivot, column);
+            swap(work, pivot, column);
+            int scale = inverse(matrix[column][column]);
+            for (int c = 0; c < n; c++) {
+                matrix[column][c] = multiply(matrix[column][c], scale);
+                work[column][c] = multiply(work[column][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                int factor = matrix[r][column];
+                if (r == column || factor == 0) {
+                    continue;
+                }
+                for (int c = 0; c < n; c++) {
+                    matrix[r][c] ^= multiply(factor, matrix[column][c]);
+                    work[r][c] ^= multiply(factor, work[column][c]);
+                }
+            }
+        }
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], 0, matrix[r], 0, n);
+        }
+        return true;
+    }
+
+    private static void swap(int[][] matrix, int a, int b) {
+        if (a != b) {
+            int[] row = matrix[a];
+            matrix[a] = matrix[b];
+            matrix[b] = row;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.mgstudio.vediodecode.fec;
+//校验组
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+
+import java.nio.ByteBuffer;
+
+// parity of one group in progress: each packet added is folded into every parity buffer right away,
+// so nothing of the group has to be kept. Parity buffers come from the pool and go back on reset.
+class ParityGroup {
+
+    private final BufferPool pool;
+
+    private final ByteBuffer[] mParity = new ByteBuffer[Protection.MAX_PARITY];
+
+    private int mBase;
+    private int mStride;
+    private int mCoding;
+    private int mParityCount;
+    private int mCount;
+    // longest protected packet so far, length field included
+    private int mLength;
+
+    ParityGroup(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    // base: sequence number of the first packet; capacity: most bytes a protected packet takes
+    void start(int base, int stride, int coding, int parityCount, int capacity) {
+        reset();
+        mBase = base;
+        mStride = stride;
+        mCoding = coding;
+        mParityCount = parityCount;
+        for (int j = 0; j < parityCount; j++) {
+            ByteBuffer parity = pool.acquire(capacity);
+            // pooled buffers come back dirty
+            byte[] array = parity.array();
+            for (int i = 0; i < capacity; i++) {
+                array[i] = 0;
+            }
+            mParity[j] = parity;
+        }
+    }
+
+    boolean isStarted() {
+        return mParityCount > 0;
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    void add(byte[] packet, int length, byte[] lengthField) {
+        lengthField[0] = (byte) (length >> 8);
+        lengthField[1] = (byte) length;
+        for (int j = 0; j < mParityCount; j++) {
+            int coefficient = FecHeader.coefficient(mCoding, j, mCount);
+            byte[] parity = mParity[j].array();
+            Gf256.multiplyAdd(parity, 0, lengthField, 0, 2, coefficient);
+            Gf256.multiplyAdd(parity, 2, packet, 0, length, coefficient);
+        }
+        mCount++;
+        mLength = Math.max(mLength, 2 + length);
+    }
+
+    // parity packet j of the group into packet, returns its length
+    int write(int j, byte[] packet, int sequenceNumber, int timestamp, int ssrc) {
+        RtpHeader.write(packet, false, FecHeader.PAYLOAD_TYPE_FEC, sequenceNumber, timestamp, ssrc);
+        FecHeader.write(packet, RtpHeader.SIZE, mBase, mStride, mCount, mCoding, j, mLength);
+        System.arraycopy(mParity[j].array(), 0, packet, RtpHeader.SIZE + FecHeader.SIZE, mLength);
+        return RtpHeader.SIZE + FecHeader.SIZE + mLength;
+    }
+
+    int parityCount() {
+        return mParityCount;
+    }
+
+    void reset() {
+        for (int j = 0; j < mParityCount; j++) {
+            pool.release(mParity[j]);
+            mParity[j] = null;
+        }
+        mParityCount = 0;
+        mCount = 0;
+        mLength = 0;
+    }
+}
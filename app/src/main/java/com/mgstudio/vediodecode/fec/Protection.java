@@ -0,0 +1,74 @@
+package com.mgstudio.vediodecode.fec;
+//保护方案
+
+// how the packets of one kind of frame are protected:
+//  XOR           one parity packet per group of groupSize packets, recovers one loss in the group
+//  XOR_2D        packets laid out in rows of groupSize, one XOR parity per row and per column of at
+//                most rows packets; recovers any single loss and most bursts up to a row long
+//  REED_SOLOMON  parity packets per group of groupSize, recovers up to parity losses in the group
+// Groups never span frames: the last one of a frame is closed short, so no parity waits on the next.
+public final class Protection {
+
+    public enum Scheme {
+        NONE, XOR, XOR_2D, REED_SOLOMON
+    }
+
+    // Cauchy coefficients keep data and parity indices apart, 128 of each
+    public static final int MAX_GROUP_SIZE = 64;
+
+    public static final int MAX_PARITY = 16;
+
+    public static final Protection NONE = new Protection(Scheme.NONE, 1, 0, 0);
+
+    public final Scheme scheme;
+
+    public final int groupSize;
+
+    // XOR_2D: rows per block
+    public final int rows;
+
+    // REED_SOLOMON: parity packets per group
+    public final int parity;
+
+    private Protection(Scheme scheme, int groupSize, int rows, int parity) {
+        if (groupSize < 1 || groupSize > MAX_GROUP_SIZE || rows > MAX_GROUP_SIZE || parity > MAX_PARITY) {
+            throw new IllegalArgumentException(scheme + " " + groupSize + " " + rows + " " + parity);
+        }
+        this.scheme = scheme;
+        this.groupSize = groupSize;
+        this.rows = rows;
+        this.parity = parity;
+    }
+
+    public static Protection xor(int groupSize) {
+        return new Protection(Scheme.XOR, groupSize, 0, 1);
+    }
+
+    public static Protection xor2d(int columns, int rows) {
+        if (rows < 1) {
+            throw new IllegalArgumentException("rows " + rows);
+        }
+        return new Protection(Scheme.XOR_2D, columns, rows, 1);
+    }
+
+    public static Protection reedSolomon(int groupSize, int parity) {
+        if (parity < 1) {
+            throw new IllegalArgumentException("parity " + parity);
+        }
+        return new Protection(Scheme.REED_SOLOMON, groupSize, 0, parity);
+    }
+
+    @Override
+    public String toString() {
+        switch (scheme) {
+            case XOR:
+                return "XOR(" + groupSize + ")";
+            case XOR_2D:
+                return "XOR_2D(" + groupSize + "x" + rows + ")";
+            case REED_SOLOMON:
+                return "RS(" + groupSize + "+" + parity + ")";
+            default:
+                return "NONE";
+        }
+    }
+}
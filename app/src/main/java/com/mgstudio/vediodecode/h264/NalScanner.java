@@ -0,0 +1,147 @@
+package com.mgstudio.vediodecode.h264;
+//NAL单元扫描器
+
+import java.nio.ByteBuffer;
+
+// Walks the NAL units of an Annex B byte stream (00 00 01 or 00 00 00 01 start codes) without copying:
+// each unit is reported as buffer[offset, offset + size), starting at its header byte. Start codes are
+// searched eight bytes at a time, a word without a zero byte can't hold or start one and is skipped.
+//
+// One scanner can be reset onto any number of buffers, scanning allocates nothing.
+public class NalScanner {
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private ByteBuffer mBuffer;
+
+    private int mFrom;
+
+    private int mLimit;
+
+    // start of the next unit's payload, -1 once the stream is exhausted
+    private int mNext;
+
+    private int mOffset;
+
+    private int mSize;
+
+    private int mStartCodeSize;
+
+    private int mNextStartCodeSize;
+
+    // scan buffer[position, limit), the buffer's position and limit aren't changed
+    public NalScanner reset(ByteBuffer buffer) {
+        return reset(buffer, buffer.position(), buffer.remaining());
+    }
+
+    public NalScanner reset(byte[] data, int offset, int size) {
+        return reset(ByteBuffer.wrap(data), offset, size);
+    }
+
+    public NalScanner reset(ByteBuffer buffer, int offset, int size) {
+        mBuffer = buffer;
+        mFrom = offset;
+        mLimit = offset + size;
+        mOffset = 0;
+        mSize = 0;
+        mStartCodeSize = 0;
+        mNextStartCodeSize = 0;
+        int start = findStartCode(buffer, offset, mLimit);
+        mNext = start < 0 ? -1 : skipStartCode(start);
+        return this;
+    }
+
+    // moves to the next unit, false when there is none; bytes before the first start code are skipped
+    public boolean next() {
+        while (mNext >= 0) {
+            int offset = mNext;
+            int startCodeSize = mNextStartCodeSize;
+            int end = findStartCode(mBuffer, offset, mLimit);
+            if (end < 0) {
+                mNext = -1;
+                end = mLimit;
+            } else {
+                mNext = skipStartCode(end);
+            }
+            // a unit never ends in a zero: those belong to a 4-byte start code or are trailing_zero_8bits
+            while (end > offset && mBuffer.get(end - 1) == 0) {
+                end--;
+            }
+            if (end > offset) {
+                mOffset = offset;
+                mSize = end - offset;
+                mStartCodeSize = startCodeSize;
+                return true;
+            }
+            // empty unit between two start codes
+        }
+        return false;
+    }
+
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    // index of the unit's header byte in buffer()
+    public int offset() {
+        return mOffset;
+    }
+
+    // header and payload, start code excluded
+    public int size() {
+        return mSize;
+    }
+
+    // 3 or 4, the start code in front of the current unit
+    public int startCodeSize() {
+        return mStartCodeSize;
+    }
+
+    public int type() {
+        return NalUnitType.of(mBuffer.get(mOffset));
+    }
+
+    // the current unit as a buffer of its own, shares the content
+    public ByteBuffer slice() {
+        ByteBuffer slice = mBuffer.duplicate();
+        slice.limit(mOffset + mSize);
+        slice.position(mOffset);
+        return slice.slice();
+    }
+
+    // notes the start code size of the unit that follows, returns where that unit begins
+    private int skipStartCode(int start) {
+        mNextStartCodeSize = start > mFrom && mBuffer.get(start - 1) == 0 ? 4 : 3;
+        return start + 3;
+    }
+
+    // index of the first 00 00 01 in buffer[from, to), or -1
+    public static int findStartCode(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        // 00 00 01 starting inside a word has its first zero in that word, zero-free words are skipped
+        while (i + 8 <= to) {
+            long word = buffer.getLong(i);
+            if (((word - ONES) & ~word & HIGHS) != 0) {
+                int end = Math.min(i + 8, to - 2);
+                for (int j = i; j < end; j++) {
+                    if (isStartCode(buffer, j)) {
+                        return j;
+                    }
+                }
+            }
+            i += 8;
+        }
+        for (int j = i; j < to - 2; j++) {
+            if (isStartCode(buffer, j)) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isStartCode(ByteBuffer buffer, int index) {
+        return buffer.get(index) == 0 && buffer.get(index + 1) == 0 && buffer.get(index + 2) == 1;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mgstudio.vediodecode.h264;
+//NAL单元类型
+
+// nal_unit_type values of H.264 table 7-1 used by the stream
+public final class NalUnitType {
+
+    public static final int SLICE = 1;
+
+    public static final int SLICE_PARTITION_A = 2;
+
+    public static final int IDR = 5;
+
+    public static final int SEI = 6;
+
+    public static final int SPS = 7;
+
+    public static final int PPS = 8;
+
+    public static final int AUD = 9;
+
+    public static final int END_OF_SEQUENCE = 10;
+
+    public static final int END_OF_STREAM = 11;
+
+    public static final int FILLER = 12;
+
+    private NalUnitType() {
+    }
+
+    // type from the nal header byte
+    public static int of(byte header) {
+        return header & 0x1F;
+    }
+
+    // coded picture data, as opposed to parameter sets and other side data
+    public static boolean isSlice(int type) {
+        return type >= SLICE && type <= IDR;
+    }
+
+    // decodable without earlier frames
+    public static boolean isKeyFrame(int type) {
+        return type == IDR;
+    }
+
+    // parameter sets, what the codec takes as csd-0 / csd-1
+    public static boolean isConfig(int type) {
+        return type == SPS || type == PPS;
+    }
+}
@@ -0,0 +1,80 @@
+package com.mgstudio.vediodecode.h264;
+
+import java.nio.ByteBuffer;
+
+// Bit reader over the payload of one nal unit. Emulation prevention bytes (the 03 of 00 00 03) are
+// dropped as they are reached, so the caller sees the RBSP without it being copied out first.
+class RbspReader {
+
+    private final ByteBuffer mBuffer;
+
+    private final int mLimit;
+
+    private int mPosition;
+
+    // zero bytes just read, an 03 after two of them is skipped
+    private int mZeros;
+
+    private int mCurrent;
+
+    // bits of mCurrent not read yet
+    private int mBits;
+
+    RbspReader(ByteBuffer buffer, int offset, int size) {
+        mBuffer = buffer;
+        mPosition = offset;
+        mLimit = offset + size;
+    }
+
+    int readBit() {
+        if (mBits == 0) {
+            if (mPosition < mLimit && mZeros >= 2 && mBuffer.get(mPosition) == 3) {
+                mPosition++;
+                mZeros = 0;
+            }
+            if (mPosition >= mLimit) {
+                throw new IllegalArgumentException("nal unit truncated");
+            }
+            mCurrent = mBuffer.get(mPosition++) & 0xFF;
+            mZeros = mCurrent == 0 ? mZeros + 1 : 0;
+            mBits = 8;
+        }
+        return (mCurrent >>> --mBits) & 1;
+    }
+
+    boolean readFlag() {
+        return readBit() == 1;
+    }
+
+    // n <= 32
+    int readBits(int n) {
+        int value = 0;
+        for (int i = 0; i < n; i++) {
+            value = (value << 1) | readBit();
+        }
+        return value;
+    }
+
+    void skipBits(int n) {
+        for (int i = 0; i < n; i++) {
+            readBit();
+        }
+    }
+
+    // ue(v), unsigned exp-Golomb
+    int readUE() {
+        int leadingZeros = 0;
+        while (readBit() == 0) {
+            if (++leadingZeros > 31) {
+                throw new IllegalArgumentException("exp-Golomb code too long");
+            }
+        }
+        return (int) ((1L << leadingZeros) - 1 + (readBits(leadingZeros) & 0xFFFFFFFFL));
+    }
+
+    // se(v), signed exp-Golomb
+    int readSE() {
+        long code = readUE() & 0xFFFFFFFFL;
+        return (int) ((code & 1) == 1 ? (code + 1) / 2 : -(code / 2));
+    }
+}
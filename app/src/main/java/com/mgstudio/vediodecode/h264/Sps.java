@@ -0,0 +1,161 @@
+package com.mgstudio.vediodecode.h264;
+//序列参数集
+
+import java.nio.ByteBuffer;
+
+// The parts of a sequence parameter set (H.264 7.3.2.1.1) the player needs: the displayed picture
+// size after cropping, and the profile and level it was encoded with.
+public class Sps {
+
+    public final int profileIdc;
+
+    public final int levelIdc;
+
+    public final int seqParameterSetId;
+
+    public final int width;
+
+    public final int height;
+
+    private Sps(int profileIdc, int levelIdc, int seqParameterSetId, int width, int height) {
+        this.profileIdc = profileIdc;
+        this.levelIdc = levelIdc;
+        this.seqParameterSetId = seqParameterSetId;
+        this.width = width;
+        this.height = height;
+    }
+
+    // buffer[offset, offset + size) is an SPS nal unit starting at its header byte, start code excluded;
+    // throws IllegalArgumentException if it is something else or is malformed
+    public static Sps parse(ByteBuffer buffer, int offset, int size) {
+        if (size < 1 || NalUnitType.of(buffer.get(offset)) != NalUnitType.SPS) {
+            throw new IllegalArgumentException("not an SPS");
+        }
+        RbspReader reader = new RbspReader(buffer, offset + 1, size - 1);
+
+        int profileIdc = reader.readBits(8);
+        reader.skipBits(8); // constraint_set flags and reserved_zero_2bits
+        int levelIdc = reader.readBits(8);
+        int seqParameterSetId = checkRange(reader.readUE(), 31, "seq_parameter_set_id");
+
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(profileIdc)) {
+            chromaFormatIdc = checkRange(reader.readUE(), 3, "chroma_format_idc");
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = reader.readFlag();
+            }
+            checkRange(reader.readUE(), 6, "bit_depth_luma_minus8");
+            checkRange(reader.readUE(), 6, "bit_depth_chroma_minus8");
+            reader.skipBits(1); // qpprime_y_zero_transform_bypass_flag
+            if (reader.readFlag()) { // seq_scaling_matrix_present_flag
+                int lists = chromaFormatIdc == 3 ? 12 : 8;
+                for (int i = 0; i < lists; i++) {
+                    if (reader.readFlag()) {
+                        skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        checkRange(reader.readUE(), 12, "log2_max_frame_num_minus4");
+        int picOrderCntType = checkRange(reader.readUE(), 2, "pic_order_cnt_type");
+        if (picOrderCntType == 0) {
+            checkRange(reader.readUE(), 12, "log2_max_pic_order_cnt_lsb_minus4");
+        } else if (picOrderCntType == 1) {
+            reader.skipBits(1); // delta_pic_order_always_zero_flag
+            reader.readSE(); // offset_for_non_ref_pic
+            reader.readSE(); // offset_for_top_to_bottom_field
+            int cycle = checkRange(reader.readUE(), 255, "num_ref_frames_in_pic_order_cnt_cycle");
+            for (int i = 0; i < cycle; i++) {
+                reader.readSE();
+            }
+        }
+        reader.readUE(); // max_num_ref_frames
+        reader.skipBits(1); // gaps_in_frame_num_value_allowed_flag
+
+        // bounded so the sizes below can't overflow, level 6.2 tops out well under this
+        int widthMbs = checkRange(reader.readUE(), 1023, "pic_width_in_mbs_minus1") + 1;
+        int heightMapUnits = checkRange(reader.readUE(), 1023, "pic_height_in_map_units_minus1") + 1;
+        boolean frameMbsOnly = reader.readFlag();
+        if (!frameMbsOnly) {
+            reader.skipBits(1); // mb_adaptive_frame_field_flag
+        }
+        reader.skipBits(1); // direct_8x8_inference_flag
+
+        int width = widthMbs * 16;
+        int height = (frameMbsOnly ? 1 : 2) * heightMapUnits * 16;
+        if (reader.readFlag()) { // frame_cropping_flag
+            // crop offsets count in chroma samples, or luma samples without chroma (7-19 to 7-22)
+            int arrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            int cropUnitX = arrayType == 1 || arrayType == 2 ? 2 : 1;
+            int cropUnitY = (arrayType == 1 ? 2 : 1) * (frameMbsOnly ? 1 : 2);
+            long left = reader.readUE() & 0xFFFFFFFFL;
+            long right = reader.readUE() & 0xFFFFFFFFL;
+            long top = reader.readUE() & 0xFFFFFFFFL;
+            long bottom = reader.readUE() & 0xFFFFFFFFL;
+            if ((left + right) * cropUnitX >= width || (top + bottom) * cropUnitY >= height) {
+                throw new IllegalArgumentException("cropping leaves no picture");
+            }
+            width -= (left + right) * cropUnitX;
+            height -= (top + bottom) * cropUnitY;
+        }
+        // vui_parameters follow, nothing in there changes the size
+
+        return new Sps(profileIdc, levelIdc, seqParameterSetId, width, height);
+    }
+
+    public static Sps parse(byte[] data, int offset, int size) {
+        return parse(ByteBuffer.wrap(data), offset, size);
+    }
+
+    // High and the other profiles whose SPS carries chroma format, bit depth and scaling matrices
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+            case 44:
+            case 83:
+            case 86:
+            case 118:
+            case 128:
+            case 138:
+            case 139:
+            case 134:
+            case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 7.3.2.1.1.1, only the syntax is consumed
+    private static void skipScalingList(RbspReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size && nextScale != 0; j++) {
+            int deltaScale = reader.readSE();
+            if (deltaScale < -128 || deltaScale > 127) {
+                throw new IllegalArgumentException("delta_scale out of range");
+            }
+            nextScale = (lastScale + deltaScale + 256) % 256;
+            if (nextScale != 0) {
+                lastScale = nextScale;
+            }
+        }
+    }
+
+    private static int checkRange(int value, int max, String name) {
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException(name + " out of range: " + (value & 0xFFFFFFFFL));
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Sps{profile=" + profileIdc + ", level=" + levelIdc + ", " + width + "x" + height + "}";
+    }
+}
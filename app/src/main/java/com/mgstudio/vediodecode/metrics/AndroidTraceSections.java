@@ -0,0 +1,38 @@
+package com.mgstudio.vediodecode.metrics;
+//系统追踪
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+// passes FrameTracer spans on to android.os.Trace, so they show in systrace and Perfetto next to the
+// codec's and the system's own. Sections have to nest on one thread: only the spans that are not async
+// get one. Async sections need API 29, past what this build compiles against, so those spans are in the
+// JSON dump only. The tracer passes on an end only when it passed on its begin, so every endSection
+// closes the section this class opened.
+public class AndroidTraceSections implements FrameTracer.Sections {
+
+    @Override
+    public void begin(FrameTracer.Span span, long timeStamp) {
+        if (!span.isAsync() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginSection(span.name());
+        }
+    }
+
+    @Override
+    public void end(FrameTracer.Span span, long timeStamp) {
+        if (!span.isAsync() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endSection();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        Trace.endSection();
+    }
+}
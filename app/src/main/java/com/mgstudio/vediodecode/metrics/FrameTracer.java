@@ -0,0 +1,244 @@
+package com.mgstudio.vediodecode.metrics;
+//帧追踪
+
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Optional per-frame tracing, for finding which frame stalled where: each thread a frame passes marks
+// the begin and end of its span by the frame's timeStamp, and finished spans go into a ring allocated
+// when tracing is enabled, the oldest overwritten first. writeTo dumps the ring as Chrome trace-event
+// JSON for chrome://tracing or ui.perfetto.dev. Sections, if set, hear of every begin made while enabled
+// and of its end, even one after disable: AndroidTraceSections passes them on to systrace, where an end
+// without its begin would close another section.
+//
+// Off, a begin reads one volatile field and an end at most one begin slot too. On, it is lock-free and
+// allocates nothing; any thread may call.
+public class FrameTracer {
+
+    public enum Span {
+        // encoder thread: copied out of the codec and handed to the transport
+        ENCODER_OUTPUT(false),
+        // handed to the transport to taken from its send queue
+        QUEUE_WAIT(true),
+        // taken from the queue to written to the socket
+        SOCKET_WRITE(true),
+        // receive thread: header read to the whole frame read
+        SOCKET_READ(false),
+        // pacer thread: into the decoder
+        DECODER_INPUT(false),
+        // handed to the decoder to out of it
+        DECODER_OUTPUT(true);
+
+        private static final Span[] VALUES = values();
+
+        private final boolean async;
+
+        Span(boolean async) {
+            this.async = async;
+        }
+
+        // spans of consecutive frames may overlap, or begin and end on different threads
+        public boolean isAsync() {
+            return async;
+        }
+    }
+
+    // told of each begin and end as it happens, on the thread calling
+    public interface Sections {
+        void begin(Span span, long timeStamp);
+
+        void end(Span span, long timeStamp);
+    }
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public static final FrameTracer TRACER = new FrameTracer();
+
+    // begins waiting for their end, per span: slots picked by timeStamp
+    private static final int FRAMES = 256;
+
+    // per span in the ring: sequence, span, thread, timeStamp, begin, end
+    private static final int RECORD_SIZE = 6;
+
+    // timeStamp of a begin slot without a begin
+    private static final long NONE = Long.MIN_VALUE;
+
+    private volatile Ring mRing;
+
+    // per span and slot: timeStamp, begin. Made by the first enable and kept, so a span begun before a
+    // disable or another enable still finds its begin
+    private volatile AtomicLongArray mBegins;
+
+    private volatile Sections mSections;
+
+    // starts recording into a ring of capacity spans, a power of two; spans recorded before are dropped
+    public synchronized void enable(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        if (mBegins == null) {
+            AtomicLongArray begins = new AtomicLongArray(Span.VALUES.length * FRAMES * 2);
+            for (int i = 0; i < begins.length(); i += 2) {
+                begins.set(i, NONE);
+            }
+            mBegins = begins;
+        }
+        mRing = new Ring(capacity);
+    }
+
+    // stops recording, the spans recorded are dropped; spans already begun still end
+    public void disable() {
+        mRing = null;
+    }
+
+    public boolean isEnabled() {
+        return mRing != null;
+    }
+
+    // null for none; set it while no span is open, so every end it hears had its begin
+    public void setSections(Sections sections) {
+        mSections = sections;
+    }
+
+    public void begin(Span span, long timeStamp) {
+        Ring ring = mRing;
+        if (ring == null) {
+            return;
+        }
+        // set before the first ring
+        AtomicLongArray begins = mBegins;
+        int slot = beginSlot(span, timeStamp);
+        begins.set(slot + 1, nowUs());
+        begins.set(slot, timeStamp);
+        Sections sections = mSections;
+        if (sections != null) {
+            sections.begin(span, timeStamp);
+        }
+    }
+
+    // no-op for a span that didn't begin, or whose begin was overwritten
+    public void end(Span span, long timeStamp) {
+        AtomicLongArray begins = mBegins;
+        if (begins == null) {
+            return;
+        }
+        int slot = beginSlot(span, timeStamp);
+        if (begins.get(slot) != timeStamp) {
+            // never began, or a later frame took the slot
+            return;
+        }
+        long beginUs = begins.get(slot + 1);
+        if (!begins.compareAndSet(slot, timeStamp, NONE)) {
+            // taken meanwhile; ends once, a second end finds no begin
+            return;
+        }
+        Sections sections = mSections;
+        if (sections != null) {
+            sections.end(span, timeStamp);
+        }
+        Ring ring = mRing;
+        if (ring != null) {
+            ring.record(span, timeStamp, beginUs, nowUs(), Thread.currentThread().getId());
+        }
+    }
+
+    // frames only: parameter sets share their key frame's timeStamp, CLOCK packets are no frame
+    public void begin(Span span, VideoPacket videoPacket) {
+        if (isFrame(videoPacket.flag)) {
+            begin(span, videoPacket.presentationTimeStamp);
+        }
+    }
+
+    public void end(Span span, VideoPacket videoPacket) {
+        if (isFrame(videoPacket.flag)) {
+            end(span, videoPacket.presentationTimeStamp);
+        }
+    }
+
+    public static boolean isFrame(VideoPacket.Flag flag) {
+        return flag == VideoPacket.Flag.FRAME || flag == VideoPacket.Flag.KEY_FRAME;
+    }
+
+    // spans recorded and still in the ring, oldest first, as Chrome trace-event JSON; returns how many.
+    // Spans recorded meanwhile may be left out
+    public int writeTo(Writer writer) throws IOException {
+        TraceEventWriter events = new TraceEventWriter(writer);
+        events.begin();
+        Ring ring = mRing;
+        int count = ring != null ? ring.writeTo(events) : 0;
+        events.end();
+        return count;
+    }
+
+    private static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    private static class Ring {
+
+        private final int mask;
+
+        private final AtomicLongArray mRecords;
+
+        private final AtomicLong mNext = new AtomicLong();
+
+        Ring(int capacity) {
+            this.mask = capacity - 1;
+            this.mRecords = new AtomicLongArray(capacity * RECORD_SIZE);
+            for (int i = 0; i < capacity; i++) {
+                mRecords.set(i * RECORD_SIZE, -1);
+            }
+        }
+
+        void record(Span span, long timeStamp, long beginUs, long nowUs, long thread) {
+            long sequence = mNext.getAndIncrement();
+            int record = (int) (sequence & mask) * RECORD_SIZE;
+            // being written: a dump racing with it skips it
+            mRecords.set(record, -1);
+            mRecords.set(record + 1, span.ordinal());
+            mRecords.set(record + 2, thread);
+            mRecords.set(record + 3, timeStamp);
+            mRecords.set(record + 4, beginUs);
+            mRecords.set(record + 5, nowUs);
+            mRecords.set(record, sequence);
+        }
+
+        int writeTo(TraceEventWriter events) throws IOException {
+            long next = mNext.get();
+            int capacity = mask + 1;
+            int count = 0;
+            for (long sequence = Math.max(0, next - capacity); sequence < next; sequence++) {
+                int record = (int) (sequence & mask) * RECORD_SIZE;
+                if (mRecords.get(record) != sequence) {
+                    continue;
+                }
+                Span span = Span.VALUES[(int) mRecords.get(record + 1)];
+                long thread = mRecords.get(record + 2);
+                long timeStamp = mRecords.get(record + 3);
+                long beginUs = mRecords.get(record + 4);
+                long endUs = mRecords.get(record + 5);
+                if (mRecords.get(record) != sequence) {
+                    // overwritten while read
+                    continue;
+                }
+                if (span.isAsync()) {
+                    events.asyncSpan(span.name(), thread, beginUs, endUs, timeStamp);
+                } else {
+                    events.completeSpan(span.name(), thread, beginUs, endUs, timeStamp);
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static int beginSlot(Span span, long timeStamp) {
+        // the top byte of a multiplicative hash spreads timeStamps a frame interval apart
+        int frame = (int) ((timeStamp * 0x9E3779B97F4A7C15L) >>> 56);
+        return (span.ordinal() * FRAMES + frame) * 2;
+    }
+}
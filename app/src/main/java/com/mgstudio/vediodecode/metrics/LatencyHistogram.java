@@ -0,0 +1,158 @@
+package com.mgstudio.vediodecode.metrics;
+//延迟直方图
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram of microsecond latencies, HdrHistogram style: values below 128 get a bucket
+// each, and every doubling above is split into 64 buckets, so a value reads back at most 1/64 high.
+// A minute takes 1331 buckets.
+//
+// record is lock-free and allocates nothing, any number of threads may call it. Snapshots copy the
+// counts into a Snapshot made up front; records racing with a snapshot land in it or in the next.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+
+    public static final long DEFAULT_HIGHEST_US = 60000000;
+
+    private final long highestTrackableUs;
+
+    private final AtomicLongArray mCounts;
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_US);
+    }
+
+    // longer values count as highestTrackableUs
+    public LatencyHistogram(long highestTrackableUs) {
+        if (highestTrackableUs < 1) {
+            throw new IllegalArgumentException("highest " + highestTrackableUs);
+        }
+        this.highestTrackableUs = highestTrackableUs;
+        this.mCounts = new AtomicLongArray(bucketIndex(highestTrackableUs) + 1);
+    }
+
+    public static int bucketIndex(long valueUs) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(valueUs) - SUB_BUCKET_BITS);
+        return shift * HALF_SUB_BUCKETS + (int) (valueUs >>> shift);
+    }
+
+    // highest value that falls into the bucket
+    public static long highestValue(int index) {
+        if (index < 2 * HALF_SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long subBucket = index - shift * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    // negative values, from clocks that stepped, count as 0
+    public void record(long valueUs) {
+        long value = Math.min(Math.max(valueUs, 0), highestTrackableUs);
+        mCounts.incrementAndGet(bucketIndex(value));
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public Snapshot newSnapshot() {
+        return new Snapshot(mCounts.length());
+    }
+
+    // copies the counts into into, made by newSnapshot
+    public void snapshot(Snapshot into) {
+        copy(into, false);
+    }
+
+    // copies the counts into into and starts over, losing no value recorded meanwhile
+    public void snapshotAndReset(Snapshot into) {
+        copy(into, true);
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    private void copy(Snapshot into, boolean reset) {
+        if (into.counts.length != mCounts.length()) {
+            throw new IllegalArgumentException("snapshot of " + into.counts.length + " buckets");
+        }
+        long count = 0;
+        for (int i = 0; i < into.counts.length; i++) {
+            long bucket = reset ? mCounts.getAndSet(i, 0) : mCounts.get(i);
+            into.counts[i] = bucket;
+            count += bucket;
+        }
+        into.count = count;
+        into.sum = reset ? mSum.getAndSet(0) : mSum.get();
+        into.max = reset ? mMax.getAndSet(0) : mMax.get();
+    }
+
+    // the histogram at one point in time, reused from snapshot to snapshot
+    public static class Snapshot {
+
+        private final long[] counts;
+
+        private long count;
+        private long sum;
+        private long max;
+
+        private Snapshot(int buckets) {
+            this.counts = new long[buckets];
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxUs() {
+            return max;
+        }
+
+        public long getSumUs() {
+            return sum;
+        }
+
+        public long getMeanUs() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        // value at or under which percentile % of the values fall, as the top of its bucket; 0 if empty
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            // less a hair: 99.9% of 1000 comes out as 999.0000000000001
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count - 1e-6));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // no higher than the largest value recorded
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count " + count + ", p50 " + getValueAtPercentile(50) + ", p99 " + getValueAtPercentile(99)
+                    + ", p99.9 " + getValueAtPercentile(99.9) + ", max " + max + " us";
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.mgstudio.vediodecode.metrics;
+//指标服务器
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+
+// Optional HTTP endpoint for Prometheus to scrape: GET /metrics answers with PrometheusText, anything
+// else with 404. One thread serves one request per connection, in turn; scrapes come seconds apart.
+//
+//     MetricsServer server = new MetricsServer(MetricsServer.DEFAULT_PORT);
+//     server.start();
+public class MetricsServer {
+
+    private static final String TAG = MetricsServer.class.getSimpleName();
+
+    public static final int DEFAULT_PORT = 9464;
+
+    // a client that doesn't send its request in time is dropped, the next one waits for no longer
+    private static final int READ_TIMEOUT_MS = 2000;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] GET_METRICS = "GET /metrics".getBytes(US_ASCII);
+
+    private static final byte[] OK = ("HTTP/1.1 200 OK\r\nContent-Type: " + PrometheusText.CONTENT_TYPE
+            + "\r\nConnection: close\r\nContent-Length: ").getBytes(US_ASCII);
+
+    private static final byte[] NOT_FOUND = ("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n"
+            + "Connection: close\r\nContent-Length: 10\r\n\r\nNot found\n").getBytes(US_ASCII);
+
+    private final int port;
+
+    private final PrometheusText text;
+
+    // the request head, only its first line is looked at
+    private final byte[] mRequest = new byte[4096];
+
+    // the status line and headers, then the length and a blank line
+    private final byte[] mHead = new byte[OK.length + 24];
+
+    private ServerSocket mServerSocket;
+
+    private Thread mThread;
+
+    private volatile boolean mIsRunning;
+
+    // port 0 picks a free port, see getPort; serves the process-wide counters and histograms
+    public MetricsServer(int port) {
+        this(port, new PrometheusText());
+    }
+
+    public MetricsServer(int port, PrometheusText text) {
+        this.port = port;
+        this.text = text;
+        System.arraycopy(OK, 0, mHead, 0, OK.length);
+    }
+
+    public synchronized void start() throws IOException {
+        if (mIsRunning) {
+            return;
+        }
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        mServerSocket = serverSocket;
+        mIsRunning = true;
+        mThread = new Thread(TAG) {
+            @Override
+            public void run() {
+                serve();
+            }
+        };
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!mIsRunning) {
+            return;
+        }
+        mIsRunning = false;
+        try {
+            // unblocks accept
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    private void serve() {
+        while (mIsRunning) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // closed by stop
+                if (mIsRunning) {
+                    Log.e(TAG, e.getMessage());
+                }
+                return;
+            }
+            try {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                answer(socket.getInputStream(), socket.getOutputStream());
+            } catch (SocketException e) {
+                // gone before the answer
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.e(TAG, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void answer(InputStream in, OutputStream out) throws IOException {
+        int length = readHead(in);
+        if (!isMetricsRequest(length)) {
+            out.write(NOT_FOUND);
+            out.flush();
+            return;
+        }
+        int size = text.render();
+        out.write(mHead, 0, head(size));
+        out.write(text.getBuffer(), 0, size);
+        out.flush();
+    }
+
+    // reads up to the blank line ending the head, or as much as fits; returns the length read
+    private int readHead(InputStream in) throws IOException {
+        int length = 0;
+        while (length < mRequest.length) {
+            int read = in.read(mRequest, length, mRequest.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+            if (endsHead(length)) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private boolean endsHead(int length) {
+        for (int i = 3; i < length; i++) {
+            if (mRequest[i - 3] == '\r' && mRequest[i - 2] == '\n' && mRequest[i - 1] == '\r'
+                    && mRequest[i] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // GET /metrics, with or without a query
+    private boolean isMetricsRequest(int length) {
+        if (length <= GET_METRICS.length) {
+            return false;
+        }
+        for (int i = 0; i < GET_METRICS.length; i++) {
+            if (mRequest[i] != GET_METRICS[i]) {
+                return false;
+            }
+        }
+        byte next = mRequest[GET_METRICS.length];
+        return next == ' ' || next == '?';
+    }
+
+    // the headers for a body of size bytes, returns their length
+    private int head(int size) {
+        int length = OK.length;
+        int digits = 1;
+        for (int rest = size / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            mHead[i] = (byte) ('0' + size % 10);
+            size /= 10;
+        }
+        length += digits;
+        mHead[length++] = '\r';
+        mHead[length++] = '\n';
+        mHead[length++] = '\r';
+        mHead[length++] = '\n';
+        return length;
+    }
+}
@@ -0,0 +1,131 @@
+package com.mgstudio.vediodecode.metrics;
+//流水线延迟
+
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Where a frame's time goes, stage by stage. Each thread the frame passes marks the boundary it
+// leaves, by the frame's timeStamp; the stage recorded is the time since the frame's previous boundary
+// on this device, and TOTAL the time since capture. A frame a stage never saw (dropped, or sent before
+// its boundary was marked) just records nothing there.
+//
+// Times are microseconds of System.nanoTime. On the receiver, capture is the sender's timeStamp mapped
+// through ClockSync, so TRANSIT, capture to arrival, covers the sender's stages and the network: what
+// the network takes is TRANSIT less the sender's RENDER, ENCODE and SEND.
+//
+// Lock-free and allocation-free; cheap enough to stay on. Stages of one frame follow each other, so one
+// thread at a time writes its slot.
+public class PipelineLatency {
+
+    public enum Stage {
+        // sender: capture to drawn into the encoder's surface
+        RENDER,
+        // sender: to out of the encoder
+        ENCODE,
+        // sender: to written to the socket, send queue included
+        SEND,
+        // receiver: capture on the sender to arrival
+        TRANSIT,
+        // receiver: to handed to the decoder
+        JITTER_BUFFER,
+        // receiver: to out of the decoder
+        DECODE,
+        // capture to the last boundary on this device
+        TOTAL;
+
+        private static final Stage[] VALUES = values();
+    }
+
+    // capture time of a frame that arrived before the clocks were synchronized
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    // slots for frames in flight, picked by timeStamp
+    private static final int FRAMES = 256;
+
+    // per slot: timeStamp, capture, previous boundary
+    private static final int SLOT_SIZE = 3;
+
+    public static final PipelineLatency SENDER = new PipelineLatency();
+
+    public static final PipelineLatency RECEIVER = new PipelineLatency();
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.VALUES.length];
+
+    private final AtomicLongArray mFrames = new AtomicLongArray(FRAMES * SLOT_SIZE);
+
+    public PipelineLatency() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // a frame seen first on this device, captured at captureUs in its clock or UNKNOWN: the first stage
+    // marked is recorded from capture, or not at all
+    public void start(long timeStamp, long captureUs) {
+        int slot = slot(timeStamp);
+        mFrames.set(slot + 1, captureUs);
+        mFrames.set(slot + 2, captureUs);
+        // last, so a reader that sees it sees the times
+        mFrames.set(slot, timeStamp);
+    }
+
+    // the frame leaves stage at timeUs; last: no later boundary on this device, TOTAL is recorded too
+    public void mark(Stage stage, long timeStamp, long timeUs, boolean last) {
+        int slot = slot(timeStamp);
+        if (mFrames.get(slot) != timeStamp) {
+            // never started, or overwritten by a later frame
+            return;
+        }
+        long previousUs = mFrames.get(slot + 2);
+        if (previousUs != UNKNOWN) {
+            mHistograms[stage.ordinal()].record(timeUs - previousUs);
+        }
+        mFrames.set(slot + 2, timeUs);
+        long captureUs = mFrames.get(slot + 1);
+        if (last && captureUs != UNKNOWN) {
+            mHistograms[Stage.TOTAL.ordinal()].record(timeUs - captureUs);
+        }
+    }
+
+    // frames only: parameter sets share their key frame's timeStamp, CLOCK packets are no frame
+    public void mark(Stage stage, VideoPacket videoPacket, long timeUs, boolean last) {
+        if (videoPacket.flag == VideoPacket.Flag.FRAME || videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+            mark(stage, videoPacket.presentationTimeStamp, timeUs, last);
+        }
+    }
+
+    // the clock of the boundaries
+    public static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    public LatencyHistogram.Snapshot newSnapshot() {
+        return mHistograms[0].newSnapshot();
+    }
+
+    public void snapshot(Stage stage, LatencyHistogram.Snapshot into) {
+        mHistograms[stage.ordinal()].snapshot(into);
+    }
+
+    public void snapshotAndReset(Stage stage, LatencyHistogram.Snapshot into) {
+        mHistograms[stage.ordinal()].snapshotAndReset(into);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    private static int slot(long timeStamp) {
+        // timeStamps are microseconds a frame interval apart: the top byte of a multiplicative hash
+        // spreads them over the FRAMES slots
+        long hash = timeStamp * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 56) * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,269 @@
+package com.mgstudio.vediodecode.metrics;
+//普罗米修斯文本格式
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+// Renders StreamCounters and the PipelineLatency histograms in the Prometheus text exposition format,
+// version 0.0.4, one series per side:
+//
+//   # HELP vediodecode_frames_total ...
+//   # TYPE vediodecode_frames_total counter
+//   vediodecode_frames_total{side="sender"} 1800
+//   vediodecode_frames_total{side="receiver"} 0
+//
+// Latencies are summaries in seconds, quantiles over everything recorded since the histograms were last
+// reset. The text of every line is made up front and values are written as digits straight into a
+// reused buffer, so rendering allocates nothing once the buffer has grown to fit. One thread at a time.
+public class PrometheusText {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PREFIX = "vediodecode_";
+
+    private static final String[] SIDES = {"sender", "receiver"};
+
+    private static final double[] QUANTILES = {50, 90, 99, 99.9};
+
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    // the boundaries each side marks
+    private static final PipelineLatency.Stage[][] STAGES = {
+            {PipelineLatency.Stage.RENDER, PipelineLatency.Stage.ENCODE, PipelineLatency.Stage.SEND,
+                    PipelineLatency.Stage.TOTAL},
+            {PipelineLatency.Stage.TRANSIT, PipelineLatency.Stage.JITTER_BUFFER, PipelineLatency.Stage.DECODE,
+                    PipelineLatency.Stage.TOTAL},
+    };
+
+    private static final byte[] NAN = bytes("NaN");
+
+    // values() copies the array each call
+    private static final StreamCounters.Counter[] COUNTERS = StreamCounters.Counter.values();
+
+    private static final StreamCounters.Gauge[] GAUGES = StreamCounters.Gauge.values();
+
+    private final StreamCounters[] counters;
+
+    private final PipelineLatency[] latencies;
+
+    private final LatencyHistogram.Snapshot mSnapshot;
+
+    // per counter and gauge: HELP and TYPE, then the head of each side's line
+    private final byte[][] mCounterHeaders = new byte[COUNTERS.length][];
+    private final byte[][][] mCounterLines = new byte[COUNTERS.length][][];
+    private final byte[][] mGaugeHeaders = new byte[GAUGES.length][];
+    private final byte[][][] mGaugeLines = new byte[GAUGES.length][][];
+
+    // per side and stage: a line per quantile, then _sum and _count
+    private final byte[] mLatencyHeader;
+    private final byte[][][][] mLatencyLines = new byte[SIDES.length][][][];
+
+    private byte[] mBuffer = new byte[16 * 1024];
+
+    private int mLength;
+
+    // the process-wide counters and histograms
+    public PrometheusText() {
+        this(StreamCounters.SENDER, StreamCounters.RECEIVER, PipelineLatency.SENDER, PipelineLatency.RECEIVER);
+    }
+
+    public PrometheusText(StreamCounters sender, StreamCounters receiver,
+                          PipelineLatency senderLatency, PipelineLatency receiverLatency) {
+        this.counters = new StreamCounters[]{sender, receiver};
+        this.latencies = new PipelineLatency[]{senderLatency, receiverLatency};
+        this.mSnapshot = senderLatency.newSnapshot();
+
+        for (StreamCounters.Counter counter : COUNTERS) {
+            String name = PREFIX + counter.name().toLowerCase(Locale.US) + "_total";
+            mCounterHeaders[counter.ordinal()] = header(name, help(counter), "counter");
+            mCounterLines[counter.ordinal()] = sideLines(name);
+        }
+        for (StreamCounters.Gauge gauge : GAUGES) {
+            String name = PREFIX + gaugeName(gauge);
+            mGaugeHeaders[gauge.ordinal()] = header(name, help(gauge), "gauge");
+            mGaugeLines[gauge.ordinal()] = sideLines(name);
+        }
+
+        String name = PREFIX + "stage_latency_seconds";
+        mLatencyHeader = header(name, "Time a frame spends in each stage of the pipeline.", "summary");
+        for (int side = 0; side < SIDES.length; side++) {
+            PipelineLatency.Stage[] stages = STAGES[side];
+            mLatencyLines[side] = new byte[stages.length][][];
+            for (int i = 0; i < stages.length; i++) {
+                String labels = "side=\"" + SIDES[side] + "\",stage=\""
+                        + stages[i].name().toLowerCase(Locale.US) + "\"";
+                byte[][] lines = new byte[QUANTILES.length + 2][];
+                for (int q = 0; q < QUANTILES.length; q++) {
+                    lines[q] = bytes(name + "{" + labels + ",quantile=\"" + QUANTILE_LABELS[q] + "\"} ");
+                }
+                lines[QUANTILES.length] = bytes(name + "_sum{" + labels + "} ");
+                lines[QUANTILES.length + 1] = bytes(name + "_count{" + labels + "} ");
+                mLatencyLines[side][i] = lines;
+            }
+        }
+    }
+
+    // renders every metric into getBuffer, returns the length
+    public int render() {
+        mLength = 0;
+        for (StreamCounters.Counter counter : COUNTERS) {
+            write(mCounterHeaders[counter.ordinal()]);
+            for (int side = 0; side < SIDES.length; side++) {
+                write(mCounterLines[counter.ordinal()][side]);
+                writeLong(counters[side].get(counter));
+                write((byte) '\n');
+            }
+        }
+        for (StreamCounters.Gauge gauge : GAUGES) {
+            write(mGaugeHeaders[gauge.ordinal()]);
+            for (int side = 0; side < SIDES.length; side++) {
+                write(mGaugeLines[gauge.ordinal()][side]);
+                long value = counters[side].get(gauge);
+                if (gauge == StreamCounters.Gauge.CAPTURE_LATENCY_US) {
+                    writeSeconds(value);
+                } else {
+                    writeLong(value);
+                }
+                write((byte) '\n');
+            }
+        }
+        write(mLatencyHeader);
+        for (int side = 0; side < SIDES.length; side++) {
+            PipelineLatency.Stage[] stages = STAGES[side];
+            for (int i = 0; i < stages.length; i++) {
+                latencies[side].snapshot(stages[i], mSnapshot);
+                byte[][] lines = mLatencyLines[side][i];
+                for (int q = 0; q < QUANTILES.length; q++) {
+                    write(lines[q]);
+                    writeSeconds(mSnapshot.getCount() > 0 ? mSnapshot.getValueAtPercentile(QUANTILES[q]) : -1);
+                    write((byte) '\n');
+                }
+                write(lines[QUANTILES.length]);
+                writeSeconds(mSnapshot.getSumUs());
+                write((byte) '\n');
+                write(lines[QUANTILES.length + 1]);
+                writeLong(mSnapshot.getCount());
+                write((byte) '\n');
+            }
+        }
+        return mLength;
+    }
+
+    // what the last render wrote, in [0, length)
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    private static String help(StreamCounters.Counter counter) {
+        switch (counter) {
+            case FRAMES:
+                return "Frames written to the socket by the sender, once per receiver; received by the receiver.";
+            case BYTES:
+                return "Bytes written to the socket by the sender, framing included; payload bytes received.";
+            case DROPPED_FRAMES:
+                return "Frames dropped from a send queue, or skipped, dropped or not decoded by the receiver.";
+            case DECODER_INPUT_STALLS:
+                return "Samples that found no free decoder input buffer.";
+            default:
+                return "Connections to the receiver after the first.";
+        }
+    }
+
+    private static String gaugeName(StreamCounters.Gauge gauge) {
+        switch (gauge) {
+            case QUEUE_DEPTH:
+                return "queue_depth";
+            case ENCODER_BITRATE:
+                return "encoder_bitrate_bits_per_second";
+            default:
+                return "capture_latency_seconds";
+        }
+    }
+
+    private static String help(StreamCounters.Gauge gauge) {
+        switch (gauge) {
+            case QUEUE_DEPTH:
+                return "Packets in the send queues, frames in the jitter buffer.";
+            case ENCODER_BITRATE:
+                return "Target bitrate of the encoder.";
+            default:
+                return "Capture on the sender to arrival of the last frame, NaN until the clocks are synchronized.";
+        }
+    }
+
+    private static byte[] header(String name, String help, String type) {
+        return bytes("# HELP " + name + " " + help + "\n# TYPE " + name + " " + type + "\n");
+    }
+
+    private static byte[][] sideLines(String name) {
+        byte[][] lines = new byte[SIDES.length][];
+        for (int side = 0; side < SIDES.length; side++) {
+            lines[side] = bytes(name + "{side=\"" + SIDES[side] + "\"} ");
+        }
+        return lines;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(UTF_8);
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+        mLength += bytes.length;
+    }
+
+    private void write(byte b) {
+        ensure(1);
+        mBuffer[mLength++] = b;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            write(bytes(Long.toString(value)));
+            return;
+        }
+        // sign and 19 digits
+        ensure(20);
+        if (value < 0) {
+            mBuffer[mLength++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mBuffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        mLength += digits;
+    }
+
+    // microseconds as seconds with six decimals, negative as NaN
+    private void writeSeconds(long us) {
+        if (us < 0) {
+            write(NAN);
+            return;
+        }
+        writeLong(us / 1000000);
+        ensure(7);
+        mBuffer[mLength++] = '.';
+        long fraction = us % 1000000;
+        for (int i = mLength + 5; i >= mLength; i--) {
+            mBuffer[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        mLength += 6;
+    }
+
+    private void ensure(int more) {
+        if (mLength + more > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLength + more)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.mgstudio.vediodecode.metrics;
+//流计数器
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Running totals and current values of one side of the stream, for MetricsServer. The threads that
+// do the work add to them as they go; a reader sees each one atomically, though not all at one instant.
+//
+// Lock-free and allocation-free; any thread may update or read.
+public class StreamCounters {
+
+    public enum Counter {
+        // sender: written to the socket, once per receiver with FanOutTransport; receiver: received
+        FRAMES,
+        // sender: written to the socket, framing included, all receivers; receiver: payload received
+        BYTES,
+        // sender: dropped from a send queue; receiver: skipped waiting for a key frame, dropped by a full
+        // jitter buffer, or no decoder input buffer in time
+        DROPPED_FRAMES,
+        // receiver: samples that found no free decoder input buffer
+        DECODER_INPUT_STALLS,
+        // receiver: connections after the first
+        RECONNECTS;
+
+        private static final Counter[] VALUES = values();
+    }
+
+    public enum Gauge {
+        // sender: packets in the transport's queues; receiver: frames in the jitter buffer
+        QUEUE_DEPTH,
+        // sender: the encoder's target, bits per second
+        ENCODER_BITRATE,
+        // receiver: capture to arrival of the last frame, microseconds; -1 until the clocks are synchronized
+        CAPTURE_LATENCY_US;
+
+        private static final Gauge[] VALUES = values();
+    }
+
+    public static final StreamCounters SENDER = new StreamCounters();
+
+    public static final StreamCounters RECEIVER = new StreamCounters();
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(Counter.VALUES.length);
+
+    private final AtomicLongArray mGauges = new AtomicLongArray(Gauge.VALUES.length);
+
+    public StreamCounters() {
+        mGauges.set(Gauge.CAPTURE_LATENCY_US.ordinal(), -1);
+    }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long delta) {
+        mCounters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public long get(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    public void set(Gauge gauge, long value) {
+        mGauges.set(gauge.ordinal(), value);
+    }
+
+    public long get(Gauge gauge) {
+        return mGauges.get(gauge.ordinal());
+    }
+
+    // counters back to 0, gauges as at construction
+    public void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+        for (int i = 0; i < mGauges.length(); i++) {
+            mGauges.set(i, 0);
+        }
+        mGauges.set(Gauge.CAPTURE_LATENCY_US.ordinal(), -1);
+    }
+}
@@ -0,0 +1,115 @@
+package com.mgstudio.vediodecode.metrics;
+//追踪事件写入
+
+import java.io.IOException;
+import java.io.Writer;
+
+// writes the Chrome trace-event format, as chrome://tracing and ui.perfetto.dev load it:
+//   {"traceEvents":[{...},{...}],"displayTimeUnit":"ms"}
+// Spans on one thread are complete events ("X"). Async spans, which may overlap or change thread,
+// become a begin and an end ("b", "e") with the timeStamp as id: the viewer gives each its own row.
+// Times are microseconds, as the format has them. Every event carries the frame's timeStamp in args.
+public class TraceEventWriter {
+
+    private static final int PID = 1;
+
+    private static final String CATEGORY = "frame";
+
+    private final Writer writer;
+
+    private boolean mFirst = true;
+
+    public TraceEventWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public void begin() throws IOException {
+        writer.write("{\"traceEvents\":[");
+    }
+
+    // a span that began and ended on thread
+    public void completeSpan(String name, long thread, long beginUs, long endUs, long timeStamp)
+            throws IOException {
+        event(name, "X", thread, beginUs, timeStamp);
+        writer.write(",\"dur\":");
+        writer.write(Long.toString(endUs - beginUs));
+        writer.write('}');
+    }
+
+    // a span that may overlap others of its name; thread is where it ended
+    public void asyncSpan(String name, long thread, long beginUs, long endUs, long timeStamp)
+            throws IOException {
+        event(name, "b", thread, beginUs, timeStamp);
+        id(timeStamp);
+        writer.write('}');
+        event(name, "e", thread, endUs, timeStamp);
+        id(timeStamp);
+        writer.write('}');
+    }
+
+    // names the thread's row
+    public void threadName(long thread, String name) throws IOException {
+        separator();
+        writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+        writer.write(Integer.toString(PID));
+        writer.write(",\"tid\":");
+        writer.write(Long.toString(thread));
+        writer.write(",\"args\":{\"name\":");
+        string(name);
+        writer.write("}}");
+    }
+
+    public void end() throws IOException {
+        writer.write("],\"displayTimeUnit\":\"ms\"}");
+        writer.flush();
+    }
+
+    private void event(String name, String phase, long thread, long timeUs, long timeStamp) throws IOException {
+        separator();
+        writer.write("{\"name\":");
+        string(name);
+        writer.write(",\"cat\":\"");
+        writer.write(CATEGORY);
+        writer.write("\",\"ph\":\"");
+        writer.write(phase);
+        writer.write("\",\"pid\":");
+        writer.write(Integer.toString(PID));
+        writer.write(",\"tid\":");
+        writer.write(Long.toString(thread));
+        writer.write(",\"ts\":");
+        writer.write(Long.toString(timeUs));
+        writer.write(",\"args\":{\"pts\":");
+        writer.write(Long.toString(timeStamp));
+        writer.write('}');
+    }
+
+    // a string: ids past 2^53 would lose digits as JSON numbers
+    private void id(long timeStamp) throws IOException {
+        writer.write(",\"id\":\"");
+        writer.write(Long.toString(timeStamp));
+        writer.write('"');
+    }
+
+    private void separator() throws IOException {
+        if (!mFirst) {
+            writer.write(',');
+        }
+        mFirst = false;
+    }
+
+    private void string(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
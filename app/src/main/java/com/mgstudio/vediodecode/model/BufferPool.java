@@ -0,0 +1,91 @@
+package com.mgstudio.vediodecode.model;
+//缓冲池
+
+import java.nio.ByteBuffer;
+
+// pool of direct buffers grouped by power-of-two capacity, so steady-state framing does not allocate.
+// acquire and release may be called from different threads. Heap buffers on request, for data that
+// is written out through streams taking arrays.
+public class BufferPool {
+
+    // smallest size class - 1 KiB
+    private static final int MIN_SHIFT = 10;
+
+    private final ByteBuffer[][] stacks;
+
+    private final int[] counts;
+
+    private final int maxCapacity;
+
+    private final boolean direct;
+
+    public BufferPool(int maxCapacity, int buffersPerClass) {
+        this(maxCapacity, buffersPerClass, true);
+    }
+
+    public BufferPool(int maxCapacity, int buffersPerClass, boolean direct) {
+        this.direct = direct;
+        int classes = shiftOf(maxCapacity) - MIN_SHIFT + 1;
+        this.maxCapacity = 1 << shiftOf(maxCapacity);
+        this.stacks = new ByteBuffer[classes][buffersPerClass];
+        this.counts = new int[classes];
+    }
+
+    // cleared buffer with at least the given capacity
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > maxCapacity) {
+            // too big to keep around, release will drop it
+            return allocate(capacity);
+        }
+        int index = shiftOf(capacity) - MIN_SHIFT;
+        ByteBuffer[] stack = stacks[index];
+        ByteBuffer buffer = null;
+        synchronized (stack) {
+            if (counts[index] > 0) {
+                buffer = stack[--counts[index]];
+                stack[counts[index]] = null;
+            }
+        }
+        if (buffer == null) {
+            buffer = allocate(1 << (index + MIN_SHIFT));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity > maxCapacity || Integer.bitCount(capacity) != 1 || capacity < 1 << MIN_SHIFT) {
+            // not one of ours
+            return;
+        }
+        int index = shiftOf(capacity) - MIN_SHIFT;
+        ByteBuffer[] stack = stacks[index];
+        synchronized (stack) {
+            if (counts[index] < stack.length) {
+                stack[counts[index]++] = buffer;
+            }
+        }
+    }
+
+    // number of pooled buffers ready to be reused
+    public int available() {
+        int available = 0;
+        for (int i = 0; i < stacks.length; i++) {
+            synchronized (stacks[i]) {
+                available += counts[i];
+            }
+        }
+        return available;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    // log2 of the size class holding capacity
+    private static int shiftOf(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(shift, MIN_SHIFT);
+    }
+}
@@ -1,28 +1,145 @@
 package com.mgstudio.vediodecode.model;
 
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 
 //字节工具
+// big-endian primitives read and written in place, none of the offset based methods allocate
 public class ByteUtils {
 
     public static byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.SIZE / 8);
-        buffer.putLong(0, x);
-        return buffer.array();
+        byte[] bytes = new byte[Long.SIZE / 8];
+        putLong(bytes, 0, x);
+        return bytes;
     }
 
+    // same result as new BigInteger(bytes).longValue(): sign-extended, low 8 bytes kept
     public static long bytesToLong(byte[] bytes) {
-        return new BigInteger(bytes).longValue();
+        return getSigned(bytes, 0, bytes.length);
     }
 
     public static byte[] intToBytes(int x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.SIZE / 8);
-        buffer.putInt(0, x);
-        return buffer.array();
+        byte[] bytes = new byte[Integer.SIZE / 8];
+        putInt(bytes, 0, x);
+        return bytes;
     }
 
+    // same result as new BigInteger(bytes).intValue(): sign-extended, low 4 bytes kept
     public static int bytesToInt(byte[] bytes) {
-        return new BigInteger(bytes).intValue();
+        return (int) getSigned(bytes, 0, bytes.length);
+    }
+
+    public static short getShort(byte[] bytes, int offset) {
+        return (short) ((bytes[offset] << 8) | (bytes[offset + 1] & 0xFF));
+    }
+
+    public static int getUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    public static void putShort(byte[] bytes, int offset, int x) {
+        bytes[offset] = (byte) (x >>> 8);
+        bytes[offset + 1] = (byte) x;
+    }
+
+    public static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] << 24)
+                | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8)
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    public static long getUnsignedInt(byte[] bytes, int offset) {
+        return getInt(bytes, offset) & 0xFFFFFFFFL;
+    }
+
+    public static void putInt(byte[] bytes, int offset, int x) {
+        bytes[offset] = (byte) (x >>> 24);
+        bytes[offset + 1] = (byte) (x >>> 16);
+        bytes[offset + 2] = (byte) (x >>> 8);
+        bytes[offset + 3] = (byte) x;
+    }
+
+    public static long getLong(byte[] bytes, int offset) {
+        return ((long) getInt(bytes, offset) << 32) | getUnsignedInt(bytes, offset + 4);
+    }
+
+    public static void putLong(byte[] bytes, int offset, long x) {
+        putInt(bytes, offset, (int) (x >>> 32));
+        putInt(bytes, offset + 4, (int) x);
+    }
+
+    public static int getUnsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    public static long getUnsignedInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    // varint: unsigned LEB128, 7 bits per byte with the high bit set on all but the last byte
+
+    public static int varLongSize(long x) {
+        int size = 1;
+        while ((x & ~0x7FL) != 0) {
+            x >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // returns the number of bytes written
+    public static int putVarLong(byte[] bytes, int offset, long x) {
+        int position = offset;
+        while ((x & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((x & 0x7F) | 0x80);
+            x >>>= 7;
+        }
+        bytes[position++] = (byte) x;
+        return position - offset;
+    }
+
+    // the encoded length is varLongSize of the result
+    public static long getVarLong(byte[] bytes, int offset) {
+        long x = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = bytes[offset++];
+            x |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return x;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static void putVarLong(ByteBuffer buffer, long x) {
+        while ((x & ~0x7FL) != 0) {
+            buffer.put((byte) ((x & 0x7F) | 0x80));
+            x >>>= 7;
+        }
+        buffer.put((byte) x);
+    }
+
+    public static long getVarLong(ByteBuffer buffer) {
+        long x = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            x |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return x;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long getSigned(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            throw new NumberFormatException("Zero length");
+        }
+        // sign of the leading byte fills the high bits
+        long x = bytes[offset];
+        for (int i = 1; i < length; i++) {
+            x = (x << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return x;
     }
 }
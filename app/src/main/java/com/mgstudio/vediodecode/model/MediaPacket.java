@@ -7,6 +7,9 @@ public class MediaPacket {
 
         VIDEO((byte) 1), AUDIO((byte) 0);
 
+        // values() clones the array on every call, keep one copy for per-packet lookups
+        private static final Type[] VALUES = values();
+
         private byte type;
 
         Type(byte type) {
@@ -18,7 +21,7 @@ public class MediaPacket {
         }
 
         public static Type getType(byte value) {
-            for (Type type : Type.values()) {
+            for (Type type : VALUES) {
                 if (type.getType() == value) {
                     return type;
                 }
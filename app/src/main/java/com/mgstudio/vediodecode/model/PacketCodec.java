@@ -0,0 +1,90 @@
+package com.mgstudio.vediodecode.model;
+//数据包编解码器
+
+import java.nio.ByteBuffer;
+
+// zero-copy codec for the length-prefixed packet framing, byte-compatible with VideoPacket.toArray:
+// 4 - inner packet size, 1 - type, 1 - flag, 8 - timeStamp, then data. All values are big-endian.
+public class PacketCodec {
+
+    public static final int LENGTH_SIZE = 4;
+
+    // type + flag + timeStamp
+    public static final int HEADER_SIZE = 10;
+
+    public static final int PREFIX_SIZE = LENGTH_SIZE + HEADER_SIZE;
+
+    // larger length fields are taken for a corrupt stream rather than allocated
+    public static final int MAX_FRAME_SIZE = 8 * 1024 * 1024;
+
+    private PacketCodec() {
+    }
+
+    // size of the whole frame on the wire
+    public static int frameSize(VideoPacket videoPacket) {
+        return PREFIX_SIZE + videoPacket.getSize();
+    }
+
+    // write length, type, flag and timeStamp at dst position
+    public static void writePrefix(MediaPacket.Type type, VideoPacket.Flag flag, long presentationTimeStamp,
+                                   int dataLength, ByteBuffer dst) {
+        dst.putInt(HEADER_SIZE + dataLength);
+        dst.put(type.getType());
+        dst.put(flag.getFlag());
+        dst.putLong(presentationTimeStamp);
+    }
+
+    public static void writePrefix(VideoPacket videoPacket, ByteBuffer dst) {
+        writePrefix(videoPacket.type, videoPacket.flag, videoPacket.presentationTimeStamp,
+                videoPacket.getSize(), dst);
+    }
+
+    // write the whole frame at dst position, dst must have frameSize bytes remaining
+    public static void encode(VideoPacket videoPacket, ByteBuffer dst) {
+        writePrefix(videoPacket, dst);
+        videoPacket.copyTo(dst);
+    }
+
+    // inner packet size if the length field is readable at src position, -1 otherwise; does not advance
+    public static int peekLength(ByteBuffer src) {
+        if (src.remaining() < LENGTH_SIZE) {
+            return -1;
+        }
+        int length = src.getInt(src.position());
+        if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+            throw new IllegalStateException("Corrupted packet length: " + length);
+        }
+        return length;
+    }
+
+    // decode an inner packet of innerSize bytes at src position into the given packet without copying data;
+    // the packet stays a view over src and is valid until src is reused
+    public static VideoPacket decode(ByteBuffer src, int innerSize, VideoPacket into) {
+        if (innerSize < HEADER_SIZE || src.remaining() < innerSize) {
+            throw new IllegalArgumentException("Incomplete packet: " + innerSize + "/" + src.remaining());
+        }
+        int position = src.position();
+
+        into.type = MediaPacket.Type.getType(src.get(position));
+        into.flag = VideoPacket.Flag.getFlag(src.get(position + 1));
+        into.presentationTimeStamp = src.getLong(position + 2);
+        into.data = null;
+        into.buffer = src;
+        into.offset = position + HEADER_SIZE;
+        into.size = innerSize - HEADER_SIZE;
+
+        src.position(position + innerSize);
+        return into;
+    }
+
+    // decode the next whole frame at src position; false and src untouched if it is not complete yet
+    public static boolean decodeFrame(ByteBuffer src, VideoPacket into) {
+        int length = peekLength(src);
+        if (length < 0 || src.remaining() < LENGTH_SIZE + length) {
+            return false;
+        }
+        src.position(src.position() + LENGTH_SIZE);
+        decode(src, length, into);
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package com.mgstudio.vediodecode.model;
+//数据包池
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// VideoPackets whose payload lives in a pooled buffer, reference counted so a packet can be queued,
+// shared and released from any thread without copying or allocating per frame. The last release
+// returns the buffer to the BufferPool and the packet to this pool.
+//
+// In debug mode packets are never reused: a released packet loses its buffer, so reading it fails
+// fast, releasing or retaining it again throws, and packets still out are reported by checkLeaks
+// together with where they were acquired.
+public class PacketPool {
+
+    private final BufferPool buffers;
+
+    private final boolean debug;
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    // debug mode: packets acquired and not released yet, with the stack that acquired them
+    private final Map<Entry, Throwable> outstanding = new IdentityHashMap<>();
+
+    private final AtomicInteger mOutstanding = new AtomicInteger();
+
+    public PacketPool(BufferPool buffers) {
+        this(buffers, false);
+    }
+
+    public PacketPool(BufferPool buffers, boolean debug) {
+        this.buffers = buffers;
+        this.debug = debug;
+    }
+
+    // packet with an empty payload of size bytes at buffer[0, size), held once by the caller
+    public VideoPacket acquire(int size) {
+        Entry entry = null;
+        if (!debug) {
+            synchronized (entries) {
+                entry = entries.pollLast();
+            }
+        }
+        if (entry == null) {
+            entry = new Entry();
+        }
+        VideoPacket videoPacket = entry.packet;
+        videoPacket.data = null;
+        videoPacket.buffer = buffers.acquire(size);
+        videoPacket.offset = 0;
+        videoPacket.size = size;
+        videoPacket.owner = entry;
+        entry.mRefCount.set(1);
+
+        mOutstanding.incrementAndGet();
+        if (debug) {
+            synchronized (outstanding) {
+                outstanding.put(entry, new Throwable("acquired here"));
+            }
+        }
+        return videoPacket;
+    }
+
+    // packet holding a copy of src[position, limit), src is consumed
+    public VideoPacket acquire(ByteBuffer src) {
+        VideoPacket videoPacket = acquire(src.remaining());
+        videoPacket.buffer.put(src);
+        return videoPacket;
+    }
+
+    // packets acquired and not yet released by their last holder
+    public int outstanding() {
+        return mOutstanding.get();
+    }
+
+    // debug mode: throws if packets are still held, with the acquiring stack of one of them
+    public void checkLeaks() {
+        if (!debug) {
+            throw new IllegalStateException("leak tracking needs debug mode");
+        }
+        synchronized (outstanding) {
+            if (!outstanding.isEmpty()) {
+                throw new IllegalStateException(outstanding.size() + " packets never released",
+                        outstanding.values().iterator().next());
+            }
+        }
+    }
+
+    private void recycle(Entry entry) {
+        VideoPacket videoPacket = entry.packet;
+        ByteBuffer buffer = videoPacket.buffer;
+        videoPacket.buffer = null;
+        buffers.release(buffer);
+        mOutstanding.decrementAndGet();
+
+        if (debug) {
+            synchronized (outstanding) {
+                outstanding.remove(entry);
+            }
+            // the packet stays with whoever still points at it, owner kept so release throws
+            return;
+        }
+        videoPacket.owner = null;
+        synchronized (entries) {
+            entries.addLast(entry);
+        }
+    }
+
+    private final class Entry implements Releasable {
+
+        final VideoPacket packet = new VideoPacket();
+
+        final AtomicInteger mRefCount = new AtomicInteger();
+
+        @Override
+        public void retain() {
+            if (mRefCount.getAndIncrement() <= 0) {
+                throw new IllegalStateException("packet retained after release");
+            }
+        }
+
+        @Override
+        public void release() {
+            int refCount = mRefCount.decrementAndGet();
+            if (refCount == 0) {
+                recycle(this);
+            } else if (refCount < 0) {
+                throw new IllegalStateException("packet released twice");
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.mgstudio.vediodecode.model;
+//可释放
+
+// memory lent to its consumers, reference counted: every extra holder calls retain, every holder
+// calls release exactly once, and the memory goes back to its owner with the last release
+public interface Releasable {
+    void retain();
+
+    void release();
+}
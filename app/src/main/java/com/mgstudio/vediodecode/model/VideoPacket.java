@@ -1,13 +1,24 @@
 package com.mgstudio.vediodecode.model;
 //视频包
 
+import com.mgstudio.vediodecode.h264.NalScanner;
+import com.mgstudio.vediodecode.h264.NalUnitType;
+import com.mgstudio.vediodecode.h264.Sps;
+
 import java.nio.ByteBuffer;
 
 public class VideoPacket extends MediaPacket {
 
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
     public enum Flag {
 
-        FRAME((byte) 0), KEY_FRAME((byte) 1), CONFIG((byte) 2), END((byte) 4);
+        FRAME((byte) 0), KEY_FRAME((byte) 1), CONFIG((byte) 2), END((byte) 4),
+        // answer to a PING control message, no video: see ClockSync
+        CLOCK((byte) 8);
+
+        // values() clones the array on every call, keep one copy for per-packet lookups
+        private static final Flag[] VALUES = values();
 
         private byte type;
 
@@ -20,7 +31,7 @@ public class VideoPacket extends MediaPacket {
         }
 
         public static Flag getFlag(byte value) {
-            for (Flag type : Flag.values()) {
+            for (Flag type : VALUES) {
                 if (type.getFlag() == value) {
                     return type;
                 }
@@ -36,6 +47,18 @@ public class VideoPacket extends MediaPacket {
 
     public byte[] data;
 
+    // payload view over a pooled buffer, set by PacketCodec.decode instead of data:
+    // the payload is buffer[offset, offset + size)
+    public ByteBuffer buffer;
+
+    public int offset;
+
+    public int size;
+
+    // set when the payload is borrowed (a pooled buffer, an encoder output buffer): each holder calls
+    // release once it has written or dropped the packet, holders sharing it call retain first
+    public Releasable owner;
+
     public VideoPacket() {
     }
 
@@ -47,9 +70,59 @@ public class VideoPacket extends MediaPacket {
     }
 
     public byte[] toByteArray() {
+        if (buffer != null) {
+            byte[] values = new byte[PacketCodec.frameSize(this)];
+            PacketCodec.encode(this, ByteBuffer.wrap(values));
+            return values;
+        }
         return toArray(type, flag, presentationTimeStamp, data);
     }
 
+    // payload length in bytes, whichever storage holds it
+    public int getSize() {
+        return buffer != null ? size : data.length;
+    }
+
+    // payload as an array of its own, copied out of the view if needed
+    public byte[] getData() {
+        if (buffer == null) {
+            return data;
+        }
+        byte[] values = new byte[size];
+        copyTo(ByteBuffer.wrap(values));
+        return values;
+    }
+
+    // put the payload at dst position
+    public void copyTo(ByteBuffer dst) {
+        if (buffer == null) {
+            dst.put(data);
+            return;
+        }
+        // move the view bounds instead of duplicating the buffer, then restore them
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(offset + size);
+        buffer.position(offset);
+        dst.put(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+    }
+
+    // one more holder, no-op for packets that own their payload
+    public void retain() {
+        if (owner != null) {
+            owner.retain();
+        }
+    }
+
+    // this holder is done; the last release hands the payload back to its owner
+    public void release() {
+        if (owner != null) {
+            owner.release();
+        }
+    }
+
     // create packet from byte array
     public static VideoPacket fromArray(byte[] values) {
         VideoPacket videoPacket = new VideoPacket();
@@ -65,9 +138,7 @@ public class VideoPacket extends MediaPacket {
         videoPacket.flag = Flag.getFlag(flagValue);
 
         // should be 8 bytes for timestamp//应该是8个字节的时间戳
-        byte[] timeStamp = new byte[8];
-        System.arraycopy(values, 2, timeStamp, 0, 8);
-        videoPacket.presentationTimeStamp = ByteUtils.bytesToLong(timeStamp);
+        videoPacket.presentationTimeStamp = ByteUtils.getLong(values, 2);
 
         // all other bytes is data//所有其他字节都是数据
         int dataLength = values.length - 10;
@@ -80,25 +151,14 @@ public class VideoPacket extends MediaPacket {
 
     // create byte array//创建字节数组
     public static byte[] toArray(Type type, Flag flag, long presentationTimeStamp, byte[] data) {
+        // 4 - inner packet size 1 - type + 1 - flag + 8 - timeStamp + data.length
+        byte[] values = new byte[PacketCodec.PREFIX_SIZE + data.length];
 
-        // should be 4 bytes for packet size//数据包大小应为4个字节
-        byte[] bytes = ByteUtils.intToBytes(10 + data.length);
-
-        int packetSize = 14 + data.length; // 4 - inner packet size 1 - type + 1 - flag + 8 - timeStamp + data.length
-        byte[] values = new byte[packetSize];
-
-        System.arraycopy(bytes, 0, values, 0, 4);
-
-        // set type value//设置类型值
-        values[4] = type.getType();
-        // set flag value//设置标志值
-        values[5] = flag.getFlag();
-        // set timeStamp//设置时间戳
-        byte[] longToBytes = ByteUtils.longToBytes(presentationTimeStamp);
-        System.arraycopy(longToBytes, 0, values, 6, longToBytes.length);
+        ByteBuffer frame = ByteBuffer.wrap(values);
+        PacketCodec.writePrefix(type, flag, presentationTimeStamp, data.length, frame);
 
         // set data array//设置数据数组
-        System.arraycopy(data, 0, values, 14, data.length);
+        frame.put(data);
         return values;
     }
 
@@ -107,35 +167,47 @@ public class VideoPacket extends MediaPacket {
         return values[0] == Type.VIDEO.getType();
     }
 
+    // splits a config sample into its parameter sets; every SPS goes to sps and every PPS to pps, each
+    // behind a 4-byte start code as the codec takes them. Throws IllegalArgumentException if either is
+    // missing or the first SPS can't be parsed
     public static StreamSettings getStreamSettings(byte[] buffer) {
-        byte[] sps, pps;
-
-        ByteBuffer spsPpsBuffer = ByteBuffer.wrap(buffer);
-        if (spsPpsBuffer.getInt() == 0x00000001) {
-            System.out.println("parsing sps/pps");
-        } else {
-            System.out.println("something is amiss?");
+        NalScanner scanner = new NalScanner().reset(buffer, 0, buffer.length);
+        int spsSize = 0;
+        int ppsSize = 0;
+        Sps first = null;
+        while (scanner.next()) {
+            if (scanner.type() == NalUnitType.SPS) {
+                if (first == null) {
+                    first = Sps.parse(buffer, scanner.offset(), scanner.size());
+                }
+                spsSize += START_CODE.length + scanner.size();
+            } else if (scanner.type() == NalUnitType.PPS) {
+                ppsSize += START_CODE.length + scanner.size();
+            }
         }
-        int ppsIndex = 0;
-        while (!(spsPpsBuffer.get() == 0x00 && spsPpsBuffer.get() == 0x00 && spsPpsBuffer.get() == 0x00 && spsPpsBuffer.get() == 0x01)) {
-
+        if (first == null || ppsSize == 0) {
+            throw new IllegalArgumentException("config sample without SPS and PPS");
         }
-        ppsIndex = spsPpsBuffer.position();
-        sps = new byte[ppsIndex - 4];
-        System.arraycopy(buffer, 0, sps, 0, sps.length);
-        ppsIndex -= 4;
-        pps = new byte[buffer.length - ppsIndex];
-        System.arraycopy(buffer, ppsIndex, pps, 0, pps.length);
-
-        // sps buffer
-        ByteBuffer spsBuffer = ByteBuffer.wrap(sps, 0, sps.length);
 
-        // pps buffer
-        ByteBuffer ppsBuffer = ByteBuffer.wrap(pps, 0, pps.length);
+        ByteBuffer spsBuffer = ByteBuffer.allocate(spsSize);
+        ByteBuffer ppsBuffer = ByteBuffer.allocate(ppsSize);
+        scanner.reset(buffer, 0, buffer.length);
+        while (scanner.next()) {
+            ByteBuffer dst = scanner.type() == NalUnitType.SPS ? spsBuffer
+                    : scanner.type() == NalUnitType.PPS ? ppsBuffer : null;
+            if (dst != null) {
+                dst.put(START_CODE);
+                dst.put(buffer, scanner.offset(), scanner.size());
+            }
+        }
+        spsBuffer.flip();
+        ppsBuffer.flip();
 
         StreamSettings streamSettings = new StreamSettings();
         streamSettings.sps = spsBuffer;
         streamSettings.pps = ppsBuffer;
+        streamSettings.width = first.width;
+        streamSettings.height = first.height;
 
         return streamSettings;
     }
@@ -143,5 +215,8 @@ public class VideoPacket extends MediaPacket {
     public static class StreamSettings {
         public ByteBuffer pps;
         public ByteBuffer sps;
+        // picture size from the first SPS, cropping applied
+        public int width;
+        public int height;
     }
 }
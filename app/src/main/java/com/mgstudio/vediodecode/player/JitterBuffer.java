@@ -0,0 +1,274 @@
+package com.mgstudio.vediodecode.player;
+//抖动缓冲区
+
+import com.mgstudio.vediodecode.decoder.FrameScheduler;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// adaptive jitter buffer keyed on presentationTimeStamp. Each frame is scheduled for
+// pts + offset, where offset is the smallest recent transit time (sender clock to receiver clock)
+// plus a target delay that follows the interarrival jitter (RFC 3550 estimator): it grows at once
+// when jitter rises and shrinks slowly when it settles. Frames leave in pts order when due, and the
+// same schedule gives the decoder its render times.
+public class JitterBuffer implements FrameScheduler {
+
+    public interface Clock {
+        long nowUs();
+
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nowUs() {
+                // same time base as MediaCodec render timestamps
+                return System.nanoTime() / 1000;
+            }
+        };
+    }
+
+    public static final long DEFAULT_MIN_DELAY_US = 20 * 1000;
+
+    public static final long DEFAULT_MAX_DELAY_US = 500 * 1000;
+
+    // frames leave this long before their playout time, so decoding is done when the render time comes
+    public static final long DEFAULT_RELEASE_LEAD_US = 40 * 1000;
+
+    // target delay in units of estimated jitter
+    private static final int JITTER_MULTIPLIER = 4;
+
+    // frames that may be waiting or out with the consumer at once; beyond that frames are dropped up to
+    // a key frame
+    private static final int CAPACITY = 256;
+
+    private final Clock clock;
+
+    private final BufferPool pool;
+
+    private final long minDelayUs;
+
+    private final long maxDelayUs;
+
+    private long mReleaseLeadUs = DEFAULT_RELEASE_LEAD_US;
+
+    // waiting frames sorted by pts, and spare packets to copy new frames into
+    private final ArrayList<VideoPacket> packets = new ArrayList<>(CAPACITY);
+    private final ArrayList<VideoPacket> spares = new ArrayList<>(CAPACITY);
+
+    private boolean mHasTransit;
+    private long mLastTransitUs;
+    private long mBaseTransitUs;
+
+    // interarrival jitter estimate, microseconds * 16 as in RFC 3550 sample code
+    private long mJitter16;
+
+    private long mTargetDelayUs;
+
+    private long mLatePackets;
+
+    private long mDroppedFrames;
+
+    // frames were dropped for room, those arriving are undecodable until the next key frame
+    private boolean mSkipToKeyFrame;
+
+    public JitterBuffer(Clock clock, BufferPool pool) {
+        this(clock, pool, DEFAULT_MIN_DELAY_US, DEFAULT_MAX_DELAY_US);
+    }
+
+    public JitterBuffer(Clock clock, BufferPool pool, long minDelayUs, long maxDelayUs) {
+        this.clock = clock;
+        this.pool = pool;
+        this.minDelayUs = minDelayUs;
+        this.maxDelayUs = maxDelayUs;
+        this.mTargetDelayUs = minDelayUs;
+        for (int i = 0; i < CAPACITY; i++) {
+            spares.add(new VideoPacket());
+        }
+    }
+
+    public synchronized void setReleaseLeadUs(long releaseLeadUs) {
+        mReleaseLeadUs = releaseLeadUs;
+    }
+
+    // copy a received frame in, the caller keeps ownership of videoPacket; returns the frames dropped to
+    // make room, videoPacket included if it had to go too
+    public synchronized int offer(VideoPacket videoPacket) {
+        long arrivalUs = clock.nowUs();
+        updateDelay(arrivalUs - videoPacket.presentationTimeStamp);
+        boolean keyFrame = videoPacket.flag == VideoPacket.Flag.KEY_FRAME;
+        if (mSkipToKeyFrame && !keyFrame) {
+            mDroppedFrames++;
+            return 1;
+        }
+        mSkipToKeyFrame = false;
+        if (arrivalUs > playoutTimeUs(videoPacket.presentationTimeStamp)) {
+            // arrived after its slot, still decoded since later frames reference it
+            mLatePackets++;
+        }
+
+        int dropped = 0;
+        if (spares.isEmpty()) {
+            // consumer stalled: later frames reference the oldest, so all up to the next key frame go
+            dropped = dropToKeyFrame();
+            if (spares.isEmpty() || (!keyFrame && packets.isEmpty())) {
+                // no key frame waiting, or every frame is out with the consumer
+                mSkipToKeyFrame = true;
+                mDroppedFrames++;
+                return dropped + 1;
+            }
+        }
+        VideoPacket copy = copyOf(videoPacket);
+
+        // arrivals are nearly always in order, search from the tail
+        int index = packets.size();
+        while (index > 0 && packets.get(index - 1).presentationTimeStamp > copy.presentationTimeStamp) {
+            index--;
+        }
+        packets.add(index, copy);
+        notifyAll();
+        return dropped;
+    }
+
+    // next frame if it is due, null otherwise; hand it back with release when decoded
+    public synchronized VideoPacket poll() {
+        if (packets.isEmpty()) {
+            return null;
+        }
+        long nowUs = clock.nowUs();
+        VideoPacket head = packets.get(0);
+        long playoutUs = playoutTimeUs(head.presentationTimeStamp);
+        if (playoutUs - mReleaseLeadUs > nowUs) {
+            return null;
+        }
+        return packets.remove(0);
+    }
+
+    // blocking poll for the pacing thread, only meaningful with the system clock
+    public synchronized VideoPacket take() throws InterruptedException {
+        for (; ; ) {
+            VideoPacket videoPacket = poll();
+            if (videoPacket != null) {
+                return videoPacket;
+            }
+            if (packets.isEmpty()) {
+                wait();
+            } else {
+                // woken early if an earlier frame arrives
+                long waitUs = playoutTimeUs(packets.get(0).presentationTimeStamp) - mReleaseLeadUs - clock.nowUs();
+                wait(Math.max(1, waitUs / 1000));
+            }
+        }
+    }
+
+    public synchronized void release(VideoPacket videoPacket) {
+        recycle(videoPacket);
+    }
+
+    // receiver clock time at which the frame should be shown
+    public synchronized long playoutTimeUs(long presentationTimeUs) {
+        return presentationTimeUs + mBaseTransitUs + mTargetDelayUs;
+    }
+
+    @Override
+    public long renderTimeNs(long presentationTimeUs) {
+        return playoutTimeUs(presentationTimeUs) * 1000;
+    }
+
+    public synchronized long getTargetDelayUs() {
+        return mTargetDelayUs;
+    }
+
+    public synchronized long getJitterUs() {
+        return mJitter16 >> 4;
+    }
+
+    public synchronized long getLatePackets() {
+        return mLatePackets;
+    }
+
+    // frames dropped when the consumer fell too far behind
+    public synchronized long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public synchronized int size() {
+        return packets.size();
+    }
+
+    public synchronized void clear() {
+        while (!packets.isEmpty()) {
+            recycle(packets.remove(packets.size() - 1));
+        }
+        notifyAll();
+        mSkipToKeyFrame = false;
+        mHasTransit = false;
+        mJitter16 = 0;
+        mTargetDelayUs = minDelayUs;
+    }
+
+    private void updateDelay(long transitUs) {
+        if (!mHasTransit) {
+            mHasTransit = true;
+            mLastTransitUs = transitUs;
+            mBaseTransitUs = transitUs;
+            return;
+        }
+        long d = Math.abs(transitUs - mLastTransitUs);
+        mLastTransitUs = transitUs;
+        mJitter16 += d - ((mJitter16 + 8) >> 4);
+
+        // fastest path seen so far, drifting up slowly so clock drift can't leave it behind
+        if (transitUs < mBaseTransitUs) {
+            mBaseTransitUs = transitUs;
+        } else {
+            mBaseTransitUs += (transitUs - mBaseTransitUs) >> 10;
+        }
+
+        long desired = Math.max(minDelayUs, Math.min(maxDelayUs, minDelayUs + JITTER_MULTIPLIER * (mJitter16 >> 4)));
+        if (desired > mTargetDelayUs) {
+            mTargetDelayUs = desired;
+        } else {
+            mTargetDelayUs -= (mTargetDelayUs - desired) >> 6;
+        }
+    }
+
+    // drops the waiting frames before the first key frame after the head, or all of them if there is
+    // none; returns how many
+    private int dropToKeyFrame() {
+        int end = 1;
+        while (end < packets.size() && packets.get(end).flag != VideoPacket.Flag.KEY_FRAME) {
+            end++;
+        }
+        int dropped = Math.min(end, packets.size());
+        for (int i = 0; i < dropped; i++) {
+            recycle(packets.remove(0));
+        }
+        mDroppedFrames += dropped;
+        return dropped;
+    }
+
+    private VideoPacket copyOf(VideoPacket videoPacket) {
+        VideoPacket copy = spares.remove(spares.size() - 1);
+        int size = videoPacket.getSize();
+        ByteBuffer buffer = pool.acquire(size);
+        videoPacket.copyTo(buffer);
+        buffer.flip();
+
+        copy.type = videoPacket.type;
+        copy.flag = videoPacket.flag;
+        copy.presentationTimeStamp = videoPacket.presentationTimeStamp;
+        copy.data = null;
+        copy.buffer = buffer;
+        copy.offset = 0;
+        copy.size = size;
+        return copy;
+    }
+
+    private void recycle(VideoPacket videoPacket) {
+        if (videoPacket.buffer != null) {
+            pool.release(videoPacket.buffer);
+            videoPacket.buffer = null;
+        }
+        spares.add(videoPacket);
+    }
+}
@@ -0,0 +1,70 @@
+package com.mgstudio.vediodecode.player;
+//关键帧门
+
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+// Holds frames back from the decoder after a connection until it can decode them: a receiver that
+// joins mid-GOP first sees P frames that reference pictures it never got. Everything up to the first
+// CONFIG and KEY_FRAME is skipped, and the time from connecting to that key frame is recorded.
+//
+// Called on the receive thread, the metrics can be read from any thread.
+public class KeyFrameGate {
+
+    private final JitterBuffer.Clock clock;
+
+    private boolean mHasConfig;
+
+    private boolean mWaiting = true;
+
+    private long mConnectedUs;
+
+    private volatile long mTimeToFirstFrameUs = -1;
+
+    private volatile long mSkippedFrames;
+
+    public KeyFrameGate(JitterBuffer.Clock clock) {
+        this.clock = clock;
+    }
+
+    // a new connection, the decoder has to resync from its parameter sets and a key frame
+    public void connected() {
+        mHasConfig = false;
+        mWaiting = true;
+        mConnectedUs = clock.nowUs();
+        mTimeToFirstFrameUs = -1;
+    }
+
+    // true if the packet goes on to the decoder
+    public boolean accept(VideoPacket videoPacket) {
+        switch (videoPacket.flag) {
+            case CONFIG:
+                mHasConfig = true;
+                return true;
+            case KEY_FRAME:
+                if (mWaiting && mHasConfig) {
+                    mWaiting = false;
+                    mTimeToFirstFrameUs = clock.nowUs() - mConnectedUs;
+                }
+                break;
+            case FRAME:
+                break;
+            default:
+                return true;
+        }
+        if (mWaiting) {
+            mSkippedFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    // connection to first decodable key frame for the current connection, -1 while still waiting
+    public long getTimeToFirstFrameUs() {
+        return mTimeToFirstFrameUs;
+    }
+
+    // frames dropped while waiting for a key frame, all connections
+    public long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+}
@@ -0,0 +1,44 @@
+package com.mgstudio.vediodecode.player;
+//数据包读取器
+
+import com.mgstudio.vediodecode.model.ByteUtils;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// reads length-prefixed packets from a stream, one VideoPacket per call
+public class PacketReader {
+
+    private final DataInputStream dataInputStream;
+
+    private final byte[] packetSize = new byte[4];
+
+    public PacketReader(InputStream inputStream) {
+        this.dataInputStream = inputStream instanceof DataInputStream
+                ? (DataInputStream) inputStream
+                : new DataInputStream(inputStream);
+    }
+
+    // number of bytes readable without blocking
+    public int available() throws IOException {
+        return dataInputStream.available();
+    }
+
+    public VideoPacket read() throws IOException {
+        // get packet size//获取数据包大小
+        dataInputStream.readFully(packetSize, 0, 4);
+
+        // read packet//读包
+        int size = ByteUtils.getInt(packetSize, 0);
+        if (size < PacketCodec.HEADER_SIZE || size > PacketCodec.MAX_FRAME_SIZE) {
+            throw new IOException("Corrupted packet length: " + size);
+        }
+        byte[] packet = new byte[size];
+        dataInputStream.readFully(packet, 0, size);
+
+        return VideoPacket.fromArray(packet);
+    }
+}
@@ -4,38 +4,92 @@ package com.mgstudio.vediodecode.player;
 import android.util.Log;
 import android.view.Surface;
 
+import com.mgstudio.vediodecode.clock.ClockSync;
+import com.mgstudio.vediodecode.control.ControlMessage;
+import com.mgstudio.vediodecode.control.ControlWriter;
 import com.mgstudio.vediodecode.decoder.VideoDecoder;
-import com.mgstudio.vediodecode.model.ByteUtils;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.BufferPool;
 import com.mgstudio.vediodecode.model.MediaPacket;
 import com.mgstudio.vediodecode.model.VideoPacket;
 
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Player {
 
     private static final String TAG = Player.class.getSimpleName();
 
+    // a PING this often keeps the clock estimate following the sender's drift
+    private static final long PING_INTERVAL_US = 1000000;
+
+    // the first pings of a connection go faster, for a first estimate
+    private static final int FAST_PINGS = 5;
+    private static final long FAST_PING_INTERVAL_US = 100000;
+
     private Worker mWorker;
     private int port;
+    // set when watching a relay instead of waiting for a sender
+    private InetSocketAddress relay;
+    // RTP datagrams on the port instead of a TCP connection
+    private boolean udp;
     private Surface surface;
-    private int width;
-    private int height;
 
     //private int offset;
 
     private VideoDecoder videoDecoder;
 
-    public Player(int port, Surface surface, int width, int height) {
+    // received frames wait here until their playout time
+    private final JitterBuffer mJitterBuffer =
+            new JitterBuffer(JitterBuffer.Clock.SYSTEM, new BufferPool(1024 * 1024, 8));
+
+    private Pacer mPacer;
+
+    // parameter sets received and not yet applied: the pacer hands them to the decoder right before
+    // the key frame they come with, after the frames of the old stream still in the jitter buffer
+    private final AtomicReference<VideoPacket.StreamSettings> mPendingSettings = new AtomicReference<>();
+
+    // frames are held back after each connection until parameter sets and a key frame arrive
+    private final KeyFrameGate mKeyFrameGate = new KeyFrameGate(JitterBuffer.Clock.SYSTEM);
+
+    // the sender's clock, from PINGs over a TCP connection to it; receive thread only
+    private final ClockSync mClockSync = new ClockSync();
+    private final ControlMessage mPing = new ControlMessage(ControlMessage.Type.PING);
+    private int mPings;
+    private long mLastPingUs;
+
+    // connections so far; receive thread only
+    private int mConnections;
+
+    // capture to arrival of the last frame, -1 until the clocks are synchronized
+    private volatile long mCaptureLatencyUs = -1;
+
+    // the picture size comes from the SPS of the stream
+    public Player(int port, Surface surface) {
         this.videoDecoder = new VideoDecoder();
+        this.videoDecoder.setFrameScheduler(mJitterBuffer);
         this.port = port;
         this.surface = surface;
-        this.width = width;
-        this.height = height;
+    }
+
+    // watches a relay: connects to its viewer port, and again whenever the connection drops
+    public Player(InetSocketAddress relay, Surface surface) {
+        this(0, surface);
+        this.relay = relay;
+    }
+
+    // udp: receives RTP on the port, from a sender using UdpTransport
+    public Player(int port, Surface surface, boolean udp) {
+        this(port, surface);
+        this.udp = udp;
     }
 
     public void start() {
@@ -44,6 +98,10 @@ public class Player {
             mWorker.setRunning(true);
             mWorker.start();
         }
+        if (mPacer == null) {
+            mPacer = new Pacer();
+            mPacer.start();
+        }
         videoDecoder.start();
     }
 
@@ -53,10 +111,43 @@ public class Player {
             mWorker.shutDown();
             mWorker = null;
         }
+        if (mPacer != null) {
+            mPacer.interrupt();
+            mPacer = null;
+        }
+        mJitterBuffer.clear();
         videoDecoder.stop();
     }
 
-    private void decodeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags) {
+    // connection to first decodable key frame, -1 while waiting for one
+    public long getTimeToFirstFrameUs() {
+        return mKeyFrameGate.getTimeToFirstFrameUs();
+    }
+
+    // capture on the sender to arrival here of the last frame received: its timeStamp mapped through
+    // the clock offset to the sender. -1 until the first PING is answered, so always over a relay or UDP
+    public long getCaptureLatencyUs() {
+        return mCaptureLatencyUs;
+    }
+
+    // sends a control message back to the sender of a TCP stream, from any thread; false while not
+    // connected, over UDP, or if it could not be written. A relay doesn't pass them on
+    public boolean sendControl(ControlMessage message) {
+        Worker worker = mWorker;
+        ControlWriter controlWriter = worker != null ? worker.mControlWriter : null;
+        if (controlWriter == null) {
+            return false;
+        }
+        try {
+            controlWriter.send(message);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            return false;
+        }
+    }
+
+    private void decodeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
         videoDecoder.decodeSample(data, offset, size, presentationTimeUs, flags);
     }
 
@@ -64,30 +155,152 @@ public class Player {
         videoDecoder.configure(surface, width, height, csd0, csd1);
     }
 
+    // a new connection: another sender maybe, or the same one restarted
+    private void connected() {
+        mKeyFrameGate.connected();
+        mClockSync.reset();
+        mPings = 0;
+        mCaptureLatencyUs = -1;
+        StreamCounters.RECEIVER.set(StreamCounters.Gauge.CAPTURE_LATENCY_US, -1);
+        if (mConnections++ > 0) {
+            StreamCounters.RECEIVER.increment(StreamCounters.Counter.RECONNECTS);
+        }
+    }
+
+    // receive thread
+    private void ping(long nowUs) {
+        if (relay != null) {
+            // a relay reads nothing back, the pings would pile up in its socket
+            return;
+        }
+        long interval = mPings < FAST_PINGS ? FAST_PING_INTERVAL_US : PING_INTERVAL_US;
+        if (mPings == 0 || nowUs - mLastPingUs >= interval) {
+            mLastPingUs = nowUs;
+            mPing.timeUs = nowUs;
+            // the sender's rate controller backs off on a long round trip
+            mPing.rttUs = mClockSync.getRttUs();
+            if (sendControl(mPing)) {
+                mPings++;
+            }
+        }
+    }
+
+    // called on the receive thread, the packet is a view over pooled storage valid for this call only
     private void packetReceived(VideoPacket videoPacket) {
+        long nowUs = JitterBuffer.Clock.SYSTEM.nowUs();
+        if (videoPacket.flag == VideoPacket.Flag.CLOCK) {
+            mClockSync.addPong(videoPacket, nowUs);
+            return;
+        }
+        ping(nowUs);
         if (videoPacket.type == MediaPacket.Type.VIDEO) {
+            if (videoPacket.flag == VideoPacket.Flag.FRAME || videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                long timeStamp = videoPacket.presentationTimeStamp;
+                long captureUs = PipelineLatency.UNKNOWN;
+                if (mClockSync.isSynchronized()) {
+                    mCaptureLatencyUs = mClockSync.toSenderTimeUs(nowUs) - timeStamp;
+                    captureUs = mClockSync.toReceiverTimeUs(timeStamp);
+                    StreamCounters.RECEIVER.set(StreamCounters.Gauge.CAPTURE_LATENCY_US, mCaptureLatencyUs);
+                }
+                StreamCounters.RECEIVER.increment(StreamCounters.Counter.FRAMES);
+                StreamCounters.RECEIVER.add(StreamCounters.Counter.BYTES, videoPacket.getSize());
+                PipelineLatency.RECEIVER.start(timeStamp, captureUs);
+                PipelineLatency.RECEIVER.mark(PipelineLatency.Stage.TRANSIT, timeStamp, nowUs, false);
+            }
+            if (!mKeyFrameGate.accept(videoPacket)) {
+                // joined mid-GOP, undecodable until the next key frame
+                StreamCounters.RECEIVER.increment(StreamCounters.Counter.DROPPED_FRAMES);
+                return;
+            }
 
-            byte[] data = videoPacket.data;
             if (videoPacket.flag == VideoPacket.Flag.CONFIG) {
-                VideoPacket.StreamSettings streamSettings = VideoPacket.getStreamSettings(data);
-                configure(surface, width, height, streamSettings.sps, streamSettings.pps);
+                VideoPacket.StreamSettings streamSettings;
+                try {
+                    streamSettings = VideoPacket.getStreamSettings(videoPacket.getData());
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, e.getMessage());
+                    return;
+                }
+                mPendingSettings.set(streamSettings);
             } else if (videoPacket.flag == VideoPacket.Flag.END) {
                 // need close stream
             } else {
-                // nalu frame
-                decodeSample(data, 0, data.length, videoPacket.presentationTimeStamp,
-                        videoPacket.flag.getFlag());
+                // nalu frame, decoded by the pacer when due
+                int dropped = mJitterBuffer.offer(videoPacket);
+                if (dropped > 0) {
+                    // the pacer fell too far behind
+                    StreamCounters.RECEIVER.add(StreamCounters.Counter.DROPPED_FRAMES, dropped);
+                }
 //                offset += data.length;
             }
         }
     }
 
-    protected class Worker extends Thread {
+    // feeds the decoder from the jitter buffer at each frame's playout time
+    protected class Pacer extends Thread {
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    VideoPacket videoPacket = mJitterBuffer.take();
+                    StreamCounters.RECEIVER.set(StreamCounters.Gauge.QUEUE_DEPTH, mJitterBuffer.size());
+                    if (videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                        VideoPacket.StreamSettings streamSettings = mPendingSettings.getAndSet(null);
+                        if (streamSettings != null) {
+                            // repeated parameter sets are ignored by the decoder, changed ones switch it over
+                            configure(surface, streamSettings.width, streamSettings.height,
+                                    streamSettings.sps, streamSettings.pps);
+                        }
+                    }
+                    PipelineLatency.RECEIVER.mark(PipelineLatency.Stage.JITTER_BUFFER, videoPacket,
+                            PipelineLatency.nowUs(), false);
+                    VideoPacket.Flag flag = videoPacket.flag;
+                    long timeStamp = videoPacket.presentationTimeStamp;
+                    // output can come before decodeSample returns
+                    FrameTracer.TRACER.begin(FrameTracer.Span.DECODER_OUTPUT, videoPacket);
+                    FrameTracer.TRACER.begin(FrameTracer.Span.DECODER_INPUT, videoPacket);
+                    try {
+                        decodeSample(videoPacket.buffer, videoPacket.offset, videoPacket.size,
+                                timeStamp, flag.getFlag());
+                    } finally {
+                        mJitterBuffer.release(videoPacket);
+                        // also when the decoder throws, so its systrace section is closed
+                        if (FrameTracer.isFrame(flag)) {
+                            FrameTracer.TRACER.end(FrameTracer.Span.DECODER_INPUT, timeStamp);
+                        }
+                    }
+                }
+            } catch (InterruptedException ignore) {
+                // player stopped
+            }
+        }
+    }
+
+    protected class Worker extends Thread implements ReceiveEngine.Listener {
 
         private AtomicBoolean mIsRunning = new AtomicBoolean(false);
 
+        private static final int CONNECT_TIMEOUT_MS = 3000;
+
+        private static final long RECONNECT_DELAY_MS = 1000;
+
         private ServerSocket serverSocket;
 
+        // connection to the relay, closed to unblock connect
+        private volatile Socket mRelaySocket;
+
+        // engine of the current connection
+        private volatile ReceiveEngine mEngine;
+
+        private volatile RtpReceiver mRtpReceiver;
+
+        // back to the sender of the current connection
+        private volatile ControlWriter mControlWriter;
+
+        // payload storage shared by all connections, sized for key frames
+        private final BufferPool mPool = new BufferPool(1024 * 1024, 4);
+
         Worker() {
 
         }
@@ -97,6 +310,15 @@ public class Player {
         }
 
         private void shutDown() {
+            interrupt();
+            Socket relaySocket = mRelaySocket;
+            if (relaySocket != null) {
+                try {
+                    relaySocket.close();
+                } catch (IOException e) {
+                    Log.e(TAG, e.getMessage());
+                }
+            }
             if (serverSocket != null) {
                 try {
                     serverSocket.close();
@@ -104,70 +326,125 @@ public class Player {
                     Log.e(TAG, e.getMessage());
                 }
             }
+            ReceiveEngine engine = mEngine;
+            if (engine != null) {
+                engine.stop();
+            }
+            RtpReceiver rtpReceiver = mRtpReceiver;
+            if (rtpReceiver != null) {
+                rtpReceiver.stop();
+            }
         }
 
         @Override
-        public void run() {
-            DataInputStream dataInputStream = null;
-
-            Socket socket = null;
+        public void onPacketReceived(VideoPacket videoPacket) {
+            packetReceived(videoPacket);
+        }
 
+        @Override
+        public void run() {
+            if (relay != null) {
+                watchRelay();
+                return;
+            }
+            if (udp) {
+                receiveRtp();
+                return;
+            }
             try {
                 serverSocket = new ServerSocket(port);
 
                 while (mIsRunning.get()) {
-                    socket = serverSocket.accept();
-                    try {
-                        dataInputStream = new DataInputStream(socket.getInputStream());
-
-                        //int offset = -1;
-                        byte[] packetSize;
-
-                        while (true) {
-                            int available = dataInputStream.available();
-                            if (available > 0) {
-
-//                                if (offset == -1) {
-//                                    offset = 0;
-//                                }
-
-                                // get packet size//获取数据包大小
-                                packetSize = new byte[4];
-                                dataInputStream.readFully(packetSize, 0, 4);
-//                                offset += 4;
-
-                                // read packet//读包
-                                int size = ByteUtils.bytesToInt(packetSize);
-                                byte[] packet = new byte[size];
-                                dataInputStream.readFully(packet, 0, size);
-//                                offset += size;
-
-                                VideoPacket videoPacket = VideoPacket.fromArray(packet);
-                                packetReceived(videoPacket);
-                            }
-                        }
-                    } finally {
-                        if (dataInputStream != null) {
-                            try {
-                                dataInputStream.close();
-                            } catch (IOException e) {
-                                Log.e(TAG, e.getMessage());
-                            }
-                        }
-                    }
+                    receive(serverSocket.accept());
                 }
 
             } catch (Exception e) {
-                Log.e(TAG, e.getMessage());
+                // accept throws once shutDown closes the server socket
+                if (mIsRunning.get()) {
+                    Log.e(TAG, e.getMessage());
+                }
             } finally {
-                if (socket != null) {
+                if (serverSocket != null) {
                     try {
-                        socket.close();
+                        serverSocket.close();
                     } catch (IOException e) {
                         Log.e(TAG, e.getMessage());
                     }
                 }
             }
         }
+
+        private void watchRelay() {
+            while (mIsRunning.get()) {
+                Socket socket = new Socket();
+                mRelaySocket = socket;
+                try {
+                    socket.connect(relay, CONNECT_TIMEOUT_MS);
+                    receive(socket);
+                } catch (IOException e) {
+                    if (mIsRunning.get()) {
+                        Log.e(TAG, e.getMessage());
+                    }
+                    try {
+                        socket.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+                mRelaySocket = null;
+
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    // stopped
+                    return;
+                }
+            }
+        }
+
+        private void receiveRtp() {
+            DatagramSocket socket = null;
+            try {
+                socket = new DatagramSocket(port);
+                RtpReceiver rtpReceiver = new RtpReceiver(socket, mPool, this,
+                        RtpReceiver.DEFAULT_RECOVERY_DELAY_US);
+                connected();
+                mRtpReceiver = rtpReceiver;
+                if (mIsRunning.get()) {
+                    // blocks until the player stops
+                    rtpReceiver.run();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            } finally {
+                mRtpReceiver = null;
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+
+        // receives until the peer disconnects or the player stops, closes the socket
+        private void receive(Socket socket) {
+            try {
+                ReceiveEngine engine = new ReceiveEngine(socket.getInputStream(), mPool, this);
+                connected();
+                mEngine = engine;
+                mControlWriter = new ControlWriter(socket.getOutputStream());
+                if (mIsRunning.get()) {
+                    // blocks until the sender disconnects or the player stops
+                    engine.run();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            } finally {
+                mEngine = null;
+                mControlWriter = null;
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.e(TAG, e.getMessage());
+                }
+            }
+        }
     }
 }
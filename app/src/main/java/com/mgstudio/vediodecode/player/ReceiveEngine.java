@@ -0,0 +1,156 @@
+package com.mgstudio.vediodecode.player;
+//接收引擎
+
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// blocking receive loop: reads the stream into one ring buffer, parses the length-prefixed
+// frames incrementally and copies each payload once into storage taken from the pool.
+// Nothing is allocated per frame and the thread sleeps in read while no data arrives.
+public class ReceiveEngine {
+
+    public interface Listener {
+        // the packet and its buffer are only valid during the call
+        void onPacketReceived(VideoPacket videoPacket);
+    }
+
+    // power of two, only frame headers have to fit - payloads are streamed out as they arrive
+    private static final int RING_SIZE = 64 * 1024;
+
+    private static final int MASK = RING_SIZE - 1;
+
+    private final InputStream inputStream;
+
+    private final BufferPool pool;
+
+    private final Listener listener;
+
+    private final byte[] ring = new byte[RING_SIZE];
+
+    // absolute stream positions, masked into the ring
+    private long readIndex;
+    private long writeIndex;
+
+    // packet handed to the listener, reused for every frame
+    private final VideoPacket videoPacket = new VideoPacket();
+
+    // payload of the frame in progress, null while waiting for a header
+    private ByteBuffer payload;
+
+    private int payloadRemaining;
+
+    private volatile boolean stopped;
+
+    public ReceiveEngine(InputStream inputStream, BufferPool pool, Listener listener) {
+        this.inputStream = inputStream;
+        this.pool = pool;
+        this.listener = listener;
+    }
+
+    // receive until end of stream or stop(), returns normally in both cases
+    public void run() throws IOException {
+        try {
+            while (!stopped) {
+                int start = (int) (writeIndex & MASK);
+                int free = RING_SIZE - (int) (writeIndex - readIndex);
+                int count = inputStream.read(ring, start, Math.min(free, RING_SIZE - start));
+                if (count < 0) {
+                    // peer disconnected
+                    return;
+                }
+                writeIndex += count;
+                parse();
+            }
+        } catch (IOException e) {
+            // closing the stream is how stop() unblocks the read
+            if (!stopped) {
+                throw e;
+            }
+        } finally {
+            if (payload != null) {
+                // a frame cut off mid-payload: close its span and section
+                FrameTracer.TRACER.end(FrameTracer.Span.SOCKET_READ, videoPacket);
+                pool.release(payload);
+                payload = null;
+            }
+        }
+    }
+
+    // unblock run() from another thread
+    public void stop() {
+        stopped = true;
+        try {
+            inputStream.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void parse() throws IOException {
+        for (; ; ) {
+            int available = (int) (writeIndex - readIndex);
+            if (payload == null) {
+                if (available < PacketCodec.PREFIX_SIZE) {
+                    return;
+                }
+                int length = getInt(readIndex);
+                if (length < PacketCodec.HEADER_SIZE || length > PacketCodec.MAX_FRAME_SIZE) {
+                    throw new IOException("Corrupted packet length: " + length);
+                }
+                videoPacket.type = MediaPacket.Type.getType(byteAt(readIndex + 4));
+                videoPacket.flag = VideoPacket.Flag.getFlag(byteAt(readIndex + 5));
+                videoPacket.presentationTimeStamp = ((long) getInt(readIndex + 6) << 32)
+                        | (getInt(readIndex + 10) & 0xFFFFFFFFL);
+                readIndex += PacketCodec.PREFIX_SIZE;
+                available -= PacketCodec.PREFIX_SIZE;
+                FrameTracer.TRACER.begin(FrameTracer.Span.SOCKET_READ, videoPacket);
+
+                payloadRemaining = length - PacketCodec.HEADER_SIZE;
+                payload = pool.acquire(payloadRemaining);
+            }
+
+            int chunk = Math.min(payloadRemaining, available);
+            int start = (int) (readIndex & MASK);
+            int first = Math.min(chunk, RING_SIZE - start);
+            payload.put(ring, start, first);
+            if (chunk > first) {
+                payload.put(ring, 0, chunk - first);
+            }
+            readIndex += chunk;
+            payloadRemaining -= chunk;
+            if (payloadRemaining > 0) {
+                return;
+            }
+
+            payload.flip();
+            videoPacket.buffer = payload;
+            videoPacket.offset = 0;
+            videoPacket.size = payload.limit();
+            FrameTracer.TRACER.end(FrameTracer.Span.SOCKET_READ, videoPacket);
+            try {
+                listener.onPacketReceived(videoPacket);
+            } finally {
+                videoPacket.buffer = null;
+                pool.release(payload);
+                payload = null;
+            }
+        }
+    }
+
+    private byte byteAt(long index) {
+        return ring[(int) (index & MASK)];
+    }
+
+    private int getInt(long index) {
+        return (byteAt(index) << 24)
+                | ((byteAt(index + 1) & 0xFF) << 16)
+                | ((byteAt(index + 2) & 0xFF) << 8)
+                | (byteAt(index + 3) & 0xFF);
+    }
+}
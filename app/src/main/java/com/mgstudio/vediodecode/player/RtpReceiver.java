@@ -0,0 +1,183 @@
+package com.mgstudio.vediodecode.player;
+//RTP接收器
+
+import com.mgstudio.vediodecode.fec.FecDecoder;
+import com.mgstudio.vediodecode.fec.FecHeader;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.rtp.RtcpNack;
+import com.mgstudio.vediodecode.rtp.RtpDepacketizer;
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+// blocking receive loop for RTP over UDP: datagrams go through an RtpDepacketizer, which hands
+// complete frames to the listener. The socket times out every few milliseconds so gaps that nothing
+// arrives behind still expire. One datagram array is reused, nothing is allocated per packet.
+//
+// With a recovery delay, missing packets are asked for again with RTCP NACKs sent back to where the
+// stream comes from, batched every few milliseconds, and gaps wait that long for the retransmission.
+//
+// Parity packets are recognized by their payload type: the first one sets up a FecDecoder, which from
+// then on keeps the media packets and hands rebuilt ones to the depacketizer like any other.
+public class RtpReceiver {
+
+    // how often a quiet socket checks for expired gaps
+    private static final int TICK_MS = 10;
+
+    private final DatagramSocket socket;
+
+    private final RtpDepacketizer depacketizer;
+
+    private final byte[] datagram = new byte[RtpDepacketizer.MAX_PACKET_SIZE];
+
+    private final DatagramPacket packet = new DatagramPacket(datagram, datagram.length);
+
+    // time a gap may wait for a retransmission, well inside the jitter buffer's delay
+    public static final long DEFAULT_RECOVERY_DELAY_US = 150 * 1000;
+
+    // NACKs are batched over this time
+    private static final long NACK_INTERVAL_US = 5 * 1000;
+
+    // sequence numbers in one NACK at most
+    private static final int MAX_NACKS = 64;
+
+    private final boolean nack;
+
+    private final int[] nackSequenceNumbers = new int[MAX_NACKS];
+
+    private final byte[] nackBuffer = new byte[RtcpNack.HEADER_SIZE + 4 * MAX_NACKS];
+
+    private final DatagramPacket nackPacket = new DatagramPacket(nackBuffer, nackBuffer.length);
+
+    // sender of the stream, where NACKs go
+    private InetAddress mSource;
+    private int mSourcePort;
+
+    private long mLastNackUs;
+
+    private long mNacksSent;
+
+    // created with the first parity packet
+    private FecDecoder mFecDecoder;
+
+    private final FecDecoder.Listener recoveredListener = new FecDecoder.Listener() {
+        @Override
+        public void onRecovered(byte[] packet, int offset, int length) {
+            depacketizer.receive(packet, offset, length, mNowUs);
+        }
+    };
+
+    private long mNowUs;
+
+    private volatile boolean stopped;
+
+    // plain reordering, no retransmission
+    public RtpReceiver(DatagramSocket socket, BufferPool pool, ReceiveEngine.Listener listener) {
+        this(socket, pool, listener, 0);
+    }
+
+    // recoveryDelayUs: how long a gap waits for a retransmission asked for with NACKs, 0 for none
+    public RtpReceiver(DatagramSocket socket, BufferPool pool, final ReceiveEngine.Listener listener,
+                       long recoveryDelayUs) {
+        this.socket = socket;
+        this.nack = recoveryDelayUs > 0;
+        RtpDepacketizer.Listener frameListener = new RtpDepacketizer.Listener() {
+            @Override
+            public void onFrame(VideoPacket videoPacket) {
+                listener.onPacketReceived(videoPacket);
+            }
+        };
+        this.depacketizer = nack
+                ? new RtpDepacketizer(pool, frameListener, RtpDepacketizer.DEFAULT_WINDOW, recoveryDelayUs)
+                : new RtpDepacketizer(pool, frameListener);
+    }
+
+    // receive until stop(), returns normally then
+    public void run() throws IOException {
+        try {
+            socket.setSoTimeout(TICK_MS);
+            while (!stopped) {
+                packet.setLength(datagram.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    long nowUs = nowUs();
+                    depacketizer.flush(nowUs);
+                    sendNacks(nowUs);
+                    continue;
+                }
+                long nowUs = nowUs();
+                mSource = packet.getAddress();
+                mSourcePort = packet.getPort();
+                mNowUs = nowUs;
+                if (packet.getLength() >= RtpHeader.SIZE && FecHeader.isFec(datagram, packet.getOffset())) {
+                    if (mFecDecoder == null) {
+                        mFecDecoder = new FecDecoder(RtpDepacketizer.MAX_PACKET_SIZE, recoveredListener);
+                    }
+                    mFecDecoder.receiveParity(datagram, packet.getOffset(), packet.getLength());
+                } else {
+                    if (mFecDecoder != null) {
+                        mFecDecoder.receiveMedia(datagram, packet.getOffset(), packet.getLength());
+                    }
+                    depacketizer.receive(datagram, packet.getOffset(), packet.getLength(), nowUs);
+                }
+                if (nowUs - mLastNackUs >= NACK_INTERVAL_US) {
+                    sendNacks(nowUs);
+                }
+            }
+        } catch (IOException e) {
+            // closing the socket is how stop() unblocks the receive
+            if (!stopped) {
+                throw e;
+            }
+        } finally {
+            depacketizer.release();
+        }
+    }
+
+    // unblock run() from another thread
+    public void stop() {
+        stopped = true;
+        socket.close();
+    }
+
+    // NACK packets sent
+    public long getNacksSent() {
+        return mNacksSent;
+    }
+
+    // null until a parity packet arrived
+    public FecDecoder getFecDecoder() {
+        return mFecDecoder;
+    }
+
+    public RtpDepacketizer getDepacketizer() {
+        return depacketizer;
+    }
+
+    private void sendNacks(long nowUs) throws IOException {
+        mLastNackUs = nowUs;
+        if (!nack || mSource == null) {
+            return;
+        }
+        int count = depacketizer.collectNacks(nowUs, nackSequenceNumbers);
+        int length = RtcpNack.write(nackBuffer, 0, depacketizer.getSsrc(), nackSequenceNumbers, count);
+        if (length > 0) {
+            nackPacket.setLength(length);
+            nackPacket.setAddress(mSource);
+            nackPacket.setPort(mSourcePort);
+            socket.send(nackPacket);
+            mNacksSent++;
+        }
+    }
+
+    private static long nowUs() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+}
@@ -0,0 +1,90 @@
+package com.mgstudio.vediodecode.rtp;
+//重传缓存
+
+import java.io.IOException;
+
+// The last packets sent, kept for retransmission on a NACK. Slots are indexed by sequence number and
+// overwritten as newer packets go out, so the cache holds at most capacity packets and no packet
+// older than the window: one that old would arrive after the receiver gave up on it, and resending
+// it only takes bandwidth from the live stream.
+//
+// All storage is allocated up front. The transport thread adds, the thread reading NACKs resends.
+public class RetransmitCache {
+
+    private final int mask;
+
+    private final long windowUs;
+
+    // a packet is resent at most once in this time, however often it is asked for
+    private final long minResendIntervalUs;
+
+    private final byte[][] mPackets;
+    private final int[] mLengths;
+    private final int[] mSequenceNumbers;
+    private final long[] mSentUs;
+    private final long[] mResentUs;
+
+    private long mRetransmitted;
+    // asked for after they left the cache or the window
+    private long mExpired;
+
+    // capacity: packets, a power of two
+    public RetransmitCache(int capacity, int maxPacketSize, long windowUs, long minResendIntervalUs) {
+        if (Integer.bitCount(capacity) != 1 || capacity > 1 << 15) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.windowUs = windowUs;
+        this.minResendIntervalUs = minResendIntervalUs;
+        this.mPackets = new byte[capacity][maxPacketSize];
+        this.mLengths = new int[capacity];
+        this.mSequenceNumbers = new int[capacity];
+        this.mSentUs = new long[capacity];
+        this.mResentUs = new long[capacity];
+    }
+
+    // a packet just sent, copied
+    public synchronized void add(byte[] packet, int length, long nowUs) {
+        int sequenceNumber = RtpHeader.sequenceNumber(packet, 0);
+        int slot = sequenceNumber & mask;
+        System.arraycopy(packet, 0, mPackets[slot], 0, length);
+        mLengths[slot] = length;
+        mSequenceNumbers[slot] = sequenceNumber;
+        mSentUs[slot] = nowUs;
+        // free to resend right away
+        mResentUs[slot] = nowUs - minResendIntervalUs;
+    }
+
+    // sends the packet again if it is still worth it, false if it is not
+    public synchronized boolean resend(int sequenceNumber, long nowUs, RtpPacketizer.Output output)
+            throws IOException {
+        int slot = sequenceNumber & mask;
+        if (mLengths[slot] == 0 || mSequenceNumbers[slot] != sequenceNumber
+                || nowUs - mSentUs[slot] > windowUs) {
+            mExpired++;
+            return false;
+        }
+        if (nowUs - mResentUs[slot] < minResendIntervalUs) {
+            // already on its way
+            return true;
+        }
+        mResentUs[slot] = nowUs;
+        mRetransmitted++;
+        output.onPacket(mPackets[slot], mLengths[slot]);
+        return true;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mLengths.length; i++) {
+            mLengths[i] = 0;
+        }
+    }
+
+    public synchronized long getRetransmitted() {
+        return mRetransmitted;
+    }
+
+    public synchronized long getExpired() {
+        return mExpired;
+    }
+}
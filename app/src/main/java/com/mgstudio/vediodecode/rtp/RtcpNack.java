@@ -0,0 +1,99 @@
+package com.mgstudio.vediodecode.rtp;
+//RTCP重传请求
+
+// RTCP generic NACK (RFC 4585 6.2.1), the receiver's request for packets it is missing. Each FCI entry
+// names one sequence number (PID) and the 16 after it that are missing too (BLP bitmask), so a burst
+// costs four bytes.
+//
+//  0                   1                   2                   3
+// |V=2|P| FMT=1   |    PT=205     |            length             |
+// |                  SSRC of packet sender                        |
+// |                  SSRC of media source                         |
+// |            PID                |             BLP               |
+public final class RtcpNack {
+
+    public interface Listener {
+        void onNack(int sequenceNumber);
+    }
+
+    // transport layer feedback
+    public static final int PACKET_TYPE = 205;
+
+    public static final int FORMAT = 1;
+
+    public static final int HEADER_SIZE = 12;
+
+    private RtcpNack() {
+    }
+
+    // sequenceNumbers[0, count) in sequence order; returns the packet length, or 0 if count is 0.
+    // The entries stop where the packet is full, the missing ones can be asked for again
+    public static int write(byte[] packet, int senderSsrc, int mediaSsrc, int[] sequenceNumbers, int count) {
+        int position = HEADER_SIZE;
+        int i = 0;
+        while (i < count && position + 4 <= packet.length) {
+            int pid = sequenceNumbers[i++];
+            int blp = 0;
+            while (i < count) {
+                int distance = RtpHeader.distance(pid, sequenceNumbers[i]);
+                if (distance < 1 || distance > 16) {
+                    break;
+                }
+                blp |= 1 << (distance - 1);
+                i++;
+            }
+            packet[position] = (byte) (pid >> 8);
+            packet[position + 1] = (byte) pid;
+            packet[position + 2] = (byte) (blp >> 8);
+            packet[position + 3] = (byte) blp;
+            position += 4;
+        }
+        if (position == HEADER_SIZE) {
+            return 0;
+        }
+        int words = position / 4 - 1;
+        packet[0] = (byte) ((RtpHeader.VERSION << 6) | FORMAT);
+        packet[1] = (byte) PACKET_TYPE;
+        packet[2] = (byte) (words >> 8);
+        packet[3] = (byte) words;
+        putInt(packet, 4, senderSsrc);
+        putInt(packet, 8, mediaSsrc);
+        return position;
+    }
+
+    // calls the listener for every sequence number asked for; false if this is no generic NACK
+    public static boolean read(byte[] packet, int offset, int length, Listener listener) {
+        if (length < HEADER_SIZE + 4 || (packet[offset] & 0xFF) >> 6 != RtpHeader.VERSION
+                || (packet[offset] & 0x1F) != FORMAT || (packet[offset + 1] & 0xFF) != PACKET_TYPE) {
+            return false;
+        }
+        int words = ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
+        int end = offset + Math.min(length, 4 * (words + 1));
+        for (int position = offset + HEADER_SIZE; position + 4 <= end; position += 4) {
+            int pid = ((packet[position] & 0xFF) << 8) | (packet[position + 1] & 0xFF);
+            int blp = ((packet[position + 2] & 0xFF) << 8) | (packet[position + 3] & 0xFF);
+            listener.onNack(pid);
+            for (int bit = 0; bit < 16; bit++) {
+                if ((blp & (1 << bit)) != 0) {
+                    listener.onNack((pid + bit + 1) & 0xFFFF);
+                }
+            }
+        }
+        return true;
+    }
+
+    // SSRC of the media source the NACK is about
+    public static int mediaSsrc(byte[] packet, int offset) {
+        return (packet[offset + 8] << 24)
+                | ((packet[offset + 9] & 0xFF) << 16)
+                | ((packet[offset + 10] & 0xFF) << 8)
+                | (packet[offset + 11] & 0xFF);
+    }
+
+    private static void putInt(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >> 24);
+        packet[offset + 1] = (byte) (value >> 16);
+        packet[offset + 2] = (byte) (value >> 8);
+        packet[offset + 3] = (byte) value;
+    }
+}
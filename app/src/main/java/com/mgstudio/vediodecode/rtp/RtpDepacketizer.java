@@ -0,0 +1,486 @@
+package com.mgstudio.vediodecode.rtp;
+//RTP解包器
+
+import com.mgstudio.vediodecode.h264.NalUnitType;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.nio.ByteBuffer;
+
+// Rebuilds access units from RFC 6184 packets (single NAL unit, STAP-A and FU-A) as Annex B frames.
+// Packets are put back in sequence order in a reorder window first: one that arrives ahead of a gap
+// waits in its slot until the gap is filled, the window is full, or the gap is older than the reorder
+// delay - then the missing packets count as lost.
+//
+// A loss breaks the access unit it hits and every frame predicted from it, so the damaged unit and
+// all frames after it are dropped until the next IDR; parameter sets are always passed on. The frame
+// type is read from the NAL units: CONFIG for parameter sets alone, KEY_FRAME with an IDR slice.
+//
+// The missing packets in the window can be collected for NACKs: each is asked for once it has been
+// missing for the NACK delay, again every retry interval, up to a limit. One that arrives after being
+// asked for counts as recovered.
+//
+// Packet slots and the frame buffer are allocated up front, steady state allocates nothing. Called on
+// one thread.
+public class RtpDepacketizer {
+
+    public interface Listener {
+        // the packet and its buffer are only valid during the call
+        void onFrame(VideoPacket videoPacket);
+    }
+
+    public static final int DEFAULT_WINDOW = 128;
+
+    public static final long DEFAULT_REORDER_DELAY_US = 50 * 1000;
+
+    // datagrams larger than this are dropped
+    public static final int MAX_PACKET_SIZE = 2048;
+
+    // missing this long before the first NACK, so plain reordering isn't mistaken for loss
+    public static final long DEFAULT_NACK_DELAY_US = 5 * 1000;
+
+    public static final long DEFAULT_NACK_RETRY_US = 30 * 1000;
+
+    public static final int DEFAULT_MAX_NACKS = 3;
+
+    // a sequence jump this large in either direction is a new stream, not loss (RFC 3550 A.1)
+    private static final int MAX_DROPOUT = 3000;
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final BufferPool pool;
+
+    private final Listener listener;
+
+    private final int mask;
+
+    private final long reorderDelayUs;
+
+    // reorder window, indexed by sequence number
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+    private final long[] mArrivalsUs;
+    private int mWaiting;
+
+    // when the missing packets in the window went missing, when and how often they were asked for
+    private final long[] mMissingSinceUs;
+    private final long[] mNackedUs;
+    private final int[] mNacks;
+
+    private long nackDelayUs = DEFAULT_NACK_DELAY_US;
+    private long nackRetryUs = DEFAULT_NACK_RETRY_US;
+    private int maxNacks = DEFAULT_MAX_NACKS;
+
+    private boolean mStarted;
+
+    private int mSsrc;
+
+    // next sequence number to process
+    private int mNext;
+
+    // one past the highest sequence number received
+    private int mEnd;
+
+    // access unit in progress
+    private ByteBuffer mFrame;
+    private boolean mInUnit;
+    private int mUnitTimestamp;
+    private boolean mDamaged;
+    private boolean mHasIdr;
+    private boolean mHasSlice;
+    private boolean mHasParameterSets;
+    private boolean mInFragment;
+
+    private boolean mWaitingForKeyFrame = true;
+
+    // 32-bit RTP timestamps extended so they never wrap
+    private boolean mTimestampStarted;
+    private long mExtendedTimestamp;
+
+    private final VideoPacket mVideoPacket = new VideoPacket();
+
+    private long mReceived;
+    private long mLost;
+    private long mLate;
+    private long mFrames;
+    private long mFramesDropped;
+    private long mRecovered;
+
+    public RtpDepacketizer(BufferPool pool, Listener listener) {
+        this(pool, listener, DEFAULT_WINDOW, DEFAULT_REORDER_DELAY_US);
+    }
+
+    // window: packets, a power of two
+    public RtpDepacketizer(BufferPool pool, Listener listener, int window, long reorderDelayUs) {
+        if (Integer.bitCount(window) != 1 || window > 1 << 14) {
+            throw new IllegalArgumentException("window " + window);
+        }
+        this.pool = pool;
+        this.listener = listener;
+        this.mask = window - 1;
+        this.reorderDelayUs = reorderDelayUs;
+        this.mSlots = new byte[window][MAX_PACKET_SIZE];
+        this.mLengths = new int[window];
+        this.mArrivalsUs = new long[window];
+        this.mMissingSinceUs = new long[window];
+        this.mNackedUs = new long[window];
+        this.mNacks = new int[window];
+        this.mFrame = pool.acquire(256 * 1024);
+    }
+
+    // one datagram, nowUs on any monotonic clock
+    public void receive(byte[] packet, int offset, int length, long nowUs) {
+        if (length > MAX_PACKET_SIZE || RtpHeader.payloadOffset(packet, offset, length) < 0) {
+            return;
+        }
+        mReceived++;
+        int sequenceNumber = RtpHeader.sequenceNumber(packet, offset);
+        int ssrc = RtpHeader.ssrc(packet, offset);
+        int distance = RtpHeader.distance(mNext, sequenceNumber);
+        if (!mStarted || ssrc != mSsrc || Math.abs(distance) >= MAX_DROPOUT) {
+            restart(sequenceNumber, ssrc);
+            distance = 0;
+        }
+        if (distance < 0) {
+            // given up on already, or a duplicate
+            mLate++;
+            return;
+        }
+        if (distance > mask) {
+            // no room: whatever is missing in front of it is lost
+            skip(distance - mask);
+        }
+        if (RtpHeader.distance(mEnd, mNext) > 0) {
+            mEnd = mNext;
+        }
+        if (RtpHeader.distance(mEnd, sequenceNumber) >= 0) {
+            // the ones it jumped over are missing from now
+            for (int missing = mEnd; missing != sequenceNumber; missing = (missing + 1) & 0xFFFF) {
+                int slot = missing & mask;
+                mMissingSinceUs[slot] = nowUs;
+                mNacks[slot] = 0;
+            }
+            mEnd = (sequenceNumber + 1) & 0xFFFF;
+        }
+        int slot = sequenceNumber & mask;
+        if (mLengths[slot] > 0) {
+            // duplicate
+            return;
+        }
+        if (mNacks[slot] > 0) {
+            mRecovered++;
+            mNacks[slot] = 0;
+        }
+        System.arraycopy(packet, offset, mSlots[slot], 0, length);
+        mLengths[slot] = length;
+        mArrivalsUs[slot] = nowUs;
+        mWaiting++;
+
+        drain();
+        expire(nowUs);
+    }
+
+    // gives up on gaps older than the reorder delay; call when no packet arrived for a while
+    public void flush(long nowUs) {
+        expire(nowUs);
+    }
+
+    // NACK timing, see DEFAULT_NACK_DELAY_US
+    public void setNackTiming(long nackDelayUs, long nackRetryUs, int maxNacks) {
+        this.nackDelayUs = nackDelayUs;
+        this.nackRetryUs = nackRetryUs;
+        this.maxNacks = maxNacks;
+    }
+
+    // puts the missing packets due for a NACK into sequenceNumbers, in sequence order, and counts them
+    // as asked for; returns how many there are
+    public int collectNacks(long nowUs, int[] sequenceNumbers) {
+        int count = 0;
+        for (int missing = mNext; missing != mEnd && count < sequenceNumbers.length;
+             missing = (missing + 1) & 0xFFFF) {
+            int slot = missing & mask;
+            if (mLengths[slot] > 0 || mNacks[slot] >= maxNacks
+                    || nowUs - mMissingSinceUs[slot] < nackDelayUs
+                    || (mNacks[slot] > 0 && nowUs - mNackedUs[slot] < nackRetryUs)) {
+                continue;
+            }
+            mNacks[slot]++;
+            mNackedUs[slot] = nowUs;
+            sequenceNumbers[count++] = missing;
+        }
+        return count;
+    }
+
+    // SSRC of the stream being received
+    public int getSsrc() {
+        return mSsrc;
+    }
+
+    public void release() {
+        if (mFrame != null) {
+            pool.release(mFrame);
+            mFrame = null;
+        }
+    }
+
+    public boolean isWaitingForKeyFrame() {
+        return mWaitingForKeyFrame;
+    }
+
+    public long getReceived() {
+        return mReceived;
+    }
+
+    // packets that arrived after a NACK asked for them
+    public long getRecovered() {
+        return mRecovered;
+    }
+
+    // packets given up on, retransmission or not: unrecoverable
+    public long getLost() {
+        return mLost;
+    }
+
+    // packets that came after they were given up on, or twice
+    public long getLate() {
+        return mLate;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    // frames damaged by a loss or undecodable after one
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    private void drain() {
+        int slot;
+        while (mLengths[slot = mNext & mask] > 0) {
+            int length = mLengths[slot];
+            mLengths[slot] = 0;
+            mWaiting--;
+            mNext = (mNext + 1) & 0xFFFF;
+            process(mSlots[slot], length);
+        }
+    }
+
+    private void expire(long nowUs) {
+        while (mWaiting > 0) {
+            // the first waiting packet is the one right behind the gap
+            int distance = 1;
+            while (mLengths[(mNext + distance) & mask] == 0) {
+                distance++;
+            }
+            if (nowUs - mArrivalsUs[(mNext + distance) & mask] < reorderDelayUs) {
+                return;
+            }
+            skip(distance);
+        }
+    }
+
+    // counts the next packets lost, then processes what follows them
+    private void skip(int count) {
+        for (int i = 0; i < count; i++) {
+            int slot = mNext & mask;
+            int length = mLengths[slot];
+            if (length > 0) {
+                mLengths[slot] = 0;
+                mWaiting--;
+                mNext = (mNext + 1) & 0xFFFF;
+                process(mSlots[slot], length);
+            } else {
+                mNacks[slot] = 0;
+                lost();
+                mNext = (mNext + 1) & 0xFFFF;
+            }
+        }
+        drain();
+    }
+
+    // the sender restarted: nothing waiting belongs to the new stream
+    private void restart(int sequenceNumber, int ssrc) {
+        if (mStarted) {
+            mLost += mWaiting;
+        }
+        mStarted = true;
+        mSsrc = ssrc;
+        mNext = sequenceNumber;
+        mEnd = sequenceNumber;
+        for (int i = 0; i < mLengths.length; i++) {
+            mLengths[i] = 0;
+            mNacks[i] = 0;
+        }
+        mWaiting = 0;
+        mFrame.clear();
+        mInUnit = false;
+        mDamaged = false;
+        mHasIdr = false;
+        mHasSlice = false;
+        mHasParameterSets = false;
+        mInFragment = false;
+        mWaitingForKeyFrame = true;
+        mTimestampStarted = false;
+    }
+
+    private void lost() {
+        mLost++;
+        // the lost packet belongs to this unit or starts the next one, either way the next
+        // decodable frame is an IDR
+        mDamaged = true;
+        mInFragment = false;
+        mWaitingForKeyFrame = true;
+    }
+
+    private void process(byte[] packet, int length) {
+        int payload = RtpHeader.payloadOffset(packet, 0, length);
+        int end = RtpHeader.payloadEnd(packet, 0, length);
+        int timestamp = RtpHeader.timestamp(packet, 0);
+        if (mInUnit && timestamp != mUnitTimestamp) {
+            // the marker packet was lost
+            finish();
+        }
+        if (!mInUnit) {
+            mInUnit = true;
+            mUnitTimestamp = timestamp;
+        }
+
+        if (payload < 0 || end <= payload) {
+            mDamaged = true;
+        } else {
+            int type = packet[payload] & 0x1F;
+            if (type >= 1 && type < RtpPacketizer.STAP_A) {
+                append(packet, payload, end - payload);
+            } else if (type == RtpPacketizer.STAP_A) {
+                int position = payload + 1;
+                while (position + 2 <= end) {
+                    int size = ((packet[position] & 0xFF) << 8) | (packet[position + 1] & 0xFF);
+                    position += 2;
+                    if (size == 0 || position + size > end) {
+                        mDamaged = true;
+                        break;
+                    }
+                    append(packet, position, size);
+                    position += size;
+                }
+            } else if (type == RtpPacketizer.FU_A && end - payload > 2) {
+                fragment(packet, payload, end);
+            } else {
+                // STAP-B, MTAP, FU-B: not sent in packetization mode 1
+                mDamaged = true;
+            }
+        }
+
+        if (RtpHeader.marker(packet, 0)) {
+            finish();
+        }
+    }
+
+    private void fragment(byte[] packet, int payload, int end) {
+        int indicator = packet[payload];
+        int header = packet[payload + 1];
+        boolean start = (header & 0x80) != 0;
+        boolean stop = (header & 0x40) != 0;
+        if (start) {
+            byte nalHeader = (byte) ((indicator & 0xE0) | (header & 0x1F));
+            ensureCapacity(START_CODE.length + 1);
+            mFrame.put(START_CODE);
+            mFrame.put(nalHeader);
+            note(nalHeader);
+            mInFragment = true;
+        } else if (!mInFragment) {
+            // its start was lost
+            mDamaged = true;
+            return;
+        }
+        ensureCapacity(end - payload - 2);
+        mFrame.put(packet, payload + 2, end - payload - 2);
+        if (stop) {
+            mInFragment = false;
+        }
+    }
+
+    private void append(byte[] packet, int offset, int size) {
+        ensureCapacity(START_CODE.length + size);
+        mFrame.put(START_CODE);
+        mFrame.put(packet, offset, size);
+        note(packet[offset]);
+    }
+
+    private void note(byte header) {
+        int type = NalUnitType.of(header);
+        if (NalUnitType.isConfig(type)) {
+            mHasParameterSets = true;
+        } else if (NalUnitType.isSlice(type)) {
+            mHasSlice = true;
+            if (type == NalUnitType.IDR) {
+                mHasIdr = true;
+            }
+        }
+    }
+
+    private void finish() {
+        if (mInFragment) {
+            // the unit ended inside a fragmented NAL unit
+            mDamaged = true;
+        }
+        long timestamp = extend(mUnitTimestamp);
+        boolean isConfig = !mHasSlice;
+        if (mDamaged) {
+            mFramesDropped++;
+        } else if (!mHasSlice && !mHasParameterSets) {
+            // SEI, AUD and the like on their own: nothing to decode
+        } else if (mWaitingForKeyFrame && !mHasIdr && !isConfig) {
+            mFramesDropped++;
+        } else {
+            if (mHasIdr) {
+                mWaitingForKeyFrame = false;
+            }
+            mFrame.flip();
+            mVideoPacket.type = MediaPacket.Type.VIDEO;
+            mVideoPacket.flag = isConfig ? VideoPacket.Flag.CONFIG
+                    : mHasIdr ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME;
+            mVideoPacket.presentationTimeStamp = RtpHeader.toPresentationTimeUs(timestamp);
+            mVideoPacket.buffer = mFrame;
+            mVideoPacket.offset = 0;
+            mVideoPacket.size = mFrame.limit();
+            mFrames++;
+            try {
+                listener.onFrame(mVideoPacket);
+            } finally {
+                mVideoPacket.buffer = null;
+            }
+        }
+        mFrame.clear();
+        mInUnit = false;
+        mDamaged = false;
+        mHasIdr = false;
+        mHasSlice = false;
+        mHasParameterSets = false;
+        mInFragment = false;
+    }
+
+    private long extend(int timestamp) {
+        if (!mTimestampStarted) {
+            mTimestampStarted = true;
+            mExtendedTimestamp = timestamp & 0xFFFFFFFFL;
+        } else {
+            mExtendedTimestamp += timestamp - (int) mExtendedTimestamp;
+        }
+        return mExtendedTimestamp;
+    }
+
+    // grows the frame buffer, keeping what it holds
+    private void ensureCapacity(int more) {
+        if (mFrame.remaining() >= more) {
+            return;
+        }
+        ByteBuffer frame = pool.acquire(Math.max(mFrame.capacity() * 2, mFrame.position() + more));
+        mFrame.flip();
+        frame.put(mFrame);
+        pool.release(mFrame);
+        mFrame = frame;
+    }
+}
@@ -0,0 +1,112 @@
+package com.mgstudio.vediodecode.rtp;
+//RTP头
+
+// the fixed RTP header (RFC 3550) over a packet in a byte array: reads and writes in place.
+//
+//  0                   1                   2                   3
+// |V=2|P|X|  CC   |M|     PT      |       sequence number         |
+// |                           timestamp                           |
+// |                             SSRC                              |
+public final class RtpHeader {
+
+    public static final int SIZE = 12;
+
+    public static final int VERSION = 2;
+
+    // dynamic payload type, as negotiated out of band
+    public static final int PAYLOAD_TYPE_H264 = 96;
+
+    public static final int CLOCK_RATE = 90000;
+
+    private RtpHeader() {
+    }
+
+    public static void write(byte[] packet, boolean marker, int payloadType, int sequenceNumber, int timestamp,
+                             int ssrc) {
+        packet[0] = (byte) (VERSION << 6);
+        packet[1] = (byte) ((marker ? 0x80 : 0) | (payloadType & 0x7F));
+        packet[2] = (byte) (sequenceNumber >> 8);
+        packet[3] = (byte) sequenceNumber;
+        putInt(packet, 4, timestamp);
+        putInt(packet, 8, ssrc);
+    }
+
+    public static int version(byte[] packet, int offset) {
+        return (packet[offset] & 0xFF) >> 6;
+    }
+
+    public static boolean marker(byte[] packet, int offset) {
+        return (packet[offset + 1] & 0x80) != 0;
+    }
+
+    public static int payloadType(byte[] packet, int offset) {
+        return packet[offset + 1] & 0x7F;
+    }
+
+    // 0 to 65535
+    public static int sequenceNumber(byte[] packet, int offset) {
+        return ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
+    }
+
+    public static int timestamp(byte[] packet, int offset) {
+        return getInt(packet, offset + 4);
+    }
+
+    public static int ssrc(byte[] packet, int offset) {
+        return getInt(packet, offset + 8);
+    }
+
+    // start of the payload past CSRCs and extension, or -1 if the packet is malformed
+    public static int payloadOffset(byte[] packet, int offset, int length) {
+        if (length < SIZE || version(packet, offset) != VERSION) {
+            return -1;
+        }
+        int header = SIZE + 4 * (packet[offset] & 0x0F);
+        if ((packet[offset] & 0x10) != 0) {
+            if (length < header + 4) {
+                return -1;
+            }
+            int words = ((packet[offset + header + 2] & 0xFF) << 8) | (packet[offset + header + 3] & 0xFF);
+            header += 4 + 4 * words;
+        }
+        return header <= length ? offset + header : -1;
+    }
+
+    // end of the payload before any padding, or -1 if the packet is malformed
+    public static int payloadEnd(byte[] packet, int offset, int length) {
+        int end = offset + length;
+        if ((packet[offset] & 0x20) != 0) {
+            end -= packet[end - 1] & 0xFF;
+        }
+        return end >= offset + SIZE ? end : -1;
+    }
+
+    // signed distance from sequence number a to b, modulo 2^16
+    public static int distance(int a, int b) {
+        return (short) (b - a);
+    }
+
+    // microseconds to the 90 kHz media clock, modulo 2^32
+    public static int toTimestamp(long presentationTimeUs) {
+        return (int) (presentationTimeUs * 9 / 100);
+    }
+
+    // 90 kHz clock ticks back to microseconds, exact to within one tick
+    public static long toPresentationTimeUs(long timestamp) {
+        return timestamp * 100 / 9;
+    }
+
+    private static void putInt(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >> 24);
+        packet[offset + 1] = (byte) (value >> 16);
+        packet[offset + 2] = (byte) (value >> 8);
+        packet[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] packet, int offset) {
+        return (packet[offset] << 24)
+                | ((packet[offset + 1] & 0xFF) << 16)
+                | ((packet[offset + 2] & 0xFF) << 8)
+                | (packet[offset + 3] & 0xFF);
+    }
+}
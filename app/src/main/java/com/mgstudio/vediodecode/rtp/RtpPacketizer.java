@@ -0,0 +1,213 @@
+package com.mgstudio.vediodecode.rtp;
+//RTP打包器
+
+import com.mgstudio.vediodecode.h264.NalScanner;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Splits the access units of an H.264 stream into RTP packets as RFC 6184 packetization mode 1 does:
+// a NAL unit that fits goes alone (single NAL unit packet), consecutive small ones share a STAP-A, a
+// larger one is cut into FU-A fragments. The marker bit is set on the last packet of each access unit.
+//
+// Every packet is built in one array of maxPacketSize bytes and handed to the output before the next
+// is built, packetizing allocates nothing. Called on one thread.
+public class RtpPacketizer {
+
+    public interface Output {
+        // packet[0, length) is only valid during the call
+        void onPacket(byte[] packet, int length) throws IOException;
+    }
+
+    public static final int STAP_A = 24;
+
+    public static final int FU_A = 28;
+
+    // NAL units in one STAP-A at most
+    private static final int MAX_AGGREGATED = 64;
+
+    private final int maxPacketSize;
+
+    private final int payloadType;
+
+    private final int ssrc;
+
+    private final byte[] mPacket;
+
+    private final ByteBuffer mPacketBuffer;
+
+    private final NalScanner mScanner = new NalScanner();
+
+    // NAL units waiting to go out together, as offset and size in the access unit
+    private final int[] mPendingOffsets = new int[MAX_AGGREGATED];
+    private final int[] mPendingSizes = new int[MAX_AGGREGATED];
+    private int mPendingCount;
+    // STAP-A payload they would take: the STAP-A header and a size field per unit
+    private int mPendingBytes;
+
+    private ByteBuffer mSource;
+
+    // wrapper of the last array payload, so packets that own their data don't allocate one each
+    private byte[] mWrappedArray;
+    private ByteBuffer mWrapped;
+
+    private int mSequenceNumber;
+
+    private int mTimestamp;
+
+    // maxPacketSize: RTP header included, the MTU less the IP and UDP headers
+    public RtpPacketizer(int maxPacketSize, int payloadType, int ssrc) {
+        // an FU-A has to carry at least one byte
+        if (maxPacketSize < RtpHeader.SIZE + 3) {
+            throw new IllegalArgumentException("maxPacketSize " + maxPacketSize);
+        }
+        this.maxPacketSize = maxPacketSize;
+        this.payloadType = payloadType;
+        this.ssrc = ssrc;
+        this.mPacket = new byte[maxPacketSize];
+        this.mPacketBuffer = ByteBuffer.wrap(mPacket);
+    }
+
+    public RtpPacketizer(int maxPacketSize, int ssrc) {
+        this(maxPacketSize, RtpHeader.PAYLOAD_TYPE_H264, ssrc);
+    }
+
+    public void setSequenceNumber(int sequenceNumber) {
+        mSequenceNumber = sequenceNumber & 0xFFFF;
+    }
+
+    // sequence number of the next packet
+    public int getSequenceNumber() {
+        return mSequenceNumber;
+    }
+
+    // one access unit in Annex B form, returns the number of packets
+    public int packetize(VideoPacket videoPacket, Output output) throws IOException {
+        int from;
+        int size;
+        if (videoPacket.buffer != null) {
+            mSource = videoPacket.buffer;
+            from = videoPacket.offset;
+            size = videoPacket.size;
+        } else {
+            if (mWrappedArray != videoPacket.data) {
+                mWrappedArray = videoPacket.data;
+                mWrapped = ByteBuffer.wrap(videoPacket.data);
+            }
+            mSource = mWrapped;
+            from = 0;
+            size = videoPacket.data.length;
+        }
+        mTimestamp = RtpHeader.toTimestamp(videoPacket.presentationTimeStamp);
+
+        // the marker goes on the packet holding the end of the last unit
+        int last = -1;
+        mScanner.reset(mSource, from, size);
+        while (mScanner.next()) {
+            last = mScanner.offset();
+        }
+
+        int packets = 0;
+        mScanner.reset(mSource, from, size);
+        while (mScanner.next()) {
+            int offset = mScanner.offset();
+            int unitSize = mScanner.size();
+            boolean isLast = offset == last;
+            if (RtpHeader.SIZE + unitSize > maxPacketSize) {
+                packets += flush(output, false);
+                packets += fragment(offset, unitSize, isLast, output);
+                continue;
+            }
+            if (mPendingCount > 0 && (mPendingCount == MAX_AGGREGATED
+                    || RtpHeader.SIZE + mPendingBytes + 2 + unitSize > maxPacketSize)) {
+                packets += flush(output, false);
+            }
+            if (mPendingCount == 0) {
+                mPendingBytes = 1;
+            }
+            mPendingOffsets[mPendingCount] = offset;
+            mPendingSizes[mPendingCount] = unitSize;
+            mPendingCount++;
+            mPendingBytes += 2 + unitSize;
+            if (isLast) {
+                packets += flush(output, true);
+            }
+        }
+        mSource = null;
+        return packets;
+    }
+
+    // the waiting units as one single NAL unit packet or one STAP-A
+    private int flush(Output output, boolean marker) throws IOException {
+        if (mPendingCount == 0) {
+            return 0;
+        }
+        int length;
+        if (mPendingCount == 1) {
+            length = RtpHeader.SIZE + mPendingSizes[0];
+            copy(mPendingOffsets[0], mPendingSizes[0], RtpHeader.SIZE);
+        } else {
+            int forbidden = 0;
+            int nri = 0;
+            int position = RtpHeader.SIZE + 1;
+            for (int i = 0; i < mPendingCount; i++) {
+                int header = mSource.get(mPendingOffsets[i]);
+                forbidden |= header & 0x80;
+                nri = Math.max(nri, header & 0x60);
+                mPacket[position] = (byte) (mPendingSizes[i] >> 8);
+                mPacket[position + 1] = (byte) mPendingSizes[i];
+                copy(mPendingOffsets[i], mPendingSizes[i], position + 2);
+                position += 2 + mPendingSizes[i];
+            }
+            mPacket[RtpHeader.SIZE] = (byte) (forbidden | nri | STAP_A);
+            length = position;
+        }
+        mPendingCount = 0;
+        send(output, marker, length);
+        return 1;
+    }
+
+    private int fragment(int offset, int size, boolean isLast, Output output) throws IOException {
+        int header = mSource.get(offset);
+        byte indicator = (byte) ((header & 0xE0) | FU_A);
+        int type = header & 0x1F;
+        int chunk = maxPacketSize - RtpHeader.SIZE - 2;
+
+        int packets = 0;
+        // the unit's header travels in the FU indicator and header
+        int position = offset + 1;
+        int end = offset + size;
+        while (position < end) {
+            int length = Math.min(chunk, end - position);
+            boolean start = position == offset + 1;
+            boolean stop = position + length == end;
+            mPacket[RtpHeader.SIZE] = indicator;
+            mPacket[RtpHeader.SIZE + 1] = (byte) ((start ? 0x80 : 0) | (stop ? 0x40 : 0) | type);
+            copy(position, length, RtpHeader.SIZE + 2);
+            send(output, stop && isLast, RtpHeader.SIZE + 2 + length);
+            position += length;
+            packets++;
+        }
+        return packets;
+    }
+
+    private void send(Output output, boolean marker, int length) throws IOException {
+        RtpHeader.write(mPacket, marker, payloadType, mSequenceNumber, mTimestamp, ssrc);
+        mSequenceNumber = (mSequenceNumber + 1) & 0xFFFF;
+        output.onPacket(mPacket, length);
+    }
+
+    // source[offset, offset + size) to mPacket at to; moves the source bounds and restores them
+    private void copy(int offset, int size, int to) {
+        int position = mSource.position();
+        int limit = mSource.limit();
+        mSource.limit(offset + size);
+        mSource.position(offset);
+        mPacketBuffer.limit(to + size);
+        mPacketBuffer.position(to);
+        mPacketBuffer.put(mSource);
+        mSource.limit(limit);
+        mSource.position(position);
+    }
+}
@@ -0,0 +1,379 @@
+package com.mgstudio.vediodecode.sender;
+//非阻塞通道传输
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.mgstudio.vediodecode.control.ControlReader;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.util.SpscRing;
+import com.mgstudio.vediodecode.util.WaitStrategy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// non-blocking SocketChannel transport: sleeps in select while idle and drains
+// everything queued into one gathering write, header and payload as separate buffers.
+// Packets reach the transport thread through a lock-free SpscRing that wakes the selector.
+// Control messages from the receiver are parsed as the selector finds them readable, between writes.
+public class ChannelTransport implements Transport {
+
+    private static final String TAG = ChannelTransport.class.getSimpleName();
+
+    // packets in flight between the encoder thread and the transport thread
+    private static final int RING_CAPACITY = 256;
+
+    // packets per gathering write, two buffers each
+    private static final int MAX_BATCH = 64;
+
+    private volatile Worker mWorker;
+
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private final LatencyBoundedQueue packetsQueue;
+
+    private volatile ControlReader.Listener mControlListener;
+
+    public ChannelTransport() {
+        this(new LatencyBoundedQueue());
+    }
+
+    public ChannelTransport(LatencyBoundedQueue queue) {
+        this.packetsQueue = queue;
+    }
+
+    @Override
+    public void start(InetAddress address, int port) {
+        if (mWorker == null) {
+            mWorker = new Worker(address, port);
+            mWorker.setRunning(true);
+            mWorker.start();
+        }
+    }
+
+    @Override
+    public void send(VideoPacket videoPacket) {
+        Worker worker = mWorker;
+        if (worker != null) {
+            worker.send(videoPacket);
+        } else {
+            videoPacket.release();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mWorker != null) {
+            mWorker.setRunning(false);
+            mWorker.wakeUp();
+            mWorker = null;
+        }
+        packetsQueue.clear();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return packetsQueue.size() + getHandOffDepth();
+    }
+
+    @Override
+    public int getHandOffDepth() {
+        Worker worker = mWorker;
+        return worker != null ? worker.mRing.size() : 0;
+    }
+
+    @Override
+    public int getHandOffHighWaterMark() {
+        Worker worker = mWorker;
+        return worker != null ? worker.mRing.getHighWaterMark() : 0;
+    }
+
+    @Override
+    public LatencyBoundedQueue getQueue() {
+        return packetsQueue;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    @Override
+    public void setControlListener(ControlReader.Listener listener) {
+        mControlListener = listener;
+    }
+
+    protected class Worker extends Thread {
+
+        private final AtomicBoolean mIsRunning = new AtomicBoolean(false);
+
+        // set while the worker is, or is about to be, blocked in select: idle, or waiting for the socket
+        private final AtomicBoolean mIsSelecting = new AtomicBoolean(false);
+
+        private final InetAddress address;
+
+        private final int port;
+
+        // reusable length, type, flag and timeStamp prefix per batch slot
+        private final ByteBuffer[] mHeaders = new ByteBuffer[MAX_BATCH];
+
+        // header, payload, header, payload... for the gathering write
+        private final ByteBuffer[] mBuffers = new ByteBuffer[MAX_BATCH * 2];
+
+        // payload view per batch slot and the buffer or array it views: other holders of a retained
+        // packet read its buffer too, so its position and limit are never touched, and a source coming
+        // back to the same slot reuses the view
+        private final ByteBuffer[] mPayloads = new ByteBuffer[MAX_BATCH];
+        private final Object[] mPayloadSources = new Object[MAX_BATCH];
+
+        // packets being written, released once their payload is out
+        private final VideoPacket[] mPackets = new VideoPacket[MAX_BATCH];
+
+        // unwritten region of mBuffers
+        private int mBufferOffset;
+        private int mBufferCount;
+
+        // heap, so the control reader parses straight from its array
+        private final ByteBuffer mReadBuffer = ByteBuffer.allocate(4096);
+
+        // null without a control listener, or once the control stream was corrupted
+        private ControlReader mControlReader;
+
+        private volatile Selector mSelector;
+
+        // encoder thread to this thread; the worker waits in select, the producer wakes it there
+        private final SpscRing<VideoPacket> mRing = new SpscRing<>(RING_CAPACITY,
+                WaitStrategy.external(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mIsSelecting.get()) {
+                            wakeUp();
+                        }
+                    }
+                }));
+
+        Worker(InetAddress address, int port) {
+            super(TAG);
+            this.address = address;
+            this.port = port;
+            ControlReader.Listener controlListener = mControlListener;
+            this.mControlReader = controlListener != null ? new ControlReader(controlListener) : null;
+            for (int i = 0; i < MAX_BATCH; i++) {
+                mHeaders[i] = ByteBuffer.allocateDirect(PacketCodec.PREFIX_SIZE);
+            }
+        }
+
+        private void setRunning(boolean isRunning) {
+            mIsRunning.set(isRunning);
+        }
+
+        private void wakeUp() {
+            Selector selector = mSelector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            SocketChannel channel = null;
+            Selector selector = null;
+
+            try {
+                channel = SocketChannel.open(new InetSocketAddress(address, port));
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                // a fresh receiver: start it at a key frame
+                transfer();
+                packetsQueue.connected();
+
+                selector = Selector.open();
+                mSelector = selector;
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                int interestOps = SelectionKey.OP_READ;
+
+                while (mIsRunning.get()) {
+                    // every pass, so packets waiting behind a slow write count against the latency budget
+                    // instead of filling the ring
+                    transfer();
+                    if (mBufferCount == 0) {
+                        fill();
+                    }
+
+                    int selected = 0;
+                    if (mBufferCount > 0) {
+                        write(channel);
+                        if (mBufferCount > 0) {
+                            // socket buffer is full - wait until it drains, or for the next packet
+                            if (interestOps != (SelectionKey.OP_READ | SelectionKey.OP_WRITE)) {
+                                interestOps = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                                key.interestOps(interestOps);
+                            }
+                            transfer();
+                            mIsSelecting.set(true);
+                            if (mRing.isEmpty() && mIsRunning.get()) {
+                                selected = selector.select();
+                            }
+                            mIsSelecting.set(false);
+                        }
+                    } else {
+                        if (interestOps != SelectionKey.OP_READ) {
+                            interestOps = SelectionKey.OP_READ;
+                            key.interestOps(interestOps);
+                        }
+                        mIsSelecting.set(true);
+                        if (mRing.isEmpty() && packetsQueue.isEmpty() && mIsRunning.get()) {
+                            selected = selector.select();
+                        }
+                        mIsSelecting.set(false);
+                    }
+
+                    // only one key is registered, so a non-zero count means its ready set is fresh
+                    if (selected > 0) {
+                        selector.selectedKeys().clear();
+                        if (key.isReadable() && !read(channel)) {
+                            break;
+                        }
+                    }
+                }
+
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            } finally {
+                // packets that were never written
+                for (int i = 0; i < MAX_BATCH; i++) {
+                    releasePacket(i);
+                }
+                VideoPacket videoPacket;
+                while ((videoPacket = mRing.poll()) != null) {
+                    videoPacket.release();
+                }
+                mSelector = null;
+                if (selector != null) {
+                    try {
+                        selector.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, e.getMessage());
+                    }
+                }
+
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, e.getMessage());
+                    }
+                }
+            }
+        }
+
+        // move handed-off packets into the queue, so its latency budget sees the backlog
+        private void transfer() {
+            VideoPacket videoPacket;
+            while ((videoPacket = mRing.poll()) != null) {
+                packetsQueue.offer(videoPacket);
+            }
+        }
+
+        // move queued packets into the gathering buffers
+        private void fill() {
+            VideoPacket videoPacket;
+            int count = 0;
+            while (count < MAX_BATCH && (videoPacket = packetsQueue.poll()) != null) {
+                FrameTracer.TRACER.end(FrameTracer.Span.QUEUE_WAIT, videoPacket);
+                FrameTracer.TRACER.begin(FrameTracer.Span.SOCKET_WRITE, videoPacket);
+                ByteBuffer header = mHeaders[count];
+                header.clear();
+                PacketCodec.writePrefix(videoPacket, header);
+                header.flip();
+
+                mBuffers[2 * count] = header;
+                mBuffers[2 * count + 1] = payloadOf(count, videoPacket);
+                mPackets[count] = videoPacket;
+                count++;
+            }
+            mBufferOffset = 0;
+            mBufferCount = 2 * count;
+        }
+
+        private ByteBuffer payloadOf(int slot, VideoPacket videoPacket) {
+            ByteBuffer buffer = videoPacket.buffer;
+            Object source = buffer != null ? buffer : videoPacket.data;
+            ByteBuffer payload = mPayloads[slot];
+            if (mPayloadSources[slot] != source) {
+                payload = buffer != null ? buffer.duplicate() : ByteBuffer.wrap(videoPacket.data);
+                mPayloads[slot] = payload;
+                mPayloadSources[slot] = source;
+            }
+            payload.clear();
+            if (buffer != null) {
+                payload.position(videoPacket.offset);
+                payload.limit(videoPacket.offset + videoPacket.size);
+            }
+            return payload;
+        }
+
+        private void write(SocketChannel channel) throws IOException {
+            long written = channel.write(mBuffers, mBufferOffset, mBufferCount);
+            mBytesSent.addAndGet(written);
+            StreamCounters.SENDER.add(StreamCounters.Counter.BYTES, written);
+            while (mBufferCount > 0 && !mBuffers[mBufferOffset].hasRemaining()) {
+                if ((mBufferOffset & 1) == 1) {
+                    // payload written
+                    FrameTracer.TRACER.end(FrameTracer.Span.SOCKET_WRITE, mPackets[mBufferOffset >> 1]);
+                    if (FrameTracer.isFrame(mPackets[mBufferOffset >> 1].flag)) {
+                        StreamCounters.SENDER.increment(StreamCounters.Counter.FRAMES);
+                    }
+                    PipelineLatency.SENDER.mark(PipelineLatency.Stage.SEND, mPackets[mBufferOffset >> 1],
+                            PipelineLatency.nowUs(), true);
+                    releasePacket(mBufferOffset >> 1);
+                }
+                mBuffers[mBufferOffset++] = null;
+                mBufferCount--;
+            }
+        }
+
+        private void releasePacket(int slot) {
+            VideoPacket videoPacket = mPackets[slot];
+            mPackets[slot] = null;
+            if (videoPacket != null) {
+                videoPacket.release();
+            }
+        }
+
+        // false when the receiver closed the connection
+        private boolean read(SocketChannel channel) throws IOException {
+            mReadBuffer.clear();
+            // drained even without a reader, so the socket doesn't stay readable
+            int count = channel.read(mReadBuffer);
+            if (count > 0 && mControlReader != null) {
+                try {
+                    mControlReader.feed(mReadBuffer.array(), 0, count);
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    // can't find the next message again: the media goes on, control doesn't
+                    Log.e(TAG, e.getMessage());
+                    mControlReader = null;
+                }
+            }
+            return count >= 0;
+        }
+
+        // encoder thread, never blocks
+        public void send(@NonNull VideoPacket videoPacket) {
+            if (!mRing.offer(videoPacket)) {
+                packetsQueue.reject(videoPacket);
+            }
+        }
+    }
+}
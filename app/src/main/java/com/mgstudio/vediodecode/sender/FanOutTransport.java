@@ -0,0 +1,322 @@
+package com.mgstudio.vediodecode.sender;
+//扇出传输
+
+import android.util.Log;
+
+import com.mgstudio.vediodecode.control.ControlReader;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// one encoded stream to many receivers. Each packet is serialized once, prefix and payload, into a
+// pooled heap buffer that every receiver writes straight from its array; the buffer is shared read-only
+// and goes back to the pool when the last receiver released it.
+//
+// Every receiver has its own thread, blocking socket and LatencyBoundedQueue, so a stalled receiver
+// only ever stalls itself: its queue sheds frames on its latency budget, and once it holds more than
+// MAX_QUEUED packets anyway the connection is dropped and made again, starting at a key frame. The
+// encoder thread only copies the packet and offers it to each queue, it never waits on a socket.
+public class FanOutTransport implements Transport {
+
+    private static final String TAG = FanOutTransport.class.getSimpleName();
+
+    // packets a receiver may fall behind by before it is disconnected: key frames and config are
+    // never dropped by the queue, a receiver that doesn't read at all would hold on to all of them
+    public static final int MAX_QUEUED = 64;
+
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+
+    // receivers resyncing after drops share one encoder key frame per interval
+    private static final long KEY_FRAME_INTERVAL_NS = 1000L * 1000 * 1000;
+
+    // shared frames, sized for key frames
+    private final PacketPool mFrames = new PacketPool(new BufferPool(1024 * 1024, 16, false));
+
+    // copy-on-write: iterated on the encoder thread for every packet without allocating
+    private volatile Receiver[] mReceivers = new Receiver[0];
+
+    private volatile boolean mIsRunning;
+
+    // carries the encoder's key frame listener; packets queue per receiver, see getReceivers
+    private final LatencyBoundedQueue mKeyFrames = new LatencyBoundedQueue();
+
+    private final AtomicLong mLastKeyFrameRequestNs = new AtomicLong(System.nanoTime() - KEY_FRAME_INTERVAL_NS);
+
+    private final long budgetUs;
+
+    public FanOutTransport() {
+        this(LatencyBoundedQueue.DEFAULT_BUDGET_US);
+    }
+
+    // budgetUs: latency budget of each receiver's queue
+    public FanOutTransport(long budgetUs) {
+        this.budgetUs = budgetUs;
+    }
+
+    // starts sending to the first receiver, more can be added any time
+    @Override
+    public void start(InetAddress address, int port) {
+        mIsRunning = true;
+        addReceiver(address, port);
+    }
+
+    public synchronized Receiver addReceiver(InetAddress address, int port) {
+        Receiver receiver = new Receiver(new InetSocketAddress(address, port));
+        Receiver[] receivers = new Receiver[mReceivers.length + 1];
+        System.arraycopy(mReceivers, 0, receivers, 0, mReceivers.length);
+        receivers[mReceivers.length] = receiver;
+        mReceivers = receivers;
+        if (mIsRunning) {
+            receiver.start();
+        }
+        return receiver;
+    }
+
+    // encoder thread: serialize once, then one reference per connected receiver
+    @Override
+    public void send(VideoPacket videoPacket) {
+        Receiver[] receivers = mReceivers;
+        VideoPacket frame = null;
+        for (Receiver receiver : receivers) {
+            if (!receiver.mIsConnected) {
+                continue;
+            }
+            if (frame == null) {
+                frame = serialize(videoPacket);
+            }
+            frame.retain();
+            receiver.offer(frame);
+        }
+        videoPacket.release();
+        if (frame != null) {
+            frame.release();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        mIsRunning = false;
+        for (Receiver receiver : mReceivers) {
+            receiver.shutDown();
+        }
+        mReceivers = new Receiver[0];
+    }
+
+    // the least backed-up connected receiver: the bitrate follows the link that keeps up, slower
+    // receivers shed frames on their own
+    @Override
+    public int getQueueDepth() {
+        int depth = -1;
+        for (Receiver receiver : mReceivers) {
+            if (receiver.mIsConnected && (depth < 0 || receiver.mQueue.size() < depth)) {
+                depth = receiver.mQueue.size();
+            }
+        }
+        return Math.max(depth, 0);
+    }
+
+    // no hand-off: the encoder thread queues for each receiver directly
+    @Override
+    public int getHandOffDepth() {
+        return 0;
+    }
+
+    @Override
+    public int getHandOffHighWaterMark() {
+        return 0;
+    }
+
+    @Override
+    public LatencyBoundedQueue getQueue() {
+        return mKeyFrames;
+    }
+
+    @Override
+    public long getBytesSent() {
+        long bytes = 0;
+        for (Receiver receiver : mReceivers) {
+            bytes += receiver.getBytesSent();
+        }
+        return bytes;
+    }
+
+    // receivers share one encoder, none of them gets to steer it: their control messages are not read
+    @Override
+    public void setControlListener(ControlReader.Listener listener) {
+    }
+
+    public Receiver[] getReceivers() {
+        return mReceivers.clone();
+    }
+
+    // prefix and payload in one pooled heap buffer: [0, PREFIX_SIZE) prefix, then the payload view
+    private VideoPacket serialize(VideoPacket videoPacket) {
+        int size = videoPacket.getSize();
+        VideoPacket frame = mFrames.acquire(PacketCodec.PREFIX_SIZE + size);
+        PacketCodec.encode(videoPacket, frame.buffer);
+        frame.type = videoPacket.type;
+        frame.flag = videoPacket.flag;
+        frame.presentationTimeStamp = videoPacket.presentationTimeStamp;
+        frame.offset = PacketCodec.PREFIX_SIZE;
+        frame.size = size;
+        return frame;
+    }
+
+    private void requestKeyFrame() {
+        long now = System.nanoTime();
+        long last = mLastKeyFrameRequestNs.get();
+        if (now - last >= KEY_FRAME_INTERVAL_NS && mLastKeyFrameRequestNs.compareAndSet(last, now)) {
+            mKeyFrames.requestKeyFrame();
+        }
+    }
+
+    public class Receiver extends Thread {
+
+        private final InetSocketAddress address;
+
+        private final LatencyBoundedQueue mQueue;
+
+        private volatile boolean mIsConnected;
+
+        private volatile Socket mSocket;
+
+        private final AtomicLong mBytesSent = new AtomicLong();
+        private final AtomicLong mPacketsSent = new AtomicLong();
+        private final AtomicLong mDisconnects = new AtomicLong();
+
+        Receiver(InetSocketAddress address) {
+            super(TAG + " " + address);
+            this.address = address;
+            this.mQueue = new LatencyBoundedQueue(budgetUs);
+            this.mQueue.setListener(new LatencyBoundedQueue.Listener() {
+                @Override
+                public void onKeyFrameRequested() {
+                    requestKeyFrame();
+                }
+            });
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public boolean isConnected() {
+            return mIsConnected;
+        }
+
+        // this receiver's queue, for its drop counters
+        public LatencyBoundedQueue getQueue() {
+            return mQueue;
+        }
+
+        public long getBytesSent() {
+            return mBytesSent.get();
+        }
+
+        public long getPacketsSent() {
+            return mPacketsSent.get();
+        }
+
+        // connections dropped for falling too far behind or failing
+        public long getDisconnects() {
+            return mDisconnects.get();
+        }
+
+        // encoder thread
+        private void offer(VideoPacket frame) {
+            mQueue.offer(frame);
+            if (mQueue.size() > MAX_QUEUED) {
+                // not reading: reconnect instead of holding every key frame for it
+                disconnect();
+            }
+        }
+
+        // unblocks a write in progress, the thread reconnects
+        private void disconnect() {
+            Socket socket = mSocket;
+            if (socket != null) {
+                mIsConnected = false;
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.e(TAG, e.getMessage());
+                }
+            }
+        }
+
+        private void shutDown() {
+            interrupt();
+            disconnect();
+        }
+
+        @Override
+        public void run() {
+            while (mIsRunning && !isInterrupted()) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(address, CONNECT_TIMEOUT_MS);
+                    socket.setTcpNoDelay(true);
+                    OutputStream outputStream = socket.getOutputStream();
+                    mSocket = socket;
+                    mQueue.connected();
+                    mIsConnected = true;
+
+                    while (mIsRunning) {
+                        VideoPacket frame = mQueue.take();
+                        try {
+                            ByteBuffer buffer = frame.buffer;
+                            int length = PacketCodec.PREFIX_SIZE + frame.size;
+                            outputStream.write(buffer.array(), buffer.arrayOffset(), length);
+                            mBytesSent.addAndGet(length);
+                            mPacketsSent.incrementAndGet();
+                            // every receiver's copy counts, as every socket's bytes do
+                            StreamCounters.SENDER.add(StreamCounters.Counter.BYTES, length);
+                            if (FrameTracer.isFrame(frame.flag)) {
+                                StreamCounters.SENDER.increment(StreamCounters.Counter.FRAMES);
+                            }
+                        } finally {
+                            frame.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                    break;
+                } catch (IOException e) {
+                    if (mIsRunning) {
+                        Log.e(TAG, address + ": " + e.getMessage());
+                        mDisconnects.incrementAndGet();
+                    }
+                } finally {
+                    mIsConnected = false;
+                    mSocket = null;
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, e.getMessage());
+                    }
+                    mQueue.clear();
+                }
+
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            mQueue.clear();
+        }
+    }
+}
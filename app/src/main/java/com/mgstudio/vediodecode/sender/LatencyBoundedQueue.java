@@ -0,0 +1,240 @@
+package com.mgstudio.vediodecode.sender;
+//延迟受限的发送队列
+
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+// send queue that keeps video live instead of complete: when the oldest queued FRAME is further behind
+// the newest frame than the latency budget, runs of FRAME packets are dropped up to the KEY_FRAME that
+// follows them.
+// Once queued, CONFIG, KEY_FRAME and END are never dropped. If a run has no queued KEY_FRAME after it the
+// cut is mid-GOP: later frames are dropped too until the next KEY_FRAME and the listener is asked for one.
+// A packet rejected before it was queued is lost whatever its flag, a KEY_FRAME included: the listener is
+// asked for another, which comes with its parameter sets again.
+// The producer never blocks; one consumer takes packets.
+public class LatencyBoundedQueue {
+
+    public interface Listener {
+        // called outside the queue lock, on the thread that made the cut. Behind a hand-off ring that is
+        // the transport thread for offer and connected, and the encoder thread for reject. FanOutTransport
+        // offers on the encoder thread and calls connected on each receiver's thread. A consumer calling
+        // requestKeyFrame calls it on its own thread
+        void onKeyFrameRequested();
+    }
+
+    // half a second of queued video
+    public static final long DEFAULT_BUDGET_US = 500 * 1000;
+
+    private final ArrayDeque<VideoPacket> packets = new ArrayDeque<>(256);
+
+    private final long budgetUs;
+
+    // dropping P frames after a mid-GOP cut, until the next KEY_FRAME
+    private boolean mDropUntilKeyFrame;
+
+    private volatile Listener mListener;
+
+    private final AtomicLong mDroppedPackets = new AtomicLong();
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+    private final AtomicLong mKeyFrameRequests = new AtomicLong();
+
+    public LatencyBoundedQueue() {
+        this(DEFAULT_BUDGET_US);
+    }
+
+    public LatencyBoundedQueue(long budgetUs) {
+        this.budgetUs = budgetUs;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // queue a packet, dropping stale frames instead of blocking
+    public void offer(VideoPacket videoPacket) {
+        boolean requestKeyFrame;
+        synchronized (this) {
+            if (videoPacket.flag == VideoPacket.Flag.FRAME && mDropUntilKeyFrame) {
+                // can't be decoded without the frames already dropped
+                drop(videoPacket);
+                return;
+            }
+            if (videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                mDropUntilKeyFrame = false;
+            }
+            packets.addLast(videoPacket);
+            requestKeyFrame = trim();
+            notify();
+        }
+
+        if (requestKeyFrame) {
+            requestKeyFrame();
+        }
+    }
+
+    // a packet lost before reaching the queue (the hand-off to the transport was full): later frames
+    // can't be decoded without it, so they are dropped until the next KEY_FRAME and one is requested
+    public void reject(VideoPacket videoPacket) {
+        synchronized (this) {
+            drop(videoPacket);
+            mDropUntilKeyFrame = true;
+        }
+        requestKeyFrame();
+    }
+
+    // the transport has just connected to a receiver, which can start decoding at a KEY_FRAME only:
+    // frames queued ahead of the first key frame are dropped and, if none is queued, frames are
+    // dropped until the next one and one is requested
+    public void connected() {
+        boolean keyFrameQueued = false;
+        synchronized (this) {
+            Iterator<VideoPacket> iterator = packets.iterator();
+            while (iterator.hasNext() && !keyFrameQueued) {
+                VideoPacket videoPacket = iterator.next();
+                if (videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                    keyFrameQueued = true;
+                } else if (videoPacket.flag == VideoPacket.Flag.FRAME) {
+                    iterator.remove();
+                    drop(videoPacket);
+                }
+            }
+            if (!keyFrameQueued) {
+                mDropUntilKeyFrame = true;
+            }
+        }
+        if (!keyFrameQueued) {
+            requestKeyFrame();
+        }
+    }
+
+    public synchronized VideoPacket take() throws InterruptedException {
+        while (packets.isEmpty()) {
+            wait();
+        }
+        return packets.pollFirst();
+    }
+
+    public synchronized VideoPacket poll() {
+        return packets.pollFirst();
+    }
+
+    public synchronized boolean isEmpty() {
+        return packets.isEmpty();
+    }
+
+    public synchronized int size() {
+        return packets.size();
+    }
+
+    public synchronized void clear() {
+        for (VideoPacket videoPacket : packets) {
+            videoPacket.release();
+        }
+        packets.clear();
+        mDropUntilKeyFrame = false;
+    }
+
+    // stream time between the oldest and newest queued frame, microseconds
+    public synchronized long getLatencyUs() {
+        VideoPacket oldest = oldestFrame();
+        return oldest != null ? newestFrame().presentationTimeStamp - oldest.presentationTimeStamp : 0;
+    }
+
+    public long getDroppedPackets() {
+        return mDroppedPackets.get();
+    }
+
+    public long getDroppedBytes() {
+        return mDroppedBytes.get();
+    }
+
+    public long getKeyFrameRequests() {
+        return mKeyFrameRequests.get();
+    }
+
+    // drop frame runs while over budget, true if a cut had to be made mid-GOP
+    private boolean trim() {
+        while (droppableAgeUs() > budgetUs) {
+            boolean dropped = false;
+            boolean inRun = false;
+            boolean reachedKeyFrame = false;
+
+            Iterator<VideoPacket> iterator = packets.iterator();
+            while (iterator.hasNext()) {
+                VideoPacket videoPacket = iterator.next();
+                if (videoPacket.flag == VideoPacket.Flag.FRAME) {
+                    iterator.remove();
+                    drop(videoPacket);
+                    dropped = true;
+                    inRun = true;
+                } else if (videoPacket.flag == VideoPacket.Flag.KEY_FRAME && inRun) {
+                    // the decoder resyncs here
+                    reachedKeyFrame = true;
+                    break;
+                }
+            }
+
+            if (!dropped) {
+                // only packets that must not be dropped are left
+                return false;
+            }
+            if (!reachedKeyFrame) {
+                mDropUntilKeyFrame = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // age of the oldest FRAME - key frames at the head can't be dropped, so they don't count
+    private long droppableAgeUs() {
+        for (VideoPacket videoPacket : packets) {
+            if (videoPacket.flag == VideoPacket.Flag.FRAME) {
+                return newestFrame().presentationTimeStamp - videoPacket.presentationTimeStamp;
+            }
+        }
+        return 0;
+    }
+
+    // config samples carry no meaningful timestamp, age is measured from the oldest frame
+    private VideoPacket oldestFrame() {
+        for (VideoPacket videoPacket : packets) {
+            if (videoPacket.flag == VideoPacket.Flag.FRAME || videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                return videoPacket;
+            }
+        }
+        return null;
+    }
+
+    private VideoPacket newestFrame() {
+        Iterator<VideoPacket> iterator = packets.descendingIterator();
+        while (iterator.hasNext()) {
+            VideoPacket videoPacket = iterator.next();
+            if (videoPacket.flag == VideoPacket.Flag.FRAME || videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                return videoPacket;
+            }
+        }
+        return null;
+    }
+
+    // asks the listener for a key frame on the calling thread, see Listener; also used by consumers that
+    // lost sync
+    public void requestKeyFrame() {
+        mKeyFrameRequests.incrementAndGet();
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onKeyFrameRequested();
+        }
+    }
+
+    private void drop(VideoPacket videoPacket) {
+        mDroppedPackets.incrementAndGet();
+        StreamCounters.SENDER.increment(StreamCounters.Counter.DROPPED_FRAMES);
+        mDroppedBytes.addAndGet(videoPacket.getSize());
+        videoPacket.release();
+    }
+}
@@ -0,0 +1,98 @@
+package com.mgstudio.vediodecode.sender;
+//参数集缓存
+
+import com.mgstudio.vediodecode.h264.NalScanner;
+import com.mgstudio.vediodecode.h264.NalUnitType;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.nio.ByteBuffer;
+
+// Keeps the latest SPS/PPS of the stream so every KEY_FRAME goes out right behind them. The codec emits
+// its CONFIG sample once, a receiver that connects later would otherwise never be able to decode:
+// with the parameter sets in front of each IDR, any key frame is a place to start.
+//
+// Called on the encoder output thread only, packets in stream order.
+public class ParameterSetCache {
+
+    private final PacketPool pool;
+
+    private final NalScanner mScanner = new NalScanner();
+
+    // latest config payload, grown when a larger one arrives
+    private byte[] mConfig = new byte[0];
+
+    private int mConfigSize;
+
+    // the packet before this one was a CONFIG, the key frame needs no copy
+    private boolean mLastWasConfig;
+
+    private long mInjected;
+
+    public ParameterSetCache(PacketPool pool) {
+        this.pool = pool;
+    }
+
+    // call for every packet before sending it: returns a CONFIG packet to send first, or null
+    public VideoPacket beforeSend(VideoPacket videoPacket) {
+        boolean isConfig = videoPacket.flag == VideoPacket.Flag.CONFIG;
+        boolean lastWasConfig = mLastWasConfig;
+        mLastWasConfig = isConfig;
+
+        if (isConfig) {
+            update(videoPacket);
+            return null;
+        }
+        if (videoPacket.flag != VideoPacket.Flag.KEY_FRAME || mConfigSize == 0 || lastWasConfig
+                || carriesParameterSets(videoPacket)) {
+            return null;
+        }
+
+        VideoPacket config = pool.acquire(mConfigSize);
+        config.buffer.put(mConfig, 0, mConfigSize);
+        config.type = MediaPacket.Type.VIDEO;
+        config.flag = VideoPacket.Flag.CONFIG;
+        config.presentationTimeStamp = videoPacket.presentationTimeStamp;
+        mInjected++;
+        return config;
+    }
+
+    public boolean hasConfig() {
+        return mConfigSize > 0;
+    }
+
+    // CONFIG packets sent in front of key frames so far
+    public long getInjected() {
+        return mInjected;
+    }
+
+    private void update(VideoPacket videoPacket) {
+        int size = videoPacket.getSize();
+        if (mConfig.length < size) {
+            mConfig = new byte[size];
+        }
+        videoPacket.copyTo(ByteBuffer.wrap(mConfig, 0, size));
+        mConfigSize = size;
+    }
+
+    // some encoders repeat SPS and PPS inside every IDR sample themselves
+    private boolean carriesParameterSets(VideoPacket videoPacket) {
+        if (videoPacket.buffer != null) {
+            mScanner.reset(videoPacket.buffer, videoPacket.offset, videoPacket.size);
+        } else {
+            mScanner.reset(videoPacket.data, 0, videoPacket.data.length);
+        }
+        while (mScanner.next()) {
+            int type = mScanner.type();
+            if (type == NalUnitType.SPS) {
+                return true;
+            }
+            if (NalUnitType.isSlice(type)) {
+                // parameter sets come before the first slice
+                return false;
+            }
+        }
+        return false;
+    }
+}
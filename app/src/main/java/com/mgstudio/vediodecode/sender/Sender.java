@@ -1,36 +1,99 @@
 package com.mgstudio.vediodecode.sender;
 //发送
 import android.media.MediaCodec;
-import android.support.annotation.NonNull;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.mgstudio.vediodecode.clock.ClockSync;
+import com.mgstudio.vediodecode.control.ControlDispatcher;
+import com.mgstudio.vediodecode.control.ControlMessage;
+import com.mgstudio.vediodecode.encoder.EncodedSample;
+import com.mgstudio.vediodecode.encoder.LinkStats;
+import com.mgstudio.vediodecode.encoder.RateController;
 import com.mgstudio.vediodecode.encoder.VideoEncoder;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
 import com.mgstudio.vediodecode.model.VideoPacket;
 import com.mgstudio.vediodecode.surface.SurfaceView;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Sender {
 
     private static final String TAG = Sender.class.getSimpleName();
 
-    private Worker mWorker;
+    // how often the rate controller looks at the link
+    private static final long RATE_INTERVAL_MS = 500;
+
+    // key frame requests closer together than this share one key frame
+    private static final long KEY_FRAME_REQUEST_INTERVAL_MS = 500;
+
+    private Transport mTransport;
+    private volatile boolean mIsStarted;
     private InetAddress address;
     private int port;
 
     private VideoEncoder videoEncoder;
 
+    // payloads of queued packets, reused once the transport releases them
+    private final PacketPool mPacketPool = new PacketPool(new BufferPool(1024 * 1024, 16));
+
+    // SPS/PPS repeated in front of every key frame, so a receiver can join at any IDR
+    private final ParameterSetCache mParameterSets = new ParameterSetCache(mPacketPool);
+
+    private RateController mRateController;
+    private final LinkStats mLinkStats = new LinkStats();
+    private long mLastBytesSent;
+
+    // when the queue depth was last reported to the metrics
+    private long mQueueDepthTimeMs;
+
+    // control messages from the receiver, handled on the transport's thread
+    private final ControlDispatcher mControlDispatcher = new ControlDispatcher();
+
+    // PAUSE until RESUME: encoded frames are dropped instead of sent
+    private volatile boolean mIsPaused;
+
+    // RESUME arrived: frames go out again from the next key frame
+    private volatile boolean mIsResuming;
+
+    // most the receiver asked for with BITRATE_HINT, 0 for no limit
+    private volatile int mBitrateLimit;
+
+    private long mLastKeyFrameRequestMs = -KEY_FRAME_REQUEST_INTERVAL_MS;
+
+    // last RECEIVER_STATS, type null before the first
+    private final ControlMessage mReceiverStats = new ControlMessage();
+
+    // last PING not answered yet, type null if none, and when it arrived: answered before the next
+    // frame, from the encoder thread that owns the transport's hand-off
+    private final ControlMessage mPendingPing = new ControlMessage();
+    private long mPingReceivedUs;
+
+    // the receiver's round trip estimate from its last PING, microseconds; -1 if it has none
+    private volatile long mRttUs = -1;
+
     public Sender(String host, int port, SurfaceView surfaceView, int width, int height) {
+        this(host, port, surfaceView, width, height, new SocketTransport());
+    }
+
+    public Sender(String host, int port, SurfaceView surfaceView, int width, int height, Transport transport) {
         this.videoEncoder = new Encoder(surfaceView, width, height);
+        this.mTransport = transport;
+        this.mTransport.setControlListener(mControlDispatcher);
+        setDefaultControlHandlers();
+        this.mTransport.getQueue().setListener(new LatencyBoundedQueue.Listener() {
+            @Override
+            public void onKeyFrameRequested() {
+                // frames were cut mid-GOP, the receiver can only resync on an IDR
+                requestKeyFrame();
+            }
+        });
         this.port = port;
         try {
             this.address = InetAddress.getByName(host);
@@ -39,53 +102,207 @@ public class Sender {
         }
     }
 
+    // adapt the encoder bitrate to the link, null keeps it fixed; set before start()
+    public void setRateController(RateController rateController) {
+        mRateController = rateController;
+        if (rateController != null) {
+            videoEncoder.setBitrate(rateController.getInitialBitrate());
+        }
+    }
+
+    // replaces what the sender does with one type of control message, null ignores the type
+    public void setControlHandler(ControlMessage.Type type, ControlDispatcher.Handler handler) {
+        mControlDispatcher.setHandler(type, handler);
+    }
+
+    public boolean isPaused() {
+        return mIsPaused;
+    }
+
+    // copy of the last statistics the receiver sent, null before the first
+    public ControlMessage getReceiverStats() {
+        synchronized (mReceiverStats) {
+            if (mReceiverStats.type == null) {
+                return null;
+            }
+            ControlMessage stats = new ControlMessage();
+            stats.copyFrom(mReceiverStats);
+            return stats;
+        }
+    }
+
+    private void setDefaultControlHandlers() {
+        mControlDispatcher.setHandler(ControlMessage.Type.KEY_FRAME_REQUEST, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                requestKeyFrame();
+            }
+        });
+        mControlDispatcher.setHandler(ControlMessage.Type.BITRATE_HINT, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                mBitrateLimit = Math.max(message.bitrate, 0);
+                if (mBitrateLimit > 0 && videoEncoder.getBitrate() > mBitrateLimit) {
+                    // the rate controller, if any, stays below it from its next update
+                    videoEncoder.setBitrate(mBitrateLimit);
+                }
+            }
+        });
+        mControlDispatcher.setHandler(ControlMessage.Type.RECEIVER_STATS, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                synchronized (mReceiverStats) {
+                    mReceiverStats.copyFrom(message);
+                }
+            }
+        });
+        mControlDispatcher.setHandler(ControlMessage.Type.PING, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                synchronized (mPendingPing) {
+                    mPendingPing.copyFrom(message);
+                    mPingReceivedUs = nowUs();
+                }
+                mRttUs = message.rttUs;
+            }
+        });
+        mControlDispatcher.setHandler(ControlMessage.Type.PAUSE, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                mIsResuming = false;
+                mIsPaused = true;
+            }
+        });
+        mControlDispatcher.setHandler(ControlMessage.Type.RESUME, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                if (mIsPaused) {
+                    // P frames would refer to frames the receiver never got: wait for a key frame
+                    mIsResuming = true;
+                    requestKeyFrame();
+                }
+            }
+        });
+    }
+
+    // any thread: receivers and queue cuts may ask often, a congested link once per rejected packet; the
+    // encoder makes one key frame per interval
+    private synchronized void requestKeyFrame() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastKeyFrameRequestMs >= KEY_FRAME_REQUEST_INTERVAL_MS) {
+            mLastKeyFrameRequestMs = now;
+            videoEncoder.requestKeyFrame();
+        }
+    }
+
+    // the clock the camera stamps frames with, so the receiver can map their timeStamps
+    private static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    // encoder output thread: a pending PING gets its CLOCK packet ahead of the frame
+    private void answerPing() {
+        long pingTimeUs;
+        long receivedUs;
+        synchronized (mPendingPing) {
+            if (mPendingPing.type == null) {
+                return;
+            }
+            mPendingPing.type = null;
+            pingTimeUs = mPendingPing.timeUs;
+            receivedUs = mPingReceivedUs;
+        }
+        if (mIsStarted) {
+            // sent while paused too: the receiver keeps its clock
+            mTransport.send(ClockSync.pong(pingTimeUs, receivedUs, nowUs()));
+        }
+    }
+
     public void start() {
-        if (mWorker == null) {
-            mWorker = new Worker();
-            mWorker.setRunning(true);
-            mWorker.start();
+        if (!mIsStarted) {
+            mIsStarted = true;
+            mLinkStats.timeMs = 0;
+            mTransport.start(address, port);
         }
         videoEncoder.start();
         videoEncoder.startPreview();
     }
 
     public void stop() {
-        if (mWorker != null) {
-            mWorker.setRunning(false);
-            mWorker = null;
+        if (mIsStarted) {
+            mIsStarted = false;
+            mTransport.stop();
         }
         videoEncoder.stopPreview();
         videoEncoder.stop();
     }
 
+    // takes ownership of videoPacket
     protected void send(VideoPacket videoPacket) {
-        if (mWorker != null) {
-            mWorker.send(videoPacket);
+        if (mIsPaused && mIsResuming && videoPacket.flag != VideoPacket.Flag.FRAME) {
+            // parameter sets or the key frame after them
+            mIsPaused = false;
+            mIsResuming = false;
+        }
+        if (mIsStarted && !mIsPaused) {
+            FrameTracer.TRACER.begin(FrameTracer.Span.QUEUE_WAIT, videoPacket);
+            mTransport.send(videoPacket);
+        } else {
+            videoPacket.release();
         }
     }
 
-    class Encoder extends VideoEncoder {
+    // called on the encoder output thread for every sample
+    private void adaptBitrate() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mQueueDepthTimeMs >= RATE_INTERVAL_MS) {
+            // with or without a rate controller
+            mQueueDepthTimeMs = now;
+            StreamCounters.SENDER.set(StreamCounters.Gauge.QUEUE_DEPTH, mTransport.getQueueDepth());
+        }
+        RateController rateController = mRateController;
+        if (rateController == null) {
+            return;
+        }
+        long bytesSent = mTransport.getBytesSent();
+        if (mLinkStats.timeMs == 0) {
+            // first sample, start measuring
+            mLinkStats.timeMs = now;
+            mLastBytesSent = bytesSent;
+            return;
+        }
+        long elapsed = now - mLinkStats.timeMs;
+        if (elapsed < RATE_INTERVAL_MS) {
+            return;
+        }
+        mLinkStats.timeMs = now;
+        mLinkStats.queueDepth = mTransport.getQueueDepth();
+        mLinkStats.sendBytesPerSecond = (bytesSent - mLastBytesSent) * 1000 / elapsed;
+        long rttUs = mRttUs;
+        mLinkStats.rttMs = rttUs >= 0 ? rttUs / 1000 : -1;
+        mLastBytesSent = bytesSent;
+
+        int bitrate = rateController.update(mLinkStats);
+        int limit = mBitrateLimit;
+        if (limit > 0 && bitrate > limit) {
+            bitrate = limit;
+        }
+        if (bitrate != videoEncoder.getBitrate()) {
+            Log.d(TAG, "bitrate " + videoEncoder.getBitrate() + " -> " + bitrate
+                    + ", queue " + mLinkStats.queueDepth + ", rtt " + mLinkStats.rttMs + " ms");
+            videoEncoder.setBitrate(bitrate);
+        }
+    }
 
-        byte[] mBuffer = new byte[0];
+    class Encoder extends VideoEncoder {
 
         public Encoder(SurfaceView surfaceView, int width, int height) {
             super(surfaceView, width, height);
         }
 
         @Override
-        protected void onEncodedSample(MediaCodec.BufferInfo info, ByteBuffer data) {
-            // Here we could have just used ByteBuffer, but in real life case we might need to
-            //这里我们可以使用ByteBuffer，但在现实生活中我们可能需要
-            // send sample over network, etc. This requires byte[]
-            // 通过网络发送样本等。这需要byte []
-
-            if (mBuffer.length < info.size) {
-                mBuffer = new byte[info.size];
-            }
-            data.position(info.offset);
-            data.limit(info.offset + info.size);
-            data.get(mBuffer, 0, info.size);
-
+        protected void onEncodedSample(EncodedSample sample) {
+            MediaCodec.BufferInfo info = sample.info;
             MediaPacket.Type type = MediaPacket.Type.VIDEO;
             VideoPacket.Flag flag = VideoPacket.Flag.CONFIG;
 
@@ -96,90 +313,35 @@ public class Sender {
             } else if (info.flags == 0) {
                 flag = VideoPacket.Flag.FRAME;
             }
-
-            // TODO: need store latest pps and sps params// TODO：需要存储最新的pps和sps参数
-            // TODO: need send config frame each time before KEY-FRAME // TODO：每次需要在KEY-FRAME之前发送配置帧
-            send(new VideoPacket(type, flag, info.presentationTimeUs, mBuffer));
-        }
-    }
-
-    protected class Worker extends Thread {
-
-        private AtomicBoolean mIsRunning = new AtomicBoolean(false);
-
-        Worker() {
-        }
-
-        private BlockingQueue<VideoPacket> packetsQueue = new ArrayBlockingQueue<>(2000);
-
-        private void setRunning(boolean isRunning) {
-            mIsRunning.set(isRunning);
-        }
-
-        @Override
-        public void run() {
-            Socket socket = null;
-            DataOutputStream dataOutputStream = null;
-            DataInputStream dataInputStream = null;
+            boolean frame = FrameTracer.isFrame(flag);
+            if (frame) {
+                FrameTracer.TRACER.begin(FrameTracer.Span.ENCODER_OUTPUT, info.presentationTimeUs);
+            }
 
             try {
-                socket = new Socket(address, port);
-                dataOutputStream = new DataOutputStream(
-                        socket.getOutputStream());
-                dataInputStream = new DataInputStream(socket.getInputStream());
-
-                while (mIsRunning.get()) {
-                    if (dataInputStream.available() > 0) {
-                        // can do some work here
-                    }
-
-                    while (!packetsQueue.isEmpty()) {
-                        try {
-                            VideoPacket videoPacket = packetsQueue.take();
-                            dataOutputStream.write(videoPacket.toByteArray());
-                            dataOutputStream.flush();
-                        } catch (InterruptedException e) {
-                            Log.e(TAG, e.getMessage());
-                        }
-                    }
+                // one copy into a pooled packet hands the codec its buffer back at once: the send queue
+                // can hold more frames than the codec has output buffers. The transport releases it.
+                VideoPacket videoPacket = mPacketPool.acquire(sample.data);
+                sample.release();
+                videoPacket.type = type;
+                videoPacket.flag = flag;
+                videoPacket.presentationTimeStamp = info.presentationTimeUs;
+                PipelineLatency.SENDER.mark(PipelineLatency.Stage.ENCODE, videoPacket, PipelineLatency.nowUs(),
+                        false);
+
+                answerPing();
+                VideoPacket config = mParameterSets.beforeSend(videoPacket);
+                if (config != null) {
+                    send(config);
                 }
-
-            } catch (IOException e) {
-                Log.e(TAG, e.getMessage());
+                send(videoPacket);
             } finally {
-                if (socket != null) {
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, e.getMessage());
-                    }
-                }
-
-                if (dataOutputStream != null) {
-                    try {
-                        dataOutputStream.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, e.getMessage());
-                    }
-                }
-
-                if (dataInputStream != null) {
-                    try {
-                        dataInputStream.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, e.getMessage());
-                    }
+                // also when a step throws, so its systrace section is closed
+                if (frame) {
+                    FrameTracer.TRACER.end(FrameTracer.Span.ENCODER_OUTPUT, info.presentationTimeUs);
                 }
-
-            }
-        }
-
-        public synchronized void send(@NonNull VideoPacket videoPacket) {
-            try {
-                packetsQueue.put(videoPacket);
-            } catch (InterruptedException e) {
-                Log.e(TAG, e.getMessage());
             }
+            adaptBitrate();
         }
     }
 }
@@ -0,0 +1,268 @@
+package com.mgstudio.vediodecode.sender;
+//套接字传输
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.mgstudio.vediodecode.control.ControlReader;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.util.SpscRing;
+import com.mgstudio.vediodecode.util.WaitStrategy;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// blocking Socket transport: one write and flush per packet. Packets reach the transport thread
+// through a lock-free SpscRing and wait for it with the ring's WaitStrategy. Control messages from the
+// receiver are read on a thread of their own, so a blocking read never holds up a write.
+public class SocketTransport implements Transport {
+
+    private static final String TAG = SocketTransport.class.getSimpleName();
+
+    // packets in flight between the encoder thread and the transport thread
+    private static final int RING_CAPACITY = 256;
+
+    private volatile Worker mWorker;
+
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private final LatencyBoundedQueue packetsQueue;
+
+    private final WaitStrategy.Kind waitStrategy;
+
+    private volatile ControlReader.Listener mControlListener;
+
+    public SocketTransport() {
+        this(new LatencyBoundedQueue());
+    }
+
+    public SocketTransport(LatencyBoundedQueue queue) {
+        this(queue, WaitStrategy.Kind.BLOCK);
+    }
+
+    public SocketTransport(LatencyBoundedQueue queue, WaitStrategy.Kind waitStrategy) {
+        this.packetsQueue = queue;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public void start(InetAddress address, int port) {
+        if (mWorker == null) {
+            mWorker = new Worker(address, port, waitStrategy.create());
+            mWorker.setRunning(true);
+            mWorker.start();
+        }
+    }
+
+    @Override
+    public void send(VideoPacket videoPacket) {
+        Worker worker = mWorker;
+        if (worker != null) {
+            worker.send(videoPacket);
+        } else {
+            videoPacket.release();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mWorker != null) {
+            mWorker.setRunning(false);
+            // wakes it from the ring's wait strategy
+            mWorker.interrupt();
+            mWorker = null;
+        }
+        packetsQueue.clear();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return packetsQueue.size() + getHandOffDepth();
+    }
+
+    @Override
+    public int getHandOffDepth() {
+        Worker worker = mWorker;
+        return worker != null ? worker.mRing.size() : 0;
+    }
+
+    @Override
+    public int getHandOffHighWaterMark() {
+        Worker worker = mWorker;
+        return worker != null ? worker.mRing.getHighWaterMark() : 0;
+    }
+
+    @Override
+    public LatencyBoundedQueue getQueue() {
+        return packetsQueue;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    @Override
+    public void setControlListener(ControlReader.Listener listener) {
+        mControlListener = listener;
+    }
+
+    protected class Worker extends Thread {
+
+        private AtomicBoolean mIsRunning = new AtomicBoolean(false);
+
+        private final InetAddress address;
+
+        private final int port;
+
+        // encoder thread to this thread
+        private final SpscRing<VideoPacket> mRing;
+
+        Worker(InetAddress address, int port, WaitStrategy waitStrategy) {
+            super(TAG);
+            this.address = address;
+            this.port = port;
+            this.mRing = new SpscRing<>(RING_CAPACITY, waitStrategy);
+        }
+
+        private void setRunning(boolean isRunning) {
+            mIsRunning.set(isRunning);
+        }
+
+        @Override
+        public void run() {
+            Socket socket = null;
+            DataOutputStream dataOutputStream = null;
+
+            try {
+                socket = new Socket(address, port);
+                dataOutputStream = new DataOutputStream(
+                        socket.getOutputStream());
+                ControlReader.Listener controlListener = mControlListener;
+                if (controlListener != null) {
+                    // ends when the socket closes
+                    new ControlThread(socket.getInputStream(), controlListener).start();
+                }
+                // a fresh receiver: start it at a key frame
+                transfer();
+                packetsQueue.connected();
+
+                while (mIsRunning.get()) {
+                    // what connected() kept goes out before waiting for the next packet
+                    VideoPacket videoPacket;
+                    while ((videoPacket = packetsQueue.poll()) != null) {
+                        FrameTracer.TRACER.end(FrameTracer.Span.QUEUE_WAIT, videoPacket);
+                        FrameTracer.TRACER.begin(FrameTracer.Span.SOCKET_WRITE, videoPacket);
+                        byte[] frame = videoPacket.toByteArray();
+                        VideoPacket.Flag flag = videoPacket.flag;
+                        long timeStamp = videoPacket.presentationTimeStamp;
+                        // copied out, the payload can go back to its owner
+                        videoPacket.release();
+                        dataOutputStream.write(frame);
+                        dataOutputStream.flush();
+                        mBytesSent.addAndGet(frame.length);
+                        StreamCounters.SENDER.add(StreamCounters.Counter.BYTES, frame.length);
+                        if (FrameTracer.isFrame(flag)) {
+                            StreamCounters.SENDER.increment(StreamCounters.Counter.FRAMES);
+                            FrameTracer.TRACER.end(FrameTracer.Span.SOCKET_WRITE, timeStamp);
+                            PipelineLatency.SENDER.mark(PipelineLatency.Stage.SEND, timeStamp,
+                                    PipelineLatency.nowUs(), true);
+                        }
+                        // newer packets join the queue, so its latency budget sees the backlog
+                        transfer();
+                    }
+                    packetsQueue.offer(mRing.take());
+                    transfer();
+                }
+
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            } finally {
+                VideoPacket videoPacket;
+                while ((videoPacket = mRing.poll()) != null) {
+                    videoPacket.release();
+                }
+
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, e.getMessage());
+                    }
+                }
+
+                if (dataOutputStream != null) {
+                    try {
+                        dataOutputStream.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, e.getMessage());
+                    }
+                }
+
+            }
+        }
+
+        private void transfer() {
+            VideoPacket videoPacket;
+            while ((videoPacket = mRing.poll()) != null) {
+                packetsQueue.offer(videoPacket);
+            }
+        }
+
+        // encoder thread, never blocks
+        public void send(@NonNull VideoPacket videoPacket) {
+            if (!mRing.offer(videoPacket)) {
+                packetsQueue.reject(videoPacket);
+            }
+        }
+    }
+
+    // reads control messages until the worker closes the socket
+    private static class ControlThread extends Thread {
+
+        private final InputStream inputStream;
+
+        private final ControlReader reader;
+
+        private final byte[] mBuffer = new byte[512];
+
+        ControlThread(InputStream inputStream, ControlReader.Listener listener) {
+            super(TAG + " control");
+            this.inputStream = inputStream;
+            this.reader = new ControlReader(listener);
+        }
+
+        @Override
+        public void run() {
+            boolean corrupted = false;
+            try {
+                int count;
+                while ((count = inputStream.read(mBuffer)) >= 0) {
+                    if (corrupted) {
+                        // drained, so a receiver still writing never blocks
+                        continue;
+                    }
+                    try {
+                        reader.feed(mBuffer, 0, count);
+                    } catch (IllegalStateException | IllegalArgumentException e) {
+                        // can't find the next message again: the media goes on, control doesn't
+                        Log.e(TAG, e.getMessage());
+                        corrupted = true;
+                    }
+                }
+            } catch (IOException e) {
+                // the worker closed the socket
+            }
+        }
+    }
+}
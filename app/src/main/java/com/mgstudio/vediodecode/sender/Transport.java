@@ -0,0 +1,39 @@
+package com.mgstudio.vediodecode.sender;
+//传输
+
+import com.mgstudio.vediodecode.control.ControlReader;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.net.InetAddress;
+
+// moves encoded packets from the encoder thread to the receiver, on a thread of its own
+public interface Transport {
+
+    // connect and start sending on a background thread
+    void start(InetAddress address, int port);
+
+    // queue a packet, called from the encoder output thread. The transport owns it from here and
+    // calls release once it is written or dropped
+    void send(VideoPacket videoPacket);
+
+    void stop();
+
+    // packets queued and not written yet, hand-off included
+    int getQueueDepth();
+
+    // packets in the lock-free hand-off from the encoder thread to the transport thread
+    int getHandOffDepth();
+
+    // deepest the hand-off has been since start
+    int getHandOffHighWaterMark();
+
+    // the send queue, for its drop counters and key frame requests
+    LatencyBoundedQueue getQueue();
+
+    // payload and header bytes written to the socket since start
+    long getBytesSent();
+
+    // control messages the receiver sends back, delivered on a transport thread; null ignores them.
+    // Call before start. Transports without a back-channel never call it
+    void setControlListener(ControlReader.Listener listener);
+}
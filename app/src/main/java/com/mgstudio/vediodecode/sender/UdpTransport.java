@@ -0,0 +1,433 @@
+package com.mgstudio.vediodecode.sender;
+//UDP传输
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.mgstudio.vediodecode.control.ControlReader;
+import com.mgstudio.vediodecode.fec.FecEncoder;
+import com.mgstudio.vediodecode.fec.FecHeader;
+import com.mgstudio.vediodecode.fec.Protection;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+import com.mgstudio.vediodecode.metrics.StreamCounters;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.rtp.RetransmitCache;
+import com.mgstudio.vediodecode.rtp.RtcpNack;
+import com.mgstudio.vediodecode.rtp.RtpDepacketizer;
+import com.mgstudio.vediodecode.rtp.RtpPacketizer;
+import com.mgstudio.vediodecode.util.SpscRing;
+import com.mgstudio.vediodecode.util.WaitStrategy;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.PortUnreachableException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// RTP over UDP: each access unit goes out as RFC 6184 packets no larger than the MTU, so a lost
+// datagram costs one frame instead of stalling the stream behind a retransmission. Packets reach the
+// transport thread the same way as in SocketTransport; END packets have no RTP form and are dropped.
+//
+// Packets sent are kept in a RetransmitCache for the retransmit window. RTCP NACKs from the receiver
+// are read on a thread of their own, which resends what is asked for while it can still make the
+// receiver's deadline, so the encoder's output path never waits on the back-channel.
+//
+// Optionally parity packets follow each frame (FecEncoder), for links where a retransmission would
+// come too late; media packets then leave room in the MTU for the parity header.
+public class UdpTransport implements Transport {
+
+    private static final String TAG = UdpTransport.class.getSimpleName();
+
+    public static final int DEFAULT_MTU = 1500;
+
+    // IPv4 and UDP headers
+    private static final int IP_UDP_HEADER_SIZE = 20 + 8;
+
+    private static final int RING_CAPACITY = 256;
+
+    // the receiver's recovery delay: a packet older than this arrives too late to be used
+    public static final long DEFAULT_RETRANSMIT_WINDOW_US = 150 * 1000;
+
+    // packets kept for retransmission, enough for the window at a few tens of Mbps
+    private static final int RETRANSMIT_CAPACITY = 1024;
+
+    // a packet asked for twice in this time is sent once
+    private static final long MIN_RESEND_INTERVAL_US = 10 * 1000;
+
+    private volatile Worker mWorker;
+
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private final AtomicLong mPacketsSent = new AtomicLong();
+
+    private final LatencyBoundedQueue packetsQueue;
+
+    private final WaitStrategy.Kind waitStrategy;
+
+    private final int mtu;
+
+    private final long retransmitWindowUs;
+
+    private final AtomicLong mNacksReceived = new AtomicLong();
+
+    private volatile RetransmitCache mRetransmitCache;
+
+    // FEC protection per kind of frame, null for none
+    private volatile Protection[] mProtections;
+
+    private volatile FecEncoder mFecEncoder;
+
+    public UdpTransport() {
+        this(DEFAULT_MTU);
+    }
+
+    public UdpTransport(int mtu) {
+        this(new LatencyBoundedQueue(), WaitStrategy.Kind.BLOCK, mtu, DEFAULT_RETRANSMIT_WINDOW_US);
+    }
+
+    // retransmitWindowUs: 0 to ignore NACKs and keep nothing for retransmission
+    public UdpTransport(LatencyBoundedQueue queue, WaitStrategy.Kind waitStrategy, int mtu,
+                        long retransmitWindowUs) {
+        this.packetsQueue = queue;
+        this.waitStrategy = waitStrategy;
+        this.mtu = mtu;
+        this.retransmitWindowUs = retransmitWindowUs;
+    }
+
+    @Override
+    public void start(InetAddress address, int port) {
+        if (mWorker == null) {
+            mWorker = new Worker(address, port, waitStrategy.create());
+            mWorker.setRunning(true);
+            mWorker.start();
+        }
+    }
+
+    @Override
+    public void send(VideoPacket videoPacket) {
+        Worker worker = mWorker;
+        if (worker != null) {
+            worker.send(videoPacket);
+        } else {
+            videoPacket.release();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mWorker != null) {
+            mWorker.setRunning(false);
+            mWorker.interrupt();
+            mWorker = null;
+        }
+        packetsQueue.clear();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return packetsQueue.size() + getHandOffDepth();
+    }
+
+    @Override
+    public int getHandOffDepth() {
+        Worker worker = mWorker;
+        return worker != null ? worker.mRing.size() : 0;
+    }
+
+    @Override
+    public int getHandOffHighWaterMark() {
+        Worker worker = mWorker;
+        return worker != null ? worker.mRing.getHighWaterMark() : 0;
+    }
+
+    @Override
+    public LatencyBoundedQueue getQueue() {
+        return packetsQueue;
+    }
+
+    // RTP headers included, IP and UDP headers not
+    @Override
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    // datagrams sent since start, retransmissions included
+    public long getPacketsSent() {
+        return mPacketsSent.get();
+    }
+
+    public long getNacksReceived() {
+        return mNacksReceived.get();
+    }
+
+    // packets sent again on a NACK
+    public long getRetransmitted() {
+        RetransmitCache cache = mRetransmitCache;
+        return cache != null ? cache.getRetransmitted() : 0;
+    }
+
+    // packets asked for too late: gone from the cache or past the window
+    public long getRetransmitExpired() {
+        RetransmitCache cache = mRetransmitCache;
+        return cache != null ? cache.getExpired() : 0;
+    }
+
+    // the only back-channel here is RTCP: NACKs, read by the transport itself
+    @Override
+    public void setControlListener(ControlReader.Listener listener) {
+    }
+
+    // adds parity to the stream, protecting each kind of frame with FecEncoder's defaults; call before start
+    public void setForwardErrorCorrection(boolean enabled) {
+        if (!enabled) {
+            mProtections = null;
+            return;
+        }
+        Protection[] protections = new Protection[VideoPacket.Flag.values().length];
+        for (VideoPacket.Flag flag : VideoPacket.Flag.values()) {
+            protections[flag.ordinal()] = FecEncoder.defaultProtection(flag);
+        }
+        mProtections = protections;
+    }
+
+    // protection of one kind of frame, enables FEC; call before start
+    public void setProtection(VideoPacket.Flag flag, Protection protection) {
+        if (mProtections == null) {
+            setForwardErrorCorrection(true);
+        }
+        mProtections[flag.ordinal()] = protection;
+    }
+
+    // parity packets sent since start
+    public long getParityPackets() {
+        FecEncoder fecEncoder = mFecEncoder;
+        return fecEncoder != null ? fecEncoder.getParityPackets() : 0;
+    }
+
+    protected class Worker extends Thread implements RtpPacketizer.Output {
+
+        private AtomicBoolean mIsRunning = new AtomicBoolean(false);
+
+        private final InetAddress address;
+
+        private final int port;
+
+        private final SpscRing<VideoPacket> mRing;
+
+        // a random SSRC and first sequence number, as RFC 3550 asks
+        private final RtpPacketizer mPacketizer;
+
+        private DatagramSocket mSocket;
+
+        // null without retransmission
+        private final RetransmitCache mCache;
+
+        // null without FEC
+        private final FecEncoder mFec;
+
+        private final RtpPacketizer.Output mParityOutput = new RtpPacketizer.Output() {
+            @Override
+            public void onPacket(byte[] packet, int length) throws IOException {
+                sendDatagram(packet, length);
+            }
+        };
+
+        // reused for every datagram, pointed at the packetizer's array
+        private final DatagramPacket mDatagram = new DatagramPacket(new byte[0], 0);
+
+        Worker(InetAddress address, int port, WaitStrategy waitStrategy) {
+            super(TAG);
+            this.address = address;
+            this.port = port;
+            this.mRing = new SpscRing<>(RING_CAPACITY, waitStrategy);
+            Protection[] protections = mProtections;
+            int maxPacketSize = mtu - IP_UDP_HEADER_SIZE - (protections != null ? FecHeader.OVERHEAD : 0);
+            Random random = new Random();
+            int ssrc = random.nextInt();
+            this.mPacketizer = new RtpPacketizer(maxPacketSize, ssrc);
+            this.mPacketizer.setSequenceNumber(random.nextInt());
+            this.mCache = retransmitWindowUs > 0 ? new RetransmitCache(RETRANSMIT_CAPACITY,
+                    maxPacketSize, retransmitWindowUs, MIN_RESEND_INTERVAL_US) : null;
+            mRetransmitCache = mCache;
+            if (protections != null) {
+                mFec = new FecEncoder(maxPacketSize, ssrc);
+                mFec.setSequenceNumber(random.nextInt());
+                for (VideoPacket.Flag flag : VideoPacket.Flag.values()) {
+                    mFec.setProtection(flag, protections[flag.ordinal()]);
+                }
+            } else {
+                mFec = null;
+            }
+            mFecEncoder = mFec;
+        }
+
+        private void setRunning(boolean isRunning) {
+            mIsRunning.set(isRunning);
+        }
+
+        @Override
+        public void run() {
+            try {
+                mSocket = new DatagramSocket();
+                mSocket.connect(address, port);
+                if (mCache != null) {
+                    new NackReader(mSocket, mCache).start();
+                }
+                // no connection to wait for: the receiver resyncs at the next key frame
+                transfer();
+                packetsQueue.connected();
+
+                while (mIsRunning.get()) {
+                    packetsQueue.offer(mRing.take());
+                    transfer();
+                    VideoPacket videoPacket;
+                    while ((videoPacket = packetsQueue.poll()) != null) {
+                        FrameTracer.TRACER.end(FrameTracer.Span.QUEUE_WAIT, videoPacket);
+                        try {
+                            if (videoPacket.flag != VideoPacket.Flag.END) {
+                                FrameTracer.TRACER.begin(FrameTracer.Span.SOCKET_WRITE, videoPacket);
+                                if (mFec != null) {
+                                    mFec.beginFrame(videoPacket.flag);
+                                }
+                                mPacketizer.packetize(videoPacket, this);
+                                if (mFec != null) {
+                                    mFec.endFrame(mParityOutput);
+                                }
+                                FrameTracer.TRACER.end(FrameTracer.Span.SOCKET_WRITE, videoPacket);
+                                if (FrameTracer.isFrame(videoPacket.flag)) {
+                                    StreamCounters.SENDER.increment(StreamCounters.Counter.FRAMES);
+                                }
+                                PipelineLatency.SENDER.mark(PipelineLatency.Stage.SEND, videoPacket, nowUs(), true);
+                            }
+                        } finally {
+                            videoPacket.release();
+                        }
+                        transfer();
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            } finally {
+                VideoPacket videoPacket;
+                while ((videoPacket = mRing.poll()) != null) {
+                    videoPacket.release();
+                }
+
+                if (mSocket != null) {
+                    mSocket.close();
+                }
+            }
+        }
+
+        @Override
+        public void onPacket(byte[] packet, int length) throws IOException {
+            sendDatagram(packet, length);
+            if (mCache != null) {
+                mCache.add(packet, length, nowUs());
+            }
+            if (mFec != null) {
+                mFec.add(packet, length, mParityOutput);
+            }
+        }
+
+        private void sendDatagram(byte[] packet, int length) throws IOException {
+            mDatagram.setData(packet, 0, length);
+            try {
+                mSocket.send(mDatagram);
+            } catch (PortUnreachableException e) {
+                // no receiver yet, or it went away: the datagram is lost like any other
+                return;
+            }
+            mBytesSent.addAndGet(length);
+            mPacketsSent.incrementAndGet();
+            StreamCounters.SENDER.add(StreamCounters.Counter.BYTES, length);
+        }
+
+        private void transfer() {
+            VideoPacket videoPacket;
+            while ((videoPacket = mRing.poll()) != null) {
+                packetsQueue.offer(videoPacket);
+            }
+        }
+
+        // encoder thread, never blocks
+        public void send(@NonNull VideoPacket videoPacket) {
+            if (!mRing.offer(videoPacket)) {
+                packetsQueue.reject(videoPacket);
+            }
+        }
+    }
+
+    // reads NACKs and resends from the cache until the worker closes the socket
+    private class NackReader extends Thread implements RtcpNack.Listener, RtpPacketizer.Output {
+
+        private final DatagramSocket socket;
+
+        private final RetransmitCache cache;
+
+        private final byte[] buffer = new byte[RtpDepacketizer.MAX_PACKET_SIZE];
+
+        private final DatagramPacket mReceived = new DatagramPacket(buffer, buffer.length);
+
+        private final DatagramPacket mResent = new DatagramPacket(new byte[0], 0);
+
+        private long mNowUs;
+
+        NackReader(DatagramSocket socket, RetransmitCache cache) {
+            super(TAG + "-nack");
+            this.socket = socket;
+            this.cache = cache;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!socket.isClosed()) {
+                    mReceived.setLength(buffer.length);
+                    try {
+                        socket.receive(mReceived);
+                    } catch (PortUnreachableException e) {
+                        // an ICMP error for an earlier datagram, the receiver isn't up yet
+                        continue;
+                    }
+                    mNowUs = nowUs();
+                    if (RtcpNack.read(buffer, 0, mReceived.getLength(), this)) {
+                        mNacksReceived.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                // the worker closed the socket
+            }
+        }
+
+        @Override
+        public void onNack(int sequenceNumber) {
+            try {
+                cache.resend(sequenceNumber, mNowUs, this);
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            }
+        }
+
+        @Override
+        public void onPacket(byte[] packet, int length) throws IOException {
+            mResent.setData(packet, 0, length);
+            socket.send(mResent);
+            mBytesSent.addAndGet(length);
+            mPacketsSent.incrementAndGet();
+            StreamCounters.SENDER.add(StreamCounters.Counter.BYTES, length);
+        }
+    }
+
+    private static long nowUs() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+}
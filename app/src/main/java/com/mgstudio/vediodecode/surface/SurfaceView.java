@@ -9,6 +9,8 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+
 import java.util.concurrent.Semaphore;
 
 /**
@@ -138,6 +140,10 @@ public class SurfaceView extends android.view.SurfaceView implements Runnable,
                             //Log.d(TAG,"FPS: "+(1000000000/(ts-oldts)));
                             mCodecSurfaceManager.setPresentationTime(ts);
                             mCodecSurfaceManager.swapBuffer();
+                            // the encoder stamps the frame with ts in microseconds
+                            PipelineLatency.SENDER.start(ts / 1000, ts / 1000);
+                            PipelineLatency.SENDER.mark(PipelineLatency.Stage.RENDER, ts / 1000,
+                                    PipelineLatency.nowUs(), false);
                         }
 
                     } else {
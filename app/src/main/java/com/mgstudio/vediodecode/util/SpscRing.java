@@ -0,0 +1,128 @@
+package com.mgstudio.vediodecode.util;
+//单生产者单消费者环形队列
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// bounded lock-free queue for exactly one producer thread and one consumer thread.
+// offer and poll never block or take a lock; take waits with the ring's WaitStrategy.
+// The consumer keeps a cached copy of the producer's index and only re-reads it when the cache
+// says the ring is empty, so a backlog is drained without touching the producer's cache line.
+public class SpscRing<E> {
+
+    private final Object[] elements;
+
+    private final int mask;
+
+    private final WaitStrategy waitStrategy;
+
+    private final boolean signal;
+
+    // next slot to poll, written by the consumer
+    private final AtomicLong mHead = new AtomicLong();
+
+    // next slot to offer, written by the producer
+    private final AtomicLong mTail = new AtomicLong();
+
+    // producer side
+    private volatile int mHighWaterMark;
+
+    // consumer side
+    private long mTailCache;
+
+    // capacity is rounded up to a power of two
+    public SpscRing(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.signal = waitStrategy.needsSignal();
+    }
+
+    // producer: false when full
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long tail = mTail.get();
+        // read every time, it also gives the depth for the high-water mark
+        long head = mHead.get();
+        if (tail - head == elements.length) {
+            return false;
+        }
+        elements[(int) (tail & mask)] = element;
+        if (signal) {
+            // full store so the consumer's wait flag is read after it
+            mTail.set(tail + 1);
+            waitStrategy.signal();
+        } else {
+            // ordered store: the element is visible before the new tail
+            mTail.lazySet(tail + 1);
+        }
+
+        int depth = (int) (tail + 1 - head);
+        if (depth > mHighWaterMark) {
+            mHighWaterMark = depth;
+        }
+        return true;
+    }
+
+    // consumer: null when empty
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = mHead.get();
+        if (head == mTailCache) {
+            mTailCache = mTail.get();
+            if (head == mTailCache) {
+                return null;
+            }
+        }
+        int index = (int) (head & mask);
+        E element = (E) elements[index];
+        elements[index] = null;
+        mHead.lazySet(head + 1);
+        return element;
+    }
+
+    // consumer: waits with the wait strategy until an element arrives
+    public E take() throws InterruptedException {
+        int idle = 0;
+        for (; ; ) {
+            E element = poll();
+            if (element != null) {
+                return element;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(this, idle++);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    // elements queued, exact only when both sides are quiet
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    // deepest the ring has been since creation or the last reset
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    public void resetHighWaterMark() {
+        mHighWaterMark = size();
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+}
@@ -0,0 +1,137 @@
+package com.mgstudio.vediodecode.util;
+//等待策略
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// how an SpscRing consumer waits for the producer: trade wake-up latency for CPU.
+// A strategy belongs to one ring. Consumers that wait elsewhere (a Selector) use external
+// to be woken there.
+public abstract class WaitStrategy {
+
+    // for owners that create a ring, and so a strategy, per connection
+    public enum Kind {
+        BUSY_SPIN, PARK, BLOCK;
+
+        public WaitStrategy create() {
+            switch (this) {
+                case BUSY_SPIN:
+                    return busySpin();
+                case PARK:
+                    return park();
+                default:
+                    return block();
+            }
+        }
+    }
+
+    // called by the consumer while the ring is empty, idle counts the calls since it last took something
+    protected abstract void idle(SpscRing<?> ring, int idle) throws InterruptedException;
+
+    // called by the producer after publishing
+    protected void signal() {
+    }
+
+    // whether signal relies on the publish being a full volatile store
+    protected boolean needsSignal() {
+        return false;
+    }
+
+    // lowest latency, burns a core while idle
+    public static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            @Override
+            protected void idle(SpscRing<?> ring, int idle) {
+            }
+        };
+    }
+
+    // spins, yields, then sleeps in parkNanos steps: no signalling cost for the producer,
+    // wakes within about parkNanos once idle
+    public static WaitStrategy park(final long parkNanos) {
+        return new WaitStrategy() {
+            @Override
+            protected void idle(SpscRing<?> ring, int idle) {
+                if (idle < 100) {
+                    return;
+                }
+                if (idle < 200) {
+                    Thread.yield();
+                    return;
+                }
+                LockSupport.parkNanos(this, parkNanos);
+            }
+        };
+    }
+
+    public static WaitStrategy park() {
+        return park(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    // for a consumer that waits somewhere else, a Selector say, and polls the ring once woken: the producer
+    // runs wake after each publish. take still works, spinning with yields, but isn't what this is for
+    public static WaitStrategy external(final Runnable wake) {
+        return new WaitStrategy() {
+            @Override
+            protected void idle(SpscRing<?> ring, int idle) {
+                Thread.yield();
+            }
+
+            @Override
+            protected void signal() {
+                wake.run();
+            }
+
+            @Override
+            protected boolean needsSignal() {
+                return true;
+            }
+        };
+    }
+
+    // sleeps on a condition while idle; the producer takes the lock only when the consumer sleeps
+    public static WaitStrategy block() {
+        return new Blocking();
+    }
+
+    private static final class Blocking extends WaitStrategy {
+
+        private final ReentrantLock mLock = new ReentrantLock();
+        private final Condition mNotEmpty = mLock.newCondition();
+        private volatile boolean mIsWaiting;
+
+        @Override
+        protected void idle(SpscRing<?> ring, int idle) throws InterruptedException {
+            mLock.lock();
+            try {
+                mIsWaiting = true;
+                // checked after announcing the wait: a producer that missed the flag published first
+                while (ring.isEmpty()) {
+                    mNotEmpty.await();
+                }
+            } finally {
+                mIsWaiting = false;
+                mLock.unlock();
+            }
+        }
+
+        @Override
+        protected void signal() {
+            if (mIsWaiting) {
+                mLock.lock();
+                try {
+                    mNotEmpty.signal();
+                } finally {
+                    mLock.unlock();
+                }
+            }
+        }
+
+        @Override
+        protected boolean needsSignal() {
+            return true;
+        }
+    }
+}
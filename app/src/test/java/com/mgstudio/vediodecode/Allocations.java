@@ -0,0 +1,44 @@
+package com.mgstudio.vediodecode;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap allocation counter for the current thread, used by the zero-allocation tests.
+ * Runs on the development machine (HotSpot) only.
+ */
+public class Allocations {
+
+    private static final com.sun.management.ThreadMXBean BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Allocations() {
+    }
+
+    public static long allocatedBytes() {
+        return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs the task warmUp times so JIT and pools settle, then returns the bytes allocated
+     * by the next iterations runs. The lowest of a few rounds is returned: a deoptimization
+     * inside the window rematerializes scalar-replaced objects, which is not the code under test.
+     */
+    public static long measure(Runnable task, int warmUp, int iterations) {
+        for (int i = 0; i < warmUp; i++) {
+            task.run();
+        }
+        // what reading the counter costs by itself
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < 3 && least > 0; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < iterations; i++) {
+                task.run();
+            }
+            least = Math.min(least, allocatedBytes() - before - overhead);
+        }
+        return least;
+    }
+}
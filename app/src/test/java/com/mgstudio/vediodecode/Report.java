@@ -0,0 +1,21 @@
+package com.mgstudio.vediodecode;
+
+import java.util.Locale;
+
+/**
+ * Prints what the load tests measure when run with -Dvediodecode.report=true.
+ * By default they only assert on it.
+ */
+public class Report {
+
+    public static final boolean ENABLED = Boolean.getBoolean("vediodecode.report");
+
+    private Report() {
+    }
+
+    public static void print(String format, Object... args) {
+        if (ENABLED) {
+            System.out.println(String.format(Locale.US, format, args));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.mgstudio.vediodecode.clock;
+
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+
+    // true time is the receiver's clock; the sender's runs from skewUs at 1 + drift
+    private static class Link {
+
+        final long skewUs;
+        final double drift;
+        final long forwardUs;
+        final long backUs;
+
+        final Random random = new Random(42);
+
+        // per exchange: jitter either way up to this, and a queued one now and then
+        long jitterUs;
+        double queuedFraction;
+        long queuedUs;
+
+        Link(long skewUs, double drift, long forwardUs, long backUs) {
+            this.skewUs = skewUs;
+            this.drift = drift;
+            this.forwardUs = forwardUs;
+            this.backUs = backUs;
+        }
+
+        long senderTime(long timeUs) {
+            return skewUs + timeUs + Math.round(timeUs * drift);
+        }
+
+        long delay(long baseUs) {
+            long delay = baseUs + (jitterUs > 0 ? (long) (random.nextDouble() * jitterUs) : 0);
+            if (random.nextDouble() < queuedFraction) {
+                delay += queuedUs;
+            }
+            return delay;
+        }
+
+        // a ping at timeUs answered within a frame time
+        void exchange(ClockSync clockSync, long timeUs) {
+            long t1 = timeUs;
+            long arrivedUs = t1 + delay(forwardUs);
+            long answeredUs = arrivedUs + random.nextInt(33000);
+            long t4 = answeredUs + delay(backUs);
+            clockSync.addSample(t1, senderTime(arrivedUs), senderTime(answeredUs), t4);
+        }
+
+        // exchanges once a second for the given time, returns the time after the last
+        long run(ClockSync clockSync, long seconds) {
+            long timeUs = 1000000;
+            for (int i = 0; i < seconds; i++) {
+                exchange(clockSync, timeUs);
+                timeUs += 1000000;
+            }
+            return timeUs;
+        }
+
+        long error(ClockSync clockSync, long timeUs) {
+            return clockSync.toSenderTimeUs(timeUs) - senderTime(timeUs);
+        }
+    }
+
+    @Test
+    public void constantSkew_isFoundFromOneExchange() {
+        Link link = new Link(123456789000L, 0, 5000, 5000);
+        ClockSync clockSync = new ClockSync();
+        assertFalse(clockSync.isSynchronized());
+        assertEquals(-1, clockSync.getRttUs());
+
+        link.exchange(clockSync, 1000000);
+
+        assertTrue(clockSync.isSynchronized());
+        assertEquals(10000, clockSync.getRttUs());
+        assertEquals(0, link.error(clockSync, 2000000), 1);
+    }
+
+    @Test
+    public void drift_isFollowed() {
+        // 80 ppm is a millisecond every 12.5 s
+        Link link = new Link(-5000000000L, 80e-6, 3000, 3000);
+        link.jitterUs = 1000;
+        ClockSync clockSync = new ClockSync();
+
+        long nowUs = link.run(clockSync, 120);
+
+        assertEquals(80, clockSync.getDriftPpm(), 10);
+        assertEquals(0, link.error(clockSync, nowUs), 300);
+        // and a while after the last exchange
+        assertEquals(0, link.error(clockSync, nowUs + 10000000), 400);
+    }
+
+    @Test
+    public void queuedExchanges_areFilteredOut() {
+        Link link = new Link(777000000L, 20e-6, 2000, 2000);
+        link.jitterUs = 500;
+        // a third wait 40 ms behind video frames one way
+        link.queuedFraction = 0.3;
+        link.queuedUs = 40000;
+        ClockSync clockSync = new ClockSync();
+
+        long nowUs = link.run(clockSync, 90);
+
+        // unfiltered, they'd pull the offset by ~6 ms
+        assertEquals(0, link.error(clockSync, nowUs), 500);
+        assertTrue(clockSync.getRttUs() < 6000);
+    }
+
+    @Test
+    public void asymmetricDelay_shiftsByHalfTheDifference() {
+        // 2 ms there, 12 ms back: indistinguishable from 7 ms each way and a clock 5 ms behind
+        Link link = new Link(1000000L, 0, 2000, 12000);
+        link.jitterUs = 300;
+        ClockSync clockSync = new ClockSync();
+
+        long nowUs = link.run(clockSync, 30);
+
+        assertEquals(-5000, link.error(clockSync, nowUs), 300);
+        assertEquals(14000, clockSync.getRttUs(), 300);
+    }
+
+    @Test
+    public void impossibleExchanges_areRejected() {
+        ClockSync clockSync = new ClockSync();
+
+        // answered before it was received, and back before it left
+        assertFalse(clockSync.addSample(1000, 5000, 4000, 2000));
+        assertFalse(clockSync.addSample(1000, 5000, 6000, 500));
+        // round trip shorter than the time the sender held it
+        assertFalse(clockSync.addSample(1000, 5000, 9000, 3000));
+
+        assertEquals(3, clockSync.getRejected());
+        assertEquals(0, clockSync.getSamples());
+        assertFalse(clockSync.isSynchronized());
+    }
+
+    @Test
+    public void reset_forgetsTheOldSender() {
+        ClockSync clockSync = new ClockSync();
+        new Link(50000000L, 0, 1000, 1000).run(clockSync, 10);
+
+        clockSync.reset();
+        assertFalse(clockSync.isSynchronized());
+
+        Link other = new Link(-90000000L, 0, 1000, 1000);
+        long nowUs = other.run(clockSync, 1);
+        assertEquals(0, other.error(clockSync, nowUs), 1);
+    }
+
+    @Test
+    public void receiverAndSenderTimes_mapBothWays() {
+        Link link = new Link(42000000L, 100e-6, 1500, 1500);
+        ClockSync clockSync = new ClockSync();
+        long nowUs = link.run(clockSync, 60);
+
+        long senderUs = clockSync.toSenderTimeUs(nowUs);
+        assertEquals(nowUs, clockSync.toReceiverTimeUs(senderUs), 1);
+    }
+
+    @Test
+    public void pong_isReadFromTheWire() {
+        VideoPacket pong = ClockSync.pong(1000000, 9001000, 9021000);
+        ByteBuffer wire = ByteBuffer.wrap(pong.toByteArray());
+        VideoPacket decoded = new VideoPacket();
+        assertTrue(PacketCodec.decodeFrame(wire, decoded));
+        assertEquals(VideoPacket.Flag.CLOCK, decoded.flag);
+
+        ClockSync clockSync = new ClockSync();
+        assertTrue(clockSync.addPong(decoded, 1030000));
+
+        // 30 ms there and back, 20 of them at the sender
+        assertEquals(10000, clockSync.getRttUs());
+        assertEquals(7996000, clockSync.getOffsetUs(1015000));
+        // straight from a packet that owns its payload too
+        assertTrue(new ClockSync().addPong(pong, 1030000));
+    }
+}
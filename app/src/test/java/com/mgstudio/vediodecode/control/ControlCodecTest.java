@@ -0,0 +1,142 @@
+package com.mgstudio.vediodecode.control;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ControlCodecTest {
+
+    private static ControlMessage roundTrip(ControlMessage message) {
+        byte[] data = new byte[ControlCodec.MAX_ENCODED_SIZE];
+        int size = ControlCodec.encode(message, data, 0);
+        assertEquals(size, ControlCodec.peekSize(data, 0, size));
+        ControlMessage decoded = new ControlMessage();
+        ControlCodec.decode(data, 0, size, decoded);
+        return decoded;
+    }
+
+    @Test
+    public void everyType_roundTrips() {
+        assertEquals(ControlMessage.Type.KEY_FRAME_REQUEST, roundTrip(ControlMessage.keyFrameRequest()).type);
+        assertEquals(ControlMessage.Type.PAUSE, roundTrip(ControlMessage.pause()).type);
+        assertEquals(ControlMessage.Type.RESUME, roundTrip(ControlMessage.resume()).type);
+
+        ControlMessage hint = roundTrip(ControlMessage.bitrateHint(2500000));
+        assertEquals(ControlMessage.Type.BITRATE_HINT, hint.type);
+        assertEquals(2500000, hint.bitrate);
+
+        ControlMessage stats = roundTrip(ControlMessage.receiverStats(9000, 12, 1L << 40, 66000));
+        assertEquals(ControlMessage.Type.RECEIVER_STATS, stats.type);
+        assertEquals(9000, stats.framesReceived);
+        assertEquals(12, stats.framesDropped);
+        assertEquals(1L << 40, stats.bytesReceived);
+        assertEquals(66000, stats.delayUs);
+
+        ControlMessage ping = roundTrip(ControlMessage.ping(123456789012L, 14000));
+        assertEquals(ControlMessage.Type.PING, ping.type);
+        assertEquals(123456789012L, ping.timeUs);
+        assertEquals(14000, ping.rttUs);
+        assertEquals(-1, roundTrip(ControlMessage.ping(5)).rttUs);
+    }
+
+    @Test
+    public void pingWithoutRtt_decodesAsUnknown() {
+        // from a receiver that sends the clock only
+        byte[] data = {0, 2, 6, 100};
+        ControlMessage ping = new ControlMessage();
+        ping.rttUs = 999;
+        ControlCodec.decode(data, 0, ControlCodec.peekSize(data, 0, data.length), ping);
+
+        assertEquals(100, ping.timeUs);
+        assertEquals(-1, ping.rttUs);
+    }
+
+    @Test
+    public void encoding_isLengthTypeBody() {
+        byte[] data = new byte[16];
+
+        assertEquals(7, ControlCodec.encode(ControlMessage.bitrateHint(0x01020304), data, 1));
+        assertArrayEquals(new byte[]{0, 0, 5, 2, 1, 2, 3, 4, 0}, Arrays.copyOf(data, 9));
+
+        assertEquals(3, ControlCodec.encode(ControlMessage.keyFrameRequest(), data, 0));
+        assertArrayEquals(new byte[]{0, 1, 1}, Arrays.copyOf(data, 3));
+    }
+
+    @Test
+    public void largestStats_fitTheEncodedMaximum() {
+        byte[] data = new byte[ControlCodec.MAX_ENCODED_SIZE];
+        ControlMessage message = ControlMessage.receiverStats(-1, -1, Long.MIN_VALUE, -1);
+
+        assertEquals(ControlCodec.MAX_ENCODED_SIZE, ControlCodec.encode(message, data, 0));
+        ControlMessage decoded = new ControlMessage();
+        ControlCodec.decode(data, 0, data.length, decoded);
+        // negative values take ten bytes each
+        assertEquals(-1, decoded.framesDropped);
+        assertEquals(Long.MIN_VALUE, decoded.bytesReceived);
+    }
+
+    @Test
+    public void incomplete_peeksZero() {
+        byte[] data = new byte[16];
+        int size = ControlCodec.encode(ControlMessage.bitrateHint(1), data, 0);
+
+        for (int length = 0; length < size; length++) {
+            assertEquals(0, ControlCodec.peekSize(data, 0, length));
+        }
+        assertEquals(size, ControlCodec.peekSize(data, 0, data.length));
+    }
+
+    @Test
+    public void unknownType_decodesAsNull() {
+        byte[] data = {0, 4, 99, 1, 2, 3};
+        ControlMessage message = ControlMessage.pause();
+
+        assertEquals(6, ControlCodec.peekSize(data, 0, data.length));
+        ControlCodec.decode(data, 0, 6, message);
+        assertNull(message.type);
+    }
+
+    @Test
+    public void fieldsAddedLater_areSkipped() {
+        // a newer sender's hint with a field after the bitrate
+        byte[] data = {0, 7, 2, 0, 0, 1, 0, 9, 9};
+        ControlMessage message = new ControlMessage();
+
+        ControlCodec.decode(data, 0, ControlCodec.peekSize(data, 0, data.length), message);
+
+        assertEquals(ControlMessage.Type.BITRATE_HINT, message.type);
+        assertEquals(256, message.bitrate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedHint_throws() {
+        byte[] data = {0, 3, 2, 0, 0};
+        ControlCodec.decode(data, 0, 5, new ControlMessage());
+    }
+
+    @Test
+    public void truncatedStats_throw() {
+        byte[] data = new byte[ControlCodec.MAX_ENCODED_SIZE];
+        int size = ControlCodec.encode(ControlMessage.receiverStats(1000, 1000, 1000, 1000), data, 0);
+        // cut inside the last varint, length field adjusted
+        data[1] = (byte) (size - 3);
+        try {
+            ControlCodec.decode(data, 0, size - 1, new ControlMessage());
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void corruptedLength_throws() {
+        for (byte[] data : new byte[][]{{0, 0, 1}, {1, 0, 1}, {(byte) 0xFF, (byte) 0xFF}}) {
+            try {
+                ControlCodec.peekSize(data, 0, data.length);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.mgstudio.vediodecode.control;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ControlReaderTest {
+
+    private static class Collector implements ControlReader.Listener {
+
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void onControlMessage(ControlMessage message) {
+            messages.add(message.toString());
+        }
+    }
+
+    private static final ControlMessage[] MESSAGES = {
+            ControlMessage.keyFrameRequest(),
+            ControlMessage.bitrateHint(800000),
+            ControlMessage.receiverStats(300, 2, 1234567, 80000),
+            ControlMessage.pause(),
+            ControlMessage.resume(),
+    };
+
+    private static byte[] stream(int repeat) {
+        byte[] data = new byte[repeat * MESSAGES.length * ControlCodec.MAX_ENCODED_SIZE];
+        int length = 0;
+        for (int i = 0; i < repeat; i++) {
+            for (ControlMessage message : MESSAGES) {
+                length += ControlCodec.encode(message, data, length);
+            }
+        }
+        return Arrays.copyOf(data, length);
+    }
+
+    private static List<String> expected(int repeat) {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < repeat; i++) {
+            for (ControlMessage message : MESSAGES) {
+                expected.add(message.toString());
+            }
+        }
+        return expected;
+    }
+
+    @Test
+    public void wholeStream_inOneFeed() {
+        Collector collector = new Collector();
+        ControlReader reader = new ControlReader(collector);
+
+        reader.feed(stream(3), 0, stream(3).length);
+
+        assertEquals(expected(3), collector.messages);
+        assertEquals(15, reader.getMessages());
+    }
+
+    @Test
+    public void byteAtATime() {
+        Collector collector = new Collector();
+        ControlReader reader = new ControlReader(collector);
+        byte[] data = stream(2);
+
+        for (int i = 0; i < data.length; i++) {
+            reader.feed(data, i, 1);
+        }
+
+        assertEquals(expected(2), collector.messages);
+    }
+
+    @Test
+    public void randomSplits() {
+        Random random = new Random(3);
+        byte[] data = stream(20);
+        for (int trial = 0; trial < 50; trial++) {
+            Collector collector = new Collector();
+            ControlReader reader = new ControlReader(collector);
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(1 + random.nextInt(40), data.length - offset);
+                reader.feed(data, offset, length);
+                offset += length;
+            }
+            assertEquals(expected(20), collector.messages);
+        }
+    }
+
+    @Test
+    public void unknownTypes_areSkipped() {
+        Collector collector = new Collector();
+        ControlReader reader = new ControlReader(collector);
+        byte[] data = {0, 3, 77, 1, 2, 0, 1, 4};
+
+        reader.feed(data, 0, data.length);
+
+        assertEquals(1, collector.messages.size());
+        assertEquals("PAUSE", collector.messages.get(0));
+        assertEquals(1, reader.getUnknown());
+        assertEquals(2, reader.getMessages());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void corruptedLength_throws() {
+        ControlReader reader = new ControlReader(new Collector());
+        reader.feed(new byte[]{0, 1, 4, 0}, 0, 3);
+        // a partial length field completed into a bad one
+        reader.feed(new byte[]{0x7F}, 0, 1);
+        reader.feed(new byte[]{0x7F}, 0, 1);
+    }
+
+    @Test
+    public void dispatcher_routesByType() {
+        final List<String> handled = new ArrayList<>();
+        ControlDispatcher dispatcher = new ControlDispatcher();
+        dispatcher.setHandler(ControlMessage.Type.BITRATE_HINT, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                handled.add("hint " + message.bitrate);
+            }
+        });
+        dispatcher.setHandler(ControlMessage.Type.PAUSE, new ControlDispatcher.Handler() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                handled.add("pause");
+            }
+        });
+        ControlReader reader = new ControlReader(dispatcher);
+        byte[] data = stream(1);
+
+        reader.feed(data, 0, data.length);
+        dispatcher.setHandler(ControlMessage.Type.PAUSE, null);
+        reader.feed(data, 0, data.length);
+
+        // no handler for the rest
+        List<String> expected = new ArrayList<>();
+        expected.add("hint 800000");
+        expected.add("pause");
+        expected.add("hint 800000");
+        assertEquals(expected, handled);
+    }
+
+    @Test
+    public void reading_allocatesNothing() {
+        final byte[] data = stream(4);
+        final long[] count = new long[1];
+        final ControlReader reader = new ControlReader(new ControlReader.Listener() {
+            @Override
+            public void onControlMessage(ControlMessage message) {
+                count[0] += message.type.getCode();
+            }
+        });
+
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                // split mid-message, through the pending buffer
+                reader.feed(data, 0, 7);
+                reader.feed(data, 7, data.length - 7);
+            }
+        }, 2000, 1000);
+
+        assertEquals(0, allocated);
+        assertEquals(0, reader.getUnknown());
+    }
+}
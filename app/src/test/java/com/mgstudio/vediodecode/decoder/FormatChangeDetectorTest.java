@@ -0,0 +1,101 @@
+package com.mgstudio.vediodecode.decoder;
+
+import com.mgstudio.vediodecode.decoder.FormatChangeDetector.Action;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FormatChangeDetectorTest {
+
+    private static ByteBuffer bytes(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length);
+        for (int value : values) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final int[] SPS_640 = {0, 0, 0, 1, 0x67, 0x42, 0x1E, 1};
+
+    private static final int[] SPS_1280 = {0, 0, 0, 1, 0x67, 0x42, 0x1F, 2};
+
+    private static final int[] SPS_3840 = {0, 0, 0, 1, 0x67, 0x64, 0x33, 3};
+
+    private static final int[] PPS = {0, 0, 0, 1, 0x68, 0x10};
+
+    @Test
+    public void repeatedParameterSets_needNothing() {
+        FormatChangeDetector detector = new FormatChangeDetector();
+        assertEquals(Action.CONFIGURE, detector.onConfig(640, 480, bytes(SPS_640), bytes(PPS)));
+        detector.configured(false, 0, 0);
+
+        // the sender repeats them before every key frame, as new buffers each time
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Action.NONE, detector.onConfig(640, 480, bytes(SPS_640), bytes(PPS)));
+        }
+        // compared from the buffer position on
+        ByteBuffer offset = ByteBuffer.allocate(SPS_640.length + 2);
+        offset.position(2);
+        offset.put(bytes(SPS_640));
+        offset.position(2);
+        assertEquals(Action.NONE, detector.onConfig(640, 480, offset, bytes(PPS)));
+    }
+
+    @Test
+    public void sameSize_submitsNewParameterSetsInBand() {
+        FormatChangeDetector detector = new FormatChangeDetector();
+        detector.onConfig(640, 480, bytes(SPS_640), bytes(PPS));
+        detector.configured(false, 0, 0);
+
+        assertEquals(Action.SUBMIT, detector.onConfig(640, 480, bytes(SPS_640), bytes(0, 0, 0, 1, 0x68, 0x20)));
+        assertEquals(Action.NONE, detector.onConfig(640, 480, bytes(SPS_640), bytes(0, 0, 0, 1, 0x68, 0x20)));
+    }
+
+    @Test
+    public void resize_adaptiveWithinMaxSubmits_otherwiseReconfigures() {
+        FormatChangeDetector detector = new FormatChangeDetector();
+        detector.onConfig(640, 480, bytes(SPS_640), bytes(PPS));
+        assertEquals(1920, detector.maxWidth());
+        assertEquals(1088, detector.maxHeight());
+        detector.configured(true, detector.maxWidth(), detector.maxHeight());
+
+        // adaptive playback takes any size up to what was reserved
+        assertEquals(Action.SUBMIT, detector.onConfig(1280, 720, bytes(SPS_1280), bytes(PPS)));
+        assertEquals(1280, detector.width());
+
+        // beyond it the codec is configured again, reserving the new size
+        assertEquals(Action.RECONFIGURE, detector.onConfig(3840, 2160, bytes(SPS_3840), bytes(PPS)));
+        assertEquals(3840, detector.maxWidth());
+        assertEquals(2160, detector.maxHeight());
+        detector.configured(true, detector.maxWidth(), detector.maxHeight());
+        assertEquals(Action.SUBMIT, detector.onConfig(640, 480, bytes(SPS_640), bytes(PPS)));
+
+        // without adaptive playback every size change needs a reconfiguration
+        detector.configured(false, 0, 0);
+        assertEquals(Action.RECONFIGURE, detector.onConfig(1280, 720, bytes(SPS_1280), bytes(PPS)));
+    }
+
+    @Test
+    public void switchLatency_endsAtFirstFrameOfNewStream() {
+        FormatChangeDetector detector = new FormatChangeDetector();
+        assertEquals(-1, detector.outputAvailable(0, 0));
+
+        detector.sampleQueued(100);
+        detector.switchStarted(1000);
+        detector.sampleQueued(200);
+        detector.sampleQueued(233);
+        // old frames still in the codec
+        assertEquals(-1, detector.outputAvailable(5000, 66));
+        assertEquals(-1, detector.outputAvailable(6000, 100));
+        assertEquals(-1, detector.getLastSwitchLatencyUs());
+
+        assertEquals(29000, detector.outputAvailable(30000, 200));
+        assertEquals(-1, detector.outputAvailable(40000, 233));
+        assertEquals(29000, detector.getLastSwitchLatencyUs());
+        assertEquals(1, detector.getSwitches());
+    }
+}
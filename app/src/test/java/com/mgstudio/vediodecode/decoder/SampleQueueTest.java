@@ -0,0 +1,197 @@
+package com.mgstudio.vediodecode.decoder;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SampleQueueTest {
+
+    // records what a codec would have been fed
+    private static class RecordingSink implements SampleQueue.Sink {
+        final List<int[]> queued = new ArrayList<>();
+
+        @Override
+        public synchronized void queueInput(int index, ByteBuffer data, long presentationTimeUs, int flags) {
+            queued.add(new int[]{index, data.remaining(), data.get(0), (int) presentationTimeUs, flags});
+        }
+    }
+
+    @Test
+    public void samplesWaitForInputBuffers() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        SampleQueue queue = new SampleQueue(4, sink);
+
+        queue.put(new byte[]{1, 2, 3}, 0, 3, 100, 1);
+        queue.put(new byte[]{9, 4, 5}, 1, 2, 200, 0);
+        assertEquals(2, queue.size());
+        assertTrue(sink.queued.isEmpty());
+
+        queue.inputAvailable(7);
+        queue.inputAvailable(3);
+        assertEquals(0, queue.size());
+        assertArrayEquals(new int[]{7, 3, 1, 100, 1}, sink.queued.get(0));
+        assertArrayEquals(new int[]{3, 2, 4, 200, 0}, sink.queued.get(1));
+    }
+
+    @Test
+    public void inputBuffersWaitForSamples() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        SampleQueue queue = new SampleQueue(4, sink);
+
+        queue.inputAvailable(5);
+        queue.inputAvailable(6);
+        assertEquals(2, queue.freeInputs());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put(8, (byte) 42);
+        queue.put(direct, 8, 4, 300, 0);
+        assertEquals(1, queue.freeInputs());
+        assertArrayEquals(new int[]{5, 4, 42, 300, 0}, sink.queued.get(0));
+    }
+
+    @Test
+    public void fullQueue_blocksProducerUntilInputFrees() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        final SampleQueue queue = new SampleQueue(2, sink);
+        queue.put(new byte[]{0}, 0, 1, 0, 0);
+        queue.put(new byte[]{1}, 0, 1, 1, 0);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(new byte[]{2}, 0, 1, 2, 0);
+                    done.countDown();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        producer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        queue.inputAvailable(0);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void close_releasesBlockedProducer() throws Exception {
+        final SampleQueue queue = new SampleQueue(1, new RecordingSink());
+        queue.put(new byte[]{0}, 0, 1, 0, 0);
+
+        final AtomicBoolean result = new AtomicBoolean(true);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(queue.put(new byte[]{1}, 0, 1, 1, 0));
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        queue.close();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertFalse(result.get());
+    }
+
+    @Test
+    public void reset_dropsSamplesAndStaleInputs() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        SampleQueue queue = new SampleQueue(4, sink);
+        queue.put(new byte[]{1}, 0, 1, 100, 0);
+        queue.put(new byte[]{2}, 0, 1, 200, 0);
+        queue.reset();
+        assertEquals(0, queue.size());
+
+        // input buffers of the stopped codec are forgotten too
+        queue.inputAvailable(3);
+        queue.inputAvailable(4);
+        queue.reset();
+        assertEquals(0, queue.freeInputs());
+
+        queue.put(new byte[]{5}, 0, 1, 300, 0);
+        queue.inputAvailable(0);
+        assertEquals(1, sink.queued.size());
+        assertArrayEquals(new int[]{0, 1, 5, 300, 0}, sink.queued.get(0));
+    }
+
+    @Test
+    public void concurrentFeed_losesNothingAndKeepsOrder() throws Exception {
+        final int count = 200000;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean ordered = new AtomicBoolean(true);
+        final SampleQueue queue = new SampleQueue(8, new SampleQueue.Sink() {
+            @Override
+            public void queueInput(int index, ByteBuffer data, long presentationTimeUs, int flags) {
+                // calls are serialized, from either thread
+                int expected = next.get();
+                if (presentationTimeUs != expected || data.getInt(0) != expected) {
+                    ordered.set(false);
+                }
+                next.lazySet(expected + 1);
+            }
+        });
+
+        Thread codec = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // keeps up to four input buffers free, like a codec returning consumed buffers
+                int index = 0;
+                while (next.get() < count) {
+                    if (queue.freeInputs() < 4) {
+                        queue.inputAvailable(index++ & 3);
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        codec.start();
+
+        byte[] sample = new byte[64];
+        for (int i = 0; i < count; i++) {
+            ByteBuffer.wrap(sample).putInt(0, i);
+            assertTrue(queue.put(sample, 0, sample.length, i, 0));
+        }
+        codec.join(10000);
+        assertFalse(codec.isAlive());
+        assertEquals(count, next.get());
+        assertTrue(ordered.get());
+    }
+
+    @Test
+    public void steadyState_doesNotAllocate() throws InterruptedException {
+        final SampleQueue queue = new SampleQueue(4, new SampleQueue.Sink() {
+            @Override
+            public void queueInput(int index, ByteBuffer data, long presentationTimeUs, int flags) {
+            }
+        });
+        final byte[] sample = new byte[9 * 1024];
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(sample, 0, sample.length, 0, 0);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                queue.inputAvailable(0);
+            }
+        }, 20000, 10000);
+        assertEquals(0, bytes);
+    }
+}
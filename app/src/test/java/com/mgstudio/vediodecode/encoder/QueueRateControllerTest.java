@@ -0,0 +1,128 @@
+package com.mgstudio.vediodecode.encoder;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+public class QueueRateControllerTest {
+
+    private static final int FPS = 30;
+
+    // encoder + send queue + link, stepped one frame at a time
+    private static class SimulatedLink {
+
+        private final RateController controller;
+        private final ArrayDeque<int[]> queue = new ArrayDeque<>();
+        private final LinkStats stats = new LinkStats();
+
+        int bitrate;
+        long timeMs;
+        long sentBytes;
+        int maxQueueDepth;
+        private int frame;
+        private long sentAtLastUpdate;
+
+        SimulatedLink(RateController controller) {
+            this.controller = controller;
+            this.bitrate = controller.getInitialBitrate();
+        }
+
+        // run for the given time over a link of the given capacity
+        void run(int seconds, int capacityBitsPerSecond) {
+            for (int i = 0; i < seconds * FPS; i++) {
+                // encoder output, key frames every two seconds are four times larger
+                int size = bitrate / 8 / FPS;
+                queue.add(new int[]{frame % (2 * FPS) == 0 ? size * 4 : size});
+                frame++;
+
+                // link drains what it can during one frame interval
+                int budget = capacityBitsPerSecond / 8 / FPS;
+                while (budget > 0 && !queue.isEmpty()) {
+                    int[] head = queue.peek();
+                    int chunk = Math.min(head[0], budget);
+                    head[0] -= chunk;
+                    budget -= chunk;
+                    sentBytes += chunk;
+                    if (head[0] == 0) {
+                        queue.poll();
+                    }
+                }
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+
+                timeMs += 1000 / FPS;
+                if (frame % (FPS / 2) == 0) {
+                    stats.timeMs = timeMs;
+                    stats.queueDepth = queue.size();
+                    stats.sendBytesPerSecond = (sentBytes - sentAtLastUpdate) * 2;
+                    sentAtLastUpdate = sentBytes;
+                    bitrate = controller.update(stats);
+                }
+            }
+        }
+
+        int queueDepth() {
+            return queue.size();
+        }
+    }
+
+    @Test
+    public void followsLinkCapacityDownAndUp() {
+        QueueRateController.Config config = new QueueRateController.Config();
+        SimulatedLink link = new SimulatedLink(new QueueRateController(config));
+
+        // plenty of capacity: stays at the top
+        link.run(20, 5000 * 1000);
+        assertEquals(config.maxBitrate, link.bitrate);
+
+        // wi-fi degrades to 1 Mbps
+        link.run(10, 1000 * 1000);
+        link.maxQueueDepth = 0;
+        link.run(20, 1000 * 1000);
+        assertTrue("bitrate " + link.bitrate, link.bitrate <= 1000 * 1000);
+        assertTrue("bitrate " + link.bitrate, link.bitrate >= config.minBitrate);
+        // latency stays bounded: never more than about a second of video queued
+        assertTrue("queue " + link.maxQueueDepth, link.maxQueueDepth <= FPS);
+
+        // link recovers
+        link.run(30, 4000 * 1000);
+        assertEquals(config.maxBitrate, link.bitrate);
+        assertTrue(link.queueDepth() <= config.queueHighWater);
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        QueueRateController.Config config = new QueueRateController.Config();
+        config.minBitrate = 500 * 1000;
+        config.maxBitrate = 2000 * 1000;
+        config.initialBitrate = 8000 * 1000;
+        QueueRateController controller = new QueueRateController(config);
+        assertEquals(2000 * 1000, controller.getInitialBitrate());
+
+        SimulatedLink link = new SimulatedLink(controller);
+        // far below the minimum: controller bottoms out but doesn't go under it
+        link.run(30, 100 * 1000);
+        assertEquals(500 * 1000, link.bitrate);
+    }
+
+    @Test
+    public void longRoundTripCountsAsCongestion() {
+        QueueRateController controller = new QueueRateController();
+        int start = controller.getBitrate();
+
+        int bitrate = controller.update(new LinkStats(1000, 0, 0, 900));
+        assertTrue(bitrate < start);
+
+        // hold: a clear link right after a decrease does not increase yet
+        assertEquals(bitrate, controller.update(new LinkStats(1500, 0, 0, 50)));
+        assertTrue(controller.update(new LinkStats(4000, 0, 0, 50)) > bitrate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedBounds() {
+        QueueRateController.Config config = new QueueRateController.Config();
+        config.minBitrate = 4000 * 1000;
+        new QueueRateController(config);
+    }
+}
@@ -0,0 +1,314 @@
+package com.mgstudio.vediodecode.fec;
+
+import com.mgstudio.vediodecode.Allocations;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+import com.mgstudio.vediodecode.rtp.RtpPacketizer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FecTest {
+
+    private static final int MAX_PACKET_SIZE = 1200;
+
+    private static final int SSRC = 0x1234;
+
+    private static class Collector implements RtpPacketizer.Output {
+
+        final List<byte[]> packets = new ArrayList<>();
+
+        @Override
+        public void onPacket(byte[] packet, int length) {
+            packets.add(Arrays.copyOf(packet, length));
+        }
+    }
+
+    private static class Recovered implements FecDecoder.Listener {
+
+        final Map<Integer, byte[]> packets = new HashMap<>();
+
+        @Override
+        public void onRecovered(byte[] packet, int offset, int length) {
+            packets.put(RtpHeader.sequenceNumber(packet, offset), Arrays.copyOfRange(packet, offset, offset + length));
+        }
+    }
+
+    // media packets of random length, numbered from firstSequenceNumber
+    private static List<byte[]> media(int count, int firstSequenceNumber, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] packet = new byte[RtpHeader.SIZE + 1 + random.nextInt(MAX_PACKET_SIZE - RtpHeader.SIZE)];
+            random.nextBytes(packet);
+            RtpHeader.write(packet, i == count - 1, RtpHeader.PAYLOAD_TYPE_H264,
+                    (firstSequenceNumber + i) & 0xFFFF, 9000, SSRC);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    // parity packets for media, as one frame of the given kind
+    private static List<byte[]> encode(FecEncoder encoder, VideoPacket.Flag flag, List<byte[]> media)
+            throws IOException {
+        Collector parity = new Collector();
+        encoder.beginFrame(flag);
+        for (byte[] packet : media) {
+            encoder.add(packet, packet.length, parity);
+        }
+        encoder.endFrame(parity);
+        return parity.packets;
+    }
+
+    private static Recovered decode(List<byte[]> media, Set<Integer> lost, List<byte[]> parity,
+                                    Set<Integer> lostParity) {
+        Recovered recovered = new Recovered();
+        FecDecoder decoder = new FecDecoder(MAX_PACKET_SIZE, recovered);
+        for (int i = 0; i < media.size(); i++) {
+            if (!lost.contains(i)) {
+                decoder.receiveMedia(media.get(i), 0, media.get(i).length);
+            }
+        }
+        for (int i = 0; i < parity.size(); i++) {
+            if (!lostParity.contains(i)) {
+                decoder.receiveParity(parity.get(i), 0, parity.get(i).length);
+            }
+        }
+        return recovered;
+    }
+
+    private static Set<Integer> set(int... values) {
+        Set<Integer> set = new HashSet<>();
+        for (int value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    private static void assertRecovered(List<byte[]> media, Set<Integer> lost, Recovered recovered) {
+        assertEquals(lost.size(), recovered.packets.size());
+        for (int i : lost) {
+            byte[] expected = media.get(i);
+            assertArrayEquals("packet " + i, expected, recovered.packets.get(RtpHeader.sequenceNumber(expected, 0)));
+        }
+    }
+
+    @Test
+    public void parityPackets_haveTheirOwnPayloadTypeAndSequence() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        encoder.setSequenceNumber(0xFFFF);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.FRAME, media(25, 100, 1));
+
+        // XOR over ten: 10 + 10 + 5
+        assertEquals(3, parity.size());
+        for (int i = 0; i < parity.size(); i++) {
+            byte[] packet = parity.get(i);
+            assertTrue(FecHeader.isFec(packet, 0));
+            assertEquals((0xFFFF + i) & 0xFFFF, RtpHeader.sequenceNumber(packet, 0));
+            assertEquals(SSRC, RtpHeader.ssrc(packet, 0));
+            assertEquals(100 + 10 * i, FecHeader.base(packet, RtpHeader.SIZE));
+        }
+        assertEquals(5, FecHeader.count(parity.get(2), RtpHeader.SIZE));
+        assertFalse(FecHeader.isFec(media(1, 0, 1).get(0), 0));
+    }
+
+    @Test
+    public void protection_followsTheKindOfFrame() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(10, 0, 2);
+
+        assertEquals(1, encode(encoder, VideoPacket.Flag.FRAME, media).size());
+        assertEquals(3, encode(encoder, VideoPacket.Flag.KEY_FRAME, media).size());
+        assertEquals(0, encode(encoder, VideoPacket.Flag.END, media).size());
+
+        encoder.setProtection(VideoPacket.Flag.FRAME, Protection.NONE);
+        assertEquals(0, encode(encoder, VideoPacket.Flag.FRAME, media).size());
+    }
+
+    @Test
+    public void xor_recoversOneLossPerGroup() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(30, 65530, 3);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.FRAME, media);
+
+        Set<Integer> lost = set(0, 15, 29);
+        assertRecovered(media, lost, decode(media, lost, parity, set()));
+    }
+
+    @Test
+    public void xor_cannotRecoverTwoLossesInAGroup() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(10, 0, 4);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.FRAME, media);
+
+        assertTrue(decode(media, set(3, 4), parity, set()).packets.isEmpty());
+    }
+
+    @Test
+    public void xor2d_recoversABurstThroughItsColumns() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        encoder.setProtection(VideoPacket.Flag.FRAME, Protection.xor2d(4, 3));
+        List<byte[]> media = media(12, 500, 5);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.FRAME, media);
+
+        // three rows and four columns
+        assertEquals(7, parity.size());
+        // a whole row lost: each column is short of one
+        Set<Integer> lost = set(4, 5, 6, 7);
+        assertRecovered(media, lost, decode(media, lost, parity, set()));
+    }
+
+    @Test
+    public void xor2d_rowsAndColumnsRepairEachOther() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        encoder.setProtection(VideoPacket.Flag.FRAME, Protection.xor2d(4, 3));
+        List<byte[]> media = media(12, 500, 6);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.FRAME, media);
+
+        // 0 and 1 share row 0; 1 and 5 share column 1. Row 1 rebuilds 5, then column 1 rebuilds 1 and
+        // row 0 rebuilds 0
+        Set<Integer> lost = set(0, 1, 5);
+        assertRecovered(media, lost, decode(media, lost, parity, set()));
+    }
+
+    @Test
+    public void reedSolomon_recoversAnyLossesUpToItsParity() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(10, 40000, 7);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.KEY_FRAME, media);
+        assertEquals(3, parity.size());
+
+        Random random = new Random(8);
+        for (int trial = 0; trial < 50; trial++) {
+            // three losses among media and parity together
+            Set<Integer> lost = new HashSet<>();
+            Set<Integer> lostParity = new HashSet<>();
+            while (lost.size() + lostParity.size() < 3) {
+                int i = random.nextInt(13);
+                if (i < 10) {
+                    lost.add(i);
+                } else {
+                    lostParity.add(i - 10);
+                }
+            }
+            assertRecovered(media, lost, decode(media, lost, parity, lostParity));
+        }
+    }
+
+    @Test
+    public void reedSolomon_givesUpBeyondItsParity() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(10, 0, 9);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.KEY_FRAME, media);
+
+        Recovered recovered = new Recovered();
+        FecDecoder decoder = new FecDecoder(MAX_PACKET_SIZE, 64, recovered);
+        for (int i = 4; i < media.size(); i++) {
+            decoder.receiveMedia(media.get(i), 0, media.get(i).length);
+        }
+        for (byte[] packet : parity) {
+            decoder.receiveParity(packet, 0, packet.length);
+        }
+        assertTrue(recovered.packets.isEmpty());
+
+        // the group is written off once its packets leave the window
+        List<byte[]> later = media(100, 10, 10);
+        for (byte[] packet : later) {
+            decoder.receiveMedia(packet, 0, packet.length);
+        }
+        assertEquals(1, decoder.getUnrecoverable());
+    }
+
+    @Test
+    public void parityFirst_waitsForTheMedia() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(4, 7, 11);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.CONFIG, media);
+
+        Recovered recovered = new Recovered();
+        FecDecoder decoder = new FecDecoder(MAX_PACKET_SIZE, recovered);
+        for (byte[] packet : parity) {
+            decoder.receiveParity(packet, 0, packet.length);
+        }
+        decoder.receiveMedia(media.get(1), 0, media.get(1).length);
+        decoder.receiveMedia(media.get(3), 0, media.get(3).length);
+
+        assertRecovered(media, set(0, 2), recovered);
+        assertEquals(2, decoder.getRecovered());
+    }
+
+    @Test
+    public void corruptParity_isNotDelivered() throws IOException {
+        FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        List<byte[]> media = media(10, 0, 12);
+        List<byte[]> parity = encode(encoder, VideoPacket.Flag.FRAME, media);
+        // the length field of the parity
+        parity.get(0)[RtpHeader.SIZE + FecHeader.SIZE] ^= (byte) 0x7F;
+
+        assertTrue(decode(media, set(2), parity, set()).packets.isEmpty());
+    }
+
+    @Test
+    public void encodeAndDecode_allocateNothing() throws IOException {
+        final FecEncoder encoder = new FecEncoder(MAX_PACKET_SIZE, SSRC);
+        final List<byte[]> media = media(20, 0, 13);
+        final byte[][] parity = new byte[6][MAX_PACKET_SIZE + FecHeader.OVERHEAD];
+        final int[] parityLengths = new int[6];
+        final int[] parityCount = new int[1];
+        final RtpPacketizer.Output output = new RtpPacketizer.Output() {
+            @Override
+            public void onPacket(byte[] packet, int length) {
+                System.arraycopy(packet, 0, parity[parityCount[0]], 0, length);
+                parityLengths[parityCount[0]++] = length;
+            }
+        };
+        final FecDecoder decoder = new FecDecoder(MAX_PACKET_SIZE, new FecDecoder.Listener() {
+            @Override
+            public void onRecovered(byte[] packet, int offset, int length) {
+            }
+        });
+        final int[] sequenceNumber = new int[1];
+
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    parityCount[0] = 0;
+                    encoder.beginFrame(VideoPacket.Flag.KEY_FRAME);
+                    for (int i = 0; i < media.size(); i++) {
+                        byte[] packet = media.get(i);
+                        RtpHeader.write(packet, false, RtpHeader.PAYLOAD_TYPE_H264, sequenceNumber[0]++ & 0xFFFF,
+                                0, SSRC);
+                        encoder.add(packet, packet.length, output);
+                    }
+                    encoder.endFrame(output);
+                    // every tenth packet lost
+                    for (int i = 0; i < media.size(); i++) {
+                        if (i % 10 != 3) {
+                            decoder.receiveMedia(media.get(i), 0, media.get(i).length);
+                        }
+                    }
+                    for (int i = 0; i < parityCount[0]; i++) {
+                        decoder.receiveParity(parity[i], 0, parityLengths[i]);
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }, 2000, 500);
+
+        assertEquals(0, allocated);
+        assertEquals(2 * 2500, decoder.getRecovered());
+    }
+}
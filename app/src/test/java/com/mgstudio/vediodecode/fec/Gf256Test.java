@@ -0,0 +1,97 @@
+package com.mgstudio.vediodecode.fec;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Gf256Test {
+
+    // shift-and-add multiplication modulo 0x11D
+    private static int slowMultiply(int a, int b) {
+        int product = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                product ^= a;
+            }
+            a <<= 1;
+            if ((a & 0x100) != 0) {
+                a ^= 0x11D;
+            }
+            b >>= 1;
+        }
+        return product;
+    }
+
+    @Test
+    public void multiply_matchesPolynomialArithmetic() {
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                assertEquals(slowMultiply(a, b), Gf256.multiply(a, b));
+            }
+        }
+    }
+
+    @Test
+    public void inverse_timesItselfIsOne() {
+        for (int a = 1; a < 256; a++) {
+            assertEquals(1, Gf256.multiply(a, Gf256.inverse(a)));
+            assertEquals(a, Gf256.divide(Gf256.multiply(a, 77), 77));
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void inverseOfZero_throws() {
+        Gf256.inverse(0);
+    }
+
+    @Test
+    public void multiplyAdd_accumulatesScaledBytes() {
+        Random random = new Random(1);
+        byte[] src = new byte[100];
+        byte[] dst = new byte[100];
+        random.nextBytes(src);
+        random.nextBytes(dst);
+        byte[] expected = dst.clone();
+        for (int i = 0; i < 50; i++) {
+            expected[10 + i] ^= (byte) slowMultiply(src[20 + i] & 0xFF, 29);
+        }
+
+        Gf256.multiplyAdd(dst, 10, src, 20, 50, 29);
+
+        assertArrayEquals(expected, dst);
+    }
+
+    @Test
+    public void invert_givesTheInverse() {
+        int n = 5;
+        int[][] matrix = new int[n][n];
+        int[][] original = new int[n][n];
+        // a Cauchy matrix, as the decoder builds them
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                matrix[r][c] = FecHeader.coefficient(FecHeader.CODING_REED_SOLOMON, r, c * 3);
+                original[r][c] = matrix[r][c];
+            }
+        }
+
+        assertTrue(Gf256.invert(matrix, new int[n][n], n));
+
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                int sum = 0;
+                for (int k = 0; k < n; k++) {
+                    sum ^= Gf256.multiply(original[r][k], matrix[k][c]);
+                }
+                assertEquals(r == c ? 1 : 0, sum);
+            }
+        }
+    }
+
+    @Test
+    public void invert_rejectsSingularMatrices() {
+        int[][] matrix = {{1, 2}, {1, 2}};
+        assertFalse(Gf256.invert(matrix, new int[2][2], 2));
+    }
+}
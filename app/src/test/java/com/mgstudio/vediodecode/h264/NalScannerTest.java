@@ -0,0 +1,224 @@
+package com.mgstudio.vediodecode.h264;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NalScannerTest {
+
+    private static List<int[]> scan(NalScanner scanner) {
+        List<int[]> units = new ArrayList<>();
+        while (scanner.next()) {
+            units.add(new int[]{scanner.offset(), scanner.size(), scanner.startCodeSize()});
+        }
+        return units;
+    }
+
+    // byte at a time, as the spec describes it
+    private static List<int[]> reference(byte[] data, int from, int to) {
+        List<int[]> units = new ArrayList<>();
+        int start = -1;
+        int startCodeSize = 0;
+        int i = from;
+        while (i + 2 < to) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                if (start >= 0) {
+                    add(units, data, start, i, startCodeSize);
+                }
+                startCodeSize = i > from && data[i - 1] == 0 ? 4 : 3;
+                start = i + 3;
+                i += 3;
+            } else {
+                i++;
+            }
+        }
+        if (start >= 0) {
+            add(units, data, start, to, startCodeSize);
+        }
+        return units;
+    }
+
+    private static void add(List<int[]> units, byte[] data, int start, int end, int startCodeSize) {
+        while (end > start && data[end - 1] == 0) {
+            end--;
+        }
+        if (end > start) {
+            units.add(new int[]{start, end - start, startCodeSize});
+        }
+    }
+
+    private static void assertUnits(List<int[]> expected, List<int[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("unit " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void mixedStartCodes_yieldUnitsWithoutStartCodes() {
+        byte[] data = {
+                0, 0, 0, 1, 0x67, 1, 2,
+                0, 0, 1, 0x68, 3,
+                0, 0, 0, 1, 0x65, 4, 5, 6, 0, // trailing zero dropped
+                0, 0, 1, 0x41};
+        NalScanner scanner = new NalScanner().reset(data, 0, data.length);
+
+        assertTrue(scanner.next());
+        assertEquals(4, scanner.offset());
+        assertEquals(3, scanner.size());
+        assertEquals(4, scanner.startCodeSize());
+        assertEquals(NalUnitType.SPS, scanner.type());
+
+        assertTrue(scanner.next());
+        assertEquals(10, scanner.offset());
+        assertEquals(2, scanner.size());
+        assertEquals(3, scanner.startCodeSize());
+        assertEquals(NalUnitType.PPS, scanner.type());
+
+        assertTrue(scanner.next());
+        assertEquals(16, scanner.offset());
+        assertEquals(4, scanner.size());
+        assertEquals(4, scanner.startCodeSize());
+        assertEquals(NalUnitType.IDR, scanner.type());
+        assertTrue(NalUnitType.isKeyFrame(scanner.type()));
+
+        assertTrue(scanner.next());
+        assertEquals(24, scanner.offset());
+        assertEquals(1, scanner.size());
+        assertEquals(NalUnitType.SLICE, scanner.type());
+
+        assertFalse(scanner.next());
+        assertFalse(scanner.next());
+    }
+
+    @Test
+    public void truncatedOrMissingStartCodes_endCleanly() {
+        NalScanner scanner = new NalScanner();
+        assertFalse(scanner.reset(new byte[0], 0, 0).next());
+        assertFalse(scanner.reset(new byte[]{0, 0}, 0, 2).next());
+        assertFalse(scanner.reset(new byte[]{0, 0, 1}, 0, 3).next());
+        assertFalse(scanner.reset(new byte[]{0, 0, 0, 1, 0, 0}, 0, 6).next());
+        assertFalse(scanner.reset(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11}, 0, 11).next());
+
+        // unit cut off at the end of the buffer
+        scanner.reset(new byte[]{0, 0, 1, 0x65, 9, 0, 0}, 0, 7);
+        assertTrue(scanner.next());
+        assertEquals(2, scanner.size());
+        assertFalse(scanner.next());
+    }
+
+    @Test
+    public void scansOnlyTheGivenRange() {
+        byte[] data = {0, 0, 1, 0x67, 7, 0, 0, 1, 0x68, 8, 0, 0, 1, 0x65};
+        NalScanner scanner = new NalScanner().reset(data, 2, 9);
+        // 00 00 at index 0 is outside the range, the first start code is 00 00 01 at 5
+        List<int[]> units = scan(scanner);
+        assertEquals(1, units.size());
+        assertArrayEquals(new int[]{8, 2, 3}, units.get(0));
+    }
+
+    @Test
+    public void slice_isZeroCopyView() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put(new byte[]{0, 0, 0, 1, 0x68, 1, 2, 3});
+        direct.flip();
+        NalScanner scanner = new NalScanner().reset(direct);
+        assertTrue(scanner.next());
+
+        ByteBuffer slice = scanner.slice();
+        assertEquals(4, slice.remaining());
+        assertEquals(0x68, slice.get(0));
+        direct.put(5, (byte) 42);
+        assertEquals(42, slice.get(1));
+        // the scanned buffer is left as it was
+        assertEquals(0, direct.position());
+        assertEquals(8, direct.limit());
+    }
+
+    @Test
+    public void fuzz_matchesByteAtATimeReference() {
+        Random random = new Random(13);
+        NalScanner scanner = new NalScanner();
+        for (int round = 0; round < 20000; round++) {
+            byte[] data = new byte[random.nextInt(80)];
+            // few distinct values so start codes, runs of zeros and near misses are common
+            for (int i = 0; i < data.length; i++) {
+                int r = random.nextInt(8);
+                data[i] = (byte) (r < 4 ? 0 : r < 6 ? 1 : r == 6 ? 3 : random.nextInt(256));
+            }
+            int from = data.length == 0 ? 0 : random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+
+            List<int[]> expected = reference(data, from, to);
+            assertUnits(expected, scan(scanner.reset(data, from, to - from)));
+            assertUnits(expected, scan(scanner.reset(direct(data), from, to - from)));
+        }
+    }
+
+    @Test
+    public void fuzz_findsEveryStartCodeInLongStreams() {
+        Random random = new Random(17);
+        NalScanner scanner = new NalScanner();
+        for (int round = 0; round < 50; round++) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            int count = 1 + random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                if (random.nextBoolean()) {
+                    stream.write(0);
+                }
+                stream.write(0);
+                stream.write(0);
+                stream.write(1);
+                // zero-free payload of any length, so start codes land at every alignment
+                int size = 1 + random.nextInt(300);
+                for (int j = 0; j < size; j++) {
+                    stream.write(1 + random.nextInt(255));
+                }
+            }
+            byte[] data = stream.toByteArray();
+            List<int[]> units = scan(scanner.reset(data, 0, data.length));
+            assertEquals(count, units.size());
+            assertUnits(reference(data, 0, data.length), units);
+        }
+    }
+
+    @Test
+    public void scanning_doesNotAllocate() {
+        Random random = new Random(3);
+        final byte[] data = new byte[48 * 1024];
+        random.nextBytes(data);
+        for (int i = 0; i + 4 < data.length; i += 1000) {
+            data[i] = 0;
+            data[i + 1] = 0;
+            data[i + 2] = 1;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final NalScanner scanner = new NalScanner();
+        final int[] units = new int[1];
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                scanner.reset(buffer);
+                while (scanner.next()) {
+                    units[0] += scanner.type();
+                }
+            }
+        }, 2000, 1000);
+        assertEquals(0, bytes);
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.clear();
+        return buffer;
+    }
+}
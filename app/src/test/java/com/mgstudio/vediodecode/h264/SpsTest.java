@@ -0,0 +1,230 @@
+package com.mgstudio.vediodecode.h264;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpsTest {
+
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        private int current;
+
+        private int count;
+
+        BitWriter bits(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >>> i) & 1);
+                if (++count == 8) {
+                    stream.write(current);
+                    current = 0;
+                    count = 0;
+                }
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            int code = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(code);
+            bits(0, length - 1);
+            return bits(code, length);
+        }
+
+        BitWriter se(int value) {
+            return ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        // rbsp_stop_one_bit and alignment, then emulation prevention
+        byte[] toNal() {
+            bits(1, 1);
+            if (count > 0) {
+                bits(0, 8 - count);
+            }
+            return escape(stream.toByteArray());
+        }
+    }
+
+    private static byte[] escape(byte[] rbsp) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int zeros = 0;
+        for (byte value : rbsp) {
+            int b = value & 0xFF;
+            if (zeros >= 2 && b <= 3) {
+                stream.write(3);
+                zeros = 0;
+            }
+            stream.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return stream.toByteArray();
+    }
+
+    // baseline SPS as an Android encoder writes it, cropped to width x height
+    private static byte[] baseline(int width, int height) {
+        int widthMbs = (width + 15) / 16;
+        int heightMbs = (height + 15) / 16;
+        BitWriter bits = new BitWriter()
+                .bits(0x67, 8).bits(66, 8).bits(0xC0, 8).bits(31, 8)
+                .ue(0).ue(0).ue(2).ue(1).bits(0, 1)
+                .ue(widthMbs - 1).ue(heightMbs - 1)
+                .bits(1, 1).bits(1, 1);
+        int cropRight = (widthMbs * 16 - width) / 2;
+        int cropBottom = (heightMbs * 16 - height) / 2;
+        if (cropRight != 0 || cropBottom != 0) {
+            bits.bits(1, 1).ue(0).ue(cropRight).ue(0).ue(cropBottom);
+        } else {
+            bits.bits(0, 1);
+        }
+        return bits.bits(0, 1).toNal();
+    }
+
+    private static Sps parse(byte[] nal) {
+        return Sps.parse(nal, 0, nal.length);
+    }
+
+    @Test
+    public void baseline_sizesWithAndWithoutCropping() {
+        int[][] sizes = {{640, 480}, {1280, 720}, {1920, 1080}, {176, 144}, {854, 480}, {16, 16}};
+        for (int[] size : sizes) {
+            Sps sps = parse(baseline(size[0], size[1]));
+            assertEquals(size[0], sps.width);
+            assertEquals(size[1], sps.height);
+            assertEquals(66, sps.profileIdc);
+            assertEquals(31, sps.levelIdc);
+        }
+    }
+
+    @Test
+    public void high_withScalingMatricesAndFields() {
+        // High 4:2:0, pic_order_cnt_type 1, interlaced 1920x1080 in 68 field map units
+        BitWriter bits = new BitWriter()
+                .bits(0x67, 8).bits(100, 8).bits(0, 8).bits(40, 8)
+                .ue(1)                     // seq_parameter_set_id
+                .ue(1)                     // chroma_format_idc 4:2:0
+                .ue(0).ue(0)               // bit depths
+                .bits(0, 1)                // qpprime_y_zero_transform_bypass_flag
+                .bits(1, 1);               // seq_scaling_matrix_present_flag
+        for (int i = 0; i < 8; i++) {
+            if (i == 0 || i == 6) {
+                bits.bits(1, 1);
+                int size = i < 6 ? 16 : 64;
+                for (int j = 0; j < size; j++) {
+                    bits.se(j == size - 1 ? -8 : 1);
+                }
+            } else if (i == 1) {
+                bits.bits(1, 1).se(-8);    // delta to zero: use the default list
+            } else {
+                bits.bits(0, 1);
+            }
+        }
+        bits.ue(4)                         // log2_max_frame_num_minus4
+                .ue(1)                     // pic_order_cnt_type
+                .bits(0, 1).se(-2).se(3).ue(2).se(5).se(-7)
+                .ue(4).bits(0, 1)
+                .ue(119).ue(33)            // 120 x 34 map units of 32 lines
+                .bits(0, 1).bits(1, 1)     // field pictures, mb_adaptive_frame_field_flag
+                .bits(1, 1)                // direct_8x8_inference_flag
+                .bits(1, 1).ue(0).ue(0).ue(0).ue(2) // bottom 2 * 4 lines
+                .bits(0, 1);
+        Sps sps = parse(bits.toNal());
+        assertEquals(100, sps.profileIdc);
+        assertEquals(1, sps.seqParameterSetId);
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+    }
+
+    @Test
+    public void monochromeAnd444_useLumaCropUnits() {
+        for (int chromaFormatIdc = 0; chromaFormatIdc <= 3; chromaFormatIdc++) {
+            BitWriter bits = new BitWriter()
+                    .bits(0x67, 8).bits(244, 8).bits(0, 8).bits(51, 8)
+                    .ue(0).ue(chromaFormatIdc);
+            if (chromaFormatIdc == 3) {
+                bits.bits(0, 1);           // separate_colour_plane_flag
+            }
+            bits.ue(2).ue(2).bits(0, 1).bits(0, 1)
+                    .ue(0).ue(0).ue(0).ue(1).bits(0, 1)
+                    .ue(9).ue(9).bits(1, 1).bits(1, 1)
+                    .bits(1, 1).ue(1).ue(0).ue(1).ue(0)
+                    .bits(0, 1);
+            Sps sps = parse(bits.toNal());
+            int unitX = chromaFormatIdc == 1 || chromaFormatIdc == 2 ? 2 : 1;
+            int unitY = chromaFormatIdc == 1 ? 2 : 1;
+            assertEquals(160 - unitX, sps.width);
+            assertEquals(160 - unitY, sps.height);
+        }
+    }
+
+    @Test
+    public void emulationPreventionBytes_areSkipped() {
+        // 00 00 runs in the RBSP: profile, constraints and level all zero
+        byte[] nal = new BitWriter()
+                .bits(0x67, 8).bits(0, 8).bits(0, 8).bits(0, 8)
+                .ue(0).ue(0).ue(2).ue(0).bits(0, 1)
+                .ue(39).ue(29).bits(1, 1).bits(1, 1).bits(0, 1).bits(0, 1)
+                .toNal();
+        assertEquals(3, nal[3]);
+        Sps sps = parse(nal);
+        assertEquals(640, sps.width);
+        assertEquals(480, sps.height);
+    }
+
+    @Test
+    public void malformed_throwsIllegalArgument() {
+        byte[] sps = baseline(640, 480);
+        byte[][] bad = {
+                new byte[]{0x68, 1, 2, 3},
+                new byte[]{0x67, 66},
+                java.util.Arrays.copyOf(sps, 6),
+        };
+        for (byte[] nal : bad) {
+            try {
+                parse(nal);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            Sps.parse(sps, 0, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void fuzz_onlyEverThrowsIllegalArgument() {
+        Random random = new Random(23);
+        byte[] valid = baseline(1280, 720);
+        int parsed = 0;
+        for (int round = 0; round < 100000; round++) {
+            byte[] nal;
+            if (round % 2 == 0) {
+                // a few flipped bits and a random cut in a valid SPS
+                nal = valid.clone();
+                for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+                    int bit = 8 + random.nextInt((nal.length - 1) * 8);
+                    nal[bit / 8] ^= 1 << (bit % 8);
+                }
+                nal = java.util.Arrays.copyOf(nal, 1 + random.nextInt(nal.length));
+            } else {
+                nal = new byte[1 + random.nextInt(40)];
+                random.nextBytes(nal);
+                nal[0] = 0x67;
+            }
+            try {
+                Sps sps = parse(nal);
+                assertTrue(sps.width > 0 && sps.width <= 16384);
+                assertTrue(sps.height > 0 && sps.height <= 32768);
+                parsed++;
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertTrue(parsed > 0);
+    }
+}
@@ -0,0 +1,232 @@
+package com.mgstudio.vediodecode.metrics;
+
+import com.mgstudio.vediodecode.Allocations;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameTracerTest {
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String dump(FrameTracer tracer, int expected) throws Exception {
+        StringWriter out = new StringWriter();
+        assertEquals(expected, tracer.writeTo(out));
+        return out.toString();
+    }
+
+    @Test
+    public void disabled_recordsNothing() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        tracer.begin(FrameTracer.Span.SOCKET_READ, 1000);
+        tracer.end(FrameTracer.Span.SOCKET_READ, 1000);
+
+        assertFalse(tracer.isEnabled());
+        assertEquals("{\"traceEvents\":[],\"displayTimeUnit\":\"ms\"}", dump(tracer, 0));
+    }
+
+    @Test
+    public void spans_areDumpedByKind() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        tracer.enable(64);
+        // one frame through the sender, the next one's queue wait overlapping it
+        tracer.begin(FrameTracer.Span.ENCODER_OUTPUT, 33333);
+        tracer.begin(FrameTracer.Span.QUEUE_WAIT, 33333);
+        tracer.end(FrameTracer.Span.ENCODER_OUTPUT, 33333);
+        tracer.begin(FrameTracer.Span.QUEUE_WAIT, 66666);
+        tracer.end(FrameTracer.Span.QUEUE_WAIT, 33333);
+        tracer.end(FrameTracer.Span.QUEUE_WAIT, 66666);
+
+        String json = dump(tracer, 3);
+        assertEquals(1, occurrences(json, "\"ph\":\"X\""));
+        assertEquals(2, occurrences(json, "\"ph\":\"b\""));
+        assertEquals(2, occurrences(json, "\"ph\":\"e\""));
+        assertTrue(json.contains("\"name\":\"ENCODER_OUTPUT\""));
+        assertTrue(json.contains("\"id\":\"66666\""));
+        assertTrue(json.contains("\"tid\":" + Thread.currentThread().getId()));
+        // in the order they ended
+        assertTrue(json.indexOf("ENCODER_OUTPUT") < json.indexOf("\"id\":\"33333\""));
+        assertTrue(json.indexOf("\"id\":\"33333\"") < json.indexOf("\"id\":\"66666\""));
+    }
+
+    @Test
+    public void unmatchedEnds_areIgnored() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        tracer.enable(16);
+        tracer.end(FrameTracer.Span.SOCKET_WRITE, 1000);
+        tracer.begin(FrameTracer.Span.SOCKET_WRITE, 2000);
+        // another span, and another frame
+        tracer.end(FrameTracer.Span.SOCKET_READ, 2000);
+        tracer.end(FrameTracer.Span.SOCKET_WRITE, 3000);
+        tracer.end(FrameTracer.Span.SOCKET_WRITE, 2000);
+        // twice
+        tracer.end(FrameTracer.Span.SOCKET_WRITE, 2000);
+
+        dump(tracer, 1);
+    }
+
+    @Test
+    public void frameZero_needsABegin() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        tracer.enable(16);
+        tracer.end(FrameTracer.Span.DECODER_OUTPUT, 0);
+        dump(tracer, 0);
+
+        tracer.begin(FrameTracer.Span.DECODER_OUTPUT, 0);
+        tracer.end(FrameTracer.Span.DECODER_OUTPUT, 0);
+        dump(tracer, 1);
+    }
+
+    @Test
+    public void fullRing_keepsTheNewest() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        tracer.enable(4);
+        for (int i = 1; i <= 10; i++) {
+            tracer.begin(FrameTracer.Span.SOCKET_READ, i * 33333L);
+            tracer.end(FrameTracer.Span.SOCKET_READ, i * 33333L);
+        }
+
+        String json = dump(tracer, 4);
+        assertFalse(json.contains("\"pts\":199998}"));
+        for (int i = 7; i <= 10; i++) {
+            assertTrue(json.contains("\"pts\":" + i * 33333L + "}"));
+        }
+    }
+
+    @Test
+    public void parameterSets_areNotTraced() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        tracer.enable(16);
+        VideoPacket config = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.CONFIG, 1000, new byte[4]);
+        VideoPacket keyFrame = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.KEY_FRAME, 1000, new byte[4]);
+
+        tracer.begin(FrameTracer.Span.QUEUE_WAIT, config);
+        tracer.begin(FrameTracer.Span.QUEUE_WAIT, keyFrame);
+        tracer.end(FrameTracer.Span.QUEUE_WAIT, config);
+        tracer.end(FrameTracer.Span.QUEUE_WAIT, keyFrame);
+
+        dump(tracer, 1);
+    }
+
+    @Test
+    public void sections_hearEveryBeginAndEnd() {
+        FrameTracer tracer = new FrameTracer();
+        final List<String> calls = new ArrayList<>();
+        tracer.setSections(new FrameTracer.Sections() {
+            @Override
+            public void begin(FrameTracer.Span span, long timeStamp) {
+                calls.add("begin " + span + " " + timeStamp);
+            }
+
+            @Override
+            public void end(FrameTracer.Span span, long timeStamp) {
+                calls.add("end " + span + " " + timeStamp);
+            }
+        });
+        tracer.begin(FrameTracer.Span.DECODER_INPUT, 5);
+        assertTrue(calls.isEmpty());
+
+        tracer.enable(16);
+        tracer.begin(FrameTracer.Span.DECODER_INPUT, 5);
+        tracer.end(FrameTracer.Span.DECODER_INPUT, 5);
+
+        assertEquals(2, calls.size());
+        assertEquals("begin DECODER_INPUT 5", calls.get(0));
+        assertEquals("end DECODER_INPUT 5", calls.get(1));
+    }
+
+    @Test
+    public void sections_hearOnlyEndsOfTheirBegins() throws Exception {
+        FrameTracer tracer = new FrameTracer();
+        final List<String> calls = new ArrayList<>();
+        tracer.setSections(new FrameTracer.Sections() {
+            @Override
+            public void begin(FrameTracer.Span span, long timeStamp) {
+                calls.add("begin " + timeStamp);
+            }
+
+            @Override
+            public void end(FrameTracer.Span span, long timeStamp) {
+                calls.add("end " + timeStamp);
+            }
+        });
+        tracer.enable(16);
+        // begun before enabling, or never
+        tracer.end(FrameTracer.Span.DECODER_INPUT, 3);
+        assertTrue(calls.isEmpty());
+
+        // begun, then the tracer turned off: the section still closes, the span isn't recorded
+        tracer.begin(FrameTracer.Span.DECODER_INPUT, 5);
+        tracer.disable();
+        tracer.begin(FrameTracer.Span.DECODER_INPUT, 6);
+        tracer.end(FrameTracer.Span.DECODER_INPUT, 5);
+        tracer.end(FrameTracer.Span.DECODER_INPUT, 6);
+        assertEquals(2, calls.size());
+        assertEquals("begin 5", calls.get(0));
+        assertEquals("end 5", calls.get(1));
+        dump(tracer, 0);
+
+        // and ends once
+        tracer.enable(16);
+        tracer.end(FrameTracer.Span.DECODER_INPUT, 5);
+        assertEquals(2, calls.size());
+        dump(tracer, 0);
+    }
+
+    @Test
+    public void concurrentThreads_loseNoSpans() throws Exception {
+        final FrameTracer tracer = new FrameTracer();
+        tracer.enable(FrameTracer.DEFAULT_CAPACITY);
+        final int frames = 1000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final FrameTracer.Span span = FrameTracer.Span.values()[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < frames; i++) {
+                        tracer.begin(span, i * 33333L);
+                        tracer.end(span, i * 33333L);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        dump(tracer, threads.length * frames);
+    }
+
+    @Test
+    public void beginAndEnd_allocateNothing() {
+        final FrameTracer tracer = new FrameTracer();
+        tracer.enable(1024);
+        final long[] timeStamp = {0};
+
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                timeStamp[0] += 33333;
+                tracer.begin(FrameTracer.Span.SOCKET_WRITE, timeStamp[0]);
+                tracer.end(FrameTracer.Span.SOCKET_WRITE, timeStamp[0]);
+            }
+        }, 20000, 10000);
+
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,158 @@
+package com.mgstudio.vediodecode.metrics;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_areContiguousAndWithinOneSixtyFourth() {
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            // every value lands in the bucket after the previous value's, or the same
+            assertTrue(index == previous || index == previous + 1);
+            previous = index;
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(value <= highest);
+            assertTrue(value + " reads as " + highest, highest - value <= value / 64);
+        }
+        assertEquals(1330, LatencyHistogram.bucketIndex(LatencyHistogram.DEFAULT_HIGHEST_US));
+    }
+
+    @Test
+    public void percentiles_ofUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.newSnapshot();
+        histogram.snapshot(snapshot);
+
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(100000, snapshot.getMaxUs());
+        assertEquals(50000, snapshot.getMeanUs());
+        assertEquals(50000, snapshot.getValueAtPercentile(50), 50000 / 64);
+        assertEquals(99000, snapshot.getValueAtPercentile(99), 99000 / 64);
+        assertEquals(99900, snapshot.getValueAtPercentile(99.9), 99900 / 64);
+        assertEquals(100000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void tail_isNotHiddenByTheMedian() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 998; i++) {
+            histogram.record(2000);
+        }
+        // two stalls in a thousand frames
+        histogram.record(250000);
+        histogram.record(400000);
+        LatencyHistogram.Snapshot snapshot = histogram.newSnapshot();
+        histogram.snapshot(snapshot);
+
+        assertEquals(2000, snapshot.getValueAtPercentile(50), 2000 / 64);
+        assertEquals(2000, snapshot.getValueAtPercentile(99), 2000 / 64);
+        assertEquals(250000, snapshot.getValueAtPercentile(99.9), 250000 / 64);
+        assertEquals(400000, snapshot.getMaxUs());
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() {
+        LatencyHistogram histogram = new LatencyHistogram(1000000);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.newSnapshot();
+        histogram.snapshot(snapshot);
+
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void snapshotAndReset_startsOver() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(300);
+        LatencyHistogram.Snapshot snapshot = histogram.newSnapshot();
+
+        histogram.snapshotAndReset(snapshot);
+        assertEquals(2, snapshot.getCount());
+        assertEquals(400, snapshot.getSumUs());
+
+        histogram.snapshot(snapshot);
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMaxUs());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int values = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            recorders[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < values; i++) {
+                        histogram.record(random.nextInt(50000));
+                    }
+                }
+            };
+            recorders[t].start();
+        }
+        start.countDown();
+
+        // snapshots taken meanwhile lose nothing
+        LatencyHistogram.Snapshot snapshot = histogram.newSnapshot();
+        long counted = 0;
+        for (int i = 0; i < 20; i++) {
+            histogram.snapshotAndReset(snapshot);
+            counted += snapshot.getCount();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        histogram.snapshotAndReset(snapshot);
+        counted += snapshot.getCount();
+
+        assertEquals(threads * values, counted);
+    }
+
+    @Test
+    public void recordAndSnapshot_allocateNothing() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LatencyHistogram.Snapshot snapshot = histogram.newSnapshot();
+        final long[] value = {1};
+
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    value[0] = value[0] * 31 % 1000003;
+                    histogram.record(value[0]);
+                }
+                histogram.snapshotAndReset(snapshot);
+                snapshot.getValueAtPercentile(99.9);
+            }
+        }, 2000, 1000);
+
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,103 @@
+package com.mgstudio.vediodecode.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class MetricsServerTest {
+
+    private final StreamCounters sender = new StreamCounters();
+
+    private MetricsServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MetricsServer(0,
+                new PrometheusText(sender, new StreamCounters(), new PipelineLatency(), new PipelineLatency()));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private String get(String request) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(Charset.forName("US-ASCII")));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), Charset.forName("UTF-8"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static int contentLength(String response) {
+        String header = "Content-Length: ";
+        int start = response.indexOf(header) + header.length();
+        return Integer.parseInt(response.substring(start, response.indexOf("\r\n", start)));
+    }
+
+    @Test
+    public void metrics_areServed() throws IOException {
+        sender.add(StreamCounters.Counter.FRAMES, 42);
+
+        String response = get("GET /metrics HTTP/1.1\r\nHost: phone\r\nAccept: */*\r\n\r\n");
+
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response.contains("Content-Type: " + PrometheusText.CONTENT_TYPE + "\r\n"));
+        String body = response.substring(response.indexOf("\r\n\r\n") + 4);
+        assertEquals(body.getBytes(Charset.forName("UTF-8")).length, contentLength(response));
+        assertTrue(body, body.contains("vediodecode_frames_total{side=\"sender\"} 42\n"));
+    }
+
+    @Test
+    public void scrapes_seeNewValues() throws IOException {
+        for (int i = 1; i <= 3; i++) {
+            sender.increment(StreamCounters.Counter.FRAMES);
+            String response = get("GET /metrics?name[]=x HTTP/1.0\r\n\r\n");
+            assertTrue(response, response.contains("vediodecode_frames_total{side=\"sender\"} " + i + "\n"));
+        }
+    }
+
+    @Test
+    public void otherPaths_areNotFound() throws IOException {
+        assertTrue(get("GET / HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 404 Not Found\r\n"));
+        assertTrue(get("GET /metricsx HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 404 Not Found\r\n"));
+        assertTrue(get("POST /metrics HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 404 Not Found\r\n"));
+    }
+
+    @Test
+    public void silentClient_doesNotBlockTheNext() throws IOException {
+        // connects and never sends a request
+        Socket silent = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        try {
+            long start = System.nanoTime();
+            assertTrue(get("GET /metrics HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 200 OK\r\n"));
+            // served once the silent one timed out
+            assertTrue(System.nanoTime() - start < 4000000000L);
+        } finally {
+            silent.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mgstudio.vediodecode.metrics;
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PipelineLatencyTest {
+
+    private static long count(PipelineLatency latency, PipelineLatency.Stage stage) {
+        LatencyHistogram.Snapshot snapshot = latency.newSnapshot();
+        latency.snapshot(stage, snapshot);
+        return snapshot.getCount();
+    }
+
+    private static long median(PipelineLatency latency, PipelineLatency.Stage stage) {
+        LatencyHistogram.Snapshot snapshot = latency.newSnapshot();
+        latency.snapshot(stage, snapshot);
+        return snapshot.getValueAtPercentile(50);
+    }
+
+    @Test
+    public void senderStages_areTimeSinceThePreviousBoundary() {
+        PipelineLatency latency = new PipelineLatency();
+        // 30 fps, 5 ms to render, 12 to encode, 3 in the queue and socket
+        for (int i = 0; i < 300; i++) {
+            long captureUs = 1000000 + i * 33333;
+            latency.start(captureUs, captureUs);
+            latency.mark(PipelineLatency.Stage.RENDER, captureUs, captureUs + 5000, false);
+            latency.mark(PipelineLatency.Stage.ENCODE, captureUs, captureUs + 17000, false);
+            latency.mark(PipelineLatency.Stage.SEND, captureUs, captureUs + 20000, true);
+        }
+
+        assertEquals(300, count(latency, PipelineLatency.Stage.RENDER));
+        assertEquals(5000, median(latency, PipelineLatency.Stage.RENDER), 5000 / 64);
+        assertEquals(12000, median(latency, PipelineLatency.Stage.ENCODE), 12000 / 64);
+        assertEquals(3000, median(latency, PipelineLatency.Stage.SEND), 3000 / 64);
+        assertEquals(20000, median(latency, PipelineLatency.Stage.TOTAL), 20000 / 64);
+        assertEquals(0, count(latency, PipelineLatency.Stage.DECODE));
+    }
+
+    @Test
+    public void unknownCapture_skipsTheFirstStageAndTotal() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.start(5000000, PipelineLatency.UNKNOWN);
+        latency.mark(PipelineLatency.Stage.TRANSIT, 5000000, 100, false);
+        latency.mark(PipelineLatency.Stage.JITTER_BUFFER, 5000000, 40100, false);
+        latency.mark(PipelineLatency.Stage.DECODE, 5000000, 48100, true);
+
+        assertEquals(0, count(latency, PipelineLatency.Stage.TRANSIT));
+        assertEquals(0, count(latency, PipelineLatency.Stage.TOTAL));
+        assertEquals(40000, median(latency, PipelineLatency.Stage.JITTER_BUFFER), 40000 / 64);
+        assertEquals(8000, median(latency, PipelineLatency.Stage.DECODE), 8000 / 64);
+    }
+
+    @Test
+    public void framesNeverStarted_recordNothing() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.mark(PipelineLatency.Stage.ENCODE, 1234, 5000, true);
+
+        assertEquals(0, count(latency, PipelineLatency.Stage.ENCODE));
+        assertEquals(0, count(latency, PipelineLatency.Stage.TOTAL));
+    }
+
+    @Test
+    public void parameterSets_areNotFrames() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.start(1000, 1000);
+        VideoPacket config = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.CONFIG, 1000, new byte[4]);
+        VideoPacket keyFrame = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.KEY_FRAME, 1000, new byte[4]);
+
+        latency.mark(PipelineLatency.Stage.ENCODE, config, 3000, false);
+        latency.mark(PipelineLatency.Stage.ENCODE, keyFrame, 9000, false);
+
+        assertEquals(1, count(latency, PipelineLatency.Stage.ENCODE));
+        assertEquals(8000, median(latency, PipelineLatency.Stage.ENCODE), 8000 / 64);
+    }
+
+    @Test
+    public void reset_clearsEveryStage() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.start(1000, 1000);
+        latency.mark(PipelineLatency.Stage.RENDER, 1000, 2000, true);
+        latency.reset();
+
+        assertEquals(0, count(latency, PipelineLatency.Stage.RENDER));
+        assertEquals(0, count(latency, PipelineLatency.Stage.TOTAL));
+    }
+}
@@ -0,0 +1,129 @@
+package com.mgstudio.vediodecode.metrics;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class PrometheusTextTest {
+
+    private final StreamCounters sender = new StreamCounters();
+    private final StreamCounters receiver = new StreamCounters();
+    private final PipelineLatency senderLatency = new PipelineLatency();
+    private final PipelineLatency receiverLatency = new PipelineLatency();
+    private final PrometheusText text = new PrometheusText(sender, receiver, senderLatency, receiverLatency);
+
+    private String render() {
+        int length = text.render();
+        return new String(text.getBuffer(), 0, length, Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void counters_haveALinePerSide() {
+        sender.add(StreamCounters.Counter.FRAMES, 1800);
+        receiver.increment(StreamCounters.Counter.FRAMES);
+        receiver.increment(StreamCounters.Counter.RECONNECTS);
+        receiver.add(StreamCounters.Counter.BYTES, 12345678901L);
+
+        String metrics = render();
+
+        assertTrue(metrics, metrics.contains("# HELP vediodecode_frames_total "));
+        assertTrue(metrics, metrics.contains("# TYPE vediodecode_frames_total counter\n"
+                + "vediodecode_frames_total{side=\"sender\"} 1800\n"
+                + "vediodecode_frames_total{side=\"receiver\"} 1\n"));
+        assertTrue(metrics, metrics.contains("vediodecode_bytes_total{side=\"receiver\"} 12345678901\n"));
+        assertTrue(metrics, metrics.contains("vediodecode_reconnects_total{side=\"receiver\"} 1\n"));
+        assertTrue(metrics, metrics.contains("vediodecode_decoder_input_stalls_total{side=\"sender\"} 0\n"));
+        assertTrue(metrics.endsWith("\n"));
+    }
+
+    @Test
+    public void gauges_showTheLastValue() {
+        sender.set(StreamCounters.Gauge.ENCODER_BITRATE, 2000000);
+        sender.set(StreamCounters.Gauge.ENCODER_BITRATE, 1500000);
+        receiver.set(StreamCounters.Gauge.QUEUE_DEPTH, -3);
+
+        String metrics = render();
+
+        assertTrue(metrics, metrics.contains("# TYPE vediodecode_encoder_bitrate_bits_per_second gauge\n"
+                + "vediodecode_encoder_bitrate_bits_per_second{side=\"sender\"} 1500000\n"));
+        assertTrue(metrics, metrics.contains("vediodecode_queue_depth{side=\"receiver\"} -3\n"));
+    }
+
+    @Test
+    public void captureLatency_isSecondsOnceKnown() {
+        assertTrue(render().contains("vediodecode_capture_latency_seconds{side=\"receiver\"} NaN\n"));
+
+        receiver.set(StreamCounters.Gauge.CAPTURE_LATENCY_US, 1042007);
+        assertTrue(render().contains("vediodecode_capture_latency_seconds{side=\"receiver\"} 1.042007\n"));
+
+        receiver.set(StreamCounters.Gauge.CAPTURE_LATENCY_US, 85);
+        assertTrue(render().contains("vediodecode_capture_latency_seconds{side=\"receiver\"} 0.000085\n"));
+    }
+
+    @Test
+    public void latencies_areSummariesPerStage() {
+        String metrics = render();
+        assertTrue(metrics, metrics.contains("# TYPE vediodecode_stage_latency_seconds summary\n"));
+        assertTrue(metrics, metrics.contains(
+                "vediodecode_stage_latency_seconds{side=\"sender\",stage=\"encode\",quantile=\"0.99\"} NaN\n"));
+        assertTrue(metrics, metrics.contains(
+                "vediodecode_stage_latency_seconds_count{side=\"receiver\",stage=\"decode\"} 0\n"));
+        // each side only has the stages it marks
+        assertFalse(metrics.contains("side=\"sender\",stage=\"transit\""));
+        assertFalse(metrics.contains("side=\"receiver\",stage=\"render\""));
+
+        // exact below 128 us
+        for (int i = 1; i <= 100; i++) {
+            receiverLatency.getHistogram(PipelineLatency.Stage.DECODE).record(i);
+        }
+        metrics = render();
+        assertTrue(metrics, metrics.contains(
+                "vediodecode_stage_latency_seconds{side=\"receiver\",stage=\"decode\",quantile=\"0.5\"} 0.000050\n"));
+        assertTrue(metrics, metrics.contains(
+                "vediodecode_stage_latency_seconds{side=\"receiver\",stage=\"decode\",quantile=\"0.999\"} 0.000100\n"));
+        assertTrue(metrics, metrics.contains(
+                "vediodecode_stage_latency_seconds_sum{side=\"receiver\",stage=\"decode\"} 0.005050\n"));
+        assertTrue(metrics, metrics.contains(
+                "vediodecode_stage_latency_seconds_count{side=\"receiver\",stage=\"decode\"} 100\n"));
+        // and reading them doesn't reset them
+        LatencyHistogram.Snapshot snapshot = receiverLatency.newSnapshot();
+        receiverLatency.snapshot(PipelineLatency.Stage.DECODE, snapshot);
+        assertEquals(100, snapshot.getCount());
+    }
+
+    @Test
+    public void scrape_allocatesNothing() {
+        for (int i = 1; i <= 1000; i++) {
+            senderLatency.getHistogram(PipelineLatency.Stage.SEND).record(i);
+        }
+        sender.set(StreamCounters.Gauge.ENCODER_BITRATE, 4000000);
+        // grows the buffer
+        text.render();
+
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                sender.increment(StreamCounters.Counter.FRAMES);
+                receiver.set(StreamCounters.Gauge.CAPTURE_LATENCY_US, 33000);
+                text.render();
+            }
+        }, 2000, 1000);
+
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void reset_restoresTheInitialValues() {
+        receiver.add(StreamCounters.Counter.DROPPED_FRAMES, 5);
+        receiver.set(StreamCounters.Gauge.CAPTURE_LATENCY_US, 20000);
+
+        receiver.reset();
+
+        assertEquals(0, receiver.get(StreamCounters.Counter.DROPPED_FRAMES));
+        assertEquals(-1, receiver.get(StreamCounters.Gauge.CAPTURE_LATENCY_US));
+    }
+}
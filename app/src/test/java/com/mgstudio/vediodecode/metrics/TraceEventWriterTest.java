@@ -0,0 +1,63 @@
+package com.mgstudio.vediodecode.metrics;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class TraceEventWriterTest {
+
+    @Test
+    public void empty_isAValidTrace() throws Exception {
+        StringWriter out = new StringWriter();
+        TraceEventWriter writer = new TraceEventWriter(out);
+        writer.begin();
+        writer.end();
+
+        assertEquals("{\"traceEvents\":[],\"displayTimeUnit\":\"ms\"}", out.toString());
+    }
+
+    @Test
+    public void completeSpan_isOneXEvent() throws Exception {
+        StringWriter out = new StringWriter();
+        TraceEventWriter writer = new TraceEventWriter(out);
+        writer.begin();
+        writer.completeSpan("SOCKET_READ", 12, 1000, 1250, 66666);
+        writer.end();
+
+        assertEquals("{\"traceEvents\":["
+                + "{\"name\":\"SOCKET_READ\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1,\"tid\":12,\"ts\":1000,"
+                + "\"args\":{\"pts\":66666},\"dur\":250}"
+                + "],\"displayTimeUnit\":\"ms\"}", out.toString());
+    }
+
+    @Test
+    public void asyncSpan_isABeginAndAnEndWithTheTimeStampAsId() throws Exception {
+        StringWriter out = new StringWriter();
+        TraceEventWriter writer = new TraceEventWriter(out);
+        writer.begin();
+        writer.asyncSpan("QUEUE_WAIT", 7, 2000, 9000, 33333);
+        writer.threadName(7, "SocketTransport");
+        writer.end();
+
+        assertEquals("{\"traceEvents\":["
+                + "{\"name\":\"QUEUE_WAIT\",\"cat\":\"frame\",\"ph\":\"b\",\"pid\":1,\"tid\":7,\"ts\":2000,"
+                + "\"args\":{\"pts\":33333},\"id\":\"33333\"},"
+                + "{\"name\":\"QUEUE_WAIT\",\"cat\":\"frame\",\"ph\":\"e\",\"pid\":1,\"tid\":7,\"ts\":9000,"
+                + "\"args\":{\"pts\":33333},\"id\":\"33333\"},"
+                + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":7,\"args\":{\"name\":\"SocketTransport\"}}"
+                + "],\"displayTimeUnit\":\"ms\"}", out.toString());
+    }
+
+    @Test
+    public void names_areEscaped() throws Exception {
+        StringWriter out = new StringWriter();
+        TraceEventWriter writer = new TraceEventWriter(out);
+        writer.begin();
+        writer.threadName(1, "a \"b\"\\c\n");
+        writer.end();
+
+        assertTrue(out.toString(), out.toString().contains("\"name\":\"a \\\"b\\\"\\\\c\\u000a\""));
+    }
+}
@@ -0,0 +1,99 @@
+package com.mgstudio.vediodecode.model;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ByteUtilsTest {
+
+    private static final long[] VALUES = {
+            0L, 1L, -1L, 127L, 128L, 255L, 256L, 0x7FFFFFFFL, 0x80000000L, 0xFFFFFFFFL,
+            Long.MAX_VALUE, Long.MIN_VALUE, 1234567890123L, -987654321L
+    };
+
+    @Test
+    public void longAndInt_matchBigIntegerPath() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            byte[] bytes = new byte[1 + random.nextInt(12)];
+            random.nextBytes(bytes);
+            assertEquals(new BigInteger(bytes).longValue(), ByteUtils.bytesToLong(bytes));
+            assertEquals(new BigInteger(bytes).intValue(), ByteUtils.bytesToInt(bytes));
+        }
+        for (long value : VALUES) {
+            assertEquals(value, ByteUtils.bytesToLong(ByteUtils.longToBytes(value)));
+            assertEquals((int) value, ByteUtils.bytesToInt(ByteUtils.intToBytes((int) value)));
+            assertArrayEquals(ByteBuffer.allocate(8).putLong(value).array(), ByteUtils.longToBytes(value));
+        }
+    }
+
+    @Test
+    public void inPlace_readsAndWritesAtOffset() {
+        byte[] bytes = new byte[32];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (long value : VALUES) {
+            ByteUtils.putLong(bytes, 3, value);
+            assertEquals(value, buffer.getLong(3));
+            assertEquals(value, ByteUtils.getLong(bytes, 3));
+
+            ByteUtils.putInt(bytes, 17, (int) value);
+            assertEquals((int) value, buffer.getInt(17));
+            assertEquals((int) value, ByteUtils.getInt(bytes, 17));
+            assertEquals(value & 0xFFFFFFFFL, ByteUtils.getUnsignedInt(bytes, 17));
+            assertEquals(value & 0xFFFFFFFFL, ByteUtils.getUnsignedInt(buffer, 17));
+
+            ByteUtils.putShort(bytes, 30, (int) value);
+            assertEquals((short) value, ByteUtils.getShort(bytes, 30));
+            assertEquals(value & 0xFFFF, ByteUtils.getUnsignedShort(bytes, 30));
+            assertEquals(value & 0xFFFF, ByteUtils.getUnsignedShort(buffer, 30));
+        }
+    }
+
+    @Test
+    public void varLong_roundTrip() {
+        byte[] bytes = new byte[16];
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (long value : VALUES) {
+            int size = ByteUtils.putVarLong(bytes, 2, value);
+            assertEquals(ByteUtils.varLongSize(value), size);
+            assertEquals(value, ByteUtils.getVarLong(bytes, 2));
+
+            buffer.clear();
+            ByteUtils.putVarLong(buffer, value);
+            assertEquals(size, buffer.position());
+            buffer.flip();
+            assertEquals(value, ByteUtils.getVarLong(buffer));
+        }
+        assertEquals(1, ByteUtils.varLongSize(127));
+        assertEquals(2, ByteUtils.varLongSize(128));
+        assertEquals(10, ByteUtils.varLongSize(-1));
+    }
+
+    // the ns/op comparison with the BigInteger path is ByteUtilsBenchmark
+    @Test
+    public void headerPath_allocatesNothing() {
+        final byte[] header = new byte[14];
+        final long[] sink = new long[1];
+
+        Runnable inPlace = new Runnable() {
+            long timeStamp;
+
+            @Override
+            public void run() {
+                ByteUtils.putInt(header, 0, 10 + 4096);
+                ByteUtils.putLong(header, 6, timeStamp += 33333);
+                sink[0] += ByteUtils.getInt(header, 0) + ByteUtils.getLong(header, 6);
+            }
+        };
+
+        int iterations = 200000;
+        assertEquals(0L, Allocations.measure(inPlace, iterations, iterations));
+        assertTrue(sink[0] != 0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.mgstudio.vediodecode.model;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PacketCodecTest {
+
+    private static byte[] payload(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] payloadOf(VideoPacket videoPacket) {
+        byte[] data = new byte[videoPacket.size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = videoPacket.buffer.get(videoPacket.offset + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void encode_matchesLegacyFraming() {
+        for (VideoPacket.Flag flag : VideoPacket.Flag.values()) {
+            byte[] data = payload(1500, flag.ordinal());
+            VideoPacket videoPacket = new VideoPacket(MediaPacket.Type.VIDEO, flag, 123456789L, data);
+
+            ByteBuffer frame = ByteBuffer.allocateDirect(PacketCodec.frameSize(videoPacket));
+            PacketCodec.encode(videoPacket, frame);
+            frame.flip();
+
+            byte[] encoded = new byte[frame.remaining()];
+            frame.get(encoded);
+            assertArrayEquals(VideoPacket.toArray(MediaPacket.Type.VIDEO, flag, 123456789L, data), encoded);
+        }
+    }
+
+    @Test
+    public void decodeFrame_isViewOfLegacyFrame() {
+        byte[] data = payload(4000, 7);
+        byte[] frame = VideoPacket.toArray(MediaPacket.Type.VIDEO, VideoPacket.Flag.KEY_FRAME, -42L, data);
+
+        ByteBuffer src = ByteBuffer.wrap(frame);
+        VideoPacket videoPacket = new VideoPacket();
+        assertTrue(PacketCodec.decodeFrame(src, videoPacket));
+
+        assertEquals(MediaPacket.Type.VIDEO, videoPacket.type);
+        assertEquals(VideoPacket.Flag.KEY_FRAME, videoPacket.flag);
+        assertEquals(-42L, videoPacket.presentationTimeStamp);
+        assertSame(src, videoPacket.buffer);
+        assertArrayEquals(data, payloadOf(videoPacket));
+        assertFalse(src.hasRemaining());
+
+        // legacy decoder agrees on the same bytes
+        VideoPacket legacy = VideoPacket.fromArray(java.util.Arrays.copyOfRange(frame, 4, frame.length));
+        assertEquals(videoPacket.presentationTimeStamp, legacy.presentationTimeStamp);
+        assertArrayEquals(legacy.data, payloadOf(videoPacket));
+    }
+
+    @Test
+    public void decodeFrame_waitsForWholeFrame() {
+        VideoPacket videoPacket = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.FRAME, 1L,
+                payload(100, 1));
+        byte[] frame = videoPacket.toByteArray();
+
+        ByteBuffer src = ByteBuffer.allocate(frame.length);
+        VideoPacket into = new VideoPacket();
+        for (int i = 0; i < frame.length - 1; i++) {
+            src.put(frame[i]);
+            src.flip();
+            assertFalse(PacketCodec.decodeFrame(src, into));
+            assertEquals(0, src.position());
+            src.position(src.limit());
+            src.limit(src.capacity());
+        }
+        src.put(frame[frame.length - 1]);
+        src.flip();
+        assertTrue(PacketCodec.decodeFrame(src, into));
+        assertEquals(100, into.size);
+    }
+
+    @Test
+    public void peekLength_rejectsOutOfRangeLengths() {
+        ByteBuffer src = ByteBuffer.allocate(PacketCodec.LENGTH_SIZE);
+        int[] lengths = {PacketCodec.HEADER_SIZE - 1, PacketCodec.MAX_FRAME_SIZE + 1, Integer.MAX_VALUE, -1};
+        for (int length : lengths) {
+            src.putInt(0, length);
+            try {
+                PacketCodec.peekLength(src);
+                fail("accepted " + length);
+            } catch (IllegalStateException expected) {
+                // corrupt stream
+            }
+        }
+        src.putInt(0, PacketCodec.MAX_FRAME_SIZE);
+        assertEquals(PacketCodec.MAX_FRAME_SIZE, PacketCodec.peekLength(src));
+    }
+
+    @Test
+    public void encode_viewPacketRoundTrip() {
+        byte[] data = payload(300, 3);
+        ByteBuffer src = ByteBuffer.wrap(VideoPacket.toArray(MediaPacket.Type.VIDEO, VideoPacket.Flag.CONFIG,
+                99L, data));
+        VideoPacket view = new VideoPacket();
+        PacketCodec.decodeFrame(src, view);
+
+        // re-encoding a view must not disturb the source buffer
+        int position = src.position();
+        assertArrayEquals(VideoPacket.toArray(MediaPacket.Type.VIDEO, VideoPacket.Flag.CONFIG, 99L, data),
+                view.toByteArray());
+        assertEquals(position, src.position());
+    }
+
+    @Test
+    public void bufferPool_reusesBySizeClass() {
+        BufferPool pool = new BufferPool(1 << 20, 4);
+        ByteBuffer buffer = pool.acquire(3000);
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(2049));
+        assertNotSame(buffer, pool.acquire(2048));
+        // oversized buffers are never pooled
+        pool.release(pool.acquire(4 << 20));
+        assertEquals(0, pool.available());
+    }
+
+    @Test
+    public void steadyStateEncodeDecode_allocatesNothing() {
+        final BufferPool pool = new BufferPool(256 * 1024, 8);
+        final VideoPacket[] packets = {
+                new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.KEY_FRAME, 0L, payload(60000, 1)),
+                new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.FRAME, 0L, payload(4000, 2)),
+                new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.FRAME, 0L, payload(9000, 3)),
+        };
+        final VideoPacket received = new VideoPacket();
+        final long[] checksum = new long[1];
+
+        Runnable loop = new Runnable() {
+            int frame;
+
+            @Override
+            public void run() {
+                VideoPacket videoPacket = packets[frame % packets.length];
+                videoPacket.presentationTimeStamp = frame++ * 33333L;
+
+                ByteBuffer wire = pool.acquire(PacketCodec.frameSize(videoPacket));
+                PacketCodec.encode(videoPacket, wire);
+                wire.flip();
+
+                if (!PacketCodec.decodeFrame(wire, received)) {
+                    throw new AssertionError("frame not decoded");
+                }
+                checksum[0] += received.presentationTimeStamp + received.buffer.get(received.offset);
+                pool.release(received.buffer);
+            }
+        };
+
+        long allocated = Allocations.measure(loop, 20000, 10000);
+        assertEquals(0L, allocated);
+        assertTrue(checksum[0] != 0);
+    }
+}
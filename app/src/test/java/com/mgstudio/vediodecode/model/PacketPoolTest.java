@@ -0,0 +1,113 @@
+package com.mgstudio.vediodecode.model;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PacketPoolTest {
+
+    @Test
+    public void acquire_copiesIntoPooledView() {
+        PacketPool pool = new PacketPool(new BufferPool(4096, 2));
+        VideoPacket videoPacket = pool.acquire(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+        assertEquals(3, videoPacket.getSize());
+        assertArrayEquals(new byte[]{1, 2, 3}, videoPacket.getData());
+        assertEquals(1, pool.outstanding());
+
+        videoPacket.release();
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void lastRelease_recyclesPacketAndBuffer() {
+        BufferPool buffers = new BufferPool(4096, 2);
+        PacketPool pool = new PacketPool(buffers);
+
+        VideoPacket videoPacket = pool.acquire(100);
+        ByteBuffer buffer = videoPacket.buffer;
+        videoPacket.retain();
+        videoPacket.release();
+        // still held once
+        assertSame(buffer, videoPacket.buffer);
+        assertEquals(0, buffers.available());
+
+        videoPacket.release();
+        assertEquals(1, buffers.available());
+        assertSame(videoPacket, pool.acquire(200));
+    }
+
+    @Test
+    public void steadyState_doesNotAllocate() {
+        final PacketPool pool = new PacketPool(new BufferPool(64 * 1024, 4));
+        final ByteBuffer frame = ByteBuffer.allocate(9 * 1024);
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                frame.clear();
+                VideoPacket videoPacket = pool.acquire(frame);
+                videoPacket.retain();
+                videoPacket.release();
+                videoPacket.release();
+            }
+        }, 20000, 10000);
+        assertEquals(0L, allocated);
+    }
+
+    @Test
+    public void releaseFromAnotherThread() throws InterruptedException {
+        final PacketPool pool = new PacketPool(new BufferPool(4096, 2), true);
+        final VideoPacket videoPacket = pool.acquire(10);
+        videoPacket.retain();
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                videoPacket.release();
+            }
+        });
+        consumer.start();
+        consumer.join();
+        videoPacket.release();
+        pool.checkLeaks();
+    }
+
+    @Test
+    public void debug_reportsLeakWithAcquiringStack() {
+        PacketPool pool = new PacketPool(new BufferPool(4096, 2), true);
+        pool.acquire(10).release();
+        pool.acquire(20);
+        try {
+            pool.checkLeaks();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("1 packets never released", e.getMessage());
+            assertEquals("debug_reportsLeakWithAcquiringStack", e.getCause().getStackTrace()[1].getMethodName());
+        }
+    }
+
+    @Test
+    public void debug_detectsUseAfterRelease() {
+        PacketPool pool = new PacketPool(new BufferPool(4096, 2), true);
+        VideoPacket videoPacket = pool.acquire(10);
+        videoPacket.release();
+
+        // not handed out again, and its payload is gone
+        assertNotSame(videoPacket, pool.acquire(10));
+        assertNull(videoPacket.buffer);
+        try {
+            videoPacket.release();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            videoPacket.retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.mgstudio.vediodecode.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class VideoPacketTest {
+
+    // baseline 1280x720 level 3.1, no cropping
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, (byte) 0xDA, 0x01, 0x40, 0x16, (byte) 0xE8};
+
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x38, (byte) 0x80};
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] values = new byte[buffer.remaining()];
+        buffer.duplicate().get(values);
+        return values;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return java.util.Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Test
+    public void getStreamSettings_splitsParameterSetsAndReadsSize() {
+        byte[] config = concat(new byte[]{0, 0, 0, 1}, SPS, new byte[]{0, 0, 0, 1}, PPS);
+        VideoPacket.StreamSettings settings = VideoPacket.getStreamSettings(config);
+
+        assertArrayEquals(concat(new byte[]{0, 0, 0, 1}, SPS), bytes(settings.sps));
+        assertArrayEquals(concat(new byte[]{0, 0, 0, 1}, PPS), bytes(settings.pps));
+        assertEquals(1280, settings.width);
+        assertEquals(720, settings.height);
+    }
+
+    @Test
+    public void getStreamSettings_acceptsShortStartCodesAndSeveralPps() {
+        byte[] pps1 = {0x68, (byte) 0xEE, 0x3C, (byte) 0x80};
+        byte[] config = concat(new byte[]{0, 0, 1, 0x09, 0x10}, new byte[]{0, 0, 1}, SPS,
+                new byte[]{0, 0, 1}, PPS, new byte[]{0, 0, 0, 1}, pps1, new byte[]{0});
+        VideoPacket.StreamSettings settings = VideoPacket.getStreamSettings(config);
+
+        // access unit delimiter left out, start codes normalized to 4 bytes
+        assertArrayEquals(concat(new byte[]{0, 0, 0, 1}, SPS), bytes(settings.sps));
+        assertArrayEquals(concat(new byte[]{0, 0, 0, 1}, PPS, new byte[]{0, 0, 0, 1}, pps1), bytes(settings.pps));
+    }
+
+    @Test
+    public void getStreamSettings_rejectsIncompleteConfig() {
+        byte[][] configs = {
+                new byte[0],
+                concat(new byte[]{0, 0, 0, 1}, SPS),
+                concat(new byte[]{0, 0, 0, 1}, PPS),
+                // the old parser ran off the end of this one
+                new byte[]{0, 0, 0, 1, 0x67, 0, 0},
+        };
+        for (byte[] config : configs) {
+            try {
+                VideoPacket.getStreamSettings(config);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.mgstudio.vediodecode.player;
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JitterBufferTest {
+
+    private static final long FRAME_US = 33333;
+
+    // sender clock is 5 s behind the receiver clock, the network adds 100 ms
+    private static final long OFFSET_US = 5000 * 1000 + 100 * 1000;
+
+    private static class FakeClock implements JitterBuffer.Clock {
+        long now;
+
+        @Override
+        public long nowUs() {
+            return now;
+        }
+    }
+
+    private static VideoPacket frame(int index) {
+        return new VideoPacket(MediaPacket.Type.VIDEO,
+                index % 60 == 0 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME,
+                index * FRAME_US, new byte[]{(byte) index});
+    }
+
+    // drives the buffer in 1 ms steps: frames arrive at pts + OFFSET_US + jitter, releases are recorded
+    private static List<long[]> simulate(JitterBuffer jitterBuffer, FakeClock clock, long[] jitterUs) {
+        List<long[]> releases = new ArrayList<>();
+        int next = 0;
+        long end = jitterUs.length * FRAME_US + OFFSET_US + 2000 * 1000;
+        for (clock.now = OFFSET_US; clock.now < end; clock.now += 1000) {
+            while (next < jitterUs.length && next * FRAME_US + OFFSET_US + jitterUs[next] <= clock.now) {
+                jitterBuffer.offer(frame(next++));
+            }
+            VideoPacket videoPacket;
+            while ((videoPacket = jitterBuffer.poll()) != null) {
+                releases.add(new long[]{videoPacket.presentationTimeStamp, clock.now});
+                jitterBuffer.release(videoPacket);
+            }
+        }
+        assertEquals(jitterUs.length, releases.size());
+        return releases;
+    }
+
+    @Test
+    public void steadyLink_keepsMinimumDelay() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+        jitterBuffer.setReleaseLeadUs(0);
+
+        List<long[]> releases = simulate(jitterBuffer, clock, new long[300]);
+
+        // the 1 ms simulation step is the only jitter
+        assertTrue(jitterBuffer.getTargetDelayUs() < JitterBuffer.DEFAULT_MIN_DELAY_US + 4000);
+        for (long[] release : releases) {
+            long delay = release[1] - release[0] - OFFSET_US;
+            assertTrue("delay " + delay, Math.abs(delay - JitterBuffer.DEFAULT_MIN_DELAY_US) <= 5000);
+        }
+        assertEquals(0, jitterBuffer.getLatePackets());
+    }
+
+    @Test
+    public void jitteryLink_growsDelayAndPacesOutput() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+        jitterBuffer.setReleaseLeadUs(0);
+
+        Random random = new Random(9);
+        long[] jitter = new long[30 * 30];
+        for (int i = 0; i < jitter.length; i++) {
+            jitter[i] = random.nextInt(60 * 1000);
+        }
+        List<long[]> releases = simulate(jitterBuffer, clock, jitter);
+
+        // delay follows the jitter: more than the 60 ms spread, far from the maximum
+        assertTrue("target " + jitterBuffer.getTargetDelayUs(), jitterBuffer.getTargetDelayUs() > 60 * 1000);
+        assertTrue("target " + jitterBuffer.getTargetDelayUs(), jitterBuffer.getTargetDelayUs() < 200 * 1000);
+        assertTrue(jitterBuffer.getJitterUs() > 10 * 1000);
+
+        // after a few seconds of learning, frames leave close to the frame interval while arrivals
+        // swing by 60 ms; the small steps are the target delay growing
+        for (int i = 5 * 30; i < releases.size(); i++) {
+            long interval = releases.get(i)[1] - releases.get(i - 1)[1];
+            assertTrue("interval " + interval + " at " + i, Math.abs(interval - FRAME_US) <= 15 * 1000);
+            assertTrue(releases.get(i)[0] > releases.get(i - 1)[0]);
+        }
+        assertTrue("late " + jitterBuffer.getLatePackets(), jitterBuffer.getLatePackets() < 30);
+    }
+
+    @Test
+    public void calmLink_shrinksDelaySlowly() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+
+        long[] jitter = new long[60 * 30];
+        Random random = new Random(4);
+        for (int i = 0; i < 10 * 30; i++) {
+            jitter[i] = random.nextInt(80 * 1000);
+        }
+        List<long[]> releases = simulate(jitterBuffer, clock, jitter);
+
+        long peak = 0;
+        for (int i = 1; i < releases.size(); i++) {
+            peak = Math.max(peak, releases.get(i)[1] - releases.get(i)[0]);
+        }
+        long end = releases.get(releases.size() - 1)[1] - releases.get(releases.size() - 1)[0];
+        assertTrue(end < peak - 50 * 1000);
+        assertTrue(jitterBuffer.getTargetDelayUs() < 40 * 1000);
+    }
+
+    @Test
+    public void reorderedArrivals_leaveInPtsOrder() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+        clock.now = OFFSET_US;
+        jitterBuffer.offer(frame(1));
+        jitterBuffer.offer(frame(0));
+        jitterBuffer.offer(frame(3));
+        jitterBuffer.offer(frame(2));
+        assertEquals(4, jitterBuffer.size());
+
+        clock.now += 10 * 1000 * 1000;
+        for (int i = 0; i < 4; i++) {
+            VideoPacket videoPacket = jitterBuffer.poll();
+            assertEquals(i * FRAME_US, videoPacket.presentationTimeStamp);
+            assertEquals((byte) i, videoPacket.buffer.get(videoPacket.offset));
+            jitterBuffer.release(videoPacket);
+        }
+        assertNull(jitterBuffer.poll());
+    }
+
+    @Test
+    public void offer_copiesPayload() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+        VideoPacket videoPacket = frame(7);
+        jitterBuffer.offer(videoPacket);
+        videoPacket.data[0] = 0;
+
+        clock.now += 1000 * 1000;
+        VideoPacket copy = jitterBuffer.poll();
+        assertEquals(1, copy.size);
+        assertEquals(7, copy.buffer.get(0));
+        jitterBuffer.release(copy);
+        assertEquals(0, jitterBuffer.size());
+    }
+
+    @Test
+    public void fullWithAFrameHeld_dropsUpToAKeyFrame() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+        jitterBuffer.offer(frame(0));
+        clock.now = 1000 * 1000;
+        // still being decoded, its spare is out
+        VideoPacket held = jitterBuffer.poll();
+        assertNotNull(held);
+
+        for (int i = 1; i < 256; i++) {
+            assertEquals(0, jitterBuffer.offer(frame(i)));
+        }
+        // full: 1 to 59 reference frames that go with them, the key frame at 60 starts over
+        assertEquals(59, jitterBuffer.offer(frame(256)));
+
+        assertEquals(59, jitterBuffer.getDroppedFrames());
+        assertEquals(256 - 60 + 1, jitterBuffer.size());
+        clock.now += 1000 * 1000;
+        VideoPacket next = jitterBuffer.poll();
+        assertEquals(VideoPacket.Flag.KEY_FRAME, next.flag);
+        assertEquals(60 * FRAME_US, next.presentationTimeStamp);
+        jitterBuffer.release(next);
+        jitterBuffer.release(held);
+    }
+
+    @Test
+    public void fullWithoutAKeyFrame_skipsToTheNextOne() {
+        FakeClock clock = new FakeClock();
+        JitterBuffer jitterBuffer = new JitterBuffer(clock, new BufferPool(4096, 4));
+        for (int i = 1; i <= 256; i++) {
+            jitterBuffer.offer(frame(i * 60 + 1));
+        }
+
+        // nothing waiting can be decoded without what went before
+        assertEquals(257, jitterBuffer.offer(frame(257 * 60 + 1)));
+        assertEquals(0, jitterBuffer.size());
+        assertEquals(1, jitterBuffer.offer(frame(257 * 60 + 2)));
+        assertEquals(0, jitterBuffer.offer(frame(258 * 60)));
+
+        assertEquals(258, jitterBuffer.getDroppedFrames());
+        assertEquals(1, jitterBuffer.size());
+        assertEquals(0, jitterBuffer.getLatePackets());
+    }
+}
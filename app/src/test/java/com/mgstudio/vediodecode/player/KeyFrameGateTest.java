@@ -0,0 +1,58 @@
+package com.mgstudio.vediodecode.player;
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyFrameGateTest {
+
+    private long nowUs;
+
+    private final JitterBuffer.Clock clock = new JitterBuffer.Clock() {
+        @Override
+        public long nowUs() {
+            return nowUs;
+        }
+    };
+
+    private static VideoPacket packet(VideoPacket.Flag flag) {
+        return new VideoPacket(MediaPacket.Type.VIDEO, flag, 0, new byte[1]);
+    }
+
+    @Test
+    public void holdsFramesUntilConfigAndKeyFrame() {
+        KeyFrameGate gate = new KeyFrameGate(clock);
+        nowUs = 1000;
+        gate.connected();
+
+        nowUs = 5000;
+        assertFalse(gate.accept(packet(VideoPacket.Flag.FRAME)));
+        // without parameter sets the key frame can't be decoded either
+        assertFalse(gate.accept(packet(VideoPacket.Flag.KEY_FRAME)));
+        assertEquals(-1, gate.getTimeToFirstFrameUs());
+
+        assertTrue(gate.accept(packet(VideoPacket.Flag.CONFIG)));
+        assertFalse(gate.accept(packet(VideoPacket.Flag.FRAME)));
+        nowUs = 41000;
+        assertTrue(gate.accept(packet(VideoPacket.Flag.KEY_FRAME)));
+        assertTrue(gate.accept(packet(VideoPacket.Flag.FRAME)));
+        assertEquals(40000, gate.getTimeToFirstFrameUs());
+        assertEquals(3, gate.getSkippedFrames());
+    }
+
+    @Test
+    public void reconnect_waitsAgain() {
+        KeyFrameGate gate = new KeyFrameGate(clock);
+        gate.connected();
+        gate.accept(packet(VideoPacket.Flag.CONFIG));
+        gate.accept(packet(VideoPacket.Flag.KEY_FRAME));
+
+        gate.connected();
+        assertEquals(-1, gate.getTimeToFirstFrameUs());
+        assertFalse(gate.accept(packet(VideoPacket.Flag.FRAME)));
+        assertTrue(gate.accept(packet(VideoPacket.Flag.END)));
+    }
+}
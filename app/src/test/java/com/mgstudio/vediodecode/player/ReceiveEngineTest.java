@@ -0,0 +1,231 @@
+package com.mgstudio.vediodecode.player;
+
+import com.mgstudio.vediodecode.Allocations;
+import com.mgstudio.vediodecode.metrics.FrameTracer;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReceiveEngineTest {
+
+    // serves a byte array in pseudo-random chunk sizes, optionally over and over
+    private static class ChunkedInputStream extends InputStream {
+
+        private final byte[] bytes;
+        private final int repeat;
+        private final int[] chunks;
+        private int position;
+        private int pass;
+        private int read;
+
+        ChunkedInputStream(byte[] bytes, int repeat, long seed) {
+            this.bytes = bytes;
+            this.repeat = repeat;
+            this.chunks = new int[257];
+            Random random = new Random(seed);
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = 1 + (random.nextBoolean() ? random.nextInt(20) : random.nextInt(100000));
+            }
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == bytes.length) {
+                if (++pass == repeat) {
+                    return -1;
+                }
+                position = 0;
+            }
+            int count = Math.min(Math.min(len, chunks[read++ % chunks.length]), bytes.length - position);
+            System.arraycopy(bytes, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+
+    private static List<VideoPacket> packets() {
+        Random random = new Random(11);
+        List<VideoPacket> packets = new ArrayList<>();
+        int[] sizes = {40, 0, 1, 48 * 1024, 9000, 200 * 1024, 13, 7000};
+        for (int i = 0; i < sizes.length * 4; i++) {
+            byte[] data = new byte[sizes[i % sizes.length]];
+            random.nextBytes(data);
+            VideoPacket.Flag flag = i == 0 ? VideoPacket.Flag.CONFIG
+                    : i % 8 == 3 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME;
+            packets.add(new VideoPacket(MediaPacket.Type.VIDEO, flag, i * 33333L - 5, data));
+        }
+        return packets;
+    }
+
+    private static byte[] wire(List<VideoPacket> packets) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (VideoPacket videoPacket : packets) {
+            byte[] frame = videoPacket.toByteArray();
+            stream.write(frame, 0, frame.length);
+        }
+        return stream.toByteArray();
+    }
+
+    @Test
+    public void run_parsesChunkedStreamUntilEndOfStream() throws IOException {
+        final List<VideoPacket> sent = packets();
+        final List<VideoPacket> received = new ArrayList<>();
+
+        ReceiveEngine engine = new ReceiveEngine(new ChunkedInputStream(wire(sent), 1, 3),
+                new BufferPool(256 * 1024, 2), new ReceiveEngine.Listener() {
+            @Override
+            public void onPacketReceived(VideoPacket videoPacket) {
+                received.add(new VideoPacket(videoPacket.type, videoPacket.flag,
+                        videoPacket.presentationTimeStamp, videoPacket.getData()));
+            }
+        });
+        engine.run();
+
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(sent.get(i).flag, received.get(i).flag);
+            assertEquals(sent.get(i).presentationTimeStamp, received.get(i).presentationTimeStamp);
+            assertArrayEquals(sent.get(i).data, received.get(i).data);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void run_rejectsCorruptedLength() throws IOException {
+        byte[] frame = new byte[]{0, 0, 0, 3, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        new ReceiveEngine(new ByteArrayInputStream(frame), new BufferPool(1024, 1),
+                new ReceiveEngine.Listener() {
+                    @Override
+                    public void onPacketReceived(VideoPacket videoPacket) {
+                    }
+                }).run();
+    }
+
+    @Test(expected = IOException.class)
+    public void run_rejectsOversizedLength() throws IOException {
+        // would be a 2 GiB payload buffer
+        byte[] frame = new byte[]{0x7F, -1, -1, -1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        new ReceiveEngine(new ByteArrayInputStream(frame), new BufferPool(1024, 1),
+                new ReceiveEngine.Listener() {
+                    @Override
+                    public void onPacketReceived(VideoPacket videoPacket) {
+                        fail("delivered " + videoPacket.getSize() + " bytes");
+                    }
+                }).run();
+    }
+
+    @Test
+    public void run_cutOffMidFrame_closesItsTraceSection() throws IOException {
+        final int[] open = new int[1];
+        FrameTracer.TRACER.setSections(new FrameTracer.Sections() {
+            @Override
+            public void begin(FrameTracer.Span span, long timeStamp) {
+                open[0]++;
+            }
+
+            @Override
+            public void end(FrameTracer.Span span, long timeStamp) {
+                open[0]--;
+            }
+        });
+        FrameTracer.TRACER.enable(16);
+        try {
+            byte[] frame = VideoPacket.toArray(MediaPacket.Type.VIDEO, VideoPacket.Flag.FRAME, 9L, new byte[100]);
+            new ReceiveEngine(new ByteArrayInputStream(frame, 0, frame.length - 50), new BufferPool(1024, 1),
+                    new ReceiveEngine.Listener() {
+                        @Override
+                        public void onPacketReceived(VideoPacket videoPacket) {
+                            fail("delivered a cut off frame");
+                        }
+                    }).run();
+            assertEquals(0, open[0]);
+        } finally {
+            FrameTracer.TRACER.disable();
+            FrameTracer.TRACER.setSections(null);
+        }
+    }
+
+    @Test
+    public void run_allocatesNothingPerFrame() throws IOException {
+        List<VideoPacket> sent = packets();
+        final int passes = 200;
+        final long[] frames = new long[1];
+        ReceiveEngine.Listener listener = new ReceiveEngine.Listener() {
+            @Override
+            public void onPacketReceived(VideoPacket videoPacket) {
+                frames[0]++;
+            }
+        };
+        BufferPool pool = new BufferPool(256 * 1024, 2);
+        byte[] wire = wire(sent);
+
+        // warm up the code paths and the pool
+        new ReceiveEngine(new ChunkedInputStream(wire, passes, 5), pool, listener).run();
+
+        ReceiveEngine engine = new ReceiveEngine(new ChunkedInputStream(wire, passes, 5), pool, listener);
+        frames[0] = 0;
+        long before = Allocations.allocatedBytes();
+        engine.run();
+        long allocated = Allocations.allocatedBytes() - before;
+
+        assertEquals(passes * sent.size(), frames[0]);
+        assertEquals("bytes per frame", 0, allocated / frames[0]);
+    }
+
+    @Test(timeout = 5000)
+    public void stop_unblocksIdleRead() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        Socket socket = serverSocket.accept();
+        try {
+            final ReceiveEngine engine = new ReceiveEngine(socket.getInputStream(), new BufferPool(1024, 1),
+                    new ReceiveEngine.Listener() {
+                        @Override
+                        public void onPacketReceived(VideoPacket videoPacket) {
+                        }
+                    });
+            final IOException[] error = new IOException[1];
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        engine.run();
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+            thread.start();
+            Thread.sleep(100);
+            assertTrue(thread.isAlive());
+
+            engine.stop();
+            thread.join(2000);
+            assertFalse(thread.isAlive());
+            assertNull(error[0]);
+        } finally {
+            client.close();
+            socket.close();
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.mgstudio.vediodecode.rtp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RetransmitCacheTest {
+
+    private static final long WINDOW_US = 100 * 1000;
+
+    private static final long INTERVAL_US = 10 * 1000;
+
+    private static class Collector implements RtpPacketizer.Output {
+
+        final List<Integer> sequenceNumbers = new ArrayList<>();
+
+        @Override
+        public void onPacket(byte[] packet, int length) {
+            assertEquals(100, length);
+            sequenceNumbers.add(RtpHeader.sequenceNumber(packet, 0));
+        }
+    }
+
+    private static void add(RetransmitCache cache, int sequenceNumber, long nowUs) {
+        byte[] packet = new byte[100];
+        RtpHeader.write(packet, false, RtpHeader.PAYLOAD_TYPE_H264, sequenceNumber, 0, 1);
+        cache.add(packet, packet.length, nowUs);
+    }
+
+    @Test
+    public void resend_withinTheWindow() throws Exception {
+        RetransmitCache cache = new RetransmitCache(16, 1500, WINDOW_US, INTERVAL_US);
+        Collector collector = new Collector();
+        for (int i = 0; i < 10; i++) {
+            add(cache, 65530 + i, i * 1000);
+        }
+
+        assertTrue(cache.resend(65535, 20000, collector));
+        assertTrue(cache.resend(2, 20000, collector));
+
+        assertEquals(2, collector.sequenceNumbers.size());
+        assertEquals(65535, (int) collector.sequenceNumbers.get(0));
+        assertEquals(2, (int) collector.sequenceNumbers.get(1));
+        assertEquals(2, cache.getRetransmitted());
+    }
+
+    @Test
+    public void tooOld_isNotResent() throws Exception {
+        RetransmitCache cache = new RetransmitCache(16, 1500, WINDOW_US, INTERVAL_US);
+        Collector collector = new Collector();
+        add(cache, 1, 0);
+
+        assertFalse(cache.resend(1, WINDOW_US + 1, collector));
+
+        assertTrue(collector.sequenceNumbers.isEmpty());
+        assertEquals(1, cache.getExpired());
+    }
+
+    @Test
+    public void overwritten_isNotResent() throws Exception {
+        RetransmitCache cache = new RetransmitCache(16, 1500, WINDOW_US, INTERVAL_US);
+        Collector collector = new Collector();
+        for (int i = 0; i < 20; i++) {
+            add(cache, i, 0);
+        }
+
+        // 3 shares its slot with 19
+        assertFalse(cache.resend(3, 0, collector));
+        // never sent
+        assertFalse(cache.resend(40, 0, collector));
+        assertTrue(cache.resend(19, 0, collector));
+
+        assertEquals(1, collector.sequenceNumbers.size());
+        assertEquals(2, cache.getExpired());
+    }
+
+    @Test
+    public void repeatedNacks_resendOncePerInterval() throws Exception {
+        RetransmitCache cache = new RetransmitCache(16, 1500, WINDOW_US, INTERVAL_US);
+        Collector collector = new Collector();
+        add(cache, 7, 0);
+
+        assertTrue(cache.resend(7, 1000, collector));
+        assertTrue(cache.resend(7, 5000, collector));
+        assertTrue(cache.resend(7, 1000 + INTERVAL_US, collector));
+
+        assertEquals(2, collector.sequenceNumbers.size());
+        assertEquals(2, cache.getRetransmitted());
+    }
+}
@@ -0,0 +1,88 @@
+package com.mgstudio.vediodecode.rtp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RtcpNackTest {
+
+    private static class Collector implements RtcpNack.Listener {
+
+        final List<Integer> sequenceNumbers = new ArrayList<>();
+
+        @Override
+        public void onNack(int sequenceNumber) {
+            sequenceNumbers.add(sequenceNumber);
+        }
+    }
+
+    private static List<Integer> roundTrip(byte[] packet, int... sequenceNumbers) {
+        int length = RtcpNack.write(packet, 1, 2, sequenceNumbers, sequenceNumbers.length);
+        Collector collector = new Collector();
+        assertTrue(RtcpNack.read(packet, 0, length, collector));
+        return collector.sequenceNumbers;
+    }
+
+    private static List<Integer> list(int... values) {
+        List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Test
+    public void header_isGenericNack() {
+        byte[] packet = new byte[64];
+        int length = RtcpNack.write(packet, 0x11223344, 0x55667788, new int[]{10}, 1);
+
+        assertEquals(16, length);
+        assertEquals(0x81, packet[0] & 0xFF);
+        assertEquals(RtcpNack.PACKET_TYPE, packet[1] & 0xFF);
+        // length in 32-bit words minus one
+        assertEquals(3, packet[3]);
+        assertEquals(0x55667788, RtcpNack.mediaSsrc(packet, 0));
+    }
+
+    @Test
+    public void nearbyLosses_shareAnEntry() {
+        byte[] packet = new byte[64];
+        int length = RtcpNack.write(packet, 1, 2, new int[]{100, 101, 105, 116, 117}, 5);
+
+        // 100 with 101, 105 and 116 in its bitmask, 117 in a second entry
+        assertEquals(RtcpNack.HEADER_SIZE + 8, length);
+        assertEquals(list(100, 101, 105, 116, 117), roundTrip(packet, 100, 101, 105, 116, 117));
+    }
+
+    @Test
+    public void sequenceNumbers_wrap() {
+        assertEquals(list(65534, 65535, 0, 3), roundTrip(new byte[64], 65534, 65535, 0, 3));
+    }
+
+    @Test
+    public void fullPacket_keepsTheFirstEntries() {
+        byte[] packet = new byte[RtcpNack.HEADER_SIZE + 8];
+        int length = RtcpNack.write(packet, 1, 2, new int[]{0, 100, 200}, 3);
+
+        assertEquals(packet.length, length);
+        Collector collector = new Collector();
+        RtcpNack.read(packet, 0, length, collector);
+        assertEquals(list(0, 100), collector.sequenceNumbers);
+    }
+
+    @Test
+    public void nothingMissing_writesNothing() {
+        assertEquals(0, RtcpNack.write(new byte[64], 1, 2, new int[4], 0));
+    }
+
+    @Test
+    public void otherPackets_areNotNacks() {
+        byte[] packet = new byte[64];
+        RtpHeader.write(packet, true, RtpHeader.PAYLOAD_TYPE_H264, 1, 2, 3);
+        assertFalse(RtcpNack.read(packet, 0, 20, new Collector()));
+        assertFalse(RtcpNack.read(packet, 0, 4, new Collector()));
+    }
+}
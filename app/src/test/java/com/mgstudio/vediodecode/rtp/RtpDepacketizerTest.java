@@ -0,0 +1,306 @@
+package com.mgstudio.vediodecode.rtp;
+
+import com.mgstudio.vediodecode.Allocations;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.mgstudio.vediodecode.rtp.RtpPacketizerTest.accessUnit;
+import static com.mgstudio.vediodecode.rtp.RtpPacketizerTest.unit;
+import static org.junit.Assert.*;
+
+public class RtpDepacketizerTest {
+
+    private static final int MAX_PACKET_SIZE = 1200;
+
+    private static final int GOP = 10;
+
+    private static final long FRAME_US = 33333;
+
+    private static class Frame {
+        final VideoPacket.Flag flag;
+        final long presentationTimeStamp;
+        final byte[] data;
+
+        Frame(VideoPacket.Flag flag, long presentationTimeStamp, byte[] data) {
+            this.flag = flag;
+            this.presentationTimeStamp = presentationTimeStamp;
+            this.data = data;
+        }
+    }
+
+    private static class Collector implements RtpDepacketizer.Listener {
+
+        final List<Frame> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(VideoPacket videoPacket) {
+            frames.add(new Frame(videoPacket.flag, videoPacket.presentationTimeStamp, videoPacket.getData()));
+        }
+    }
+
+    // parameter sets and a large IDR at the start of every GOP, P frames of a few packets in between
+    private static List<Frame> stream(int frames) {
+        Random random = new Random(1);
+        List<Frame> stream = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            long presentationTimeStamp = i * FRAME_US;
+            if (i % GOP == 0) {
+                stream.add(new Frame(VideoPacket.Flag.CONFIG, presentationTimeStamp,
+                        accessUnit(unit(7, 20, random), unit(8, 6, random))));
+                stream.add(new Frame(VideoPacket.Flag.KEY_FRAME, presentationTimeStamp,
+                        accessUnit(unit(6, 30, random), unit(5, 8000, random))));
+            } else {
+                stream.add(new Frame(VideoPacket.Flag.FRAME, presentationTimeStamp,
+                        accessUnit(unit(1, 200 + random.nextInt(3000), random))));
+            }
+        }
+        return stream;
+    }
+
+    private static List<byte[]> packetize(List<Frame> stream, int firstSequenceNumber) throws IOException {
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, 7);
+        packetizer.setSequenceNumber(firstSequenceNumber);
+        RtpPacketizerTest.Collector collector = new RtpPacketizerTest.Collector();
+        for (Frame frame : stream) {
+            packetizer.packetize(new VideoPacket(MediaPacket.Type.VIDEO, frame.flag, frame.presentationTimeStamp,
+                    frame.data), collector);
+        }
+        return collector.packets;
+    }
+
+    private static void assertFrame(Frame expected, Frame actual) {
+        assertEquals(expected.flag, actual.flag);
+        // through the 90 kHz clock
+        assertEquals(expected.presentationTimeStamp, actual.presentationTimeStamp, 12);
+        assertArrayEquals(expected.data, actual.data);
+    }
+
+    private static void feed(RtpDepacketizer depacketizer, List<byte[]> packets) {
+        for (byte[] packet : packets) {
+            depacketizer.receive(packet, 0, packet.length, 0);
+        }
+    }
+
+    @Test
+    public void inOrder_rebuildsEveryFrame() throws IOException {
+        List<Frame> stream = stream(30);
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector);
+
+        feed(depacketizer, packetize(stream, 100));
+
+        assertEquals(stream.size(), collector.frames.size());
+        for (int i = 0; i < stream.size(); i++) {
+            assertFrame(stream.get(i), collector.frames.get(i));
+        }
+        assertEquals(0, depacketizer.getLost());
+        assertEquals(0, depacketizer.getFramesDropped());
+        assertFalse(depacketizer.isWaitingForKeyFrame());
+    }
+
+    @Test
+    public void reordered_isPutBackInOrder() throws IOException {
+        List<Frame> stream = stream(30);
+        List<byte[]> packets = packetize(stream, 65000);
+        // shuffled in blocks well inside the window, across the sequence number wrap; the first one
+        // stays first, the receiver starts counting at whatever it sees first
+        Random random = new Random(2);
+        for (int from = 1; from < packets.size(); from += 16) {
+            Collections.shuffle(packets.subList(from, Math.min(from + 16, packets.size())), random);
+        }
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector);
+
+        feed(depacketizer, packets);
+
+        assertEquals(stream.size(), collector.frames.size());
+        for (int i = 0; i < stream.size(); i++) {
+            assertFrame(stream.get(i), collector.frames.get(i));
+        }
+        assertEquals(0, depacketizer.getLost());
+    }
+
+    @Test
+    public void loss_dropsFramesUntilTheNextKeyFrame() throws IOException {
+        List<Frame> stream = stream(20);
+        List<byte[]> packets = packetize(stream, 0);
+        // the first packet of frame 3, a P frame
+        int lostFrame = 4;
+        int index = 0;
+        for (int frame = 0; frame < lostFrame; frame++) {
+            do {
+                index++;
+            } while (!RtpHeader.marker(packets.get(index - 1), 0));
+        }
+        packets.remove(index);
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector,
+                RtpDepacketizer.DEFAULT_WINDOW, 1000);
+
+        feed(depacketizer, packets.subList(0, index + 2));
+        // the gap waits for the reorder delay, then is given up on
+        assertEquals(lostFrame, collector.frames.size());
+        depacketizer.flush(2000);
+        assertEquals(1, depacketizer.getLost());
+        assertTrue(depacketizer.isWaitingForKeyFrame());
+        for (int i = index + 2; i < packets.size(); i++) {
+            depacketizer.receive(packets.get(i), 0, packets.get(i).length, 2000);
+        }
+
+        // frames 3 to 9 of the first GOP are gone, the second GOP comes through whole
+        int resumed = stream.size() - (GOP + 1);
+        assertEquals(lostFrame + resumed, collector.frames.size());
+        for (int i = 0; i < lostFrame; i++) {
+            assertFrame(stream.get(i), collector.frames.get(i));
+        }
+        for (int i = 0; i < resumed; i++) {
+            assertFrame(stream.get(GOP + 1 + i), collector.frames.get(lostFrame + i));
+        }
+        // the frames after the damaged one at least; a frame lost whole is never seen
+        assertTrue(depacketizer.getFramesDropped() >= GOP - lostFrame);
+        assertFalse(depacketizer.isWaitingForKeyFrame());
+    }
+
+    @Test
+    public void windowOverrun_givesUpOnTheGap() throws IOException {
+        List<Frame> stream = stream(40);
+        List<byte[]> packets = packetize(stream, 0);
+        packets.remove(1);
+        Collector collector = new Collector();
+        // never expires by time
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector,
+                16, Long.MAX_VALUE);
+
+        feed(depacketizer, packets);
+
+        // the first key frame lost a fragment: nothing until the second GOP
+        assertEquals(1, depacketizer.getLost());
+        assertFrame(stream.get(0), collector.frames.get(0));
+        assertEquals(VideoPacket.Flag.CONFIG, collector.frames.get(1).flag);
+        assertFrame(stream.get(GOP + 1), collector.frames.get(1));
+        assertFrame(stream.get(stream.size() - 1), collector.frames.get(collector.frames.size() - 1));
+    }
+
+    @Test
+    public void duplicatesAndLatePackets_areIgnored() throws IOException {
+        List<Frame> stream = stream(10);
+        List<byte[]> packets = packetize(stream, 0);
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector);
+
+        for (byte[] packet : packets) {
+            depacketizer.receive(packet, 0, packet.length, 0);
+            depacketizer.receive(packet, 0, packet.length, 0);
+        }
+
+        assertEquals(stream.size(), collector.frames.size());
+        assertEquals(packets.size(), depacketizer.getLate());
+        assertEquals(0, depacketizer.getLost());
+    }
+
+    @Test
+    public void newSsrc_restartsAtItsKeyFrame() throws IOException {
+        List<Frame> stream = stream(12);
+        List<byte[]> packets = packetize(stream, 0);
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector);
+        feed(depacketizer, packets.subList(0, packets.size() / 2));
+        int before = collector.frames.size();
+
+        // a restarted sender: new SSRC and sequence numbers far off
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, 8);
+        packetizer.setSequenceNumber(30000);
+        RtpPacketizerTest.Collector restarted = new RtpPacketizerTest.Collector();
+        for (Frame frame : stream) {
+            packetizer.packetize(new VideoPacket(MediaPacket.Type.VIDEO, frame.flag, frame.presentationTimeStamp,
+                    frame.data), restarted);
+        }
+        feed(depacketizer, restarted.packets);
+
+        assertEquals(before + stream.size(), collector.frames.size());
+        assertFrame(stream.get(0), collector.frames.get(before));
+    }
+
+    @Test
+    public void missingPackets_areNackedAndRecovered() throws IOException {
+        List<Frame> stream = stream(10);
+        List<byte[]> packets = packetize(stream, 65530);
+        byte[] first = packets.remove(5);
+        byte[] second = packets.remove(5);
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector,
+                RtpDepacketizer.DEFAULT_WINDOW, 1000 * 1000);
+        feed(depacketizer, packets.subList(0, 10));
+        int[] nacks = new int[8];
+
+        // not before the NACK delay, then every retry interval, three times at most
+        assertEquals(0, depacketizer.collectNacks(1000, nacks));
+        assertEquals(2, depacketizer.collectNacks(RtpDepacketizer.DEFAULT_NACK_DELAY_US, nacks));
+        assertEquals(65535, nacks[0]);
+        assertEquals(0, nacks[1]);
+        assertEquals(0, depacketizer.collectNacks(10 * 1000, nacks));
+        assertEquals(2, depacketizer.collectNacks(40 * 1000, nacks));
+        assertEquals(2, depacketizer.collectNacks(70 * 1000, nacks));
+        assertEquals(0, depacketizer.collectNacks(100 * 1000, nacks));
+
+        depacketizer.receive(second, 0, second.length, 100 * 1000);
+        depacketizer.receive(first, 0, first.length, 100 * 1000);
+        feed(depacketizer, packets.subList(10, packets.size()));
+
+        assertEquals(2, depacketizer.getRecovered());
+        assertEquals(0, depacketizer.getLost());
+        assertEquals(stream.size(), collector.frames.size());
+        for (int i = 0; i < stream.size(); i++) {
+            assertFrame(stream.get(i), collector.frames.get(i));
+        }
+    }
+
+    @Test
+    public void malformedPackets_areDropped() {
+        Collector collector = new Collector();
+        RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2), collector);
+
+        depacketizer.receive(new byte[4], 0, 4, 0);
+        // version 0
+        depacketizer.receive(new byte[20], 0, 20, 0);
+
+        assertEquals(0, depacketizer.getReceived());
+        assertTrue(collector.frames.isEmpty());
+    }
+
+    @Test
+    public void receive_allocatesNothing() throws IOException {
+        List<byte[]> stream = packetize(stream(GOP), 0);
+        final byte[][] packets = stream.toArray(new byte[stream.size()][]);
+        final int[] sequenceNumber = {0};
+        final RtpDepacketizer depacketizer = new RtpDepacketizer(new BufferPool(1024 * 1024, 2),
+                new RtpDepacketizer.Listener() {
+                    @Override
+                    public void onFrame(VideoPacket videoPacket) {
+                    }
+                });
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                // the same GOP over and over, renumbered so it reads as one long stream
+                for (byte[] packet : packets) {
+                    packet[2] = (byte) (sequenceNumber[0] >> 8);
+                    packet[3] = (byte) sequenceNumber[0];
+                    sequenceNumber[0] = (sequenceNumber[0] + 1) & 0xFFFF;
+                    depacketizer.receive(packet, 0, packet.length, 0);
+                }
+            }
+        }, 200, 100);
+        assertEquals(0, bytes);
+        assertEquals(0, depacketizer.getLost());
+    }
+}
@@ -0,0 +1,223 @@
+package com.mgstudio.vediodecode.rtp;
+
+import com.mgstudio.vediodecode.Allocations;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RtpPacketizerTest {
+
+    private static final int MAX_PACKET_SIZE = 1200;
+
+    private static final int SSRC = 0x12345678;
+
+    static class Collector implements RtpPacketizer.Output {
+
+        final List<byte[]> packets = new ArrayList<>();
+
+        @Override
+        public void onPacket(byte[] packet, int length) {
+            packets.add(Arrays.copyOf(packet, length));
+        }
+    }
+
+    // a NAL unit of the given type: no zero bytes, so no start code emulation to worry about
+    static byte[] unit(int type, int size, Random random) {
+        byte[] unit = new byte[size];
+        for (int i = 1; i < size; i++) {
+            unit[i] = (byte) (1 + random.nextInt(255));
+        }
+        unit[0] = (byte) (0x60 | type);
+        return unit;
+    }
+
+    // the units in Annex B form, four byte start codes
+    static byte[] accessUnit(byte[]... units) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (byte[] unit : units) {
+            outputStream.write(0);
+            outputStream.write(0);
+            outputStream.write(0);
+            outputStream.write(1);
+            outputStream.write(unit, 0, unit.length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static VideoPacket packet(long presentationTimeStamp, byte[] data) {
+        return new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.FRAME, presentationTimeStamp, data);
+    }
+
+    private static byte[] payload(byte[] packet) {
+        return Arrays.copyOfRange(packet, RtpHeader.SIZE, packet.length);
+    }
+
+    @Test
+    public void smallUnit_goesAlone() throws IOException {
+        byte[] unit = unit(1, 300, new Random(1));
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        Collector collector = new Collector();
+
+        assertEquals(1, packetizer.packetize(packet(1000000, accessUnit(unit)), collector));
+
+        byte[] packet = collector.packets.get(0);
+        assertEquals(RtpHeader.VERSION, RtpHeader.version(packet, 0));
+        assertTrue(RtpHeader.marker(packet, 0));
+        assertEquals(RtpHeader.PAYLOAD_TYPE_H264, RtpHeader.payloadType(packet, 0));
+        assertEquals(90000, RtpHeader.timestamp(packet, 0));
+        assertEquals(SSRC, RtpHeader.ssrc(packet, 0));
+        assertArrayEquals(unit, payload(packet));
+    }
+
+    @Test
+    public void smallUnits_shareStapA() throws IOException {
+        Random random = new Random(2);
+        byte[] sps = unit(7, 20, random);
+        byte[] pps = unit(8, 6, random);
+        byte[] idr = unit(5, 400, random);
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        Collector collector = new Collector();
+
+        assertEquals(1, packetizer.packetize(packet(0, accessUnit(sps, pps, idr)), collector));
+
+        ByteBuffer payload = ByteBuffer.wrap(payload(collector.packets.get(0)));
+        assertEquals(RtpPacketizer.STAP_A, payload.get() & 0x1F);
+        for (byte[] unit : new byte[][]{sps, pps, idr}) {
+            byte[] aggregated = new byte[payload.getShort() & 0xFFFF];
+            payload.get(aggregated);
+            assertArrayEquals(unit, aggregated);
+        }
+        assertFalse(payload.hasRemaining());
+    }
+
+    @Test
+    public void largeUnit_isFragmentedToFitThePacketSize() throws IOException {
+        byte[] unit = unit(5, 5000, new Random(3));
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        Collector collector = new Collector();
+
+        int packets = packetizer.packetize(packet(0, accessUnit(unit)), collector);
+
+        assertEquals(5, packets);
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        for (int i = 0; i < packets; i++) {
+            byte[] packet = collector.packets.get(i);
+            assertTrue(packet.length <= MAX_PACKET_SIZE);
+            assertEquals(i == packets - 1, RtpHeader.marker(packet, 0));
+            byte[] payload = payload(packet);
+            assertEquals(RtpPacketizer.FU_A, payload[0] & 0x1F);
+            assertEquals(unit[0] & 0xE0, payload[0] & 0xE0);
+            assertEquals(5, payload[1] & 0x1F);
+            assertEquals(i == 0, (payload[1] & 0x80) != 0);
+            assertEquals(i == packets - 1, (payload[1] & 0x40) != 0);
+            if (i == 0) {
+                reassembled.write(unit[0]);
+            }
+            reassembled.write(payload, 2, payload.length - 2);
+        }
+        assertArrayEquals(unit, reassembled.toByteArray());
+    }
+
+    @Test
+    public void mixedUnits_keepTheirOrder() throws IOException {
+        Random random = new Random(4);
+        byte[] sei = unit(6, 30, random);
+        byte[] large = unit(5, 3000, random);
+        byte[] small = unit(5, 40, random);
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        Collector collector = new Collector();
+
+        int packets = packetizer.packetize(packet(0, accessUnit(sei, large, small)), collector);
+
+        // the SEI alone, three fragments, the last slice alone with the marker
+        assertEquals(5, packets);
+        assertArrayEquals(sei, payload(collector.packets.get(0)));
+        assertEquals(RtpPacketizer.FU_A, collector.packets.get(1)[RtpHeader.SIZE] & 0x1F);
+        assertArrayEquals(small, payload(collector.packets.get(4)));
+        for (int i = 0; i < packets; i++) {
+            assertEquals(i == packets - 1, RtpHeader.marker(collector.packets.get(i), 0));
+        }
+    }
+
+    @Test
+    public void sequenceNumbers_countUpAndWrap() throws IOException {
+        Random random = new Random(5);
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        packetizer.setSequenceNumber(65534);
+        Collector collector = new Collector();
+
+        packetizer.packetize(packet(0, accessUnit(unit(5, 4000, random))), collector);
+        packetizer.packetize(packet(33333, accessUnit(unit(1, 100, random))), collector);
+
+        int expected = 65534;
+        for (byte[] packet : collector.packets) {
+            assertEquals(expected, RtpHeader.sequenceNumber(packet, 0));
+            expected = (expected + 1) & 0xFFFF;
+        }
+        assertEquals(expected, packetizer.getSequenceNumber());
+        assertEquals(RtpHeader.toTimestamp(33333), RtpHeader.timestamp(collector.packets.get(4), 0));
+    }
+
+    @Test
+    public void bufferPayload_isPacketizedInPlace() throws IOException {
+        Random random = new Random(6);
+        byte[] unit = unit(1, 2000, random);
+        byte[] frame = accessUnit(unit);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frame.length + 10);
+        buffer.position(10);
+        buffer.put(frame);
+        VideoPacket videoPacket = new VideoPacket();
+        videoPacket.buffer = buffer;
+        videoPacket.offset = 10;
+        videoPacket.size = frame.length;
+        RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        Collector collector = new Collector();
+
+        assertEquals(2, packetizer.packetize(videoPacket, collector));
+        // the buffer's own position is left alone
+        assertEquals(frame.length + 10, buffer.position());
+        byte[] first = payload(collector.packets.get(0));
+        byte[] second = payload(collector.packets.get(1));
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        reassembled.write(unit[0]);
+        reassembled.write(first, 2, first.length - 2);
+        reassembled.write(second, 2, second.length - 2);
+        assertArrayEquals(unit, reassembled.toByteArray());
+    }
+
+    @Test
+    public void packetize_allocatesNothing() {
+        Random random = new Random(7);
+        final VideoPacket videoPacket = packet(0, accessUnit(unit(7, 20, random), unit(8, 6, random),
+                unit(5, 20000, random), unit(6, 30, random)));
+        final RtpPacketizer packetizer = new RtpPacketizer(MAX_PACKET_SIZE, SSRC);
+        final RtpPacketizer.Output output = new RtpPacketizer.Output() {
+            @Override
+            public void onPacket(byte[] packet, int length) {
+            }
+        };
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    videoPacket.presentationTimeStamp += 33333;
+                    packetizer.packetize(videoPacket, output);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }, 2000, 1000);
+        assertEquals(0, bytes);
+    }
+}
@@ -0,0 +1,128 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.control.ControlMessage;
+import com.mgstudio.vediodecode.control.ControlReader;
+import com.mgstudio.vediodecode.control.ControlWriter;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.player.PacketReader;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Control messages from the receiver reach the sender's listener over loopback, through both TCP
+ * transports, while the media keeps flowing the other way.
+ */
+public class ControlChannelTest {
+
+    private static final int PACKETS = 200;
+
+    private static class Collector implements ControlReader.Listener {
+
+        final List<String> messages = new ArrayList<>();
+        final CountDownLatch done;
+
+        Collector(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onControlMessage(ControlMessage message) {
+            synchronized (messages) {
+                messages.add(message.toString());
+            }
+            done.countDown();
+        }
+    }
+
+    private static List<String> run(Transport transport, byte[] garbage) throws Exception {
+        ControlMessage[] sent = {
+                ControlMessage.keyFrameRequest(),
+                ControlMessage.bitrateHint(1500000),
+                ControlMessage.receiverStats(120, 3, 480000, 90000),
+                ControlMessage.pause(),
+                ControlMessage.resume(),
+        };
+        Collector collector = new Collector(sent.length);
+        transport.setControlListener(collector);
+
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            transport.start(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(5000);
+                ControlWriter controlWriter = new ControlWriter(socket.getOutputStream());
+                PacketReader packetReader = new PacketReader(socket.getInputStream());
+                for (int i = 0; i < PACKETS; i++) {
+                    byte[] data = new byte[4000];
+                    data[0] = (byte) i;
+                    transport.send(new VideoPacket(MediaPacket.Type.VIDEO,
+                            i == 0 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME, i, data));
+                    if (i % 40 == 20) {
+                        if (garbage != null) {
+                            OutputStream outputStream = socket.getOutputStream();
+                            outputStream.write(garbage);
+                            outputStream.flush();
+                        } else {
+                            controlWriter.send(sent[i / 40]);
+                        }
+                    }
+                    VideoPacket received = packetReader.read();
+                    assertEquals(i, received.presentationTimeStamp);
+                    assertEquals((byte) i, received.data[0]);
+                }
+                if (garbage == null) {
+                    assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+                } else {
+                    // the media got through, give the reader a moment to have seen everything
+                    Thread.sleep(50);
+                }
+            }
+        } finally {
+            transport.stop();
+            serverSocket.close();
+        }
+        synchronized (collector.messages) {
+            return new ArrayList<>(collector.messages);
+        }
+    }
+
+    private static List<String> expected() {
+        List<String> expected = new ArrayList<>();
+        expected.add("KEY_FRAME_REQUEST");
+        expected.add("BITRATE_HINT 1500000");
+        expected.add("RECEIVER_STATS frames 120, dropped 3, bytes 480000, delay 90000 us");
+        expected.add("PAUSE");
+        expected.add("RESUME");
+        return expected;
+    }
+
+    @Test
+    public void socketTransport_readsControlMessages() throws Exception {
+        assertEquals(expected(), run(new SocketTransport(), null));
+    }
+
+    @Test
+    public void channelTransport_readsControlMessages() throws Exception {
+        assertEquals(expected(), run(new ChannelTransport(), null));
+    }
+
+    @Test
+    public void corruptedControl_leavesTheMediaAlone() throws Exception {
+        // a zero length can't be resynchronized from
+        byte[] garbage = {0, 0, 1, 2, 3};
+        assertTrue(run(new SocketTransport(), garbage).isEmpty());
+        assertTrue(run(new ChannelTransport(), garbage).isEmpty());
+    }
+}
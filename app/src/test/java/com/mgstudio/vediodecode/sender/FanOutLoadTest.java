@@ -0,0 +1,251 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.Report;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.player.PacketReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fans one synthetic stream out to N loopback receivers, checks every receiver gets it intact and
+ * prints the per-client throughput as N grows; a receiver that stops reading must not hold up the rest.
+ */
+public class FanOutLoadTest {
+
+    private static final int PACKETS = 300;
+
+    // frames a paced receiver may have queued before the test waits for it
+    private static final int PACING_DEPTH = 32;
+
+    // loopback gives each of 8 clients tens of MiB/s
+    private static final double MIN_MEGABYTES_PER_SECOND = 5;
+
+    private static class Client extends Thread {
+
+        private final ServerSocket serverSocket;
+        private final int packetsExpected;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int packets;
+        private volatile long bytes;
+        private volatile long elapsedNs;
+        private volatile String error;
+
+        Client(ServerSocket serverSocket, int packetsExpected) {
+            this.serverSocket = serverSocket;
+            this.packetsExpected = packetsExpected;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                PacketReader packetReader = new PacketReader(socket.getInputStream());
+                long start = 0;
+                for (int i = 0; i < packetsExpected; i++) {
+                    VideoPacket videoPacket = packetReader.read();
+                    if (i == 0) {
+                        start = System.nanoTime();
+                    }
+                    if (videoPacket.presentationTimeStamp != ptsOf(i) || videoPacket.data.length != sizeOf(i)
+                            || videoPacket.data[videoPacket.data.length - 1] != (byte) i) {
+                        error = "packet " + i + " corrupted";
+                        break;
+                    }
+                    bytes += videoPacket.data.length;
+                    packets++;
+                }
+                elapsedNs = System.nanoTime() - start;
+                done.countDown();
+                // hold the connection open until the transport stops
+                socket.getInputStream().read();
+            } catch (IOException e) {
+                error = e.toString();
+                done.countDown();
+            }
+        }
+    }
+
+    private static int sizeOf(int index) {
+        return index % 60 == 0 ? 48 * 1024 : 6 * 1024 + (index * 97) % 6000;
+    }
+
+    // a millisecond apart, far inside the queues' latency budget
+    private static long ptsOf(int index) {
+        return index * 1000L;
+    }
+
+    private static VideoPacket packet(PacketPool pool, int index, int size, Random random) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        data[size - 1] = (byte) index;
+        VideoPacket videoPacket = pool.acquire(ByteBuffer.wrap(data));
+        videoPacket.type = MediaPacket.Type.VIDEO;
+        videoPacket.flag = index % 60 == 0 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME;
+        videoPacket.presentationTimeStamp = ptsOf(index);
+        return videoPacket;
+    }
+
+    private static void awaitConnected(FanOutTransport.Receiver... receivers) throws InterruptedException {
+        for (FanOutTransport.Receiver receiver : receivers) {
+            for (int attempt = 0; !receiver.isConnected(); attempt++) {
+                assertTrue("receiver didn't connect", attempt < 400);
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private static void pace(FanOutTransport.Receiver... receivers) {
+        for (FanOutTransport.Receiver receiver : receivers) {
+            while (receiver.getQueue().size() >= PACING_DEPTH) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // average MiB/s per client
+    private static double run(int clients) throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        PacketPool pool = new PacketPool(new BufferPool(64 * 1024, 4), true);
+        Random random = new Random(clients);
+        ServerSocket[] serverSockets = new ServerSocket[clients];
+        Client[] readers = new Client[clients];
+        FanOutTransport transport = new FanOutTransport();
+        FanOutTransport.Receiver[] receivers = new FanOutTransport.Receiver[clients];
+        try {
+            for (int i = 0; i < clients; i++) {
+                serverSockets[i] = new ServerSocket(0, 1, loopback);
+                readers[i] = new Client(serverSockets[i], PACKETS);
+                readers[i].start();
+            }
+            transport.start(loopback, serverSockets[0].getLocalPort());
+            receivers[0] = transport.getReceivers()[0];
+            for (int i = 1; i < clients; i++) {
+                receivers[i] = transport.addReceiver(loopback, serverSockets[i].getLocalPort());
+            }
+            awaitConnected(receivers);
+
+            for (int i = 0; i < PACKETS; i++) {
+                VideoPacket videoPacket = packet(pool, i, sizeOf(i), random);
+                pace(receivers);
+                transport.send(videoPacket);
+            }
+
+            double megabytesPerSecond = 0;
+            for (int i = 0; i < clients; i++) {
+                assertTrue(readers[i].done.await(30, TimeUnit.SECONDS));
+                assertNull(readers[i].error, readers[i].error);
+                assertEquals(PACKETS, readers[i].packets);
+                assertEquals(0, receivers[i].getQueue().getDroppedPackets());
+                megabytesPerSecond += readers[i].bytes / (readers[i].elapsedNs / 1e9) / (1024 * 1024);
+            }
+            // the sender's payloads go back to their pool as soon as they are serialized
+            pool.checkLeaks();
+            return megabytesPerSecond / clients;
+        } finally {
+            transport.stop();
+            for (ServerSocket serverSocket : serverSockets) {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fanOut_deliversToEveryClient() throws Exception {
+        for (int clients = 1; clients <= 8; clients *= 2) {
+            double megabytesPerSecond = run(clients);
+            Report.print("Fan-out to %d clients: %.1f MiB/s per client", clients, megabytesPerSecond);
+            assertTrue(clients + " clients got " + megabytesPerSecond + " MiB/s each",
+                    megabytesPerSecond > MIN_MEGABYTES_PER_SECOND);
+        }
+    }
+
+    @Test
+    public void stalledClient_doesNotBlockOthers() throws Exception {
+        // well past what the stalled connection's socket buffers can absorb
+        final int packets = 1200;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        PacketPool pool = new PacketPool(new BufferPool(64 * 1024, 4), true);
+        Random random = new Random(3);
+
+        ServerSocket[] healthy = new ServerSocket[2];
+        Client[] readers = new Client[2];
+        final ServerSocket stalled = new ServerSocket();
+        FanOutTransport transport = new FanOutTransport();
+        try {
+            stalled.setReceiveBufferSize(4096);
+            stalled.bind(new InetSocketAddress(loopback, 0), 4);
+            // accepts and never reads
+            Thread staller = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            stalled.accept();
+                        }
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            };
+            staller.start();
+
+            for (int i = 0; i < healthy.length; i++) {
+                healthy[i] = new ServerSocket(0, 1, loopback);
+                readers[i] = new Client(healthy[i], packets);
+                readers[i].start();
+            }
+            transport.start(loopback, healthy[0].getLocalPort());
+            FanOutTransport.Receiver first = transport.getReceivers()[0];
+            FanOutTransport.Receiver slow = transport.addReceiver(loopback, stalled.getLocalPort());
+            FanOutTransport.Receiver second = transport.addReceiver(loopback, healthy[1].getLocalPort());
+            awaitConnected(first, slow, second);
+
+            long maxSendNs = 0;
+            for (int i = 0; i < packets; i++) {
+                VideoPacket videoPacket = packet(pool, i, sizeOf(i), random);
+                pace(first, second);
+                long start = System.nanoTime();
+                transport.send(videoPacket);
+                maxSendNs = Math.max(maxSendNs, System.nanoTime() - start);
+            }
+
+            for (Client reader : readers) {
+                assertTrue(reader.done.await(30, TimeUnit.SECONDS));
+                assertNull(reader.error, reader.error);
+                assertEquals(packets, reader.packets);
+            }
+            Report.print(
+                    "Stalled client: max send %.2f ms, stalled got %d of %d packets, %d dropped, %d disconnects",
+                    maxSendNs / 1e6, slow.getPacketsSent(), packets, slow.getQueue().getDroppedPackets(),
+                    slow.getDisconnects());
+            assertTrue("send blocked for " + maxSendNs / 1000000 + " ms", maxSendNs < 100L * 1000 * 1000);
+            assertTrue(slow.getPacketsSent() < packets);
+            assertTrue(slow.getDisconnects() > 0 || slow.getQueue().getDroppedPackets() > 0);
+            pool.checkLeaks();
+        } finally {
+            transport.stop();
+            stalled.close();
+            for (ServerSocket serverSocket : healthy) {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
+            }
+        }
+    }
+}
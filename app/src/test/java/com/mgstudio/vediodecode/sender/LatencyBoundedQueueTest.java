@@ -0,0 +1,261 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyBoundedQueueTest {
+
+    private static final long FRAME_US = 33333;
+
+    private static final int GOP = 30;
+
+    private static VideoPacket packet(VideoPacket.Flag flag, int frame) {
+        VideoPacket videoPacket = new VideoPacket(MediaPacket.Type.VIDEO, flag, frame * FRAME_US, new byte[100]);
+        // remember the position in the trace
+        videoPacket.offset = frame;
+        return videoPacket;
+    }
+
+    // config, then GOPs of one key frame and P frames
+    private static List<VideoPacket> trace(int frames) {
+        List<VideoPacket> trace = new ArrayList<>();
+        trace.add(packet(VideoPacket.Flag.CONFIG, 0));
+        for (int i = 0; i < frames; i++) {
+            trace.add(packet(i % GOP == 0 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME, i));
+        }
+        return trace;
+    }
+
+    private static class Requests implements LatencyBoundedQueue.Listener {
+        int count;
+
+        @Override
+        public void onKeyFrameRequested() {
+            count++;
+        }
+    }
+
+    private static List<VideoPacket> drain(LatencyBoundedQueue queue) {
+        List<VideoPacket> packets = new ArrayList<>();
+        VideoPacket videoPacket;
+        while ((videoPacket = queue.poll()) != null) {
+            packets.add(videoPacket);
+        }
+        return packets;
+    }
+
+    @Test
+    public void underBudget_keepsEverythingInOrder() {
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(1000 * 1000);
+        List<VideoPacket> trace = trace(20);
+        for (VideoPacket videoPacket : trace) {
+            queue.offer(videoPacket);
+        }
+        assertEquals(trace, drain(queue));
+        assertEquals(0, queue.getDroppedPackets());
+    }
+
+    @Test
+    public void overBudget_dropsFramesUpToQueuedKeyFrame() {
+        Requests requests = new Requests();
+        // a bit more than one GOP fits
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(GOP * FRAME_US + FRAME_US / 2);
+        queue.setListener(requests);
+
+        List<VideoPacket> trace = trace(GOP + 5);
+        for (VideoPacket videoPacket : trace) {
+            queue.offer(videoPacket);
+        }
+
+        // the first GOP's P frames went, config and both key frames stayed
+        List<VideoPacket> left = drain(queue);
+        assertEquals(VideoPacket.Flag.CONFIG, left.get(0).flag);
+        assertEquals(VideoPacket.Flag.KEY_FRAME, left.get(1).flag);
+        assertEquals(0, left.get(1).offset);
+        assertEquals(VideoPacket.Flag.KEY_FRAME, left.get(2).flag);
+        assertEquals(GOP, left.get(2).offset);
+        assertEquals(3 + 4, left.size());
+        assertEquals(GOP - 1, queue.getDroppedPackets());
+        assertEquals((GOP - 1) * 100, queue.getDroppedBytes());
+        // clean cut on a GOP boundary, no IDR needed
+        assertEquals(0, requests.count);
+    }
+
+    @Test
+    public void midGopCut_requestsKeyFrameAndDropsUntilIt() {
+        Requests requests = new Requests();
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(10 * FRAME_US);
+        queue.setListener(requests);
+
+        List<VideoPacket> trace = trace(GOP + 3);
+        // nothing is consumed: frames 1..12 are one frame over budget
+        for (int i = 0; i <= 13; i++) {
+            queue.offer(trace.get(i));
+        }
+        assertEquals(1, requests.count);
+        assertEquals(1, queue.getKeyFrameRequests());
+
+        // the rest of the GOP can't be decoded any more and is dropped on arrival
+        for (int i = 14; i <= GOP; i++) {
+            queue.offer(trace.get(i));
+        }
+        assertEquals(1, requests.count);
+        List<VideoPacket> left = drain(queue);
+        assertEquals(2, left.size());
+        assertEquals(VideoPacket.Flag.CONFIG, left.get(0).flag);
+        assertEquals(VideoPacket.Flag.KEY_FRAME, left.get(1).flag);
+
+        // the key frame ends the cut
+        queue.offer(trace.get(GOP + 1));
+        queue.offer(trace.get(GOP + 2));
+        left = drain(queue);
+        assertEquals(2, left.size());
+        assertEquals(GOP, left.get(0).offset);
+        assertEquals(GOP + 1, left.get(1).offset);
+    }
+
+    @Test
+    public void connected_startsReceiverAtKeyFrame() {
+        Requests requests = new Requests();
+        LatencyBoundedQueue queue = new LatencyBoundedQueue();
+        queue.setListener(requests);
+        List<VideoPacket> trace = trace(GOP + 2);
+
+        // P frames 3..5 queued ahead of a connect: useless to the new receiver
+        queue.offer(trace.get(0));
+        for (int i = 4; i <= 6; i++) {
+            queue.offer(trace.get(i));
+        }
+        queue.connected();
+        assertEquals(1, requests.count);
+        assertEquals(3, queue.getDroppedPackets());
+        queue.offer(trace.get(7));
+        queue.offer(trace.get(GOP + 1));
+        queue.offer(trace.get(GOP + 2));
+        List<VideoPacket> left = drain(queue);
+        assertEquals(3, left.size());
+        assertEquals(VideoPacket.Flag.CONFIG, left.get(0).flag);
+        assertEquals(GOP, left.get(1).offset);
+
+        // a queued key frame is a good start, the frames after it stay
+        queue.offer(trace.get(1));
+        queue.offer(trace.get(2));
+        queue.connected();
+        queue.offer(trace.get(3));
+        assertEquals(3, queue.size());
+        assertEquals(1, requests.count);
+    }
+
+    @Test
+    public void neverDropsKeyFramesOrConfig() {
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(FRAME_US);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(packet(VideoPacket.Flag.CONFIG, i));
+            queue.offer(packet(VideoPacket.Flag.KEY_FRAME, i));
+        }
+        assertEquals(20, queue.size());
+        assertEquals(0, queue.getDroppedPackets());
+    }
+
+    @Test
+    public void rejectedKeyFrame_dropsItsGopAndRequestsAnother() {
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(1000 * 1000);
+        Requests requests = new Requests();
+        queue.setListener(requests);
+        List<VideoPacket> trace = trace(2 * GOP);
+
+        // the hand-off was full when the first key frame came
+        queue.offer(trace.get(0));
+        queue.reject(trace.get(1));
+        for (VideoPacket videoPacket : trace.subList(2, trace.size())) {
+            queue.offer(videoPacket);
+        }
+
+        assertEquals(1, requests.count);
+        List<VideoPacket> packets = drain(queue);
+        assertEquals(VideoPacket.Flag.CONFIG, packets.get(0).flag);
+        // the P frames of the lost GOP can't be decoded, the next GOP can
+        assertEquals(VideoPacket.Flag.KEY_FRAME, packets.get(1).flag);
+        assertEquals(GOP, packets.get(1).offset);
+        assertEquals(1 + GOP, packets.size());
+        assertEquals(GOP, queue.getDroppedPackets());
+    }
+
+    @Test
+    public void droppedAndClearedPackets_areReleased() {
+        PacketPool pool = new PacketPool(new BufferPool(1024, 4), true);
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(5 * FRAME_US);
+        for (VideoPacket videoPacket : trace(GOP + 10)) {
+            VideoPacket pooled = pool.acquire(videoPacket.getSize());
+            pooled.type = videoPacket.type;
+            pooled.flag = videoPacket.flag;
+            pooled.presentationTimeStamp = videoPacket.presentationTimeStamp;
+            queue.offer(pooled);
+        }
+        assertTrue(queue.getDroppedPackets() > 0);
+        // dropped packets went back, queued ones are still held
+        assertEquals(queue.size(), pool.outstanding());
+
+        queue.clear();
+        pool.checkLeaks();
+    }
+
+    // slow consumer over a long trace: what gets through stays live and decodable
+    @Test
+    public void slowConsumerReplay_staysDecodableAndLive() {
+        Requests requests = new Requests();
+        long budget = 500 * 1000;
+        LatencyBoundedQueue queue = new LatencyBoundedQueue(budget);
+        queue.setListener(requests);
+
+        List<VideoPacket> trace = trace(30 * 60);
+        List<VideoPacket> delivered = new ArrayList<>();
+        int produced = 0;
+        for (VideoPacket videoPacket : trace) {
+            queue.offer(videoPacket);
+            produced++;
+            // link sends two packets for every three produced
+            if (produced % 3 != 0) {
+                VideoPacket sent = queue.poll();
+                if (sent != null) {
+                    delivered.add(sent);
+                }
+            }
+            // key frames at the head may hold the age up for at most one GOP
+            assertTrue("latency " + queue.getLatencyUs(), queue.getLatencyUs() <= budget + GOP * FRAME_US);
+        }
+        delivered.addAll(drain(queue));
+
+        assertTrue(queue.getDroppedPackets() > 0);
+        assertEquals(trace.size(), delivered.size() + queue.getDroppedPackets());
+
+        // every key frame and config got through
+        int keyFrames = 0;
+        for (VideoPacket videoPacket : delivered) {
+            if (videoPacket.flag != VideoPacket.Flag.FRAME) {
+                keyFrames++;
+            }
+        }
+        assertEquals(1 + 60, keyFrames);
+
+        // a P frame is only delivered if every earlier frame of its GOP was
+        int expected = -1;
+        for (VideoPacket videoPacket : delivered) {
+            if (videoPacket.flag == VideoPacket.Flag.KEY_FRAME) {
+                expected = videoPacket.offset + 1;
+            } else if (videoPacket.flag == VideoPacket.Flag.FRAME) {
+                assertEquals("frame " + videoPacket.offset + " after a gap", expected, videoPacket.offset);
+                expected++;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ParameterSetCacheTest {
+
+    private static final byte[] CONFIG = {0, 0, 0, 1, 0x67, 0x42, 1, 2, 0, 0, 0, 1, 0x68, 3};
+
+    private static VideoPacket packet(VideoPacket.Flag flag, long pts, byte[] data) {
+        return new VideoPacket(MediaPacket.Type.VIDEO, flag, pts, data);
+    }
+
+    private static VideoPacket keyFrame(long pts) {
+        return packet(VideoPacket.Flag.KEY_FRAME, pts, new byte[]{0, 0, 0, 1, 0x65, 7, 7});
+    }
+
+    @Test
+    public void keyFrames_getLatestConfigInFront() {
+        PacketPool pool = new PacketPool(new BufferPool(1024, 4), true);
+        ParameterSetCache cache = new ParameterSetCache(pool);
+
+        // nothing to repeat yet
+        assertNull(cache.beforeSend(keyFrame(0)));
+        assertNull(cache.beforeSend(packet(VideoPacket.Flag.CONFIG, 0, CONFIG)));
+        assertTrue(cache.hasConfig());
+        // the codec's own config already precedes the first key frame
+        assertNull(cache.beforeSend(keyFrame(0)));
+        assertNull(cache.beforeSend(packet(VideoPacket.Flag.FRAME, 1, new byte[]{1})));
+
+        VideoPacket config = cache.beforeSend(keyFrame(60));
+        assertNotNull(config);
+        assertEquals(VideoPacket.Flag.CONFIG, config.flag);
+        assertEquals(MediaPacket.Type.VIDEO, config.type);
+        assertEquals(60, config.presentationTimeStamp);
+        assertArrayEquals(CONFIG, config.getData());
+        config.release();
+        assertEquals(1, cache.getInjected());
+
+        // new parameter sets, e.g. after a resolution change, replace the old ones
+        byte[] larger = new byte[CONFIG.length + 5];
+        System.arraycopy(CONFIG, 0, larger, 0, CONFIG.length);
+        cache.beforeSend(packet(VideoPacket.Flag.CONFIG, 61, larger));
+        cache.beforeSend(keyFrame(61));
+        config = cache.beforeSend(keyFrame(120));
+        assertArrayEquals(larger, config.getData());
+        config.release();
+        pool.checkLeaks();
+    }
+
+    @Test
+    public void keyFrameWithInBandParameterSets_isLeftAlone() {
+        ParameterSetCache cache = new ParameterSetCache(new PacketPool(new BufferPool(1024, 4)));
+        cache.beforeSend(packet(VideoPacket.Flag.CONFIG, 0, CONFIG));
+        cache.beforeSend(packet(VideoPacket.Flag.FRAME, 1, new byte[]{1}));
+
+        byte[] inBand = {0, 0, 0, 1, 0x09, 0x10, 0, 0, 0, 1, 0x67, 0x42, 0, 0, 1, 0x68, 3, 0, 0, 1, 0x65, 7};
+        assertNull(cache.beforeSend(packet(VideoPacket.Flag.KEY_FRAME, 60, inBand)));
+
+        // a pooled key frame is scanned in place
+        PacketPool pool = new PacketPool(new BufferPool(1024, 4));
+        VideoPacket pooled = pool.acquire(ByteBuffer.wrap(inBand));
+        pooled.flag = VideoPacket.Flag.KEY_FRAME;
+        assertNull(cache.beforeSend(pooled));
+        assertEquals(0, cache.getInjected());
+    }
+}
@@ -0,0 +1,165 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.Report;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.player.JitterBuffer;
+import com.mgstudio.vediodecode.player.KeyFrameGate;
+import com.mgstudio.vediodecode.player.ReceiveEngine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * A receiver connects to a live stream in the middle of a GOP, over loopback: the sender's first
+ * decodable output for it must be the cached parameter sets followed by a key frame, well before
+ * the encoder's next scheduled IDR.
+ */
+public class StreamJoinTest {
+
+    private static final int GOP = 60;
+
+    private static final int FRAMES = 300;
+
+    // the receiver connects here, 40 frames into the second GOP
+    private static final int JOIN = 100;
+
+    private static final long FRAME_MS = 5;
+
+    private static final byte[] CONFIG = {0, 0, 0, 1, 0x67, 0x42, 1, 2, 0, 0, 0, 1, 0x68, 3};
+
+    private static class Receiver extends Thread implements ReceiveEngine.Listener {
+
+        private final ServerSocket serverSocket;
+        private final KeyFrameGate gate = new KeyFrameGate(JitterBuffer.Clock.SYSTEM);
+        // frames the decoder would have been given, -1 for CONFIG
+        final List<Long> decoded = new ArrayList<>();
+        byte[] config;
+        final CountDownLatch ended = new CountDownLatch(1);
+        volatile String error;
+
+        Receiver(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public void onPacketReceived(VideoPacket videoPacket) {
+            if (!gate.accept(videoPacket)) {
+                return;
+            }
+            if (videoPacket.flag == VideoPacket.Flag.CONFIG) {
+                config = videoPacket.getData();
+                decoded.add(-1L);
+            } else if (videoPacket.flag == VideoPacket.Flag.END) {
+                ended.countDown();
+            } else {
+                decoded.add(videoPacket.presentationTimeStamp);
+            }
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                gate.connected();
+                new ReceiveEngine(socket.getInputStream(), new BufferPool(64 * 1024, 2), this).run();
+            } catch (IOException e) {
+                error = e.toString();
+            }
+        }
+    }
+
+    @Test
+    public void midGopJoin_startsAtRequestedKeyFrameWithParameterSets() throws Exception {
+        PacketPool pool = new PacketPool(new BufferPool(64 * 1024, 4), true);
+        ParameterSetCache cache = new ParameterSetCache(pool);
+        final AtomicBoolean keyFrameRequested = new AtomicBoolean();
+        SocketTransport transport = new SocketTransport();
+        transport.getQueue().setListener(new LatencyBoundedQueue.Listener() {
+            @Override
+            public void onKeyFrameRequested() {
+                keyFrameRequested.set(true);
+            }
+        });
+
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Receiver receiver = new Receiver(serverSocket);
+        receiver.start();
+        int firstKeyFrameAfterJoin = -1;
+        try {
+            // the encoder's config sample comes once, long before the receiver shows up
+            VideoPacket config = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.CONFIG, 0, CONFIG);
+            cache.beforeSend(config);
+            for (int i = 0; i < FRAMES; i++) {
+                if (i == JOIN) {
+                    transport.start(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+                }
+                boolean keyFrame = i % GOP == 0 || keyFrameRequested.getAndSet(false);
+                if (keyFrame && i >= JOIN && firstKeyFrameAfterJoin < 0) {
+                    firstKeyFrameAfterJoin = i;
+                }
+                byte[] data = new byte[1000 + i];
+                Arrays.fill(data, (byte) 0x55);
+                VideoPacket videoPacket = pool.acquire(ByteBuffer.wrap(data));
+                videoPacket.type = MediaPacket.Type.VIDEO;
+                videoPacket.flag = keyFrame ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME;
+                videoPacket.presentationTimeStamp = i;
+
+                // what Sender.Encoder does with each sample; before the join the transport drops them
+                VideoPacket parameterSets = cache.beforeSend(videoPacket);
+                if (parameterSets != null) {
+                    transport.send(parameterSets);
+                }
+                transport.send(videoPacket);
+                Thread.sleep(FRAME_MS);
+            }
+            transport.send(new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.END, FRAMES, new byte[0]));
+            assertTrue(receiver.ended.await(10, TimeUnit.SECONDS));
+        } finally {
+            transport.stop();
+            serverSocket.close();
+        }
+        receiver.join(10000);
+
+        assertNull(receiver.error, receiver.error);
+        // requested on connect instead of waiting for frame 120
+        assertTrue("first key frame at " + firstKeyFrameAfterJoin,
+                firstKeyFrameAfterJoin > JOIN && firstKeyFrameAfterJoin < 2 * GOP);
+        assertEquals(-1L, (long) receiver.decoded.get(0));
+        assertArrayEquals(CONFIG, receiver.config);
+        assertEquals(firstKeyFrameAfterJoin, (long) receiver.decoded.get(1));
+        // from there on every frame arrives in order, each key frame behind the parameter sets
+        long expected = firstKeyFrameAfterJoin;
+        for (int i = 1; i < receiver.decoded.size(); i++) {
+            long frame = receiver.decoded.get(i);
+            if (frame == -1) {
+                assertEquals(0, receiver.decoded.get(i + 1) % GOP);
+            } else {
+                assertEquals(expected++, frame);
+            }
+        }
+        assertEquals(FRAMES, expected);
+        long timeToFirstFrameMs = receiver.gate.getTimeToFirstFrameUs() / 1000;
+        Report.print("time to first frame: %d ms, key frame at %d after joining at %d",
+                timeToFirstFrameMs, firstKeyFrameAfterJoin, JOIN);
+        assertTrue(receiver.gate.getTimeToFirstFrameUs() >= 0);
+        // sooner than waiting out the GOP for the scheduled key frame
+        assertTrue("time to first frame " + timeToFirstFrameMs + " ms",
+                timeToFirstFrameMs < (2 * GOP - JOIN) * FRAME_MS);
+        pool.checkLeaks();
+    }
+}
@@ -0,0 +1,295 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.Report;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.player.PacketReader;
+
+import org.junit.Test;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends the same synthetic stream through SocketTransport and ChannelTransport over loopback,
+ * checks both deliver it intact and compares throughput and the CPU time of the transport thread.
+ */
+public class TransportLoopbackTest {
+
+    private static final int PACKETS = 600;
+
+    private static final long IDLE_MS = 300;
+
+    // loopback runs at tens of MiB/s, a transport stuck behind a sleep would not reach this
+    private static final double MIN_MEGABYTES_PER_SECOND = 10;
+
+    private static class Result {
+        double megabytesPerSecond;
+        long busyCpuMs;
+        long idleCpuMs;
+    }
+
+    private static class Receiver extends Thread {
+
+        private final ServerSocket serverSocket;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int packets;
+        private volatile long bytes;
+        private volatile String error;
+
+        Receiver(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                PacketReader packetReader = new PacketReader(socket.getInputStream());
+                for (int i = 0; i < PACKETS; i++) {
+                    VideoPacket videoPacket = packetReader.read();
+                    if (videoPacket.presentationTimeStamp != i || videoPacket.data.length != sizeOf(i)
+                            || videoPacket.data[videoPacket.data.length - 1] != (byte) i) {
+                        error = "packet " + i + " corrupted";
+                        break;
+                    }
+                    bytes += videoPacket.data.length;
+                    packets++;
+                }
+                done.countDown();
+                // hold the connection open until the transport stops
+                socket.getInputStream().read();
+            } catch (IOException e) {
+                error = e.toString();
+                done.countDown();
+            }
+        }
+    }
+
+    // reads a few KiB at a time while slow is set, like a receiver on a poor link
+    private static class SlowReceiver extends Thread {
+
+        private final ServerSocket serverSocket;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean slow = true;
+        private volatile int packets;
+        private volatile String error;
+
+        SlowReceiver(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                InputStream throttled = new FilterInputStream(socket.getInputStream()) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (slow) {
+                            try {
+                                Thread.sleep(2);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            len = Math.min(len, 4096);
+                        }
+                        return super.read(b, off, len);
+                    }
+                };
+                PacketReader packetReader = new PacketReader(throttled);
+                long last = -1;
+                VideoPacket videoPacket;
+                while ((videoPacket = packetReader.read()).flag != VideoPacket.Flag.END) {
+                    if (videoPacket.presentationTimeStamp <= last) {
+                        error = "packet " + videoPacket.presentationTimeStamp + " after " + last;
+                        break;
+                    }
+                    last = videoPacket.presentationTimeStamp;
+                    packets++;
+                }
+            } catch (IOException e) {
+                error = e.toString();
+            }
+            done.countDown();
+        }
+    }
+
+    private static int sizeOf(int index) {
+        return index % 60 == 0 ? 48 * 1024 : 6 * 1024 + (index * 97) % 6000;
+    }
+
+    private static VideoPacket[] stream() {
+        Random random = new Random(5);
+        VideoPacket[] packets = new VideoPacket[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            byte[] data = new byte[sizeOf(i)];
+            random.nextBytes(data);
+            data[data.length - 1] = (byte) i;
+            packets[i] = new VideoPacket(MediaPacket.Type.VIDEO,
+                    i % 60 == 0 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME, i, data);
+        }
+        return packets;
+    }
+
+    private static Thread findThread(String name) throws InterruptedException {
+        for (int attempt = 0; attempt < 200; attempt++) {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals(name)) {
+                    return thread;
+                }
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("no thread " + name);
+    }
+
+    private static Result run(Transport transport, String threadName) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        PacketPool pool = new PacketPool(new BufferPool(64 * 1024, 4), true);
+        VideoPacket[] packets = stream();
+        VideoPacket[] held = new VideoPacket[packets.length];
+        int[] positions = new int[packets.length];
+        int[] limits = new int[packets.length];
+        for (int i = 0; i < packets.length; i++) {
+            // same packet, payload moved into a pooled buffer the transport has to release
+            VideoPacket pooled = pool.acquire(ByteBuffer.wrap(packets[i].data));
+            pooled.type = packets[i].type;
+            pooled.flag = packets[i].flag;
+            pooled.presentationTimeStamp = packets[i].presentationTimeStamp;
+            packets[i] = pooled;
+            // a second holder reading the same buffer, as another fan-out receiver would
+            pooled.retain();
+            held[i] = pooled;
+            positions[i] = pooled.buffer.position();
+            limits[i] = pooled.buffer.limit();
+        }
+
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Receiver receiver = new Receiver(serverSocket);
+        receiver.start();
+        try {
+            transport.start(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            long worker = findThread(threadName).getId();
+
+            long cpuStart = threads.getThreadCpuTime(worker);
+            long start = System.nanoTime();
+            for (VideoPacket videoPacket : packets) {
+                // an encoder runs far slower than this loop, don't outrun the hand-off ring
+                while (transport.getHandOffDepth() >= 128) {
+                    Thread.yield();
+                }
+                transport.send(videoPacket);
+            }
+            assertTrue(receiver.done.await(30, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - start;
+            long cpuBusy = threads.getThreadCpuTime(worker);
+
+            // nothing queued: the transport should be asleep
+            Thread.sleep(IDLE_MS);
+            long cpuIdle = threads.getThreadCpuTime(worker);
+
+            assertNull(receiver.error, receiver.error);
+            assertEquals(PACKETS, receiver.packets);
+            assertEquals(0, transport.getQueue().getDroppedPackets());
+            assertTrue(transport.getHandOffHighWaterMark() <= 129);
+            for (int i = 0; i < held.length; i++) {
+                // the transport wrote from its own view, the shared buffer was left alone
+                assertEquals(positions[i], held[i].buffer.position());
+                assertEquals(limits[i], held[i].buffer.limit());
+                held[i].release();
+            }
+            // every payload went back to the pool once written
+            pool.checkLeaks();
+
+            Result result = new Result();
+            result.megabytesPerSecond = receiver.bytes / (elapsed / 1e9) / (1024 * 1024);
+            result.busyCpuMs = (cpuBusy - cpuStart) / 1000000;
+            result.idleCpuMs = (cpuIdle - cpuBusy) / 1000000;
+            return result;
+        } finally {
+            transport.stop();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void channelTransport_slowReceiver_dropsByLatencyBudget() throws Exception {
+        final AtomicInteger rejected = new AtomicInteger();
+        LatencyBoundedQueue queue = new LatencyBoundedQueue() {
+            @Override
+            public void reject(VideoPacket videoPacket) {
+                rejected.incrementAndGet();
+                super.reject(videoPacket);
+            }
+        };
+        ChannelTransport transport = new ChannelTransport(queue);
+
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(8192);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        SlowReceiver receiver = new SlowReceiver(serverSocket);
+        receiver.start();
+        int frames = 500;
+        try {
+            transport.start(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            // 16 s of 30 fps stream in about half a second, far more than the receiver reads meanwhile
+            for (int i = 0; i < frames; i++) {
+                transport.send(new VideoPacket(MediaPacket.Type.VIDEO,
+                        i % 30 == 0 ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME, i * 33333L,
+                        new byte[32 * 1024]));
+                Thread.sleep(1);
+            }
+            transport.send(new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.END, frames * 33333L,
+                    new byte[0]));
+            receiver.slow = false;
+            assertTrue(receiver.done.await(30, TimeUnit.SECONDS));
+        } finally {
+            transport.stop();
+            serverSocket.close();
+        }
+
+        assertNull(receiver.error, receiver.error);
+        // the ring kept draining into the queue while writes waited, so its budget did the dropping
+        assertEquals("rejected at the hand-off", 0, rejected.get());
+        assertTrue(queue.getDroppedPackets() > 0);
+        assertEquals(frames, receiver.packets + queue.getDroppedPackets());
+    }
+
+    @Test
+    public void transports_deliverWithoutSpinning() throws Exception {
+        Result socket = run(new SocketTransport(), "SocketTransport");
+        Result channel = run(new ChannelTransport(), "ChannelTransport");
+
+        Report.print(
+                "Socket: %.1f MiB/s, cpu %d ms busy, %d ms per %d ms idle; "
+                        + "Channel: %.1f MiB/s, cpu %d ms busy, %d ms per %d ms idle",
+                socket.megabytesPerSecond, socket.busyCpuMs, socket.idleCpuMs, IDLE_MS,
+                channel.megabytesPerSecond, channel.busyCpuMs, channel.idleCpuMs, IDLE_MS);
+
+        assertTrue("socket transport too slow: " + socket.megabytesPerSecond + " MiB/s",
+                socket.megabytesPerSecond > MIN_MEGABYTES_PER_SECOND);
+        assertTrue("channel transport too slow: " + channel.megabytesPerSecond + " MiB/s",
+                channel.megabytesPerSecond > MIN_MEGABYTES_PER_SECOND);
+
+        assertTrue("channel transport spins while idle: " + channel.idleCpuMs + " ms",
+                channel.idleCpuMs < IDLE_MS / 10);
+        // waits on the hand-off ring instead of polling the queue
+        assertTrue("socket transport spins while idle: " + socket.idleCpuMs + " ms",
+                socket.idleCpuMs < IDLE_MS / 10);
+    }
+}
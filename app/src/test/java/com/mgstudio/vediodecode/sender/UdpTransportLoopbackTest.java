@@ -0,0 +1,342 @@
+package com.mgstudio.vediodecode.sender;
+
+import com.mgstudio.vediodecode.fec.FecDecoder;
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.player.ReceiveEngine;
+import com.mgstudio.vediodecode.player.RtpReceiver;
+import com.mgstudio.vediodecode.util.WaitStrategy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends a synthetic H.264 stream through UdpTransport to an RtpReceiver over loopback, through a
+ * proxy that drops and reorders datagrams: every frame that comes out must be intact and in order,
+ * and after a loss the stream must resume at a key frame - or, with NACKs, not lose a frame at all.
+ */
+public class UdpTransportLoopbackTest {
+
+    private static final int FRAMES = 300;
+
+    private static final int GOP = 30;
+
+    private static final long FRAME_US = 33333;
+
+    private static class Frame {
+        VideoPacket.Flag flag;
+        long presentationTimeStamp;
+        byte[] data;
+    }
+
+    private static class Result {
+        List<Frame> frames;
+        int dropped;
+        long lost;
+        long recovered;
+        long nacksSent;
+        long retransmitted;
+        long parityPackets;
+        long fecRecovered;
+    }
+
+    // forwards media datagrams, dropping every dropEvery-th and swapping each swapEvery-th with the
+    // next; NACKs from the player go back to the sender untouched
+    private static class LossyProxy extends Thread {
+
+        private final DatagramSocket socket;
+        private final InetAddress address;
+        private final int port;
+        private final int dropEvery;
+        private final int swapEvery;
+        private volatile int dropped;
+        private InetAddress mSenderAddress;
+        private int mSenderPort;
+
+        LossyProxy(int port, int dropEvery, int swapEvery) throws SocketException {
+            this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            this.socket.setReceiveBufferSize(4 * 1024 * 1024);
+            this.address = InetAddress.getLoopbackAddress();
+            this.port = port;
+            this.dropEvery = dropEvery;
+            this.swapEvery = swapEvery;
+        }
+
+        @Override
+        public void run() {
+            byte[] held = null;
+            try {
+                socket.setSoTimeout(20);
+                for (int i = 1; ; i++) {
+                    DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        // nothing to swap the held one with
+                        if (held != null) {
+                            forward(held);
+                            held = null;
+                        }
+                        i--;
+                        continue;
+                    }
+                    byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
+                    if (packet.getPort() == port) {
+                        if (mSenderAddress != null) {
+                            socket.send(new DatagramPacket(data, data.length, mSenderAddress, mSenderPort));
+                        }
+                        i--;
+                        continue;
+                    }
+                    mSenderAddress = packet.getAddress();
+                    mSenderPort = packet.getPort();
+                    if (dropEvery > 0 && i % dropEvery == 0) {
+                        dropped++;
+                        continue;
+                    }
+                    if (held == null && swapEvery > 0 && i % swapEvery == 0) {
+                        held = data;
+                        continue;
+                    }
+                    forward(data);
+                    if (held != null) {
+                        forward(held);
+                        held = null;
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void forward(byte[] data) throws IOException {
+            socket.send(new DatagramPacket(data, data.length, address, port));
+        }
+    }
+
+    private static class Player extends Thread implements ReceiveEngine.Listener {
+
+        private final RtpReceiver receiver;
+        private final List<Frame> frames = new ArrayList<>();
+        private volatile String error;
+
+        Player(DatagramSocket socket, long recoveryDelayUs) {
+            this.receiver = new RtpReceiver(socket, new BufferPool(1024 * 1024, 4), this, recoveryDelayUs);
+        }
+
+        @Override
+        public void onPacketReceived(VideoPacket videoPacket) {
+            Frame frame = new Frame();
+            frame.flag = videoPacket.flag;
+            frame.presentationTimeStamp = videoPacket.presentationTimeStamp;
+            frame.data = videoPacket.getData();
+            synchronized (frames) {
+                frames.add(frame);
+            }
+        }
+
+        int size() {
+            synchronized (frames) {
+                return frames.size();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                receiver.run();
+            } catch (IOException e) {
+                error = e.toString();
+            }
+        }
+    }
+
+    private static byte[] unit(int type, int size, Random random) {
+        byte[] unit = new byte[size];
+        for (int i = 1; i < size; i++) {
+            unit[i] = (byte) (1 + random.nextInt(255));
+        }
+        unit[0] = (byte) (0x60 | type);
+        return unit;
+    }
+
+    private static byte[] accessUnit(byte[]... units) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (byte[] unit : units) {
+            outputStream.write(0);
+            outputStream.write(0);
+            outputStream.write(0);
+            outputStream.write(1);
+            outputStream.write(unit, 0, unit.length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static List<Frame> stream() {
+        Random random = new Random(1);
+        List<Frame> stream = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i++) {
+            if (i % GOP == 0) {
+                stream.add(frame(VideoPacket.Flag.CONFIG, i, accessUnit(unit(7, 20, random), unit(8, 6, random))));
+                stream.add(frame(VideoPacket.Flag.KEY_FRAME, i, accessUnit(unit(5, 30000, random))));
+            } else {
+                stream.add(frame(VideoPacket.Flag.FRAME, i, accessUnit(unit(1, 500 + random.nextInt(6000), random))));
+            }
+        }
+        return stream;
+    }
+
+    private static Frame frame(VideoPacket.Flag flag, int index, byte[] data) {
+        Frame frame = new Frame();
+        frame.flag = flag;
+        frame.presentationTimeStamp = index * FRAME_US;
+        frame.data = data;
+        return frame;
+    }
+
+    private static Result run(List<Frame> stream, int dropEvery, int swapEvery, long recoveryDelayUs)
+            throws Exception {
+        return run(stream, dropEvery, swapEvery, recoveryDelayUs, UdpTransport.DEFAULT_RETRANSMIT_WINDOW_US, false);
+    }
+
+    // the stream through the proxy, returns what the player got
+    private static Result run(List<Frame> stream, int dropEvery, int swapEvery, long recoveryDelayUs,
+                              long retransmitWindowUs, boolean fec) throws Exception {
+        DatagramSocket playerSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        playerSocket.setReceiveBufferSize(4 * 1024 * 1024);
+        Player player = new Player(playerSocket, recoveryDelayUs);
+        player.start();
+        LossyProxy proxy = new LossyProxy(playerSocket.getLocalPort(), dropEvery, swapEvery);
+        proxy.start();
+
+        // the stream goes out far faster than real time: a budget it all fits in
+        UdpTransport transport = new UdpTransport(new LatencyBoundedQueue(FRAMES * FRAME_US),
+                WaitStrategy.Kind.BLOCK, 1500, retransmitWindowUs);
+        transport.setForwardErrorCorrection(fec);
+        transport.start(InetAddress.getLoopbackAddress(), proxy.socket.getLocalPort());
+        try {
+            for (Frame frame : stream) {
+                transport.send(new VideoPacket(MediaPacket.Type.VIDEO, frame.flag, frame.presentationTimeStamp,
+                        frame.data));
+                // paced, so neither the queue's latency budget nor the socket buffers come into it
+                Thread.sleep(1);
+            }
+            for (int attempt = 0; attempt < 100 && player.size() < stream.size(); attempt++) {
+                Thread.sleep(20);
+            }
+            // the reorder delay, for a gap at the very end
+            Thread.sleep(100 + recoveryDelayUs / 1000);
+        } finally {
+            transport.stop();
+            proxy.socket.close();
+            player.receiver.stop();
+            player.join(5000);
+        }
+        assertNull(player.error, player.error);
+        Result result = new Result();
+        result.frames = player.frames;
+        result.dropped = proxy.dropped;
+        result.lost = player.receiver.getDepacketizer().getLost();
+        result.recovered = player.receiver.getDepacketizer().getRecovered();
+        result.nacksSent = player.receiver.getNacksSent();
+        result.retransmitted = transport.getRetransmitted();
+        result.parityPackets = transport.getParityPackets();
+        FecDecoder fecDecoder = player.receiver.getFecDecoder();
+        result.fecRecovered = fecDecoder != null ? fecDecoder.getRecovered() : 0;
+        return result;
+    }
+
+    private static void assertIntact(List<Frame> stream, List<Frame> received) {
+        assertEquals(stream.size(), received.size());
+        for (int i = 0; i < stream.size(); i++) {
+            assertEquals(stream.get(i).flag, received.get(i).flag);
+            assertEquals(stream.get(i).presentationTimeStamp, received.get(i).presentationTimeStamp, 12);
+            assertArrayEquals(stream.get(i).data, received.get(i).data);
+        }
+    }
+
+    @Test
+    public void reordering_deliversEveryFrame() throws Exception {
+        List<Frame> stream = stream();
+
+        Result result = run(stream, 0, 7, 0);
+
+        assertIntact(stream, result.frames);
+        assertEquals(0, result.lost);
+    }
+
+    @Test
+    public void loss_resumesAtKeyFrames() throws Exception {
+        List<Frame> stream = stream();
+
+        Result result = run(stream, 150, 11, 0);
+        List<Frame> received = result.frames;
+
+        assertTrue(result.lost > 0);
+        assertEquals(result.dropped, result.lost);
+        assertTrue(received.size() < stream.size());
+        // every frame that made it is intact, in order, and a gap ends at parameter sets or a key frame
+        int next = 0;
+        for (Frame frame : received) {
+            int index = next;
+            while (index < stream.size() && (stream.get(index).flag != frame.flag
+                    || Math.abs(stream.get(index).presentationTimeStamp - frame.presentationTimeStamp) > 12)) {
+                index++;
+            }
+            assertTrue("frame at " + frame.presentationTimeStamp + " out of order", index < stream.size());
+            if (index != next) {
+                assertNotEquals(VideoPacket.Flag.FRAME, frame.flag);
+            }
+            assertArrayEquals(stream.get(index).data, frame.data);
+            next = index + 1;
+        }
+        // one loss at most per GOP here, so most of the stream gets through
+        assertTrue(received.size() > stream.size() / 2);
+    }
+
+    @Test
+    public void loss_isRecoveredWithNacks() throws Exception {
+        List<Frame> stream = stream();
+
+        // about 2% loss, retransmissions included
+        Result result = run(stream, 50, 11, 150 * 1000);
+
+        assertTrue(result.dropped > 0);
+        assertTrue(result.nacksSent > 0);
+        assertTrue(result.retransmitted >= result.recovered);
+        // a retransmission can be dropped too, the next NACK asks again
+        assertEquals(0, result.lost);
+        assertTrue(result.recovered > 0 && result.recovered <= result.dropped);
+        assertIntact(stream, result.frames);
+    }
+
+    @Test
+    public void loss_isRecoveredWithParity() throws Exception {
+        List<Frame> stream = stream();
+
+        // no retransmission: every loss is rebuilt from parity, which is dropped at the same rate
+        Result result = run(stream, 50, 11, 50 * 1000, 0, true);
+
+        assertTrue(result.dropped > 0);
+        assertTrue(result.parityPackets > 0);
+        assertEquals(0, result.retransmitted);
+        assertEquals(0, result.lost);
+        // a packet swapped behind its group's parity is rebuilt as well, so this can exceed the drops
+        assertTrue(result.fecRecovered > 0);
+        assertIntact(stream, result.frames);
+    }
+}
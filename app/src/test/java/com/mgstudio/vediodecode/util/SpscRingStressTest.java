@@ -0,0 +1,136 @@
+package com.mgstudio.vediodecode.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * jcstress-style races on a plain JVM: a producer and a consumer thread hammer a small ring and the
+ * consumer checks every element it sees. Small capacities keep both threads on the full/empty edges,
+ * where publication and wake-up bugs show.
+ */
+public class SpscRingStressTest {
+
+    private static final int ELEMENTS = 200000;
+
+    // written by the producer before offer, must be seen complete by the consumer
+    private static final class Message {
+        final int sequence;
+        final int check;
+        int plain;
+
+        Message(int sequence) {
+            this.sequence = sequence;
+            this.check = ~sequence;
+        }
+    }
+
+    private static void race(final SpscRing<Message> ring, final boolean blockingTake) throws Exception {
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int expected = 0; expected < ELEMENTS; expected++) {
+                        Message message;
+                        if (blockingTake) {
+                            message = ring.take();
+                        } else {
+                            while ((message = ring.poll()) == null) {
+                                Thread.yield();
+                            }
+                        }
+                        if (message.sequence != expected) {
+                            failure.set("expected " + expected + ", got " + message.sequence);
+                            return;
+                        }
+                        if (message.check != ~expected || message.plain != expected) {
+                            failure.set("element " + expected + " seen before it was written");
+                            return;
+                        }
+                    }
+                    if (ring.poll() != null) {
+                        failure.set("element beyond the last one");
+                    }
+                } catch (InterruptedException e) {
+                    failure.set("interrupted");
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            Message message = new Message(i);
+            message.plain = i;
+            while (!ring.offer(message)) {
+                Thread.yield();
+            }
+        }
+        assertTrue("consumer stuck, wake-up lost? " + ring.size() + " left",
+                done.await(60, TimeUnit.SECONDS));
+        assertNull(failure.get(), failure.get());
+        assertTrue(ring.getHighWaterMark() <= ring.capacity());
+    }
+
+    @Test
+    public void poll_seesEveryElementOnceInOrder() throws Exception {
+        race(new SpscRing<Message>(2, WaitStrategy.busySpin()), false);
+        race(new SpscRing<Message>(64, WaitStrategy.busySpin()), false);
+    }
+
+    // a spinning consumer holds its core for the whole time slice, room for a slice of elements
+    // keeps this quick on single-core machines
+    @Test
+    public void take_busySpin() throws Exception {
+        race(new SpscRing<Message>(1024, WaitStrategy.busySpin()), true);
+    }
+
+    @Test
+    public void take_park() throws Exception {
+        race(new SpscRing<Message>(4, WaitStrategy.park(1000)), true);
+    }
+
+    @Test
+    public void take_block() throws Exception {
+        race(new SpscRing<Message>(4, WaitStrategy.block()), true);
+    }
+
+    // one element at a time: every hand-off goes through the sleep/wake path
+    @Test
+    public void block_neverLosesWakeUp() throws Exception {
+        final SpscRing<Integer> ring = new SpscRing<>(1, WaitStrategy.block());
+        final SpscRing<Integer> back = new SpscRing<>(1, WaitStrategy.block());
+        final int rounds = 20000;
+        Thread echo = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        back.offer(ring.take());
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        echo.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        for (int i = 0; i < rounds; i++) {
+            ring.offer(i);
+            Integer answer;
+            while ((answer = back.poll()) == null) {
+                assertTrue("wake-up lost in round " + i, System.nanoTime() < deadline);
+                Thread.yield();
+            }
+            assertEquals(Integer.valueOf(i), answer);
+        }
+        echo.join(1000);
+    }
+}
@@ -0,0 +1,146 @@
+package com.mgstudio.vediodecode.util;
+
+import com.mgstudio.vediodecode.Allocations;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SpscRingTest {
+
+    @Test
+    public void offerPoll_fifoUntilFull() {
+        SpscRing<Integer> ring = new SpscRing<>(3, WaitStrategy.busySpin());
+        assertEquals(4, ring.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void highWaterMark_tracksDeepestBacklog() {
+        SpscRing<String> ring = new SpscRing<>(8, WaitStrategy.busySpin());
+        ring.offer("a");
+        ring.offer("b");
+        ring.offer("c");
+        ring.poll();
+        ring.poll();
+        ring.offer("d");
+        assertEquals(2, ring.size());
+        assertEquals(3, ring.getHighWaterMark());
+
+        ring.resetHighWaterMark();
+        assertEquals(2, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void take_wakesOnOfferWithEachStrategy() throws Exception {
+        for (WaitStrategy.Kind kind : WaitStrategy.Kind.values()) {
+            final SpscRing<String> ring = new SpscRing<>(4, kind.create());
+            final AtomicReference<String> taken = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        taken.set(ring.take());
+                        done.countDown();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            });
+            consumer.start();
+            // let the consumer go idle
+            Thread.sleep(20);
+            ring.offer("x");
+            assertTrue(kind.name(), done.await(1, TimeUnit.SECONDS));
+            assertEquals("x", taken.get());
+        }
+    }
+
+    @Test
+    public void external_wakesOnEachOffer_andTakeStillWorks() throws Exception {
+        final AtomicInteger wakes = new AtomicInteger();
+        final SpscRing<String> ring = new SpscRing<>(4, WaitStrategy.external(new Runnable() {
+            @Override
+            public void run() {
+                wakes.incrementAndGet();
+            }
+        }));
+        ring.offer("a");
+        ring.offer("b");
+        assertEquals(2, wakes.get());
+        assertEquals("a", ring.poll());
+        assertEquals("b", ring.poll());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if ("c".equals(ring.take())) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(20);
+        ring.offer("c");
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void take_interruptedWhileIdle() throws Exception {
+        for (WaitStrategy.Kind kind : WaitStrategy.Kind.values()) {
+            final SpscRing<String> ring = new SpscRing<>(4, kind.create());
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ring.take();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+            });
+            consumer.start();
+            Thread.sleep(20);
+            consumer.interrupt();
+            assertTrue(kind.name(), interrupted.await(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void offerPoll_doNotAllocate() {
+        final SpscRing<Object> ring = new SpscRing<>(64, WaitStrategy.block());
+        final Object element = new Object();
+        long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                ring.offer(element);
+                ring.offer(element);
+                ring.poll();
+                ring.poll();
+            }
+        }, 20000, 10000);
+        assertEquals(0L, allocated);
+    }
+}
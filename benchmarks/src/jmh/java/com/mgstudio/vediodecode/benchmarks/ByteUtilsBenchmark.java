@@ -0,0 +1,49 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.model.ByteUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Packet header primitives: the in-place ByteUtils API against the BigInteger path it replaced.
+ * One op writes and reads back a length and a timestamp.
+ */
+@State(Scope.Thread)
+public class ByteUtilsBenchmark {
+
+    private final byte[] header = new byte[14];
+
+    private long timeStamp;
+
+    @Benchmark
+    public long inPlace() {
+        ByteUtils.putInt(header, 0, 4106);
+        ByteUtils.putLong(header, 6, timeStamp += 33333);
+        return ByteUtils.getInt(header, 0) + ByteUtils.getLong(header, 6);
+    }
+
+    @Benchmark
+    public long bigInteger() {
+        byte[] size = ByteBuffer.allocate(4).putInt(0, 4106).array();
+        byte[] stamp = ByteBuffer.allocate(8).putLong(0, timeStamp += 33333).array();
+        System.arraycopy(size, 0, header, 0, 4);
+        System.arraycopy(stamp, 0, header, 6, 8);
+
+        byte[] readSize = new byte[4];
+        byte[] readStamp = new byte[8];
+        System.arraycopy(header, 0, readSize, 0, 4);
+        System.arraycopy(header, 6, readStamp, 0, 8);
+        return new BigInteger(readSize).intValue() + new BigInteger(readStamp).longValue();
+    }
+
+    @Benchmark
+    public long varLong() {
+        int size = ByteUtils.putVarLong(header, 0, timeStamp += 33333);
+        return ByteUtils.getVarLong(header, 0) + size;
+    }
+}
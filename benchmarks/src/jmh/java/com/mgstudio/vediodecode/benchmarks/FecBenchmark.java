@@ -0,0 +1,139 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.fec.FecDecoder;
+import com.mgstudio.vediodecode.fec.FecEncoder;
+import com.mgstudio.vediodecode.fec.FecHeader;
+import com.mgstudio.vediodecode.fec.Gf256;
+import com.mgstudio.vediodecode.fec.Protection;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.rtp.RtpHeader;
+import com.mgstudio.vediodecode.rtp.RtpPacketizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Forward error correction over one frame of 20 packets of 1200 bytes (24 KB): encoding its parity,
+ * and encoding plus decoding it with the first packet of each group lost. Multiply through the GF(256) table is
+ * measured on its own over the same 24 KB.
+ */
+@State(Scope.Thread)
+public class FecBenchmark {
+
+    private static final int PACKETS = 20;
+
+    private static final int PACKET_SIZE = 1200;
+
+    @Param({"xor", "xor2d", "reedSolomon"})
+    public String scheme;
+
+    private final byte[][] media = new byte[PACKETS][PACKET_SIZE];
+
+    private final byte[][] parity = new byte[16][PACKET_SIZE + FecHeader.OVERHEAD];
+
+    private final int[] parityLengths = new int[16];
+
+    private int mParityCount;
+
+    private final byte[] bulk = new byte[PACKETS * PACKET_SIZE];
+
+    private final byte[] accumulator = new byte[PACKETS * PACKET_SIZE];
+
+    private FecEncoder encoder;
+
+    private FecDecoder decoder;
+
+    private int groupSize;
+
+    private int sequenceNumber;
+
+    private final RtpPacketizer.Output collect = new RtpPacketizer.Output() {
+        @Override
+        public void onPacket(byte[] packet, int length) {
+            System.arraycopy(packet, 0, parity[mParityCount], 0, length);
+            parityLengths[mParityCount++] = length;
+        }
+    };
+
+    private final RtpPacketizer.Output discard = new RtpPacketizer.Output() {
+        @Override
+        public void onPacket(byte[] packet, int length) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (byte[] packet : media) {
+            random.nextBytes(packet);
+        }
+        random.nextBytes(bulk);
+        Protection protection;
+        if ("xor".equals(scheme)) {
+            protection = Protection.xor(10);
+        } else if ("xor2d".equals(scheme)) {
+            protection = Protection.xor2d(5, 4);
+        } else {
+            protection = Protection.reedSolomon(10, 3);
+        }
+        groupSize = protection.groupSize;
+        encoder = new FecEncoder(PACKET_SIZE, 1);
+        encoder.setProtection(VideoPacket.Flag.FRAME, protection);
+        decoder = new FecDecoder(PACKET_SIZE, new FecDecoder.Listener() {
+            @Override
+            public void onRecovered(byte[] packet, int offset, int length) {
+            }
+        });
+    }
+
+    // renumbers the frame, so every op is a new one to the decoder
+    private void number() {
+        for (int i = 0; i < PACKETS; i++) {
+            RtpHeader.write(media[i], i == PACKETS - 1, RtpHeader.PAYLOAD_TYPE_H264, sequenceNumber, 0, 1);
+            sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+        }
+    }
+
+    private void encode(RtpPacketizer.Output output) throws IOException {
+        encoder.beginFrame(VideoPacket.Flag.FRAME);
+        for (int i = 0; i < PACKETS; i++) {
+            encoder.add(media[i], PACKET_SIZE, output);
+        }
+        encoder.endFrame(output);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        number();
+        encode(discard);
+        return encoder.getParityBytes();
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        number();
+        mParityCount = 0;
+        encode(collect);
+        for (int i = 0; i < PACKETS; i++) {
+            if (i % groupSize != 0) {
+                decoder.receiveMedia(media[i], 0, PACKET_SIZE);
+            }
+        }
+        for (int i = 0; i < mParityCount; i++) {
+            decoder.receiveParity(parity[i], 0, parityLengths[i]);
+        }
+        return decoder.getRecovered();
+    }
+
+    @Benchmark
+    public byte[] multiplyAdd() {
+        Gf256.multiplyAdd(accumulator, 0, bulk, 0, bulk.length, 0x8E);
+        return accumulator;
+    }
+}
@@ -0,0 +1,135 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.sender.LatencyBoundedQueue;
+import com.mgstudio.vediodecode.util.SpscRing;
+import com.mgstudio.vediodecode.util.WaitStrategy;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Encoder thread to transport thread hand-off: one producer offering, one consumer polling, neither
+ * blocks. SpscRing against the ArrayBlockingQueue the sender used to have and the lock-based
+ * LatencyBoundedQueue. Compare the offered / polled counters, failed offers mean the ring was full.
+ * Needs two free cores to mean anything.
+ */
+@State(Scope.Group)
+public class HandOffBenchmark {
+
+    private static final int CAPACITY = 256;
+
+    private final VideoPacket packet = new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.KEY_FRAME,
+            0, new byte[16]);
+
+    private SpscRing<VideoPacket> ring;
+
+    private ArrayBlockingQueue<VideoPacket> arrayBlockingQueue;
+
+    private LatencyBoundedQueue latencyBoundedQueue;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long offered;
+        public long full;
+        public long polled;
+        public long empty;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offered = full = polled = empty = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ring = new SpscRing<>(CAPACITY, WaitStrategy.busySpin());
+        arrayBlockingQueue = new ArrayBlockingQueue<>(CAPACITY);
+        // key frames are never dropped, so this measures the queue itself
+        latencyBoundedQueue = new LatencyBoundedQueue();
+    }
+
+    @Benchmark
+    @Group("spscRing")
+    @GroupThreads(1)
+    public void spscRingOffer(Counters counters) {
+        if (ring.offer(packet)) {
+            counters.offered++;
+        } else {
+            counters.full++;
+        }
+    }
+
+    @Benchmark
+    @Group("spscRing")
+    @GroupThreads(1)
+    public VideoPacket spscRingPoll(Counters counters) {
+        VideoPacket videoPacket = ring.poll();
+        if (videoPacket != null) {
+            counters.polled++;
+        } else {
+            counters.empty++;
+        }
+        return videoPacket;
+    }
+
+    @Benchmark
+    @Group("arrayBlockingQueue")
+    @GroupThreads(1)
+    public void arrayBlockingQueueOffer(Counters counters) {
+        if (arrayBlockingQueue.offer(packet)) {
+            counters.offered++;
+        } else {
+            counters.full++;
+        }
+    }
+
+    @Benchmark
+    @Group("arrayBlockingQueue")
+    @GroupThreads(1)
+    public VideoPacket arrayBlockingQueuePoll(Counters counters) {
+        VideoPacket videoPacket = arrayBlockingQueue.poll();
+        if (videoPacket != null) {
+            counters.polled++;
+        } else {
+            counters.empty++;
+        }
+        return videoPacket;
+    }
+
+    @Benchmark
+    @Group("latencyBoundedQueue")
+    @GroupThreads(1)
+    public void latencyBoundedQueueOffer(Counters counters) {
+        // unbounded by count, keep it from growing without limit
+        if (latencyBoundedQueue.size() < CAPACITY) {
+            latencyBoundedQueue.offer(packet);
+            counters.offered++;
+        } else {
+            counters.full++;
+        }
+    }
+
+    @Benchmark
+    @Group("latencyBoundedQueue")
+    @GroupThreads(1)
+    public VideoPacket latencyBoundedQueuePoll(Counters counters) {
+        VideoPacket videoPacket = latencyBoundedQueue.poll();
+        if (videoPacket != null) {
+            counters.polled++;
+        } else {
+            counters.empty++;
+        }
+        return videoPacket;
+    }
+}
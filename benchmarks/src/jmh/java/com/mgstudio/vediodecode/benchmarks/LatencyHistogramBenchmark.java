@@ -0,0 +1,46 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.metrics.LatencyHistogram;
+import com.mgstudio.vediodecode.metrics.PipelineLatency;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * What recording latencies costs on the frame path: one record, a frame through the three sender
+ * stages, and records from four threads into one shared histogram.
+ */
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private final PipelineLatency pipeline = new PipelineLatency();
+
+    private long value = 1;
+
+    private long timeStamp;
+
+    @Benchmark
+    public void record() {
+        value = value * 31 % 1000003;
+        histogram.record(value);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.record(System.nanoTime() & 0xFFFF);
+    }
+
+    @Benchmark
+    public void senderStages() {
+        long captureUs = timeStamp += 33333;
+        pipeline.start(captureUs, captureUs);
+        pipeline.mark(PipelineLatency.Stage.RENDER, captureUs, captureUs + 5000, false);
+        pipeline.mark(PipelineLatency.Stage.ENCODE, captureUs, captureUs + 17000, false);
+        pipeline.mark(PipelineLatency.Stage.SEND, captureUs, captureUs + 20000, true);
+    }
+}
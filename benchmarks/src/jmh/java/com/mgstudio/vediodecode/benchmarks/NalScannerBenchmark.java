@@ -0,0 +1,80 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.h264.NalScanner;
+import com.mgstudio.vediodecode.h264.Sps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Start code search over one access unit: the word-at-a-time NalScanner against the byte-at-a-time
+ * loop it replaced, on heap and direct buffers. Also the SPS parse done for every CONFIG packet.
+ */
+@State(Scope.Thread)
+public class NalScannerBenchmark {
+
+    // a key frame split into slices, and a P frame
+    @Param({"49152", "9216"})
+    public int frameSize;
+
+    @Param({"heap", "direct"})
+    public String memory;
+
+    private ByteBuffer frame;
+
+    private byte[] sps;
+
+    private final NalScanner scanner = new NalScanner();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(11);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int slices = frameSize > 16 * 1024 ? 4 : 1;
+        for (int i = 0; i < slices; i++) {
+            byte[] nal = SyntheticStream.nalUnit(frameSize > 16 * 1024 ? 5 : 1, frameSize / slices, random);
+            stream.write(nal, 0, nal.length);
+        }
+        byte[] data = stream.toByteArray();
+        frame = memory.equals("direct") ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        frame.put(data);
+        frame.clear();
+
+        sps = SyntheticStream.escape(SyntheticStream.sps(1280, 720));
+    }
+
+    @Benchmark
+    public int wordAtATime() {
+        int units = 0;
+        scanner.reset(frame);
+        while (scanner.next()) {
+            units += scanner.type();
+        }
+        return units;
+    }
+
+    @Benchmark
+    public int byteAtATime() {
+        int units = 0;
+        int limit = frame.limit();
+        for (int i = 0; i + 2 < limit; i++) {
+            if (frame.get(i) == 0 && frame.get(i + 1) == 0 && frame.get(i + 2) == 1) {
+                units += frame.get(i + 3) & 0x1F;
+                i += 2;
+            }
+        }
+        return units;
+    }
+
+    @Benchmark
+    public Sps parseSps() {
+        return Sps.parse(sps, 0, sps.length);
+    }
+}
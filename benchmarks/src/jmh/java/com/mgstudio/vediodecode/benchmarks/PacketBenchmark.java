@@ -0,0 +1,85 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-packet framing cost over one synthetic GOP: the legacy byte[] path against PacketCodec.
+ * One op is one packet; the mix cycles through config, key frame and P frames.
+ */
+@State(Scope.Thread)
+public class PacketBenchmark {
+
+    private VideoPacket[] packets;
+
+    // inner packets (without length) as fromArray expects them
+    private byte[][] inner;
+
+    // whole frames for PacketCodec.decodeFrame
+    private ByteBuffer[] frames;
+
+    private final BufferPool pool = new BufferPool(256 * 1024, 4);
+
+    private final VideoPacket view = new VideoPacket();
+
+    private int index;
+
+    @Setup
+    public void setUp() {
+        List<VideoPacket> list = SyntheticStream.packets(1, 42);
+        packets = list.toArray(new VideoPacket[0]);
+        inner = new byte[packets.length][];
+        frames = new ByteBuffer[packets.length];
+        for (int i = 0; i < packets.length; i++) {
+            byte[] frame = packets[i].toByteArray();
+            inner[i] = Arrays.copyOfRange(frame, PacketCodec.LENGTH_SIZE, frame.length);
+            frames[i] = ByteBuffer.allocateDirect(frame.length);
+            frames[i].put(frame).flip();
+        }
+    }
+
+    private int next() {
+        int i = index;
+        index = i + 1 == packets.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public byte[] toArray() {
+        VideoPacket packet = packets[next()];
+        return VideoPacket.toArray(packet.type, packet.flag, packet.presentationTimeStamp, packet.data);
+    }
+
+    @Benchmark
+    public VideoPacket fromArray() {
+        return VideoPacket.fromArray(inner[next()]);
+    }
+
+    @Benchmark
+    public int codecEncode() {
+        VideoPacket packet = packets[next()];
+        ByteBuffer buffer = pool.acquire(PacketCodec.frameSize(packet));
+        PacketCodec.encode(packet, buffer);
+        int position = buffer.position();
+        pool.release(buffer);
+        return position;
+    }
+
+    @Benchmark
+    public long codecDecode() {
+        ByteBuffer frame = frames[next()];
+        frame.rewind();
+        PacketCodec.decodeFrame(frame, view);
+        return view.presentationTimeStamp + view.size;
+    }
+}
@@ -0,0 +1,65 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.player.PacketReader;
+import com.mgstudio.vediodecode.player.ReceiveEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Player receive loop fed from an in-memory copy of two synthetic GOPs.
+ * One op is one packet read off the stream.
+ */
+@State(Scope.Thread)
+public class PlayerReadBenchmark {
+
+    // config packet + two GOPs
+    private static final int PACKETS = 1 + 2 * SyntheticStream.GOP_SIZE;
+
+    private ByteArrayInputStream stream;
+
+    private PacketReader packetReader;
+
+    private ReceiveEngine receiveEngine;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        stream = new ByteArrayInputStream(SyntheticStream.wire(SyntheticStream.packets(2, 7)));
+        packetReader = new PacketReader(stream);
+        receiveEngine = new ReceiveEngine(stream, new BufferPool(256 * 1024, 2), new ReceiveEngine.Listener() {
+            @Override
+            public void onPacketReceived(VideoPacket videoPacket) {
+                PlayerReadBenchmark.this.blackhole.consume(videoPacket.presentationTimeStamp);
+            }
+        });
+    }
+
+    // legacy loop, the stream rewinds when exhausted
+    @Benchmark
+    public VideoPacket packetReader() throws IOException {
+        if (packetReader.available() == 0) {
+            stream.reset();
+        }
+        return packetReader.read();
+    }
+
+    // whole stream per invocation, the engine returns at end of stream
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void receiveEngine() throws IOException {
+        stream.reset();
+        receiveEngine.run();
+    }
+}
@@ -0,0 +1,27 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * SPS/PPS split and SPS parse of a config sample, run once per CONFIG packet on the receiver.
+ */
+@State(Scope.Thread)
+public class StreamSettingsBenchmark {
+
+    private byte[] config;
+
+    @Setup
+    public void setUp() {
+        config = SyntheticStream.config(640, 480);
+    }
+
+    @Benchmark
+    public VideoPacket.StreamSettings getStreamSettings() {
+        return VideoPacket.getStreamSettings(config);
+    }
+}
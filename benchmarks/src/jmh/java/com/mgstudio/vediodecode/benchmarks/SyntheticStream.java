@@ -0,0 +1,185 @@
+package com.mgstudio.vediodecode.benchmarks;
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic H.264 Annex-B stream shaped like the encoder output at 640x480, 30 fps, 3 Mbps:
+ * a CONFIG packet with SPS and PPS, then GOPs of one IDR followed by P frames.
+ * Payloads are random but escaped, so they never contain a false start code.
+ */
+public class SyntheticStream {
+
+    public static final int FPS = 30;
+
+    // VideoCodecConstants.VIDEO_FI seconds per GOP
+    public static final int GOP_SIZE = 2 * FPS;
+
+    public static final int KEY_FRAME_SIZE = 48 * 1024;
+
+    public static final int FRAME_SIZE = 9 * 1024;
+
+    private SyntheticStream() {
+    }
+
+    // config packet followed by the given number of GOPs, all with 33 ms timestamps
+    public static List<VideoPacket> packets(int gops, long seed) {
+        Random random = new Random(seed);
+        List<VideoPacket> packets = new ArrayList<>();
+        packets.add(new VideoPacket(MediaPacket.Type.VIDEO, VideoPacket.Flag.CONFIG, 0L,
+                config(640, 480)));
+
+        long timeStamp = 0;
+        for (int gop = 0; gop < gops; gop++) {
+            for (int i = 0; i < GOP_SIZE; i++) {
+                boolean key = i == 0;
+                // sizes spread around the mean like a real rate-controlled encoder
+                int mean = key ? KEY_FRAME_SIZE : FRAME_SIZE;
+                int size = (int) Math.max(256, mean * (1 + 0.35 * random.nextGaussian()));
+                packets.add(new VideoPacket(MediaPacket.Type.VIDEO,
+                        key ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME,
+                        timeStamp, nalUnit(key ? 5 : 1, size, random)));
+                timeStamp += 1000000L / FPS;
+            }
+        }
+        return packets;
+    }
+
+    // the packets framed back to back as they go over the socket
+    public static byte[] wire(List<VideoPacket> packets) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (VideoPacket packet : packets) {
+            byte[] frame = packet.toByteArray();
+            stream.write(frame, 0, frame.length);
+        }
+        return stream.toByteArray();
+    }
+
+    // SPS and PPS with 4-byte start codes, as the codec emits them in the config sample
+    public static byte[] config(int width, int height) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writeNal(stream, escape(sps(width, height)));
+        // pps: id 0, sps 0, CAVLC, one slice group, one ref idx, no weighted pred, qp 26
+        writeNal(stream, new byte[]{0x68, (byte) 0xCE, 0x38, (byte) 0x80});
+        return stream.toByteArray();
+    }
+
+    // baseline profile SPS, level 3.0, with cropping when the size isn't macroblock aligned
+    public static byte[] sps(int width, int height) {
+        int widthMbs = (width + 15) / 16;
+        int heightMbs = (height + 15) / 16;
+
+        BitWriter bits = new BitWriter();
+        bits.bits(0x67, 8);          // nal header, type 7
+        bits.bits(66, 8);            // profile_idc baseline
+        bits.bits(0xC0, 8);          // constraint flags
+        bits.bits(30, 8);            // level_idc
+        bits.ue(0);                  // seq_parameter_set_id
+        bits.ue(0);                  // log2_max_frame_num_minus4
+        bits.ue(2);                  // pic_order_cnt_type
+        bits.ue(1);                  // max_num_ref_frames
+        bits.bits(0, 1);             // gaps_in_frame_num_value_allowed_flag
+        bits.ue(widthMbs - 1);       // pic_width_in_mbs_minus1
+        bits.ue(heightMbs - 1);      // pic_height_in_map_units_minus1
+        bits.bits(1, 1);             // frame_mbs_only_flag
+        bits.bits(1, 1);             // direct_8x8_inference_flag
+        int cropRight = (widthMbs * 16 - width) / 2;
+        int cropBottom = (heightMbs * 16 - height) / 2;
+        if (cropRight != 0 || cropBottom != 0) {
+            bits.bits(1, 1);
+            bits.ue(0);
+            bits.ue(cropRight);
+            bits.ue(0);
+            bits.ue(cropBottom);
+        } else {
+            bits.bits(0, 1);
+        }
+        bits.bits(0, 1);             // vui_parameters_present_flag
+        bits.bits(1, 1);             // rbsp_stop_one_bit
+        return bits.toByteArray();
+    }
+
+    // start code + nal header + escaped random slice data
+    public static byte[] nalUnit(int type, int size, Random random) {
+        byte[] rbsp = new byte[size - 4];
+        random.nextBytes(rbsp);
+        rbsp[0] = (byte) (0x60 | type);
+        // slice data is mostly high-entropy but has runs of zeros
+        for (int i = 1; i + 8 < rbsp.length; i += 64 + random.nextInt(512)) {
+            for (int j = 0; j < 4; j++) {
+                rbsp[i + j] = 0;
+            }
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(size + size / 64);
+        writeNal(stream, escape(rbsp));
+        return stream.toByteArray();
+    }
+
+    private static void writeNal(ByteArrayOutputStream stream, byte[] nal) {
+        stream.write(0);
+        stream.write(0);
+        stream.write(0);
+        stream.write(1);
+        stream.write(nal, 0, nal.length);
+    }
+
+    // insert emulation prevention bytes so 00 00 0x never appears inside a nal unit
+    public static byte[] escape(byte[] rbsp) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(rbsp.length + rbsp.length / 64);
+        int zeros = 0;
+        for (int i = 0; i < rbsp.length; i++) {
+            int b = rbsp[i] & 0xFF;
+            if (zeros >= 2 && b <= 3) {
+                stream.write(3);
+                zeros = 0;
+            }
+            stream.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        if (zeros > 0) {
+            // a nal unit can't end with a zero byte
+            stream.write(3);
+        }
+        return stream.toByteArray();
+    }
+
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        private int current;
+
+        private int count;
+
+        void bits(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >>> i) & 1);
+                if (++count == 8) {
+                    stream.write(current);
+                    current = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        // unsigned exp-Golomb
+        void ue(int value) {
+            int code = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(code);
+            bits(0, length - 1);
+            bits(code, length);
+        }
+
+        byte[] toByteArray() {
+            if (count > 0) {
+                bits(0, 8 - count);
+            }
+            return stream.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.mgstudio.vediodecode.relay;
+//连接
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+// a non-blocking socket served by one event loop; everything but the constructor runs on that loop
+abstract class Connection {
+
+    private static final Logger LOG = Logger.getLogger(Connection.class.getSimpleName());
+
+    final EventLoop loop;
+
+    final SocketChannel channel;
+
+    SelectionKey key;
+
+    private boolean mClosed;
+
+    Connection(EventLoop loop, SocketChannel channel) {
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    // loop thread: register and start serving
+    abstract void open() throws IOException;
+
+    void register() throws IOException {
+        key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+    }
+
+    abstract void onReadable();
+
+    void onWritable() {
+    }
+
+    // called once, after the socket is closed
+    abstract void onClosed();
+
+    final void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warning(e.getMessage());
+        }
+        onClosed();
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+}
@@ -0,0 +1,136 @@
+package com.mgstudio.vediodecode.relay;
+//事件循环
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// one thread, one selector, the connections assigned to it. Every connection is served by exactly
+// one loop, so its state needs no locks; other threads reach it through execute() or flush().
+final class EventLoop extends Thread {
+
+    private static final Logger LOG = Logger.getLogger(EventLoop.class.getSimpleName());
+
+    // index of this loop's frame views
+    final int index;
+
+    private final Selector selector;
+
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+    // set by the publisher after queueing frames for viewers of this loop, one wake-up per frame
+    private final AtomicBoolean mFlushPending = new AtomicBoolean();
+
+    private final List<Viewer> mViewers = new ArrayList<>();
+
+    // for reads whose data is thrown away
+    private final ByteBuffer mScratch = ByteBuffer.allocateDirect(4096);
+
+    private volatile boolean mIsRunning = true;
+
+    // written by the loop thread only
+    private volatile long mBytesWritten;
+
+    EventLoop(int index) throws IOException {
+        super("RelayLoop-" + index);
+        this.index = index;
+        this.selector = Selector.open();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    // runs the task on the loop thread
+    void execute(Runnable task) {
+        mTasks.add(task);
+        selector.wakeup();
+    }
+
+    // any thread: write out whatever got queued for this loop's viewers
+    void flush() {
+        if (mFlushPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    void shutDown() {
+        mIsRunning = false;
+        selector.wakeup();
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    void wrote(long bytes) {
+        mBytesWritten += bytes;
+    }
+
+    // loop thread
+    ByteBuffer scratch() {
+        return mScratch;
+    }
+
+    void add(Viewer viewer) {
+        mViewers.add(viewer);
+    }
+
+    void remove(Viewer viewer) {
+        mViewers.remove(viewer);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mIsRunning) {
+                selector.select();
+
+                Runnable task;
+                while ((task = mTasks.poll()) != null) {
+                    task.run();
+                }
+
+                if (mFlushPending.getAndSet(false)) {
+                    // by index: a viewer that fails is removed from the list while writing
+                    for (int i = mViewers.size() - 1; i >= 0; i--) {
+                        mViewers.get(i).write();
+                    }
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, getName(), e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.warning(e.getMessage());
+            }
+        }
+    }
+}
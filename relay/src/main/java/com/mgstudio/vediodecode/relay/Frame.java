@@ -0,0 +1,80 @@
+package com.mgstudio.vediodecode.relay;
+//中继帧
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// one packet exactly as it came off the wire, length prefix included, shared read-only by every viewer
+// it is queued for. Each holder keeps one reference; the storage goes back to the pool with the last.
+//
+// Socket writes need a buffer position, so every event loop writes through a view of its own: views
+// are made per loop, not per viewer, and only ever touched by their loop's thread.
+final class Frame {
+
+    private final BufferPool pool;
+
+    private ByteBuffer buffer;
+
+    private final ByteBuffer[] views;
+
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    final VideoPacket.Flag flag;
+
+    final long presentationTimeStamp;
+
+    // prefix and payload
+    final int length;
+
+    private Frame(BufferPool pool, ByteBuffer buffer, int loops) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.views = new ByteBuffer[loops];
+        this.length = buffer.limit();
+        this.flag = VideoPacket.Flag.getFlag(buffer.get(PacketCodec.LENGTH_SIZE + 1));
+        this.presentationTimeStamp = buffer.getLong(PacketCodec.LENGTH_SIZE + 2);
+    }
+
+    // copies the frame at src[position, position + length), src is advanced past it; held once by the caller
+    static Frame copy(BufferPool pool, ByteBuffer src, int length, int loops) {
+        ByteBuffer buffer = pool.acquire(length);
+        int limit = src.limit();
+        src.limit(src.position() + length);
+        buffer.put(src);
+        src.limit(limit);
+        buffer.flip();
+        return new Frame(pool, buffer, loops);
+    }
+
+    void retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("frame retained after release");
+        }
+    }
+
+    void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            pool.release(buffer);
+            buffer = null;
+        } else if (count < 0) {
+            throw new IllegalStateException("frame released twice");
+        }
+    }
+
+    // the whole frame from offset on, for the given loop's thread only
+    ByteBuffer view(int loop, int offset) {
+        ByteBuffer view = views[loop];
+        if (view == null) {
+            view = buffer.duplicate();
+            views[loop] = view;
+        }
+        view.limit(length);
+        view.position(offset);
+        return view;
+    }
+}
@@ -0,0 +1,354 @@
+package com.mgstudio.vediodecode.relay;
+//负载生成器
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Load test client for the relay: publishes a synthetic stream shaped like the phone encoder's
+// (30 fps, an IDR every 2 s, about 2.6 Mbps) and watches it with N viewers, served by a few selector
+// threads. The timestamp of each packet is its send time, so on one host every viewer can measure the
+// relay's latency from the header alone; payloads are counted and skipped.
+//
+//     java -cp relay.jar com.mgstudio.vediodecode.relay.LoadGenerator viewers seconds [host ingestPort viewerPort]
+//
+// Without a host a relay is started in this process.
+public class LoadGenerator {
+
+    private static final Logger LOG = Logger.getLogger(LoadGenerator.class.getSimpleName());
+
+    public static final int FPS = 30;
+
+    public static final int GOP_SIZE = 2 * FPS;
+
+    public static final int KEY_FRAME_SIZE = 48 * 1024;
+
+    public static final int FRAME_SIZE = 9 * 1024;
+
+    private static final int CONFIG_SIZE = 32;
+
+    public static class Result {
+        public int viewers;
+        public long framesSent;
+        // frames each viewer should have got, CONFIG included
+        public long framesExpected;
+        public long framesReceivedMin;
+        public long framesReceivedTotal;
+        public long bytesReceived;
+        public double seconds;
+        public double p50Ms;
+        public double p99Ms;
+        public double p999Ms;
+        public double maxMs;
+
+        // all viewers together
+        public double megabytesPerSecond() {
+            return bytesReceived / seconds / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d viewers: %d frames sent, received min %d / avg %.1f of %d, "
+                            + "%.1f MiB/s out (%.2f MiB/s per viewer), latency p50 %.2f ms, p99 %.2f ms, "
+                            + "p99.9 %.2f ms, max %.2f ms",
+                    viewers, framesSent, framesReceivedMin, (double) framesReceivedTotal / viewers,
+                    framesExpected, megabytesPerSecond(), megabytesPerSecond() / viewers,
+                    p50Ms, p99Ms, p999Ms, maxMs);
+        }
+    }
+
+    // one selector thread reading a share of the viewers
+    private static class ViewerGroup extends Thread {
+
+        private final Selector selector;
+
+        private final int viewers;
+
+        // latency samples in microseconds
+        private final long[] latencies;
+
+        private int mSamples;
+
+        private volatile boolean mIsRunning = true;
+
+        ViewerGroup(int index, int viewers, int maxSamples) throws IOException {
+            super("LoadViewers-" + index);
+            this.selector = Selector.open();
+            this.viewers = viewers;
+            this.latencies = new long[maxSamples];
+        }
+
+        void connect(InetSocketAddress address, ViewerClient[] clients, int from) throws IOException {
+            for (int i = 0; i < viewers; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                ViewerClient client = new ViewerClient(channel);
+                clients[from + i] = client;
+                channel.register(selector, SelectionKey.OP_READ, client);
+            }
+        }
+
+        void shutDown() {
+            mIsRunning = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mIsRunning) {
+                    selector.select();
+                    long nowUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        ViewerClient client = (ViewerClient) key.attachment();
+                        if (!client.read(nowUs, this)) {
+                            key.cancel();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, getName(), e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignore) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        void sample(long latencyUs) {
+            if (mSamples < latencies.length) {
+                latencies[mSamples++] = latencyUs;
+            }
+        }
+    }
+
+    private static class ViewerClient {
+
+        private final SocketChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        // payload bytes of the current frame still to skip
+        private int mSkip;
+
+        private volatile long mFrames;
+
+        private volatile long mBytes;
+
+        ViewerClient(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // false once the relay closed the connection
+        boolean read(long nowUs, ViewerGroup group) throws IOException {
+            int count = channel.read(buffer);
+            if (count < 0) {
+                channel.close();
+                return false;
+            }
+            mBytes += count;
+            buffer.flip();
+            for (; ; ) {
+                if (mSkip > 0) {
+                    int skip = Math.min(mSkip, buffer.remaining());
+                    buffer.position(buffer.position() + skip);
+                    mSkip -= skip;
+                    if (mSkip > 0) {
+                        break;
+                    }
+                }
+                if (buffer.remaining() < PacketCodec.PREFIX_SIZE) {
+                    break;
+                }
+                int position = buffer.position();
+                int length = buffer.getInt(position);
+                long presentationTimeStamp = buffer.getLong(position + PacketCodec.LENGTH_SIZE + 2);
+                group.sample(nowUs - presentationTimeStamp);
+                buffer.position(position + PacketCodec.PREFIX_SIZE);
+                mSkip = length - PacketCodec.HEADER_SIZE;
+                mFrames++;
+            }
+            buffer.compact();
+            return true;
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    // publishes for the given time to a running relay and reports what the viewers got
+    public static Result run(String host, int ingestPort, int viewerPort, int viewers, int seconds)
+            throws IOException, InterruptedException {
+        int groups = Math.max(1, Math.min(viewers, Runtime.getRuntime().availableProcessors()));
+        int frames = seconds * FPS;
+        // a CONFIG before every key frame
+        int framesExpected = frames + (frames + GOP_SIZE - 1) / GOP_SIZE;
+        int samplesPerGroup = (viewers / groups + 1) * framesExpected;
+
+        ViewerClient[] clients = new ViewerClient[viewers];
+        ViewerGroup[] viewerGroups = new ViewerGroup[groups];
+        InetSocketAddress viewerAddress = new InetSocketAddress(host, viewerPort);
+        int connected = 0;
+        for (int i = 0; i < groups; i++) {
+            int share = viewers / groups + (i < viewers % groups ? 1 : 0);
+            viewerGroups[i] = new ViewerGroup(i, share, samplesPerGroup);
+            viewerGroups[i].connect(viewerAddress, clients, connected);
+            connected += share;
+        }
+        for (ViewerGroup group : viewerGroups) {
+            group.start();
+        }
+        // let the relay open every viewer before the first key frame
+        Thread.sleep(500 + viewers);
+
+        long start = System.nanoTime();
+        long sent = publish(new InetSocketAddress(host, ingestPort), frames);
+        // wait for the viewers to catch up, at most a few seconds
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && minFrames(clients) < framesExpected) {
+            Thread.sleep(10);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (ViewerGroup group : viewerGroups) {
+            group.shutDown();
+            group.join();
+        }
+
+        Result result = new Result();
+        result.viewers = viewers;
+        result.framesSent = sent;
+        result.framesExpected = framesExpected;
+        result.framesReceivedMin = minFrames(clients);
+        for (ViewerClient client : clients) {
+            result.framesReceivedTotal += client.mFrames;
+            result.bytesReceived += client.mBytes;
+        }
+        result.seconds = elapsed / 1e9;
+
+        int samples = 0;
+        for (ViewerGroup group : viewerGroups) {
+            samples += group.mSamples;
+        }
+        long[] latencies = new long[samples];
+        int offset = 0;
+        for (ViewerGroup group : viewerGroups) {
+            System.arraycopy(group.latencies, 0, latencies, offset, group.mSamples);
+            offset += group.mSamples;
+        }
+        Arrays.sort(latencies);
+        result.p50Ms = percentile(latencies, 0.5);
+        result.p99Ms = percentile(latencies, 0.99);
+        result.p999Ms = percentile(latencies, 0.999);
+        result.maxMs = samples > 0 ? latencies[samples - 1] / 1000.0 : 0;
+        return result;
+    }
+
+    // the synthetic stream at its frame rate, returns the packets sent
+    private static long publish(InetSocketAddress address, int frames) throws IOException, InterruptedException {
+        Random random = new Random(1);
+        byte[] keyFrame = new byte[KEY_FRAME_SIZE];
+        byte[] frame = new byte[FRAME_SIZE];
+        byte[] config = new byte[CONFIG_SIZE];
+        random.nextBytes(keyFrame);
+        random.nextBytes(frame);
+        random.nextBytes(config);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PacketCodec.PREFIX_SIZE + KEY_FRAME_SIZE);
+
+        long sent = 0;
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.socket().setTcpNoDelay(true);
+            long start = System.nanoTime();
+            long frameNs = TimeUnit.SECONDS.toNanos(1) / FPS;
+            for (int i = 0; i < frames; i++) {
+                long due = start + i * frameNs;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                boolean key = i % GOP_SIZE == 0;
+                if (key) {
+                    write(channel, buffer, VideoPacket.Flag.CONFIG, config);
+                    sent++;
+                }
+                write(channel, buffer, key ? VideoPacket.Flag.KEY_FRAME : VideoPacket.Flag.FRAME,
+                        key ? keyFrame : frame);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer buffer, VideoPacket.Flag flag, byte[] data)
+            throws IOException {
+        buffer.clear();
+        long presentationTimeStamp = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+        PacketCodec.writePrefix(MediaPacket.Type.VIDEO, flag, presentationTimeStamp, data.length, buffer);
+        buffer.put(data);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static long minFrames(ViewerClient[] clients) {
+        long min = Long.MAX_VALUE;
+        for (ViewerClient client : clients) {
+            min = Math.min(min, client.mFrames);
+        }
+        return min;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 5) {
+            System.err.println("usage: LoadGenerator viewers seconds [host ingestPort viewerPort]");
+            System.exit(2);
+        }
+        int viewers = Integer.parseInt(args[0]);
+        int seconds = Integer.parseInt(args[1]);
+        if (args.length == 5) {
+            System.out.println(run(args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]), viewers,
+                    seconds));
+            return;
+        }
+        RelayServer server = new RelayServer(0, 0);
+        server.start();
+        try {
+            System.out.println(run("127.0.0.1", server.getIngestPort(), server.getViewerPort(), viewers, seconds));
+        } finally {
+            server.stop();
+        }
+    }
+}
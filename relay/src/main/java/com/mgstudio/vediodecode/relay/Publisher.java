@@ -0,0 +1,96 @@
+package com.mgstudio.vediodecode.relay;
+//推流端连接
+
+import com.mgstudio.vediodecode.model.BufferPool;
+import com.mgstudio.vediodecode.model.PacketCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+// a Sender connection: reads the length-prefixed packets, copies each whole frame once into pooled
+// storage and publishes it to the stream. Frames are forwarded byte for byte, prefix included.
+final class Publisher extends Connection {
+
+    private static final Logger LOG = Logger.getLogger(Publisher.class.getSimpleName());
+
+    private final RelayStream stream;
+
+    private final BufferPool pool;
+
+    private final int loops;
+
+    // grown for frames larger than it
+    private ByteBuffer mBuffer = ByteBuffer.allocateDirect(256 * 1024);
+
+    Publisher(EventLoop loop, SocketChannel channel, RelayStream stream, BufferPool pool, int loops) {
+        super(loop, channel);
+        this.stream = stream;
+        this.pool = pool;
+        this.loops = loops;
+    }
+
+    // loop thread
+    @Override
+    void open() throws IOException {
+        register();
+        final Publisher previous = stream.publisherConnected(this);
+        if (previous != null) {
+            LOG.info("publisher replaced by " + channel.getRemoteAddress());
+            previous.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    previous.close();
+                }
+            });
+        }
+    }
+
+    @Override
+    void onReadable() {
+        try {
+            if (channel.read(mBuffer) < 0) {
+                close();
+                return;
+            }
+            mBuffer.flip();
+            while (mBuffer.remaining() >= PacketCodec.LENGTH_SIZE) {
+                int length = mBuffer.getInt(mBuffer.position());
+                if (length < PacketCodec.HEADER_SIZE || length > PacketCodec.MAX_FRAME_SIZE) {
+                    throw new IOException("Corrupted packet length: " + length);
+                }
+                int frameSize = PacketCodec.LENGTH_SIZE + length;
+                if (mBuffer.remaining() < frameSize) {
+                    if (frameSize > mBuffer.capacity()) {
+                        grow(frameSize);
+                    }
+                    break;
+                }
+                Frame frame = Frame.copy(pool, mBuffer, frameSize, loops);
+                try {
+                    stream.publish(this, frame);
+                } finally {
+                    frame.release();
+                }
+            }
+            mBuffer.compact();
+        } catch (IOException e) {
+            LOG.warning(e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    void onClosed() {
+        stream.publisherClosed(this);
+    }
+
+    // buffer in read mode, left holding the same bytes in read mode
+    private void grow(int frameSize) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(frameSize - 1) << 1);
+        buffer.put(mBuffer);
+        buffer.flip();
+        mBuffer = buffer;
+    }
+}
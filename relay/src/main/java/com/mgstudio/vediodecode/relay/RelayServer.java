@@ -0,0 +1,227 @@
+package com.mgstudio.vediodecode.relay;
+//中继服务器
+
+import com.mgstudio.vediodecode.model.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Headless relay: a phone's Sender connects to the ingest port as it would to a Player, Players connect
+// to the viewer port and all get that one stream. One event loop per core serves the connections,
+// assigned round robin; the accepting thread only hands them over.
+//
+//     java -cp relay.jar com.mgstudio.vediodecode.relay.RelayServer [ingestPort] [viewerPort] [loops]
+public class RelayServer {
+
+    private static final Logger LOG = Logger.getLogger(RelayServer.class.getSimpleName());
+
+    public static final int DEFAULT_INGEST_PORT = 5006;
+
+    public static final int DEFAULT_VIEWER_PORT = 5007;
+
+    private final int ingestPort;
+
+    private final int viewerPort;
+
+    private final EventLoop[] loops;
+
+    private final RelayStream stream;
+
+    // frame storage, sized for key frames; frames go back from whichever loop wrote them last
+    private final BufferPool pool = new BufferPool(1024 * 1024, 64);
+
+    private ServerSocketChannel mIngest;
+
+    private ServerSocketChannel mViewers;
+
+    private Selector mSelector;
+
+    private Thread mAcceptor;
+
+    private volatile boolean mIsRunning;
+
+    private int mNextLoop;
+
+    // port 0 picks a free port, see getIngestPort and getViewerPort
+    public RelayServer(int ingestPort, int viewerPort, int loops) throws IOException {
+        this.ingestPort = ingestPort;
+        this.viewerPort = viewerPort;
+        this.loops = new EventLoop[loops];
+        for (int i = 0; i < loops; i++) {
+            this.loops[i] = new EventLoop(i);
+        }
+        this.stream = new RelayStream(this.loops);
+    }
+
+    public RelayServer(int ingestPort, int viewerPort) throws IOException {
+        this(ingestPort, viewerPort, Runtime.getRuntime().availableProcessors());
+    }
+
+    public synchronized void start() throws IOException {
+        mSelector = Selector.open();
+        mIngest = bind(ingestPort);
+        mViewers = bind(viewerPort);
+        mIngest.register(mSelector, SelectionKey.OP_ACCEPT);
+        mViewers.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        mIsRunning = true;
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        mAcceptor = new Thread("RelayAcceptor") {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        mAcceptor.start();
+        LOG.info("ingest on " + getIngestPort() + ", viewers on " + getViewerPort() + ", " + loops.length
+                + " loops");
+    }
+
+    public synchronized void stop() {
+        if (!mIsRunning) {
+            return;
+        }
+        mIsRunning = false;
+        mSelector.wakeup();
+        try {
+            mAcceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (EventLoop loop : loops) {
+            loop.shutDown();
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stream.clear();
+    }
+
+    public int getIngestPort() {
+        return mIngest.socket().getLocalPort();
+    }
+
+    public int getViewerPort() {
+        return mViewers.socket().getLocalPort();
+    }
+
+    public int getViewers() {
+        return stream.getViewers();
+    }
+
+    public long getFramesIn() {
+        return stream.getFramesIn();
+    }
+
+    // frames dropped for the viewers connected now, they skipped to a key frame after each drop
+    public long getDroppedFrames() {
+        return stream.getDropped();
+    }
+
+    // frames of the current GOP a joining viewer would get
+    public int getCachedFrames() {
+        return stream.getCachedFrames();
+    }
+
+    public long getBytesSent() {
+        long bytes = 0;
+        for (EventLoop loop : loops) {
+            bytes += loop.getBytesWritten();
+        }
+        return bytes;
+    }
+
+    private static ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().setReuseAddress(true);
+        channel.bind(new InetSocketAddress(port), 1024);
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    private void accept() {
+        try {
+            while (mIsRunning) {
+                mSelector.select();
+                Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    ServerSocketChannel server = (ServerSocketChannel) key.channel();
+                    SocketChannel channel;
+                    while ((channel = server.accept()) != null) {
+                        hand(channel, server == mIngest);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "accept", e);
+        } finally {
+            close(mIngest);
+            close(mViewers);
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                LOG.warning(e.getMessage());
+            }
+        }
+    }
+
+    // acceptor thread: the connection is opened on its loop
+    private void hand(SocketChannel channel, boolean isPublisher) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        EventLoop loop = loops[mNextLoop];
+        mNextLoop = (mNextLoop + 1) % loops.length;
+
+        final Connection connection = isPublisher
+                ? new Publisher(loop, channel, stream, pool, loops.length)
+                : new Viewer(loop, channel, stream);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.open();
+                } catch (IOException e) {
+                    LOG.warning(e.getMessage());
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    private static void close(ServerSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warning(e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int ingestPort = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_INGEST_PORT;
+        int viewerPort = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_VIEWER_PORT;
+        int loops = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final RelayServer server = new RelayServer(ingestPort, viewerPort, loops);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+    }
+}
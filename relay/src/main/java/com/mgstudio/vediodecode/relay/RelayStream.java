@@ -0,0 +1,175 @@
+package com.mgstudio.vediodecode.relay;
+//中继流
+
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the stream being relayed: the current publisher, its viewers and a cache of the current GOP - the
+// latest CONFIG, the latest KEY_FRAME and every frame since - so a viewer that joins mid-GOP gets a
+// decodable start right away instead of waiting up to a GOP for the next IDR.
+//
+// Publishing and joining take the stream lock, which also makes it the one producer of every viewer's
+// queue. Viewers are written out by their own loops, the publisher only wakes each loop once per frame.
+final class RelayStream {
+
+    // a GOP longer than this is not cached, viewers joining during it wait for the next key frame
+    static final int MAX_GOP_FRAMES = 300;
+
+    static final int MAX_GOP_BYTES = 16 * 1024 * 1024;
+
+    private final EventLoop[] loops;
+
+    // loops with viewers that got the frame being published
+    private final boolean[] mTouched;
+
+    private Publisher mPublisher;
+
+    private Frame mConfig;
+
+    private final List<Frame> mGop = new ArrayList<>(MAX_GOP_FRAMES);
+
+    private int mGopBytes;
+
+    private final List<Viewer> mViewers = new ArrayList<>();
+
+    private long mFramesIn;
+
+    RelayStream(EventLoop[] loops) {
+        this.loops = loops;
+        this.mTouched = new boolean[loops.length];
+    }
+
+    // a new publisher replaces the current one, the stream starts over with its CONFIG
+    synchronized Publisher publisherConnected(Publisher publisher) {
+        Publisher previous = mPublisher;
+        mPublisher = publisher;
+        clearCache();
+        return previous;
+    }
+
+    synchronized void publisherClosed(Publisher publisher) {
+        if (mPublisher == publisher) {
+            mPublisher = null;
+            clearCache();
+        }
+    }
+
+    // publisher's loop thread; the frame stays held by the caller
+    synchronized void publish(Publisher publisher, Frame frame) {
+        if (publisher != mPublisher) {
+            return;
+        }
+        mFramesIn++;
+        cache(frame);
+
+        for (int i = 0, size = mViewers.size(); i < size; i++) {
+            Viewer viewer = mViewers.get(i);
+            if (viewer.offer(frame)) {
+                mTouched[viewer.loop.index] = true;
+            }
+        }
+        for (int i = 0; i < loops.length; i++) {
+            if (mTouched[i]) {
+                mTouched[i] = false;
+                loops[i].flush();
+            }
+        }
+    }
+
+    // viewer's loop thread: queues the cached GOP, the viewer gets every frame published after it
+    synchronized void join(Viewer viewer) {
+        mViewers.add(viewer);
+        if (mGop.isEmpty()) {
+            // no key frame cached: skip to the next one
+            viewer.skipToKeyFrame();
+            return;
+        }
+        if (mConfig != null) {
+            viewer.offer(mConfig);
+        }
+        for (int i = 0, size = mGop.size(); i < size; i++) {
+            viewer.offer(mGop.get(i));
+        }
+        viewer.loop.flush();
+    }
+
+    // no frame is offered to the viewer once this returns
+    synchronized void leave(Viewer viewer) {
+        mViewers.remove(viewer);
+    }
+
+    synchronized int getViewers() {
+        return mViewers.size();
+    }
+
+    // frames the viewers connected now had to drop
+    synchronized long getDropped() {
+        long dropped = 0;
+        for (int i = 0, size = mViewers.size(); i < size; i++) {
+            dropped += mViewers.get(i).getDropped();
+        }
+        return dropped;
+    }
+
+    synchronized long getFramesIn() {
+        return mFramesIn;
+    }
+
+    synchronized int getCachedFrames() {
+        return mGop.size();
+    }
+
+    synchronized void clear() {
+        clearCache();
+    }
+
+    private void cache(Frame frame) {
+        if (frame.flag == VideoPacket.Flag.CONFIG) {
+            if (mConfig != null) {
+                mConfig.release();
+            }
+            frame.retain();
+            mConfig = frame;
+        } else if (frame.flag == VideoPacket.Flag.KEY_FRAME) {
+            clearGop();
+            add(frame);
+        } else if (frame.flag == VideoPacket.Flag.FRAME) {
+            if (mGop.isEmpty()) {
+                return;
+            }
+            if (mGop.size() < MAX_GOP_FRAMES && mGopBytes + frame.length <= MAX_GOP_BYTES) {
+                add(frame);
+            } else {
+                // a partial GOP is of no use to a new viewer
+                clearGop();
+            }
+        } else {
+            // END: nothing to join any more
+            clearCache();
+        }
+    }
+
+    private void add(Frame frame) {
+        frame.retain();
+        mGop.add(frame);
+        mGopBytes += frame.length;
+    }
+
+    private void clearGop() {
+        for (int i = 0, size = mGop.size(); i < size; i++) {
+            mGop.get(i).release();
+        }
+        mGop.clear();
+        mGopBytes = 0;
+    }
+
+    private void clearCache() {
+        clearGop();
+        if (mConfig != null) {
+            mConfig.release();
+            mConfig = null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.mgstudio.vediodecode.relay;
+//观看端连接
+
+import com.mgstudio.vediodecode.model.VideoPacket;
+import com.mgstudio.vediodecode.util.SpscRing;
+import com.mgstudio.vediodecode.util.WaitStrategy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// a Player connection. Frames are queued by the stream (under its lock, the ring's one producer) and
+// written by the viewer's loop, several frames per gathering write.
+//
+// Slow-consumer policy: when the queue is full the frame is dropped and so are the frames after it
+// until the next KEY_FRAME, the viewer resumes at a point it can decode from. Nothing waits on a
+// viewer, a stalled one costs its own queue and nothing else.
+final class Viewer extends Connection {
+
+    // more than a cached GOP, so a join always fits
+    static final int QUEUE_CAPACITY = 512;
+
+    // frames per gathering write
+    private static final int BATCH = 16;
+
+    private final RelayStream stream;
+
+    // consumer polls from its loop and never waits
+    private final SpscRing<Frame> mQueue = new SpscRing<>(QUEUE_CAPACITY, WaitStrategy.busySpin());
+
+    // producer side, under the stream lock
+    private boolean mSkipping;
+
+    private volatile long mDropped;
+
+    // loop side: frames taken off the queue and not completely written, bytes of the first one written
+    private final Frame[] mPending = new Frame[BATCH];
+
+    private int mPendingCount;
+
+    private int mWritten;
+
+    private final ByteBuffer[] mViews = new ByteBuffer[BATCH];
+
+    private boolean mWriteInterest;
+
+    private volatile long mBytesSent;
+
+    Viewer(EventLoop loop, SocketChannel channel, RelayStream stream) {
+        super(loop, channel);
+        this.stream = stream;
+    }
+
+    // loop thread: start receiving the stream
+    @Override
+    void open() throws IOException {
+        register();
+        loop.add(this);
+        stream.join(this);
+    }
+
+    // stream lock held: true if the frame was queued
+    boolean offer(Frame frame) {
+        if (mSkipping && frame.flag == VideoPacket.Flag.FRAME) {
+            mDropped++;
+            return false;
+        }
+        frame.retain();
+        if (!mQueue.offer(frame)) {
+            frame.release();
+            mDropped++;
+            mSkipping = true;
+            return false;
+        }
+        if (frame.flag == VideoPacket.Flag.KEY_FRAME) {
+            mSkipping = false;
+        }
+        return true;
+    }
+
+    // stream lock held
+    void skipToKeyFrame() {
+        mSkipping = true;
+    }
+
+    long getDropped() {
+        return mDropped;
+    }
+
+    long getBytesSent() {
+        return mBytesSent;
+    }
+
+    // loop thread: write until the queue is empty or the socket is full
+    void write() {
+        if (isClosed()) {
+            return;
+        }
+        try {
+            for (; ; ) {
+                while (mPendingCount < BATCH) {
+                    Frame frame = mQueue.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                    mPending[mPendingCount++] = frame;
+                }
+                if (mPendingCount == 0) {
+                    setWriteInterest(false);
+                    return;
+                }
+
+                for (int i = 0; i < mPendingCount; i++) {
+                    mViews[i] = mPending[i].view(loop.index, i == 0 ? mWritten : 0);
+                }
+                long written = channel.write(mViews, 0, mPendingCount);
+                mBytesSent += written;
+                loop.wrote(written);
+
+                int done = 0;
+                while (done < mPendingCount && !mViews[done].hasRemaining()) {
+                    mPending[done].release();
+                    done++;
+                }
+                mWritten = done < mPendingCount ? mViews[done].position() : 0;
+                System.arraycopy(mPending, done, mPending, 0, mPendingCount - done);
+                for (int i = mPendingCount - done; i < mPendingCount; i++) {
+                    mPending[i] = null;
+                }
+                mPendingCount -= done;
+
+                if (mPendingCount > 0) {
+                    // socket buffer full, go on when it drains
+                    setWriteInterest(true);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    void onReadable() {
+        // players don't talk back, reading only notices the disconnect
+        ByteBuffer scratch = loop.scratch();
+        try {
+            scratch.clear();
+            if (channel.read(scratch) < 0) {
+                close();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    void onWritable() {
+        write();
+    }
+
+    @Override
+    void onClosed() {
+        stream.leave(this);
+        loop.remove(this);
+        for (int i = 0; i < mPendingCount; i++) {
+            mPending[i].release();
+            mPending[i] = null;
+        }
+        mPendingCount = 0;
+        Frame frame;
+        while ((frame = mQueue.poll()) != null) {
+            frame.release();
+        }
+    }
+
+    private void setWriteInterest(boolean writeInterest) {
+        if (mWriteInterest != writeInterest) {
+            mWriteInterest = writeInterest;
+            key.interestOps(writeInterest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+}
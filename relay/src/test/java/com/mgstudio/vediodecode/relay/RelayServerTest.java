@@ -0,0 +1,241 @@
+package com.mgstudio.vediodecode.relay;
+
+import com.mgstudio.vediodecode.model.MediaPacket;
+import com.mgstudio.vediodecode.model.PacketCodec;
+import com.mgstudio.vediodecode.model.VideoPacket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the relay on loopback with blocking clients: joins at the cached GOP, every frame to every
+ * viewer, and a stalled viewer that resumes at a key frame without holding up the others.
+ */
+public class RelayServerTest {
+
+    private RelayServer server;
+
+    private static class Packet {
+        VideoPacket.Flag flag;
+        long presentationTimeStamp;
+        byte[] data;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RelayServer(0, 0, 2);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static byte[] payload(long presentationTimeStamp, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) presentationTimeStamp);
+        data[0] = (byte) (presentationTimeStamp >> 8);
+        return data;
+    }
+
+    private static void write(OutputStream outputStream, VideoPacket.Flag flag, long presentationTimeStamp,
+                              int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.PREFIX_SIZE + size);
+        PacketCodec.writePrefix(MediaPacket.Type.VIDEO, flag, presentationTimeStamp, size, buffer);
+        buffer.put(payload(presentationTimeStamp, size));
+        outputStream.write(buffer.array());
+    }
+
+    private static Packet read(DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        Packet packet = new Packet();
+        inputStream.readByte();
+        packet.flag = VideoPacket.Flag.getFlag(inputStream.readByte());
+        packet.presentationTimeStamp = inputStream.readLong();
+        packet.data = new byte[length - PacketCodec.HEADER_SIZE];
+        inputStream.readFully(packet.data);
+        return packet;
+    }
+
+    private void awaitViewers(int viewers) throws InterruptedException {
+        for (int attempt = 0; server.getViewers() < viewers; attempt++) {
+            assertTrue("viewers didn't join", attempt < 400);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void lateViewer_startsAtCachedKeyFrame() throws Exception {
+        try (Socket publisher = connect(server.getIngestPort())) {
+            OutputStream outputStream = publisher.getOutputStream();
+            write(outputStream, VideoPacket.Flag.FRAME, 0, 100);
+            write(outputStream, VideoPacket.Flag.CONFIG, 1, 20);
+            write(outputStream, VideoPacket.Flag.KEY_FRAME, 1, 5000);
+            for (int i = 2; i < 10; i++) {
+                write(outputStream, VideoPacket.Flag.FRAME, i, 1000 + i);
+            }
+            for (int attempt = 0; server.getCachedFrames() < 9; attempt++) {
+                assertTrue("GOP not cached", attempt < 400);
+                Thread.sleep(5);
+            }
+
+            try (Socket viewer = connect(server.getViewerPort())) {
+                awaitViewers(1);
+                write(outputStream, VideoPacket.Flag.FRAME, 10, 1010);
+
+                DataInputStream inputStream = new DataInputStream(viewer.getInputStream());
+                Packet config = read(inputStream);
+                assertEquals(VideoPacket.Flag.CONFIG, config.flag);
+                Packet keyFrame = read(inputStream);
+                assertEquals(VideoPacket.Flag.KEY_FRAME, keyFrame.flag);
+                assertArrayEquals(payload(1, 5000), keyFrame.data);
+                for (int i = 2; i <= 10; i++) {
+                    Packet frame = read(inputStream);
+                    assertEquals(VideoPacket.Flag.FRAME, frame.flag);
+                    assertEquals(i, frame.presentationTimeStamp);
+                    assertArrayEquals(payload(i, 1000 + i), frame.data);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyViewer_getsEveryFrame() throws Exception {
+        LoadGenerator.Result result = LoadGenerator.run("127.0.0.1", server.getIngestPort(),
+                server.getViewerPort(), 20, 2);
+        // the numbers themselves are what ./gradlew :relay:loadTest reports
+        assertEquals(result.framesExpected, result.framesSent);
+        assertEquals(result.framesExpected, result.framesReceivedMin);
+        assertEquals(result.framesExpected * result.viewers, result.framesReceivedTotal);
+        // nearly every frame reaches every viewer before the next one is published
+        assertTrue(result.toString(), result.p99Ms < 1000.0 / LoadGenerator.FPS);
+    }
+
+    @Test
+    public void stalledViewer_resumesAtKeyFrame() throws Exception {
+        final int frames = 1500;
+        final int gop = 30;
+        final int size = 32 * 1024;
+
+        Socket stalled = new Socket();
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getViewerPort()));
+        Socket healthy = connect(server.getViewerPort());
+        // and a closing key frame
+        StreamReader healthyReader = new StreamReader(healthy, size, frames + 1);
+        StreamReader stalledReader = new StreamReader(stalled, size, frames + 1);
+        healthyReader.start();
+        awaitViewers(2);
+
+        try (Socket publisher = connect(server.getIngestPort())) {
+            OutputStream outputStream = publisher.getOutputStream();
+            for (int i = 0; i < frames; i++) {
+                // far more than the stalled viewer's queue and socket buffers, paced on the healthy one
+                while (i - healthyReader.last > 64) {
+                    Thread.sleep(1);
+                }
+                if (i == frames / 2) {
+                    // dropped frames by now, starts reading again
+                    assertTrue(server.getDroppedFrames() > 0);
+                    stalledReader.start();
+                }
+                if (i % gop == 0) {
+                    write(outputStream, VideoPacket.Flag.CONFIG, i, 20);
+                    write(outputStream, VideoPacket.Flag.KEY_FRAME, i, size);
+                } else {
+                    write(outputStream, VideoPacket.Flag.FRAME, i, size);
+                }
+            }
+            // a viewer skipping after a drop in the last GOP waits for a key frame: send one once the
+            // queues have drained, so it can't be dropped
+            long bytesSent = -1;
+            for (int attempt = 0; bytesSent != server.getBytesSent(); attempt++) {
+                assertTrue("viewers never drained", attempt < 150);
+                bytesSent = server.getBytesSent();
+                Thread.sleep(200);
+            }
+            write(outputStream, VideoPacket.Flag.CONFIG, frames, 20);
+            write(outputStream, VideoPacket.Flag.KEY_FRAME, frames, size);
+            healthyReader.join(30000);
+            stalledReader.join(30000);
+
+            assertNull(healthyReader.error, healthyReader.error);
+            assertEquals(frames, healthyReader.last);
+            assertEquals(0, healthyReader.gaps);
+
+            // every gap ends at a key frame, and it caught up with the stream
+            assertNull(stalledReader.error, stalledReader.error);
+            assertEquals(frames, stalledReader.last);
+            assertTrue(stalledReader.gaps > 0);
+        } finally {
+            stalled.close();
+            healthy.close();
+        }
+    }
+
+    // reads up to the last frame, checking that frames come in order and each gap ends at a key frame
+    private static class StreamReader extends Thread {
+
+        private final Socket socket;
+        private final int size;
+        private final int frames;
+        private volatile long last = -1;
+        private volatile int gaps;
+        private volatile String error;
+
+        StreamReader(Socket socket, int size, int frames) {
+            this.socket = socket;
+            this.size = size;
+            this.frames = frames;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setSoTimeout(10000);
+                DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                while (last < frames - 1) {
+                    Packet packet = read(inputStream);
+                    if (packet.flag == VideoPacket.Flag.CONFIG) {
+                        continue;
+                    }
+                    if (packet.presentationTimeStamp != last + 1) {
+                        gaps++;
+                        if (packet.flag != VideoPacket.Flag.KEY_FRAME
+                                || packet.presentationTimeStamp <= last) {
+                            error = "resumed at " + packet.presentationTimeStamp + " after " + last;
+                            return;
+                        }
+                    }
+                    if (!Arrays.equals(payload(packet.presentationTimeStamp, size), packet.data)) {
+                        error = "frame " + packet.presentationTimeStamp + " corrupted";
+                        return;
+                    }
+                    last = packet.presentationTimeStamp;
+                }
+            } catch (IOException e) {
+                error = e.toString();
+            }
+        }
+    }
+}